@@ -0,0 +1,166 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Compares the ways of getting weather rows into the database: the db.insert loop bulkInsert
+    used to run, bulkInsert's compiled statement, and a WeatherColumnBatch handed over through
+    ContentProvider.call.  Rows per second for each are written to the log.
+ */
+public class TestBulkInsertBenchmark extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestBulkInsertBenchmark.class.getSimpleName();
+
+    private long mLocationRowId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mLocationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteWeather();
+        super.tearDown();
+    }
+
+    private void deleteWeather() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+    }
+
+    private int countWeather() {
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                null, null, null, null);
+        assertNotNull(cursor);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    private WeatherColumnBatch createColumnBatch(int count) {
+        WeatherColumnBatch batch = new WeatherColumnBatch(count);
+        for (int i = 0; i < count; i++) {
+            batch.add(mLocationRowId,
+                    TestUtilities.TEST_DATE + i * TestUtilities.MILLISECONDS_IN_A_DAY,
+                    321, "Asteroids", 65, 75, 1.2, 1.3, 5.5, 1.1);
+        }
+        return batch;
+    }
+
+    // What bulkInsert did before it compiled its statement
+    private int legacyInsert(ContentValues[] values) {
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+        int returnCount = 0;
+        db.beginTransaction();
+        try {
+            for (ContentValues value : values) {
+                long dateValue = value.getAsLong(WeatherEntry.COLUMN_DATE);
+                value.put(WeatherEntry.COLUMN_DATE, WeatherContract.normalizeDate(dateValue));
+                if (db.insert(WeatherEntry.TABLE_NAME, null, value) != -1) {
+                    returnCount++;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        db.close();
+        return returnCount;
+    }
+
+    public void testColumnBatchInsert() {
+        WeatherColumnBatch batch = createColumnBatch(5);
+        ContentValues[] values = batch.toContentValues();
+        assertEquals(5, batch.insert(mContext.getContentResolver()));
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                null, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        assertNotNull(cursor);
+        assertEquals(5, cursor.getCount());
+        cursor.moveToFirst();
+        for (int i = 0; i < values.length; i++, cursor.moveToNext()) {
+            long date = values[i].getAsLong(WeatherEntry.COLUMN_DATE);
+            values[i].put(WeatherEntry.COLUMN_DATE, WeatherContract.normalizeDate(date));
+            TestUtilities.validateCurrentRecord("Error: Column batch row " + i + " differs",
+                    cursor, values[i]);
+        }
+        cursor.close();
+    }
+
+    public void testBulkInsertFallsBackForUnknownColumns() {
+        ContentValues[] values = TestUtilities.createWeatherValues(mLocationRowId, 3);
+        values[1].put("no_such_column", 1);
+        // db.insert rejects the row with the unknown column, the rest still go in
+        int inserted = mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values);
+        assertEquals(2, inserted);
+        assertEquals(2, countWeather());
+    }
+
+    public void testColumnBatchSkipsDayWithoutDescription() {
+        WeatherColumnBatch batch = createColumnBatch(3);
+        batch.mShortDescs[1] = null;
+        // The NOT NULL constraint rejects that day, the rest still go in
+        assertEquals(2, batch.insert(mContext.getContentResolver()));
+        assertEquals(2, countWeather());
+    }
+
+    public void testColumnBatchCallRejectsBadExtras() {
+        try {
+            mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                    WeatherEntry.METHOD_BULK_INSERT_COLUMNS, null, null);
+            fail("Error: A column batch was inserted without extras");
+        } catch (IllegalArgumentException expected) {
+        }
+        Bundle extras = createColumnBatch(1).toBundle();
+        extras.putInt(WeatherColumnBatch.KEY_SIZE, -1);
+        try {
+            mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                    WeatherEntry.METHOD_BULK_INSERT_COLUMNS, null, extras);
+            fail("Error: A column batch of negative size was inserted");
+        } catch (IllegalArgumentException expected) {
+        }
+        assertEquals(0, countWeather());
+    }
+
+    public void testBulkInsertBenchmark() {
+        int[] rowCounts = {14, 1000, 100000};
+        for (int count : rowCounts) {
+            ContentValues[] legacyValues = TestUtilities.createWeatherValues(mLocationRowId, count);
+            long start = System.nanoTime();
+            assertEquals(count, legacyInsert(legacyValues));
+            long legacyNanos = System.nanoTime() - start;
+            deleteWeather();
+
+            ContentValues[] values = TestUtilities.createWeatherValues(mLocationRowId, count);
+            start = System.nanoTime();
+            assertEquals(count,
+                    mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values));
+            long compiledNanos = System.nanoTime() - start;
+            deleteWeather();
+
+            WeatherColumnBatch batch = createColumnBatch(count);
+            start = System.nanoTime();
+            assertEquals(count, batch.insert(mContext.getContentResolver()));
+            long batchNanos = System.nanoTime() - start;
+            assertEquals(count, countWeather());
+            deleteWeather();
+
+            Log.i(LOG_TAG, count + " rows: db.insert loop " + rowsPerSecond(count, legacyNanos)
+                    + " rows/s, compiled statement " + rowsPerSecond(count, compiledNanos)
+                    + " rows/s, column batch " + rowsPerSecond(count, batchNanos) + " rows/s");
+        }
+    }
+
+    private static long rowsPerSecond(int rows, long nanos) {
+        return nanos == 0 ? 0 : rows * 1000000000L / nanos;
+    }
+}
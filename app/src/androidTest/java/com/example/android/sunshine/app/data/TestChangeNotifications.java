@@ -0,0 +1,167 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    Counts how many content observers a sync wakes up.  Every tracked location has an observer
+    standing in for the forecast list (weather/<location>) and one for the detail pane
+    (weather/<location>/<date>).  A sync is run for 1 and then for 50 locations, and the
+    wake-ups are compared with what the table-wide notifications used to cause.
+ */
+public class TestChangeNotifications extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestChangeNotifications.class.getSimpleName();
+
+    private static final int DAYS_PER_SYNC = 14;
+    // Long enough for notifications still on their way to arrive
+    private static final long SETTLE_MILLIS = 500;
+
+    private final List<CountingObserver> mObservers = new ArrayList<CountingObserver>();
+
+    private static class CountingObserver extends ContentObserver {
+        final AtomicInteger mChanges = new AtomicInteger();
+
+        CountingObserver() {
+            // No handler, onChange runs straight on the binder thread
+            super(null);
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            mChanges.incrementAndGet();
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAll();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (CountingObserver observer : mObservers) {
+            mContext.getContentResolver().unregisterContentObserver(observer);
+        }
+        mObservers.clear();
+        deleteAll();
+        super.tearDown();
+    }
+
+    private void deleteAll() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private static long getDate(int day) {
+        return WeatherContract.normalizeDate(
+                TestUtilities.TEST_DATE + day * TestUtilities.MILLISECONDS_IN_A_DAY);
+    }
+
+    private CountingObserver observe(Uri uri) {
+        CountingObserver observer = new CountingObserver();
+        // Cursors register for descendants too, see Cursor.setNotificationUri
+        mContext.getContentResolver().registerContentObserver(uri, true, observer);
+        mObservers.add(observer);
+        return observer;
+    }
+
+    private int countChanges() throws InterruptedException {
+        Thread.sleep(SETTLE_MILLIS);
+        int changes = 0;
+        for (CountingObserver observer : mObservers) {
+            changes += observer.mChanges.getAndSet(0);
+        }
+        return changes;
+    }
+
+    /**
+     * Stores yesterday's weather for each location, like the previous sync would have.
+     *
+     * @return the location row ids.
+     */
+    private long[] insertLocations(int count) {
+        long[] locationRowIds = new long[count];
+        WeatherColumnBatch yesterday = new WeatherColumnBatch(count);
+        for (int i = 0; i < count; i++) {
+            ContentValues values = TestUtilities.createLocationValues("location-" + i);
+            locationRowIds[i] = ContentUris.parseId(
+                    mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, values));
+            yesterday.add(locationRowIds[i], getDate(-1), 800, "Clear", 10, 20, 50, 1000, 2, 90);
+        }
+        yesterday.insert(mContext.getContentResolver());
+        return locationRowIds;
+    }
+
+    // What storeWeatherData does: one insert for every location, then drop the old days
+    private void sync(long[] locationRowIds) {
+        WeatherColumnBatch batch = new WeatherColumnBatch(locationRowIds.length * DAYS_PER_SYNC);
+        for (long locationRowId : locationRowIds) {
+            for (int day = 0; day < DAYS_PER_SYNC; day++) {
+                batch.add(locationRowId, getDate(day), 500, "Rain", 5, 10, 80, 990, 4, 180);
+            }
+        }
+        ContentResolver resolver = mContext.getContentResolver();
+        batch.insert(resolver);
+        resolver.delete(WeatherEntry.CONTENT_URI, WeatherEntry.COLUMN_DATE + " <= ?",
+                new String[]{Long.toString(getDate(-1))});
+    }
+
+    private void checkSync(int locationCount) throws InterruptedException {
+        long[] locationRowIds = insertLocations(locationCount);
+        List<CountingObserver> listObservers = new ArrayList<CountingObserver>();
+        List<CountingObserver> detailObservers = new ArrayList<CountingObserver>();
+        for (int i = 0; i < locationCount; i++) {
+            listObservers.add(observe(WeatherEntry.buildWeatherLocation("location-" + i)));
+            detailObservers.add(observe(WeatherEntry.buildWeatherLocationWithDate(
+                    "location-" + i, getDate(0))));
+        }
+        // Untouched locations, whose observers should sleep through the sync
+        for (int i = locationCount; i < locationCount + 5; i++) {
+            observe(WeatherEntry.buildWeatherLocation("location-" + i));
+        }
+        countChanges();
+
+        sync(locationRowIds);
+        Thread.sleep(SETTLE_MILLIS);
+        for (int i = 0; i < locationCount; i++) {
+            // Once for the new days, once for yesterday going away
+            assertEquals("Error: The list of location " + i + " was not notified once per write",
+                    2, listObservers.get(i).mChanges.get());
+            assertEquals("Error: The detail of location " + i + " was not notified once",
+                    1, detailObservers.get(i).mChanges.get());
+        }
+        int scopedChanges = countChanges();
+        assertEquals(locationCount * 3, scopedChanges);
+
+        // What bulkInsert and delete notified before: the whole table, once each
+        mContext.getContentResolver().notifyChange(WeatherEntry.CONTENT_URI, null);
+        mContext.getContentResolver().notifyChange(WeatherEntry.CONTENT_URI, null);
+        int tableWideChanges = countChanges();
+
+        Log.i(LOG_TAG, locationCount + " locations: " + scopedChanges
+                + " observer wake-ups per sync, " + tableWideChanges
+                + " with table-wide notifications");
+    }
+
+    public void testSyncOneLocation() throws InterruptedException {
+        checkSync(1);
+    }
+
+    public void testSyncFiftyLocations() throws InterruptedException {
+        checkSync(50);
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/*
+    Runs provider queries from several threads while another thread keeps writing forecasts,
+    the way the UI and widgets read while the sync adapter writes, and logs p50/p99 query
+    latency with and without write-ahead logging.
+ */
+public class TestConcurrentReads extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestConcurrentReads.class.getSimpleName();
+
+    private static final int READER_COUNT = 4;
+    private static final int DAYS_PER_SYNC = 14;
+    private static final long RUN_MILLIS = 3000;
+
+    private WeatherProvider mProvider;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mProvider = new WeatherProvider();
+        mProvider.attachInfo(mContext, null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mProvider.shutdown();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    private void useConfig(boolean writeAheadLogging) {
+        // Closes the previous database before it is deleted, the new one opens on first use
+        mProvider.setOpenHelper(new WeatherDbHelper(mContext,
+                new WeatherDbHelper.Config(writeAheadLogging, "NORMAL", 2048, 8388608)));
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+    }
+
+    private ContentValues[] createSyncValues(long locationRowId, int sync) {
+        ContentValues[] values = TestUtilities.createWeatherValues(locationRowId, DAYS_PER_SYNC);
+        for (ContentValues weatherValues : values) {
+            // Vary the rows so every sync really changes them
+            weatherValues.put(WeatherEntry.COLUMN_WEATHER_ID, 200 + sync % 600);
+        }
+        return values;
+    }
+
+    /**
+     * @return the latency of every query made while the writer ran, in microseconds, sorted.
+     */
+    private List<Long> runReadersAgainstWriter() throws InterruptedException {
+        final long locationRowId = ContentUris.parseId(mProvider.insert(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues()));
+        mProvider.bulkInsert(WeatherEntry.CONTENT_URI, createSyncValues(locationRowId, 0));
+
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final CountDownLatch finished = new CountDownLatch(READER_COUNT + 1);
+        final List<Long> latencies = Collections.synchronizedList(new ArrayList<Long>());
+        final Uri readUri = WeatherEntry.buildWeatherLocationWithStartDate(
+                TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE);
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int sync = 1; running.get(); sync++) {
+                        mProvider.bulkInsert(WeatherEntry.CONTENT_URI,
+                                createSyncValues(locationRowId, sync));
+                    }
+                } finally {
+                    finished.countDown();
+                }
+            }
+        }).start();
+
+        for (int i = 0; i < READER_COUNT; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        List<Long> readerLatencies = new ArrayList<Long>();
+                        while (running.get()) {
+                            long start = System.nanoTime();
+                            Cursor cursor = mProvider.query(readUri, null, null, null,
+                                    WeatherEntry.COLUMN_DATE + " ASC");
+                            // getCount fills the window, which is where the query really runs
+                            cursor.getCount();
+                            cursor.close();
+                            readerLatencies.add((System.nanoTime() - start) / 1000);
+                        }
+                        latencies.addAll(readerLatencies);
+                    } finally {
+                        finished.countDown();
+                    }
+                }
+            }).start();
+        }
+
+        Thread.sleep(RUN_MILLIS);
+        running.set(false);
+        finished.await();
+
+        List<Long> sorted = new ArrayList<Long>(latencies);
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    private static long percentile(List<Long> sorted, int percent) {
+        if (sorted.isEmpty()) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percent / 100.0 * sorted.size()) - 1;
+        return sorted.get(Math.max(0, index));
+    }
+
+    public void testReadLatencyUnderWrites() throws InterruptedException {
+        boolean[] modes = {false, true};
+        for (boolean writeAheadLogging : modes) {
+            useConfig(writeAheadLogging);
+            List<Long> latencies = runReadersAgainstWriter();
+            assertFalse("Error: No reads completed while writing", latencies.isEmpty());
+
+            Log.i(LOG_TAG, (writeAheadLogging ? "WAL" : "rollback journal") + ": "
+                    + latencies.size() + " queries, p50 " + percentile(latencies, 50)
+                    + " us, p99 " + percentile(latencies, 99) + " us");
+        }
+    }
+}
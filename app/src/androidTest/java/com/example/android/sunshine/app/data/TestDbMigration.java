@@ -0,0 +1,216 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Seeds a version 2 database, the schema the app first shipped with, with 100,000 weather
+    rows, then opens it with WeatherDbHelper.  Checks that every row survives the upgrade,
+    that the upgrade stays within a time bound, and that the fingerprint backfill finishes
+    after being interrupted part way.  Upgrade and backfill times are logged.
+ */
+public class TestDbMigration extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestDbMigration.class.getSimpleName();
+
+    private static final int LOCATIONS = 100;
+    private static final int DAYS_PER_LOCATION = 1000;
+    private static final int ROWS = LOCATIONS * DAYS_PER_LOCATION;
+    // The upgrade itself only changes the schema, the rows are left to the backfill
+    private static final long MAX_UPGRADE_MILLIS = 10000;
+
+    /**
+     * Creates the database as version 2 of WeatherDbHelper did.
+     */
+    private static class Version2DbHelper extends SQLiteOpenHelper {
+        Version2DbHelper(Context context) {
+            super(context, WeatherDbHelper.DATABASE_NAME, null, 2);
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE " + LocationEntry.TABLE_NAME + " (" +
+                    LocationEntry._ID + " INTEGER PRIMARY KEY," +
+                    LocationEntry.COLUMN_LOCATION_SETTING + " TEXT UNIQUE NOT NULL, " +
+                    LocationEntry.COLUMN_CITY_NAME + " TEXT NOT NULL, " +
+                    LocationEntry.COLUMN_COORD_LAT + " REAL NOT NULL, " +
+                    LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL " +
+                    " );");
+            db.execSQL("CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
+                    WeatherEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                    WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                    WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+                    WeatherEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
+                    WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
+                    WeatherEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+                    WeatherEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+                    WeatherEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+                    WeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+                    WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+                    WeatherEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+                    " FOREIGN KEY (" + WeatherEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                    LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+                    " UNIQUE (" + WeatherEntry.COLUMN_DATE + ", " +
+                    WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);");
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        seedVersion2Database();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    private void seedVersion2Database() {
+        Version2DbHelper helper = new Version2DbHelper(mContext);
+        SQLiteDatabase db = helper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            SQLiteStatement location = db.compileStatement("INSERT INTO "
+                    + LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + ", "
+                    + LocationEntry.COLUMN_LOCATION_SETTING + ", "
+                    + LocationEntry.COLUMN_CITY_NAME + ", " + LocationEntry.COLUMN_COORD_LAT
+                    + ", " + LocationEntry.COLUMN_COORD_LONG + ") VALUES (?, ?, ?, ?, ?)");
+            SQLiteStatement weather = db.compileStatement("INSERT INTO "
+                    + WeatherEntry.TABLE_NAME + " (" + WeatherEntry.COLUMN_LOC_KEY + ", "
+                    + WeatherEntry.COLUMN_DATE + ", " + WeatherEntry.COLUMN_SHORT_DESC + ", "
+                    + WeatherEntry.COLUMN_WEATHER_ID + ", " + WeatherEntry.COLUMN_MIN_TEMP + ", "
+                    + WeatherEntry.COLUMN_MAX_TEMP + ", " + WeatherEntry.COLUMN_HUMIDITY + ", "
+                    + WeatherEntry.COLUMN_PRESSURE + ", " + WeatherEntry.COLUMN_WIND_SPEED + ", "
+                    + WeatherEntry.COLUMN_DEGREES
+                    + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+            for (int i = 1; i <= LOCATIONS; i++) {
+                location.bindLong(1, i);
+                location.bindString(2, "test-location-" + i);
+                location.bindString(3, "City " + i);
+                location.bindDouble(4, i);
+                location.bindDouble(5, -i);
+                location.executeInsert();
+                for (int day = 0; day < DAYS_PER_LOCATION; day++) {
+                    weather.bindLong(1, i);
+                    weather.bindLong(2,
+                            TestUtilities.TEST_DATE + day * TestUtilities.MILLISECONDS_IN_A_DAY);
+                    weather.bindString(3, "Asteroids");
+                    weather.bindLong(4, 200 + day % 600);
+                    weather.bindDouble(5, day % 30);
+                    weather.bindDouble(6, day % 30 + 10);
+                    weather.bindDouble(7, 1.2);
+                    weather.bindDouble(8, 1.3);
+                    weather.bindDouble(9, 5.5);
+                    weather.bindDouble(10, i);
+                    weather.executeInsert();
+                }
+            }
+            location.close();
+            weather.close();
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        helper.close();
+    }
+
+    private WeatherDbHelper createHelper() {
+        return new WeatherDbHelper(mContext,
+                WeatherDbHelper.Config.fromResources(mContext.getResources()), false);
+    }
+
+    private static long countNullFingerprints(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM " + WeatherEntry.TABLE_NAME
+                + " WHERE " + WeatherEntry.COLUMN_FINGERPRINT + " IS NULL", null);
+    }
+
+    public void testUpgradeKeepsData() {
+        WeatherDbHelper helper = createHelper();
+        long start = SystemClock.elapsedRealtime();
+        SQLiteDatabase db = helper.getWritableDatabase();
+        long upgradeMillis = SystemClock.elapsedRealtime() - start;
+        Log.i(LOG_TAG, "Upgraded " + ROWS + " rows from version 2 in " + upgradeMillis + " ms");
+
+        assertEquals("Error: Weather rows were lost in the upgrade", ROWS,
+                DatabaseUtils.queryNumEntries(db, WeatherEntry.TABLE_NAME));
+        assertEquals(LOCATIONS, DatabaseUtils.queryNumEntries(db, LocationEntry.TABLE_NAME));
+        assertTrue("Error: The upgrade took " + upgradeMillis + " ms",
+                upgradeMillis < MAX_UPGRADE_MILLIS);
+
+        Cursor cursor = db.rawQuery("SELECT name FROM sqlite_master WHERE type = 'index' AND "
+                + "name = ?", new String[]{WeatherEntry.INDEX_LOCATION_DATE});
+        assertTrue("Error: The location and date index was not created", cursor.moveToFirst());
+        cursor.close();
+
+        // The new column is there, waiting for the backfill
+        assertEquals(ROWS, countNullFingerprints(db));
+        assertTrue(DbMigrator.hasPendingBackfills(db));
+        // Forecasts are only packed ahead of time when they are stored packed
+        boolean packForecasts = mContext.getResources().getBoolean(
+                R.bool.packed_forecast_storage);
+        assertEquals("Error: The packed forecast backfill doesn't follow the storage setting",
+                packForecasts ? 1 : 0, DatabaseUtils.queryNumEntries(db, DbMigrator.TABLE_NAME,
+                        DbMigrator.COLUMN_VERSION + " = 7"));
+        helper.close();
+    }
+
+    public void testBackfillResumes() {
+        WeatherDbHelper helper = createHelper();
+        SQLiteDatabase db = helper.getWritableDatabase();
+        int chunkRows = WeatherDbHelper.BACKFILL_CHUNK_ROWS;
+        assertEquals(10, WeatherDbHelper.MIGRATOR.runBackfills(db, chunkRows, 10));
+        assertEquals(ROWS - 10 * chunkRows, countNullFingerprints(db));
+        // As if the process died part way
+        helper.close();
+
+        helper = createHelper();
+        db = helper.getWritableDatabase();
+        assertTrue(DbMigrator.hasPendingBackfills(db));
+        long start = SystemClock.elapsedRealtime();
+        int chunks = WeatherDbHelper.MIGRATOR.runBackfills(db, chunkRows, Integer.MAX_VALUE);
+        Log.i(LOG_TAG, "Backfilled the rest of " + ROWS + " rows in " + chunks + " chunks, "
+                + (SystemClock.elapsedRealtime() - start) + " ms");
+        assertEquals(0, countNullFingerprints(db));
+        assertFalse(DbMigrator.hasPendingBackfills(db));
+
+        Cursor cursor = db.query(WeatherEntry.TABLE_NAME, new String[]{
+                        WeatherEntry.COLUMN_FINGERPRINT, WeatherEntry.COLUMN_WEATHER_ID,
+                        WeatherEntry.COLUMN_MIN_TEMP, WeatherEntry.COLUMN_MAX_TEMP,
+                        WeatherEntry.COLUMN_DEGREES},
+                null, null, null, null, WeatherEntry._ID + " DESC", "1");
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Error: A backfilled fingerprint does not match the row",
+                WeatherEntry.computeFingerprint(cursor.getInt(1), "Asteroids",
+                        cursor.getDouble(2), cursor.getDouble(3), 1.2, 1.3, 5.5,
+                        cursor.getDouble(4)),
+                cursor.getLong(0));
+        cursor.close();
+        helper.close();
+    }
+
+    public void testTooOldVersionIsNotMigrated() {
+        WeatherDbHelper helper = createHelper();
+        SQLiteDatabase db = helper.getWritableDatabase();
+        assertFalse(WeatherDbHelper.MIGRATOR.upgrade(db,
+                WeatherDbHelper.OLDEST_MIGRATED_VERSION - 1, 5));
+        helper.close();
+    }
+}
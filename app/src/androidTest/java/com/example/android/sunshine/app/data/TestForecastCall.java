@@ -0,0 +1,193 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Debug;
+import android.os.Parcel;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Checks that the getForecast call returns the same days as a query of weather/*, bounded by
+    its start date and day count.  Then reads 1, 14 and 365 days both ways, logging the time
+    and the objects allocated per read.  Tests run in the app's process, so the binder is left
+    out; the call's Bundle is written to and read from a Parcel instead, as the binder would.
+ */
+public class TestForecastCall extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastCall.class.getSimpleName();
+
+    private static final int DAYS = 365;
+    private static final int READS = 500;
+
+    private WeatherProvider mProvider;
+    private long mLocationId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mProvider = new WeatherProvider();
+        mProvider.attachInfo(mContext, null);
+        mProvider.setOpenHelper(new WeatherDbHelper(mContext));
+
+        Uri uri = mProvider.insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        assertNotNull(uri);
+        mLocationId = Long.parseLong(uri.getLastPathSegment());
+        ContentValues[] values = TestUtilities.createWeatherValues(mLocationId, DAYS);
+        for (int day = 0; day < DAYS; day++) {
+            values[day].put(WeatherEntry.COLUMN_MIN_TEMP, day % 40 - 10);
+            values[day].put(WeatherEntry.COLUMN_WEATHER_ID, 200 + day);
+        }
+        assertEquals(DAYS, mProvider.bulkInsert(WeatherEntry.CONTENT_URI, values));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mProvider.shutdown();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    private long dayDate(int day) {
+        return WeatherContract.normalizeDate(
+                TestUtilities.TEST_DATE + day * TestUtilities.MILLISECONDS_IN_A_DAY);
+    }
+
+    /**
+     * Calls getForecast, passing the result through a Parcel as a call from another process
+     * would.
+     */
+    private WeatherColumnBatch callForecast(String locationSetting, long startDate, int days) {
+        Bundle extras = new Bundle();
+        extras.putLong(WeatherEntry.EXTRA_START_DATE, startDate);
+        extras.putInt(WeatherEntry.EXTRA_DAYS, days);
+        Bundle result = mProvider.call(WeatherEntry.METHOD_GET_FORECAST, locationSetting, extras);
+        Parcel parcel = Parcel.obtain();
+        try {
+            parcel.writeBundle(result);
+            parcel.setDataPosition(0);
+            return WeatherColumnBatch.fromBundle(parcel.readBundle());
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    private WeatherColumnBatch queryForecast(long startDate, int days) {
+        Cursor cursor = mProvider.query(WeatherEntry.buildWeatherLocationWithStartDate(
+                        TestUtilities.TEST_LOCATION, startDate),
+                WeatherColumnBatch.WEATHER_COLUMNS, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        assertNotNull(cursor);
+        try {
+            return WeatherColumnBatch.fromCursor(cursor, days);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void assertSameDays(WeatherColumnBatch expected, WeatherColumnBatch actual) {
+        assertEquals("Error: The call returned the wrong number of days",
+                expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.getLocationId(i), actual.getLocationId(i));
+            assertEquals(expected.getDate(i), actual.getDate(i));
+            assertEquals(expected.getWeatherId(i), actual.getWeatherId(i));
+            assertEquals(expected.getShortDesc(i), actual.getShortDesc(i));
+            assertEquals(expected.getMinTemp(i), actual.getMinTemp(i), 0);
+            assertEquals(expected.getMaxTemp(i), actual.getMaxTemp(i), 0);
+            assertEquals(expected.getHumidity(i), actual.getHumidity(i), 0);
+            assertEquals(expected.getPressure(i), actual.getPressure(i), 0);
+            assertEquals(expected.getWindSpeed(i), actual.getWindSpeed(i), 0);
+            assertEquals(expected.getDegrees(i), actual.getDegrees(i), 0);
+        }
+    }
+
+    public void testCallMatchesQuery() {
+        long startDate = dayDate(100);
+        WeatherColumnBatch called = callForecast(TestUtilities.TEST_LOCATION, startDate, 14);
+        assertSameDays(queryForecast(startDate, 14), called);
+        assertEquals(startDate, called.getDate(0));
+        assertEquals(mLocationId, called.getLocationId(0));
+        assertEquals(300, called.getWeatherId(0));
+
+        // Past the last day stored, and from the oldest one
+        assertEquals(5, callForecast(TestUtilities.TEST_LOCATION, dayDate(DAYS - 5), 14).size());
+        WeatherColumnBatch all = callForecast(TestUtilities.TEST_LOCATION, 0, Integer.MAX_VALUE);
+        assertEquals(DAYS, all.size());
+        assertEquals(dayDate(0), all.getDate(0));
+
+        assertEquals("Error: An unknown location has a forecast", 0,
+                callForecast("nowhere", startDate, 14).size());
+    }
+
+    public void testCallRejectsBadArguments() {
+        try {
+            callForecast(null, 0, 14);
+            fail("Error: A forecast was read without a location");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            callForecast(TestUtilities.TEST_LOCATION, 0, 0);
+            fail("Error: A forecast of no days was read");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            callForecast(TestUtilities.TEST_LOCATION, 0, -1);
+            fail("Error: A forecast of a negative number of days was read");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            mProvider.call(WeatherEntry.METHOD_GET_FORECAST, TestUtilities.TEST_LOCATION, null);
+            fail("Error: A forecast was read without extras");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    /**
+     * @return the nanoseconds and objects allocated per read, for the call and the query.
+     */
+    private long[] benchmark(int days) {
+        long startDate = dayDate(0);
+        // Once each first, so neither pays for warming up
+        assertSameDays(queryForecast(startDate, days),
+                callForecast(TestUtilities.TEST_LOCATION, startDate, days));
+
+        Debug.startAllocCounting();
+        try {
+            Debug.resetThreadAllocCount();
+            long start = System.nanoTime();
+            for (int i = 0; i < READS; i++) {
+                assertEquals(days, callForecast(TestUtilities.TEST_LOCATION, startDate, days)
+                        .size());
+            }
+            long callNanos = (System.nanoTime() - start) / READS;
+            long callAllocations = Debug.getThreadAllocCount() / READS;
+
+            Debug.resetThreadAllocCount();
+            start = System.nanoTime();
+            for (int i = 0; i < READS; i++) {
+                assertEquals(days, queryForecast(startDate, days).size());
+            }
+            long queryNanos = (System.nanoTime() - start) / READS;
+            long queryAllocations = Debug.getThreadAllocCount() / READS;
+            return new long[]{callNanos, callAllocations, queryNanos, queryAllocations};
+        } finally {
+            Debug.stopAllocCounting();
+        }
+    }
+
+    public void testCallBenchmark() {
+        for (int days : new int[]{1, 14, DAYS}) {
+            long[] result = benchmark(days);
+            Log.i(LOG_TAG, days + " days: getForecast call " + result[0] / 1000 + " us and "
+                    + result[1] + " allocations a read, query " + result[2] / 1000 + " us and "
+                    + result[3] + " allocations a read");
+        }
+    }
+}
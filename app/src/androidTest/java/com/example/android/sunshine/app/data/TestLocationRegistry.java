@@ -0,0 +1,215 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+
+/*
+    Checks that the location registry stays in step with the location table through
+    upserts, inserts, updates and deletes, then times 10,000 location resolutions done the
+    way syncs used to, a query per location, against upserts through a cold and a warm
+    registry.
+ */
+public class TestLocationRegistry extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestLocationRegistry.class.getSimpleName();
+
+    private static final int LOCATIONS = 50;
+    private static final int RESOLUTIONS = 10000;
+    // Locations resolved together, as in one sync
+    private static final int LOCATIONS_PER_SYNC = 10;
+
+    private WeatherProvider mProvider;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mProvider = new WeatherProvider();
+        mProvider.attachInfo(mContext, null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mProvider.shutdown();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    private static String locationSetting(int i) {
+        return "test-location-" + i;
+    }
+
+    private static LocationBatch createBatch(int first, int count) {
+        LocationBatch batch = new LocationBatch(count);
+        for (int i = first; i < first + count; i++) {
+            batch.add(locationSetting(i % LOCATIONS), "City " + (i % LOCATIONS), i % LOCATIONS,
+                    -(i % LOCATIONS));
+        }
+        return batch;
+    }
+
+    private int countLocations() {
+        Cursor cursor = mProvider.query(LocationEntry.CONTENT_URI, null, null, null, null);
+        assertNotNull(cursor);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    private long queryLocationId(String locationSetting) {
+        Cursor cursor = mProvider.query(LocationEntry.CONTENT_URI,
+                new String[]{LocationEntry._ID}, LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting}, null);
+        assertNotNull(cursor);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testUpsertAddsEachLocationOnce() {
+        long[] ids = mProvider.upsertLocations(createBatch(0, LOCATIONS));
+        assertEquals(LOCATIONS, countLocations());
+        for (int i = 0; i < LOCATIONS; i++) {
+            assertEquals(queryLocationId(locationSetting(i)), ids[i]);
+        }
+
+        LocationRegistry registry = mProvider.getLocationRegistry();
+        long misses = registry.getMisses();
+        long[] again = mProvider.upsertLocations(createBatch(0, LOCATIONS));
+        assertEquals(LOCATIONS, countLocations());
+        for (int i = 0; i < LOCATIONS; i++) {
+            assertEquals(ids[i], again[i]);
+        }
+        assertEquals("Error: Registered locations were looked up again", misses,
+                registry.getMisses());
+
+        // The same location twice in one batch is added once
+        LocationBatch twice = new LocationBatch(2);
+        twice.add("repeated", "Repeated", 1, 2);
+        twice.add("repeated", "Repeated", 1, 2);
+        long[] twiceIds = mProvider.upsertLocations(twice);
+        assertEquals(twiceIds[0], twiceIds[1]);
+        assertEquals(LOCATIONS + 1, countLocations());
+    }
+
+    public void testUpsertUpdatesChangedDetails() {
+        LocationBatch batch = new LocationBatch(1);
+        batch.add(TestUtilities.TEST_LOCATION, "North Pole", 64.7488, -147.353);
+        long id = mProvider.upsertLocations(batch)[0];
+
+        LocationBatch moved = new LocationBatch(1);
+        moved.add(TestUtilities.TEST_LOCATION, "North Pole", 64.75, -147.35);
+        assertEquals(id, mProvider.upsertLocations(moved)[0]);
+
+        Cursor cursor = mProvider.query(LocationEntry.CONTENT_URI,
+                new String[]{LocationEntry.COLUMN_COORD_LAT}, null, null, null);
+        assertNotNull(cursor);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(64.75, cursor.getDouble(0), 0);
+        cursor.close();
+    }
+
+    public void testRegistryFollowsProviderWrites() {
+        // Inserted through the provider, then found without a query
+        ContentValues values = TestUtilities.createNorthPoleLocationValues();
+        mProvider.insert(LocationEntry.CONTENT_URI, values);
+        long id = queryLocationId(TestUtilities.TEST_LOCATION);
+        LocationRegistry.Location registered = mProvider.getLocationRegistry()
+                .get(TestUtilities.TEST_LOCATION);
+        assertNotNull("Error: An inserted location was not registered", registered);
+        assertEquals(id, registered.mId);
+
+        // Deleted, then added again under a new id
+        mProvider.delete(LocationEntry.CONTENT_URI, null, null);
+        assertNull(mProvider.getLocationRegistry().get(TestUtilities.TEST_LOCATION));
+        LocationBatch batch = new LocationBatch(1);
+        batch.add(TestUtilities.TEST_LOCATION,
+                values.getAsString(LocationEntry.COLUMN_CITY_NAME),
+                values.getAsDouble(LocationEntry.COLUMN_COORD_LAT),
+                values.getAsDouble(LocationEntry.COLUMN_COORD_LONG));
+        long newId = mProvider.upsertLocations(batch)[0];
+        assertEquals(queryLocationId(TestUtilities.TEST_LOCATION), newId);
+
+        // Updated behind the registry's back, then seen as changed
+        ContentValues renamed = new ContentValues();
+        renamed.put(LocationEntry.COLUMN_CITY_NAME, "Renamed");
+        mProvider.update(LocationEntry.CONTENT_URI, renamed, null, null);
+        assertEquals(0, mProvider.getLocationRegistry().getEntryCount());
+    }
+
+    public void testUpsertCallRejectsBadExtras() {
+        try {
+            mProvider.call(LocationEntry.METHOD_UPSERT_LOCATIONS, null, null);
+            fail("Error: Locations were upserted without extras");
+        } catch (IllegalArgumentException expected) {
+        }
+        Bundle extras = createBatch(0, 1).toBundle();
+        extras.putInt(LocationBatch.KEY_SIZE, -1);
+        try {
+            mProvider.call(LocationEntry.METHOD_UPSERT_LOCATIONS, null, extras);
+            fail("Error: A location batch of negative size was upserted");
+        } catch (IllegalArgumentException expected) {
+        }
+        assertEquals(0, countLocations());
+    }
+
+    public void testRegistryIsBounded() {
+        LocationRegistry registry = new LocationRegistry(2);
+        long generation = registry.getGeneration();
+        registry.put("a", new LocationRegistry.Location(1, "A", 0, 0), generation);
+        registry.put("b", new LocationRegistry.Location(2, "B", 0, 0), generation);
+        registry.get("a");
+        registry.put("c", new LocationRegistry.Location(3, "C", 0, 0), generation);
+        assertEquals(2, registry.getEntryCount());
+        assertEquals(1, registry.getEvictions());
+        assertNull("Error: The most recently used location was evicted", registry.get("b"));
+        assertNotNull(registry.get("a"));
+
+        // Read before an invalidation, so not stored
+        registry.invalidateAll();
+        registry.put("d", new LocationRegistry.Location(4, "D", 0, 0), generation);
+        assertNull(registry.get("d"));
+    }
+
+    public void testResolutionBenchmark() {
+        mProvider.upsertLocations(createBatch(0, LOCATIONS));
+
+        // A query per location, as syncs used to resolve them
+        long start = System.nanoTime();
+        for (int i = 0; i < RESOLUTIONS; i++) {
+            assertTrue(queryLocationId(locationSetting(i % LOCATIONS)) > 0);
+        }
+        long queryMicros = (System.nanoTime() - start) / 1000;
+
+        // The registry dropped before every sync, so each one starts by reading the table
+        LocationRegistry registry = mProvider.getLocationRegistry();
+        start = System.nanoTime();
+        for (int i = 0; i < RESOLUTIONS; i += LOCATIONS_PER_SYNC) {
+            registry.invalidateAll();
+            mProvider.upsertLocations(createBatch(i, LOCATIONS_PER_SYNC));
+        }
+        long coldMicros = (System.nanoTime() - start) / 1000;
+
+        long misses = registry.getMisses();
+        start = System.nanoTime();
+        for (int i = 0; i < RESOLUTIONS; i += LOCATIONS_PER_SYNC) {
+            mProvider.upsertLocations(createBatch(i, LOCATIONS_PER_SYNC));
+        }
+        long warmMicros = (System.nanoTime() - start) / 1000;
+        assertEquals(misses, registry.getMisses());
+        assertEquals(LOCATIONS, countLocations());
+
+        Log.i(LOG_TAG, RESOLUTIONS + " resolutions of " + LOCATIONS + " locations: query each "
+                + queryMicros / 1000 + " ms, cold registry " + coldMicros / 1000
+                + " ms, warm registry " + warmMicros / 1000 + " ms (" + registry + ")");
+        assertTrue("Error: The warm registry was no faster than a query per location",
+                warmMicros < queryMicros);
+    }
+}
@@ -0,0 +1,258 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.PackedForecastEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Checks that a packed forecast survives the trip through its blob, and that the
+    packed_forecast rows follow the weather table through inserts, replacements and deletes.
+    Then stores 14 days for 100 locations and compares reading whole forecasts from the weather
+    table with reading them from packed_forecast, in time and in database size.
+ */
+public class TestPackedForecast extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestPackedForecast.class.getSimpleName();
+
+    private static final int LOCATIONS = 100;
+    private static final int DAYS = 14;
+    private static final int READS = 2000;
+
+    private WeatherProvider mProvider;
+    private WeatherDbHelper mHelper;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mProvider = new WeatherProvider();
+        mProvider.attachInfo(mContext, null);
+        mHelper = new WeatherDbHelper(mContext);
+        mProvider.setOpenHelper(mHelper);
+        mProvider.setPackForecasts(true);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mProvider.shutdown();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    private static String locationSetting(int i) {
+        return "test-location-" + i;
+    }
+
+    private long insertLocation(int i) {
+        Uri uri = mProvider.insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createLocationValues(locationSetting(i)));
+        assertNotNull(uri);
+        return Long.parseLong(uri.getLastPathSegment());
+    }
+
+    private void insertForecast(long locationId, int days, double minTemp) {
+        ContentValues[] values = TestUtilities.createWeatherValues(locationId, days);
+        for (int day = 0; day < days; day++) {
+            values[day].put(WeatherEntry.COLUMN_WEATHER_ID, 800 - day);
+            values[day].put(WeatherEntry.COLUMN_MIN_TEMP, minTemp + day);
+            values[day].put(WeatherEntry.COLUMN_DEGREES, day * 20);
+        }
+        assertEquals(days, mProvider.bulkInsert(WeatherEntry.CONTENT_URI, values));
+    }
+
+    private PackedForecast queryPacked(String locationSetting) {
+        Cursor cursor = mProvider.query(
+                PackedForecastEntry.buildPackedForecastLocation(locationSetting),
+                null, null, null, null);
+        assertNotNull(cursor);
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            assertEquals(1, cursor.getCount());
+            return PackedForecast.fromBlob(cursor.getBlob(
+                    cursor.getColumnIndex(PackedForecastEntry.COLUMN_FORECAST)));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void assertMatchesWeatherTable(long locationId, PackedForecast forecast) {
+        PackedForecast expected = PackedForecast.read(mHelper.getReadableDatabase(), locationId);
+        assertEquals("Error: The packed forecast has the wrong number of days",
+                expected.size(), forecast.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.getDate(i), forecast.getDate(i));
+            assertEquals(expected.getWeatherId(i), forecast.getWeatherId(i));
+            assertEquals(expected.getMinTemp(i), forecast.getMinTemp(i), 0);
+            assertEquals(expected.getMaxTemp(i), forecast.getMaxTemp(i), 0);
+            assertEquals(expected.getHumidity(i), forecast.getHumidity(i), 0);
+            assertEquals(expected.getPressure(i), forecast.getPressure(i), 0);
+            assertEquals(expected.getWindSpeed(i), forecast.getWindSpeed(i), 0);
+            assertEquals(expected.getDegrees(i), forecast.getDegrees(i), 0);
+        }
+    }
+
+    public void testBlobRoundTrip() {
+        PackedForecast forecast = new PackedForecast(DAYS);
+        for (int i = 0; i < DAYS; i++) {
+            forecast.mDates[i] = TestUtilities.TEST_DATE + i * TestUtilities.MILLISECONDS_IN_A_DAY;
+            forecast.mWeatherIds[i] = 200 + i;
+            forecast.mMinTemps[i] = -i - 0.5;
+            forecast.mMaxTemps[i] = i + 0.25;
+            forecast.mHumidities[i] = 50 + i;
+            forecast.mPressures[i] = 1000 + i;
+            forecast.mWindSpeeds[i] = i / 3.0;
+            forecast.mDegrees[i] = i * 25;
+        }
+        byte[] blob = forecast.toBlob();
+        PackedForecast unpacked = PackedForecast.fromBlob(blob);
+        assertEquals(DAYS, unpacked.size());
+        for (int i = 0; i < DAYS; i++) {
+            assertEquals(forecast.getDate(i), unpacked.getDate(i));
+            assertEquals(forecast.getWeatherId(i), unpacked.getWeatherId(i));
+            assertEquals(forecast.getMinTemp(i), unpacked.getMinTemp(i), 0);
+            assertEquals(forecast.getMaxTemp(i), unpacked.getMaxTemp(i), 0);
+            assertEquals(forecast.getHumidity(i), unpacked.getHumidity(i), 0);
+            assertEquals(forecast.getPressure(i), unpacked.getPressure(i), 0);
+            assertEquals(forecast.getWindSpeed(i), unpacked.getWindSpeed(i), 0);
+            assertEquals(forecast.getDegrees(i), unpacked.getDegrees(i), 0);
+        }
+        assertEquals(3, unpacked.indexOf(forecast.getDate(3)));
+
+        // Another version of the format is refused rather than misread
+        blob[3]++;
+        try {
+            PackedForecast.fromBlob(blob);
+            fail("Error: A blob of another format version was read");
+        } catch (IllegalArgumentException expected) {
+        }
+        blob[3]--;
+        byte[] cutShort = new byte[blob.length - 1];
+        System.arraycopy(blob, 0, cutShort, 0, cutShort.length);
+        try {
+            PackedForecast.fromBlob(cutShort);
+            fail("Error: A blob cut short was read");
+        } catch (IllegalArgumentException expected) {
+        }
+        // A day count whose size overflows an int is still checked against the blob
+        blob[4] = 0x7f;
+        blob[5] = blob[6] = blob[7] = (byte) 0xff;
+        try {
+            PackedForecast.fromBlob(blob);
+            fail("Error: A blob claiming " + Integer.MAX_VALUE + " days was read");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testPackedRowFollowsWeather() {
+        long locationId = insertLocation(0);
+        insertForecast(locationId, DAYS, 10);
+        PackedForecast forecast = queryPacked(locationSetting(0));
+        assertNotNull("Error: No packed forecast after inserting the weather", forecast);
+        assertMatchesWeatherTable(locationId, forecast);
+        assertEquals(1, DatabaseUtils.queryNumEntries(mHelper.getReadableDatabase(),
+                PackedForecastEntry.TABLE_NAME));
+
+        // Replaced days are packed again
+        insertForecast(locationId, 3, -5);
+        forecast = queryPacked(locationSetting(0));
+        assertEquals(-5, forecast.getMinTemp(0), 0);
+        assertMatchesWeatherTable(locationId, forecast);
+
+        // And days updated in place
+        ContentValues update = new ContentValues();
+        update.put(WeatherEntry.COLUMN_MAX_TEMP, 99);
+        assertEquals(1, mProvider.update(WeatherEntry.CONTENT_URI, update,
+                WeatherEntry.COLUMN_WEATHER_ID + " = ?", new String[]{"800"}));
+        forecast = queryPacked(locationSetting(0));
+        assertEquals(99, forecast.getMaxTemp(0), 0);
+        assertMatchesWeatherTable(locationId, forecast);
+
+        // As are days removed
+        mProvider.delete(WeatherEntry.CONTENT_URI, WeatherEntry.COLUMN_DATE + " <= ?",
+                new String[]{Long.toString(
+                        TestUtilities.TEST_DATE + TestUtilities.MILLISECONDS_IN_A_DAY)});
+        forecast = queryPacked(locationSetting(0));
+        assertEquals(DAYS - 2, forecast.size());
+        assertMatchesWeatherTable(locationId, forecast);
+
+        mProvider.delete(WeatherEntry.CONTENT_URI, WeatherEntry.COLUMN_LOC_KEY + " = ?",
+                new String[]{Long.toString(locationId)});
+        assertNull("Error: A location without weather still has a packed forecast",
+                queryPacked(locationSetting(0)));
+    }
+
+    public void testForecastsPackedOnReadWhenNotStored() {
+        mProvider.setPackForecasts(false);
+        long locationId = insertLocation(0);
+        insertForecast(locationId, DAYS, 10);
+        assertEquals("Error: A forecast was stored packed while packing was off", 0,
+                DatabaseUtils.queryNumEntries(mHelper.getReadableDatabase(),
+                        PackedForecastEntry.TABLE_NAME));
+        PackedForecast forecast = queryPacked(locationSetting(0));
+        assertNotNull(forecast);
+        assertMatchesWeatherTable(locationId, forecast);
+        assertNull(queryPacked("nowhere"));
+    }
+
+    public void testReadBenchmark() {
+        for (int i = 0; i < LOCATIONS; i++) {
+            insertForecast(insertLocation(i), DAYS, i);
+        }
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+        // The same SQL the provider runs, straight on the database so only storage is compared
+        String normalizedSql = WeatherProvider.buildQuerySql(
+                WeatherEntry.buildWeatherLocation(locationSetting(0)),
+                PackedForecast.WEATHER_COLUMNS, null, WeatherEntry.COLUMN_DATE + " ASC");
+        String packedSql = WeatherProvider.buildQuerySql(
+                PackedForecastEntry.buildPackedForecastLocation(locationSetting(0)),
+                null, null, null);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < READS; i++) {
+            Cursor cursor = db.rawQuery(normalizedSql,
+                    new String[]{locationSetting(i % LOCATIONS)});
+            PackedForecast forecast = PackedForecast.fromCursor(cursor);
+            cursor.close();
+            assertEquals(DAYS, forecast.size());
+        }
+        long normalizedMicros = (System.nanoTime() - start) / 1000;
+
+        start = System.nanoTime();
+        for (int i = 0; i < READS; i++) {
+            Cursor cursor = db.rawQuery(packedSql, new String[]{locationSetting(i % LOCATIONS)});
+            assertTrue(cursor.moveToFirst());
+            PackedForecast forecast = PackedForecast.fromBlob(cursor.getBlob(
+                    cursor.getColumnIndex(PackedForecastEntry.COLUMN_FORECAST)));
+            cursor.close();
+            assertEquals(DAYS, forecast.size());
+        }
+        long packedMicros = (System.nanoTime() - start) / 1000;
+
+        // Each table's share of the file, indexes included, found by emptying it
+        long totalSize = TestUtilities.getDatabaseSize(db);
+        db.delete(PackedForecastEntry.TABLE_NAME, null, null);
+        long withoutPackedSize = TestUtilities.getDatabaseSize(db);
+        db.delete(WeatherEntry.TABLE_NAME, null, null);
+        long packedSize = totalSize - withoutPackedSize;
+        long normalizedSize = withoutPackedSize - TestUtilities.getDatabaseSize(db);
+
+        Log.i(LOG_TAG, READS + " reads of a " + DAYS + " day forecast: weather table "
+                + normalizedMicros / READS + " us each, packed_forecast " + packedMicros / READS
+                + " us each.  " + LOCATIONS + " locations take " + normalizedSize / 1024
+                + " KB in the weather table, " + packedSize / 1024 + " KB packed");
+        assertTrue("Error: Packed forecasts were no faster to read",
+                packedMicros < normalizedMicros);
+        assertTrue("Error: Packed forecasts take more room than the weather table",
+                packedSize < normalizedSize);
+    }
+}
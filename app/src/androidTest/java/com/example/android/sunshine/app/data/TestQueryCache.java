@@ -0,0 +1,148 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.CacheStatsEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Checks that WeatherProvider answers repeated location queries from its cache, and that a
+    write only drops the cached results of the locations it touched.
+ */
+public class TestQueryCache extends AndroidTestCase {
+
+    private static final String OTHER_LOCATION = "94043";
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        super.tearDown();
+    }
+
+    private long insertLocation(String locationSetting) {
+        return ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createLocationValues(locationSetting)));
+    }
+
+    private void insertWeather(long locationRowId, int days) {
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                TestUtilities.createWeatherValues(locationRowId, days));
+    }
+
+    private int countRows(Uri uri) {
+        Cursor cursor = mContext.getContentResolver().query(uri, null, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        assertNotNull(cursor);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    private long readStat(String column) {
+        Cursor cursor = mContext.getContentResolver().query(CacheStatsEntry.CONTENT_URI,
+                null, null, null, null);
+        assertNotNull(cursor);
+        assertTrue("Error: No cache stats row", cursor.moveToFirst());
+        long value = cursor.getLong(cursor.getColumnIndexOrThrow(column));
+        cursor.close();
+        return value;
+    }
+
+    public void testRepeatedQueryIsServedFromCache() {
+        insertWeather(insertLocation(TestUtilities.TEST_LOCATION), 7);
+        Uri uri = WeatherEntry.buildWeatherLocationWithStartDate(TestUtilities.TEST_LOCATION,
+                TestUtilities.TEST_DATE);
+
+        assertEquals(7, countRows(uri));
+        long hits = readStat(CacheStatsEntry.COLUMN_HITS);
+        assertEquals(7, countRows(uri));
+        assertEquals("Error: The repeated query was not a cache hit",
+                hits + 1, readStat(CacheStatsEntry.COLUMN_HITS));
+        assertTrue(readStat(CacheStatsEntry.COLUMN_BYTES) > 0);
+    }
+
+    public void testWriteOnlyInvalidatesItsLocation() {
+        long locationRowId = insertLocation(TestUtilities.TEST_LOCATION);
+        long otherLocationRowId = insertLocation(OTHER_LOCATION);
+        insertWeather(locationRowId, 3);
+        insertWeather(otherLocationRowId, 3);
+
+        Uri uri = WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION);
+        Uri otherUri = WeatherEntry.buildWeatherLocation(OTHER_LOCATION);
+        assertEquals(3, countRows(uri));
+        assertEquals(3, countRows(otherUri));
+
+        insertWeather(otherLocationRowId, 5);
+
+        long hits = readStat(CacheStatsEntry.COLUMN_HITS);
+        assertEquals(3, countRows(uri));
+        assertEquals("Error: Writing one location dropped another's cached weather",
+                hits + 1, readStat(CacheStatsEntry.COLUMN_HITS));
+
+        long misses = readStat(CacheStatsEntry.COLUMN_MISSES);
+        assertEquals("Error: Stale weather served after a write", 5, countRows(otherUri));
+        assertEquals(misses + 1, readStat(CacheStatsEntry.COLUMN_MISSES));
+    }
+
+    public void testDeleteInvalidates() {
+        insertWeather(insertLocation(TestUtilities.TEST_LOCATION), 4);
+        Uri uri = WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION);
+        assertEquals(4, countRows(uri));
+
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        assertEquals("Error: Stale weather served after a delete", 0, countRows(uri));
+    }
+
+    private static Cursor createCursor(int rows) {
+        MatrixCursor cursor = new MatrixCursor(new String[]{WeatherEntry.COLUMN_DATE,
+                WeatherEntry.COLUMN_SHORT_DESC});
+        for (int i = 0; i < rows; i++) {
+            cursor.addRow(new Object[]{(long) i, "Asteroids"});
+        }
+        return cursor;
+    }
+
+    public void testCacheIsBounded() {
+        WeatherQueryCache cache = new WeatherQueryCache(2, 64 * 1024);
+        for (int i = 0; i < 3; i++) {
+            cache.put("key" + i, TestUtilities.TEST_LOCATION, createCursor(14),
+                    cache.getGeneration());
+        }
+        assertEquals(2, cache.getEntryCount());
+        assertEquals(1, cache.getEvictions());
+        assertNull("Error: The least recently used result was kept", cache.get("key0"));
+
+        // Too big for the cache, handed back as it came
+        Cursor big = createCursor(10000);
+        Cursor returned = cache.put("big", TestUtilities.TEST_LOCATION, big,
+                cache.getGeneration());
+        assertSame(big, returned);
+        assertEquals(10000, returned.getCount());
+        assertNull(cache.get("big"));
+        returned.close();
+    }
+
+    public void testResultReadBeforeInvalidationIsNotCached() {
+        WeatherQueryCache cache = new WeatherQueryCache(4, 64 * 1024);
+        long generation = cache.getGeneration();
+        cache.invalidateAll();
+
+        Cursor cursor = cache.put("key", TestUtilities.TEST_LOCATION, createCursor(3), generation);
+        assertEquals("Error: The caller did not get the result", 3, cursor.getCount());
+        cursor.close();
+        assertNull("Error: A result read before a write was cached", cache.get("key"));
+    }
+}
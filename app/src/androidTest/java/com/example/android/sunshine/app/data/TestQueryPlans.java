@@ -0,0 +1,173 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.UriMatcher;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.PackedForecastEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/*
+    Runs EXPLAIN QUERY PLAN on the query behind every route of WeatherProvider's UriMatcher,
+    and fails if any of them reads a whole table rather than searching an index.
+ */
+public class TestQueryPlans extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestQueryPlans.class.getSimpleName();
+
+    // The columns the forecast list reads, see ForecastFragment.FORECAST_COLUMNS
+    private static final String[] FORECAST_COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG
+    };
+
+    private static final String SORT_BY_DATE = WeatherEntry.COLUMN_DATE + " ASC";
+
+    private SQLiteDatabase mDb;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mDb = new WeatherDbHelper(mContext).getReadableDatabase();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.close();
+        super.tearDown();
+    }
+
+    /**
+     * @return the detail column of each step of the query's plan.
+     */
+    private List<String> explainQueryPlan(Uri uri, String[] projection, String selection,
+                                          String sortOrder) {
+        String sql = WeatherProvider.buildQuerySql(uri, projection, selection, sortOrder);
+
+        // The values don't matter to the plan, only how many there are
+        int argCount = 0;
+        for (int i = 0; i < sql.length(); i++) {
+            if (sql.charAt(i) == '?') {
+                argCount++;
+            }
+        }
+        String[] args = new String[argCount];
+        for (int i = 0; i < argCount; i++) {
+            args[i] = "1";
+        }
+
+        Cursor cursor = mDb.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+        List<String> details = new ArrayList<String>();
+        int detailIndex = cursor.getColumnIndexOrThrow("detail");
+        while (cursor.moveToNext()) {
+            details.add(cursor.getString(detailIndex));
+        }
+        cursor.close();
+        Log.d(LOG_TAG, uri + " " + selection + ": " + details);
+        return details;
+    }
+
+    private List<String> assertNoTableScan(Uri uri, String[] projection, String selection,
+                                           String sortOrder) {
+        List<String> details = explainQueryPlan(uri, projection, selection, sortOrder);
+        assertFalse("Error: No query plan for " + uri, details.isEmpty());
+        for (String detail : details) {
+            assertFalse("Error: " + uri + " with selection " + selection
+                    + " scans rather than searches: " + detail, detail.startsWith("SCAN"));
+        }
+        return details;
+    }
+
+    private static String findWeatherStep(List<String> details) {
+        for (String detail : details) {
+            if (detail.contains(" " + WeatherEntry.TABLE_NAME + " ")) {
+                return detail;
+            }
+        }
+        fail("Error: The query plan never reads the weather table: " + details);
+        return null;
+    }
+
+    public void testEveryRouteSearchesAnIndex() {
+        UriMatcher matcher = WeatherProvider.buildUriMatcher();
+        Set<Integer> checkedRoutes = new HashSet<Integer>();
+
+        // weather/*/#, the detail screen and today's forecast
+        Uri uri = WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION,
+                TestUtilities.TEST_DATE);
+        assertNoTableScan(uri, null, null, null);
+        checkedRoutes.add(matcher.match(uri));
+
+        // weather/*, every stored day of a location
+        uri = WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION);
+        assertNoTableScan(uri, FORECAST_COLUMNS, null, SORT_BY_DATE);
+        checkedRoutes.add(matcher.match(uri));
+
+        // weather/*?date=, the forecast list and widgets
+        uri = WeatherEntry.buildWeatherLocationWithStartDate(TestUtilities.TEST_LOCATION,
+                TestUtilities.TEST_DATE);
+        assertNoTableScan(uri, FORECAST_COLUMNS, null, SORT_BY_DATE);
+
+        // weather, with the date ranges sync uses to find old rows
+        uri = WeatherEntry.CONTENT_URI;
+        assertNoTableScan(uri, null, WeatherEntry.COLUMN_DATE + " <= ?", null);
+        assertNoTableScan(uri, null, WeatherEntry.COLUMN_DATE + " >= ?", null);
+        checkedRoutes.add(matcher.match(uri));
+
+        // location, looked up by its setting when sync adds it
+        uri = LocationEntry.CONTENT_URI;
+        assertNoTableScan(uri, new String[]{LocationEntry._ID},
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?", null);
+        checkedRoutes.add(matcher.match(uri));
+
+        // packed_forecast/*, a location's whole forecast in one row
+        uri = PackedForecastEntry.buildPackedForecastLocation(TestUtilities.TEST_LOCATION);
+        assertNoTableScan(uri, null, null, null);
+        checkedRoutes.add(matcher.match(uri));
+
+        assertEquals("Error: A route of the UriMatcher has no query plan check",
+                new HashSet<Integer>(Arrays.asList(WeatherProvider.WEATHER,
+                        WeatherProvider.WEATHER_WITH_LOCATION,
+                        WeatherProvider.WEATHER_WITH_LOCATION_AND_DATE,
+                        WeatherProvider.LOCATION,
+                        WeatherProvider.PACKED_FORECAST_WITH_LOCATION)),
+                checkedRoutes);
+    }
+
+    public void testForecastListIsCoveredByIndex() {
+        Uri uri = WeatherEntry.buildWeatherLocationWithStartDate(TestUtilities.TEST_LOCATION,
+                TestUtilities.TEST_DATE);
+        String weatherStep = findWeatherStep(
+                assertNoTableScan(uri, FORECAST_COLUMNS, null, SORT_BY_DATE));
+        assertTrue("Error: The forecast list reads the weather table rather than the index: "
+                + weatherStep, weatherStep.contains("COVERING INDEX "
+                + WeatherEntry.INDEX_LOCATION_DATE));
+    }
+
+    public void testForecastListNeedsNoSort() {
+        Uri uri = WeatherEntry.buildWeatherLocationWithStartDate(TestUtilities.TEST_LOCATION,
+                TestUtilities.TEST_DATE);
+        for (String detail : explainQueryPlan(uri, FORECAST_COLUMNS, null, SORT_BY_DATE)) {
+            assertFalse("Error: The forecast list sorts its rows: " + detail,
+                    detail.contains("TEMP B-TREE"));
+        }
+    }
+}
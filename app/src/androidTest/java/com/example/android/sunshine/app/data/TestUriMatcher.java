@@ -36,6 +36,13 @@ public class TestUriMatcher extends AndroidTestCase {
     private static final Uri TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(LOCATION_QUERY, TEST_DATE);
     // content://com.example.android.sunshine.app/location"
     private static final Uri TEST_LOCATION_DIR = WeatherContract.LocationEntry.CONTENT_URI;
+    // content://com.example.android.sunshine.app/cache_stats"
+    private static final Uri TEST_CACHE_STATS = WeatherContract.CacheStatsEntry.CONTENT_URI;
+    // content://com.example.android.sunshine.app/archive"
+    private static final Uri TEST_ARCHIVE_DIR = WeatherContract.ArchiveEntry.CONTENT_URI;
+    // content://com.example.android.sunshine.app/packed_forecast"
+    private static final Uri TEST_PACKED_FORECAST_DIR = WeatherContract.PackedForecastEntry.CONTENT_URI;
+    private static final Uri TEST_PACKED_FORECAST_WITH_LOCATION = WeatherContract.PackedForecastEntry.buildPackedForecastLocation(LOCATION_QUERY);
 
     /*
         Students: This function tests that your UriMatcher returns the correct integer value
@@ -53,5 +60,13 @@ public class TestUriMatcher extends AndroidTestCase {
                 testMatcher.match(TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR), WeatherProvider.WEATHER_WITH_LOCATION_AND_DATE);
         assertEquals("Error: The LOCATION URI was matched incorrectly.",
                 testMatcher.match(TEST_LOCATION_DIR), WeatherProvider.LOCATION);
+        assertEquals("Error: The CACHE STATS URI was matched incorrectly.",
+                testMatcher.match(TEST_CACHE_STATS), WeatherProvider.CACHE_STATS);
+        assertEquals("Error: The ARCHIVE URI was matched incorrectly.",
+                testMatcher.match(TEST_ARCHIVE_DIR), WeatherProvider.ARCHIVE);
+        assertEquals("Error: The PACKED FORECAST URI was matched incorrectly.",
+                testMatcher.match(TEST_PACKED_FORECAST_DIR), WeatherProvider.PACKED_FORECAST);
+        assertEquals("Error: The PACKED FORECAST WITH LOCATION URI was matched incorrectly.",
+                testMatcher.match(TEST_PACKED_FORECAST_WITH_LOCATION), WeatherProvider.PACKED_FORECAST_WITH_LOCATION);
     }
 }
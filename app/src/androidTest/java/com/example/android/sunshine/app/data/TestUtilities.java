@@ -19,6 +19,7 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.database.ContentObserver;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.Handler;
@@ -38,6 +39,7 @@ import java.util.Set;
 public class TestUtilities extends AndroidTestCase {
     static final String TEST_LOCATION = "99705";
     static final long TEST_DATE = 1419033600L;  // December 20th, 2014
+    static final long MILLISECONDS_IN_A_DAY = 1000 * 60 * 60 * 24;
 
     static void validateCursor(String error, Cursor valueCursor, ContentValues expectedValues) {
         assertTrue("Empty cursor returned. " + error, valueCursor.moveToFirst());
@@ -77,6 +79,20 @@ public class TestUtilities extends AndroidTestCase {
         return weatherValues;
     }
 
+    /*
+        The default weather values for each of the given number of days from TEST_DATE on, so
+        that none of them replace each other.
+     */
+    static ContentValues[] createWeatherValues(long locationRowId, int days) {
+        ContentValues[] values = new ContentValues[days];
+        for (int day = 0; day < days; day++) {
+            values[day] = createWeatherValues(locationRowId);
+            values[day].put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                    TEST_DATE + day * MILLISECONDS_IN_A_DAY);
+        }
+        return values;
+    }
+
     /*
         Students: You can uncomment this helper function once you have finished creating the
         LocationEntry part of the WeatherContract.
@@ -92,6 +108,15 @@ public class TestUtilities extends AndroidTestCase {
         return testValues;
     }
 
+    /*
+        The North Pole under another location setting, for tests that store several locations.
+     */
+    static ContentValues createLocationValues(String locationSetting) {
+        ContentValues testValues = createNorthPoleLocationValues();
+        testValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        return testValues;
+    }
+
     /*
         Students: You can uncomment this function once you have finished creating the
         LocationEntry part of the WeatherContract as well as the WeatherDbHelper.
@@ -111,6 +136,15 @@ public class TestUtilities extends AndroidTestCase {
         return locationRowId;
     }
 
+    /*
+        The bytes of the database in use, leaving out the pages freed by deletes.
+     */
+    static long getDatabaseSize(SQLiteDatabase db) {
+        long pages = DatabaseUtils.longForQuery(db, "PRAGMA page_count", null)
+                - DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+        return pages * DatabaseUtils.longForQuery(db, "PRAGMA page_size", null);
+    }
+
     /*
         Students: The functions we provide inside of TestProvider use this utility class to test
         the ContentObserver callbacks using the PollingCheck class that we grabbed from the Android
@@ -0,0 +1,262 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.ArchiveEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Checks that past days move from the weather table into the archive, that compaction folds
+    days into weeks and weeks into months without losing a day, and drops the months past
+    their retention.  Then compacts a year of history for 100 locations, logging the size of
+    the database before and after and how long compaction took.
+ */
+public class TestWeatherArchive extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestWeatherArchive.class.getSimpleName();
+
+    private static final int LOCATIONS = 100;
+    private static final int DAYS_OF_HISTORY = 365;
+
+    private WeatherProvider mProvider;
+    private WeatherDbHelper mHelper;
+    private final Time mTime = new Time();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mProvider = new WeatherProvider();
+        mProvider.attachInfo(mContext, null);
+        mHelper = new WeatherDbHelper(mContext);
+        mProvider.setOpenHelper(mHelper);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mProvider.shutdown();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    private long insertLocations(SQLiteDatabase db, int count) {
+        long firstId = -1;
+        for (int i = 0; i < count; i++) {
+            long id = db.insert(LocationEntry.TABLE_NAME, null,
+                    TestUtilities.createLocationValues("test-location-" + i));
+            assertTrue(id != -1);
+            if (firstId == -1) {
+                firstId = id;
+            }
+        }
+        return firstId;
+    }
+
+    private long dateOf(int julianDay) {
+        return mTime.setJulianDay(julianDay);
+    }
+
+    // A Monday, as Julian day numbers divisible by 7 are
+    private int mondayBefore(long date) {
+        mTime.set(date);
+        int julianDay = Time.getJulianDay(date, mTime.gmtoff);
+        return julianDay - julianDay % 7 - 7;
+    }
+
+    /**
+     * Adds a day tier row for every day from firstJulianDay on, with the wind turning a
+     * degree a day.
+     */
+    private static void seedDays(SQLiteDatabase db, Time time, long locationId,
+                                 int firstJulianDay, int days) {
+        SQLiteStatement insert = db.compileStatement("INSERT INTO " + ArchiveEntry.TABLE_NAME
+                + " (" + ArchiveEntry.COLUMN_LOC_KEY + ", " + ArchiveEntry.COLUMN_TIER + ", "
+                + ArchiveEntry.COLUMN_START_DATE + ", " + ArchiveEntry.COLUMN_DAYS + ", "
+                + ArchiveEntry.COLUMN_WEATHER_ID + ", " + ArchiveEntry.COLUMN_MIN_TEMP + ", "
+                + ArchiveEntry.COLUMN_MAX_TEMP + ", " + ArchiveEntry.COLUMN_HUMIDITY + ", "
+                + ArchiveEntry.COLUMN_PRESSURE + ", " + ArchiveEntry.COLUMN_WIND_SPEED + ", "
+                + ArchiveEntry.COLUMN_DEGREES + ") VALUES (?, ?, ?, 1, ?, ?, ?, ?, ?, ?, ?)");
+        try {
+            for (int day = 0; day < days; day++) {
+                insert.bindLong(1, locationId);
+                insert.bindLong(2, ArchiveEntry.TIER_DAY);
+                insert.bindLong(3, time.setJulianDay(firstJulianDay + day));
+                insert.bindLong(4, 800 - day % 600);
+                insert.bindDouble(5, day % 30);
+                insert.bindDouble(6, day % 30 + 10);
+                insert.bindDouble(7, 50);
+                insert.bindDouble(8, 1000);
+                insert.bindDouble(9, 5.5);
+                insert.bindDouble(10, day % 360);
+                insert.executeInsert();
+            }
+        } finally {
+            insert.close();
+        }
+    }
+
+    private static long sumDays(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db, "SELECT SUM(" + ArchiveEntry.COLUMN_DAYS
+                + ") FROM " + ArchiveEntry.TABLE_NAME, null);
+    }
+
+    private static long countTier(SQLiteDatabase db, int tier) {
+        return DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM " + ArchiveEntry.TABLE_NAME
+                + " WHERE " + ArchiveEntry.COLUMN_TIER + " = " + tier, null);
+    }
+
+    private static long minStartDate(SQLiteDatabase db, int tier) {
+        return DatabaseUtils.longForQuery(db, "SELECT MIN(" + ArchiveEntry.COLUMN_START_DATE
+                + ") FROM " + ArchiveEntry.TABLE_NAME + " WHERE " + ArchiveEntry.COLUMN_TIER
+                + " = " + tier, null);
+    }
+
+    public void testArchiveMovesPastDays() {
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+        long locationId = insertLocations(db, 1);
+        ContentValues[] values = TestUtilities.createWeatherValues(locationId, 10);
+        assertEquals(values.length, mProvider.bulkInsert(WeatherEntry.CONTENT_URI, values));
+
+        long lastDate = TestUtilities.TEST_DATE + 4 * TestUtilities.MILLISECONDS_IN_A_DAY;
+        assertEquals(5, mProvider.archiveWeather(lastDate));
+        assertEquals(5, DatabaseUtils.queryNumEntries(db, WeatherEntry.TABLE_NAME));
+        assertEquals("Error: Past days were not archived", 5,
+                countTier(db, ArchiveEntry.TIER_DAY));
+
+        Cursor cursor = mProvider.query(ArchiveEntry.CONTENT_URI, null, null, null,
+                ArchiveEntry.COLUMN_START_DATE + " DESC");
+        assertNotNull(cursor);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(WeatherContract.normalizeDate(lastDate),
+                cursor.getLong(cursor.getColumnIndex(ArchiveEntry.COLUMN_START_DATE)));
+        assertEquals(321, cursor.getInt(cursor.getColumnIndex(ArchiveEntry.COLUMN_WEATHER_ID)));
+        cursor.close();
+
+        // Archiving the same days again moves nothing
+        assertEquals(0, mProvider.archiveWeather(lastDate));
+        assertEquals(5, countTier(db, ArchiveEntry.TIER_DAY));
+    }
+
+    public void testCompactionKeepsEveryDay() {
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+        long locationId = insertLocations(db, 1);
+        long today = System.currentTimeMillis();
+        int firstJulianDay = mondayBefore(today) - 119;
+        seedDays(db, mTime, locationId, firstJulianDay, 120);
+
+        WeatherArchive archive = new WeatherArchive(new WeatherArchive.Config(14, 60, 3650, 8));
+        archive.compact(db, today);
+        assertEquals("Error: Compaction lost days", 120, sumDays(db));
+        assertTrue("Error: Days were not folded into weeks",
+                countTier(db, ArchiveEntry.TIER_WEEK) > 0);
+        assertTrue("Error: Weeks were not folded into months",
+                countTier(db, ArchiveEntry.TIER_MONTH) > 0);
+        // Days are kept for two weeks, plus the days of the week that reaches back past that
+        assertTrue(minStartDate(db, ArchiveEntry.TIER_DAY)
+                >= today - 21 * TestUtilities.MILLISECONDS_IN_A_DAY);
+
+        // Compacting again has nothing left to do
+        long rows = DatabaseUtils.queryNumEntries(db, ArchiveEntry.TABLE_NAME);
+        archive.compact(db, today);
+        assertEquals(rows, DatabaseUtils.queryNumEntries(db, ArchiveEntry.TABLE_NAME));
+    }
+
+    public void testOldMonthsAreDropped() {
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+        long locationId = insertLocations(db, 1);
+        long today = System.currentTimeMillis();
+        seedDays(db, mTime, locationId, mondayBefore(today) - 399, 400);
+
+        new WeatherArchive(new WeatherArchive.Config(14, 60, 180, 8)).compact(db, today);
+        assertTrue("Error: Months past their retention were kept",
+                minStartDate(db, ArchiveEntry.TIER_MONTH)
+                        >= today - (180 + 31) * TestUtilities.MILLISECONDS_IN_A_DAY);
+        assertTrue(sumDays(db) < 400);
+    }
+
+    public void testWeekAggregates() {
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+        long locationId = insertLocations(db, 1);
+        long today = System.currentTimeMillis();
+        int monday = mondayBefore(today) - 70;
+        seedDays(db, mTime, locationId, monday, 7);
+        // The wind swings either side of north, and one day has a thunderstorm
+        ContentValues values = new ContentValues();
+        values.put(ArchiveEntry.COLUMN_DEGREES, 350);
+        db.update(ArchiveEntry.TABLE_NAME, values, ArchiveEntry.COLUMN_START_DATE + " IN (?, ?)",
+                new String[]{Long.toString(dateOf(monday)), Long.toString(dateOf(monday + 2))});
+        values.put(ArchiveEntry.COLUMN_DEGREES, 10);
+        db.update(ArchiveEntry.TABLE_NAME, values, ArchiveEntry.COLUMN_START_DATE + " IN (?, ?)",
+                new String[]{Long.toString(dateOf(monday + 1)), Long.toString(dateOf(monday + 3))});
+        values.clear();
+        values.put(ArchiveEntry.COLUMN_DEGREES, 0);
+        db.update(ArchiveEntry.TABLE_NAME, values, ArchiveEntry.COLUMN_START_DATE + " > ?",
+                new String[]{Long.toString(dateOf(monday + 3))});
+        values.clear();
+        values.put(ArchiveEntry.COLUMN_WEATHER_ID, 211);
+        db.update(ArchiveEntry.TABLE_NAME, values, ArchiveEntry.COLUMN_START_DATE + " = ?",
+                new String[]{Long.toString(dateOf(monday + 5))});
+
+        new WeatherArchive(new WeatherArchive.Config(14, 3000, 3650, 8)).compact(db, today);
+        Cursor cursor = db.query(ArchiveEntry.TABLE_NAME, null, null, null, null, null, null);
+        assertEquals("Error: The week was not folded into one row", 1, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals(ArchiveEntry.TIER_WEEK,
+                cursor.getInt(cursor.getColumnIndex(ArchiveEntry.COLUMN_TIER)));
+        assertEquals(dateOf(monday),
+                cursor.getLong(cursor.getColumnIndex(ArchiveEntry.COLUMN_START_DATE)));
+        assertEquals(7, cursor.getInt(cursor.getColumnIndex(ArchiveEntry.COLUMN_DAYS)));
+        assertEquals("Error: The week's weather is not its stormiest day's", 211,
+                cursor.getInt(cursor.getColumnIndex(ArchiveEntry.COLUMN_WEATHER_ID)));
+        assertEquals(0, cursor.getDouble(cursor.getColumnIndex(ArchiveEntry.COLUMN_MIN_TEMP)), 0);
+        assertEquals(16, cursor.getDouble(cursor.getColumnIndex(ArchiveEntry.COLUMN_MAX_TEMP)), 0);
+        assertEquals(50, cursor.getDouble(cursor.getColumnIndex(ArchiveEntry.COLUMN_HUMIDITY)),
+                1e-9);
+        double degrees = cursor.getDouble(cursor.getColumnIndex(ArchiveEntry.COLUMN_DEGREES));
+        assertTrue("Error: The mean wind direction was " + degrees,
+                degrees < 1e-6 || degrees > 360 - 1e-6);
+        cursor.close();
+    }
+
+    public void testCompactionBenchmark() {
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+        long firstLocationId = insertLocations(db, LOCATIONS);
+        long today = System.currentTimeMillis();
+        int firstJulianDay = mondayBefore(today) - DAYS_OF_HISTORY;
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < LOCATIONS; i++) {
+                seedDays(db, mTime, firstLocationId + i, firstJulianDay, DAYS_OF_HISTORY);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        long rowsBefore = DatabaseUtils.queryNumEntries(db, ArchiveEntry.TABLE_NAME);
+        long sizeBefore = TestUtilities.getDatabaseSize(db);
+
+        WeatherArchive archive = new WeatherArchive(
+                WeatherArchive.Config.fromResources(mContext.getResources()));
+        long start = System.nanoTime();
+        int transactions = archive.compact(db, today);
+        long compactMillis = (System.nanoTime() - start) / 1000000;
+        long rowsAfter = DatabaseUtils.queryNumEntries(db, ArchiveEntry.TABLE_NAME);
+        long sizeAfter = TestUtilities.getDatabaseSize(db);
+
+        Log.i(LOG_TAG, DAYS_OF_HISTORY + " days of history for " + LOCATIONS + " locations: "
+                + rowsBefore + " rows, " + sizeBefore / 1024 + " KB kept as days, " + rowsAfter
+                + " rows, " + sizeAfter / 1024 + " KB compacted, in " + compactMillis + " ms and "
+                + transactions + " transactions");
+        assertEquals("Error: Compaction lost days", (long) LOCATIONS * DAYS_OF_HISTORY,
+                sumDays(db));
+        assertTrue("Error: Compaction did not shrink the database", sizeAfter < sizeBefore);
+    }
+}
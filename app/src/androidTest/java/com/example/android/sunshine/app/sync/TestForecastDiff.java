@@ -0,0 +1,93 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherColumnBatch;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Checks that ForecastDiff only lets through the days whose forecast differs from what is
+    stored.
+ */
+public class TestForecastDiff extends AndroidTestCase {
+
+    private static final int DAYS = 14;
+    private static final long MILLISECONDS_IN_A_DAY = 1000 * 60 * 60 * 24;
+    private static final long TEST_DATE = 1419033600L;
+
+    private long mLocationRowId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAll();
+        ContentValues values = new ContentValues();
+        values.put(LocationEntry.COLUMN_LOCATION_SETTING, "99705");
+        values.put(LocationEntry.COLUMN_CITY_NAME, "North Pole");
+        values.put(LocationEntry.COLUMN_COORD_LAT, 64.7488);
+        values.put(LocationEntry.COLUMN_COORD_LONG, -147.353);
+        mLocationRowId = ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, values));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAll();
+        super.tearDown();
+    }
+
+    private void deleteAll() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private WeatherColumnBatch createForecast(int changedDay) {
+        WeatherColumnBatch batch = new WeatherColumnBatch(DAYS);
+        for (int day = 0; day < DAYS; day++) {
+            double high = day == changedDay ? 30 : 20;
+            batch.add(mLocationRowId, TEST_DATE + day * MILLISECONDS_IN_A_DAY, 800, "Clear",
+                    10, high, 50, 1000, 2, 90);
+        }
+        return batch;
+    }
+
+    public void testNothingStoredMeansEverythingChanged() {
+        ContentResolver resolver = mContext.getContentResolver();
+        assertEquals(DAYS, ForecastDiff.findChangedRows(resolver, createForecast(-1)).size());
+    }
+
+    public void testSameForecastWritesNothing() {
+        ContentResolver resolver = mContext.getContentResolver();
+        createForecast(-1).insert(resolver);
+        assertEquals("Error: An unchanged forecast would be written again",
+                0, ForecastDiff.findChangedRows(resolver, createForecast(-1)).size());
+    }
+
+    public void testOnlyChangedDayIsWritten() {
+        ContentResolver resolver = mContext.getContentResolver();
+        createForecast(-1).insert(resolver);
+
+        WeatherColumnBatch changed = ForecastDiff.findChangedRows(resolver, createForecast(3));
+        assertEquals(1, changed.size());
+        assertEquals(WeatherContract.normalizeDate(TEST_DATE + 3 * MILLISECONDS_IN_A_DAY),
+                WeatherContract.normalizeDate(changed.getDate(0)));
+
+        changed.insert(resolver);
+        assertEquals(0, ForecastDiff.findChangedRows(resolver, createForecast(3)).size());
+    }
+
+    public void testRowsWithoutFingerprintCountAsChanged() {
+        ContentResolver resolver = mContext.getContentResolver();
+        createForecast(-1).insert(resolver);
+        ContentValues values = new ContentValues();
+        values.putNull(WeatherEntry.COLUMN_FINGERPRINT);
+        resolver.update(WeatherEntry.CONTENT_URI, values, null, null);
+
+        assertEquals(DAYS, ForecastDiff.findChangedRows(resolver, createForecast(-1)).size());
+    }
+}
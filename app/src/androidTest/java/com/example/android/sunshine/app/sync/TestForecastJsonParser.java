@@ -0,0 +1,194 @@
+package com.example.android.sunshine.app.sync;
+
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.HttpURLConnection;
+
+/*
+    Checks that the streaming and tree based forecast parsers agree, and compares what each of them
+    costs on forecasts of 14, 16 and 1000 days.  The benchmark only logs its numbers, look for
+    the TestForecastJsonParser tag in logcat.
+ */
+public class TestForecastJsonParser extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastJsonParser.class.getSimpleName();
+
+    private static final int BENCHMARK_ITERATIONS = 20;
+
+    /*
+        Builds a response shaped like the one returned by the OpenWeatherMap daily forecast API.
+        The "city" member is written after the "list" when cityLast is set, which is legal JSON
+        the streaming parser has to cope with.
+     */
+    static String createForecastJson(int numDays, boolean cityLast) {
+        StringBuilder city = new StringBuilder()
+                .append("\"city\":{\"id\":5375480,\"name\":\"Mountain View\",")
+                .append("\"coord\":{\"lon\":-122.083847,\"lat\":37.386051},")
+                .append("\"country\":\"US\",\"population\":0}");
+
+        StringBuilder json = new StringBuilder(numDays * 320 + 256)
+                .append("{\"cod\":\"200\",\"message\":0.0123,");
+        if (!cityLast) {
+            json.append(city).append(',');
+        }
+        json.append("\"cnt\":").append(numDays).append(",\"list\":[");
+        for (int i = 0; i < numDays; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"dt\":").append(1419033600L + i * 86400L)
+                    .append(",\"temp\":{\"day\":20.5,\"min\":").append(10 + i % 7)
+                    .append(".25,\"max\":").append(20 + i % 9)
+                    .append(".75,\"night\":11.2,\"eve\":18.3,\"morn\":12.1},")
+                    .append("\"pressure\":1012.").append(i % 10)
+                    .append(",\"humidity\":").append(40 + i % 50)
+                    .append(",\"weather\":[{\"id\":").append(800 + i % 5)
+                    .append(",\"main\":\"Clear\",\"description\":\"sky is clear\",\"icon\":\"01d\"}]")
+                    .append(",\"speed\":").append(1 + i % 6)
+                    .append(".5,\"deg\":").append(i % 360)
+                    .append(",\"clouds\":0}");
+        }
+        json.append(']');
+        if (cityLast) {
+            json.append(',').append(city);
+        }
+        return json.append('}').toString();
+    }
+
+    /*
+        Remembers everything a parser reported so that two parsers can be compared.
+     */
+    static class RecordingListener implements ForecastJsonParser.Listener {
+        final StringBuilder mRecord = new StringBuilder();
+        int mDays;
+
+        @Override
+        public void onCity(String cityName, double lat, double lon) {
+            mRecord.append("city:").append(cityName).append(',').append(lat).append(',')
+                    .append(lon).append('\n');
+        }
+
+        @Override
+        public void onDay(int dayIndex, int weatherId, String description, double high,
+                          double low, double pressure, int humidity, double windSpeed,
+                          double windDirection) {
+            mDays++;
+            mRecord.append(dayIndex).append(':').append(weatherId).append(',')
+                    .append(description).append(',').append(high).append(',').append(low)
+                    .append(',').append(pressure).append(',').append(humidity).append(',')
+                    .append(windSpeed).append(',').append(windDirection).append('\n');
+        }
+    }
+
+    /*
+        Does nothing with the values, so the benchmark only measures the parsers themselves.
+     */
+    static class NullListener implements ForecastJsonParser.Listener {
+        @Override
+        public void onCity(String cityName, double lat, double lon) {
+        }
+
+        @Override
+        public void onDay(int dayIndex, int weatherId, String description, double high,
+                          double low, double pressure, int humidity, double windSpeed,
+                          double windDirection) {
+        }
+    }
+
+    public void testStreamMatchesTree() throws Exception {
+        String json = createForecastJson(14, false);
+
+        RecordingListener tree = new RecordingListener();
+        assertEquals(HttpURLConnection.HTTP_OK, ForecastJsonParser.parseTree(json, tree));
+
+        RecordingListener stream = new RecordingListener();
+        assertEquals(HttpURLConnection.HTTP_OK,
+                ForecastJsonParser.parseStream(new StringReader(json), stream));
+
+        assertEquals("Error: Streaming parser reported a different number of days",
+                14, stream.mDays);
+        assertEquals("Error: Streaming parser disagrees with the tree parser",
+                tree.mRecord.toString(), stream.mRecord.toString());
+    }
+
+    public void testStreamAcceptsCityAfterList() throws Exception {
+        RecordingListener stream = new RecordingListener();
+        assertEquals(HttpURLConnection.HTTP_OK, ForecastJsonParser.parseStream(
+                new StringReader(createForecastJson(16, true)), stream));
+        assertEquals(16, stream.mDays);
+        assertTrue("Error: City was not reported", stream.mRecord.indexOf("city:") >= 0);
+    }
+
+    public void testStreamReportsErrorCode() throws Exception {
+        String json = "{\"cod\":\"404\",\"message\":\"Error: Not found city\"}";
+        RecordingListener stream = new RecordingListener();
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND,
+                ForecastJsonParser.parseStream(new StringReader(json), stream));
+        assertEquals(0, stream.mDays);
+    }
+
+    public void testStreamRejectsIncompleteDay() throws IOException {
+        String json = createForecastJson(2, false).replace("\"humidity\":", "\"moisture\":");
+        try {
+            ForecastJsonParser.parseStream(new StringReader(json), new NullListener());
+            fail("Error: A day without humidity should not be accepted");
+        } catch (JSONException expected) {
+        }
+    }
+
+    public void testParserBenchmark() throws Exception {
+        int[] dayCounts = {14, 16, 1000};
+        for (int numDays : dayCounts) {
+            String json = createForecastJson(numDays, false);
+
+            // Warm up both paths so the first measured run is not paying for class loading
+            ForecastJsonParser.parseTree(json, new NullListener());
+            ForecastJsonParser.parseStream(new StringReader(json), new NullListener());
+
+            long treeStart = System.nanoTime();
+            long treeBytes = 0;
+            for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+                treeBytes += measureAllocations(json, false);
+            }
+            long treeNanos = System.nanoTime() - treeStart;
+
+            long streamStart = System.nanoTime();
+            long streamBytes = 0;
+            for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+                streamBytes += measureAllocations(json, true);
+            }
+            long streamNanos = System.nanoTime() - streamStart;
+
+            Log.i(LOG_TAG, String.format("%d days: tree %.3f ms / %d bytes, stream %.3f ms / %d bytes",
+                    numDays,
+                    treeNanos / 1e6 / BENCHMARK_ITERATIONS, treeBytes / BENCHMARK_ITERATIONS,
+                    streamNanos / 1e6 / BENCHMARK_ITERATIONS, streamBytes / BENCHMARK_ITERATIONS));
+        }
+    }
+
+    /*
+        Returns the number of bytes allocated on this thread while parsing.  The tree parser is
+        charged for the String it needs, as it cannot start until the whole response is read.
+     */
+    @SuppressWarnings("deprecation")
+    private static long measureAllocations(String json, boolean streaming) throws Exception {
+        Debug.resetThreadAllocSize();
+        Debug.startAllocCounting();
+        try {
+            if (streaming) {
+                ForecastJsonParser.parseStream(new StringReader(json), new NullListener());
+            } else {
+                ForecastJsonParser.parseTree(new String(json.toCharArray()), new NullListener());
+            }
+            return Debug.getThreadAllocSize();
+        } finally {
+            Debug.stopAllocCounting();
+        }
+    }
+}
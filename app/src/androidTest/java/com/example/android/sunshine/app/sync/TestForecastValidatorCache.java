@@ -0,0 +1,106 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.utils.LocalHttpServer;
+
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/*
+    Drives ForecastValidatorCache against a local stand-in for OpenWeatherMap that honours
+    If-None-Match, and checks that unchanged forecasts come back as counted 304s.
+ */
+public class TestForecastValidatorCache extends AndroidTestCase {
+
+    private static final String TEST_PREFS_NAME = "test_forecast_validators";
+    private static final String FORECAST_ETAG = "\"forecast-v1\"";
+    private static final String FORECAST_BODY = TestForecastJsonParser.createForecastJson(14, false);
+
+    private LocalHttpServer mServer;
+    private ForecastValidatorCache mCache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        SharedPreferences prefs = mContext.getSharedPreferences(TEST_PREFS_NAME, Context.MODE_PRIVATE);
+        prefs.edit().clear().commit();
+        mCache = new ForecastValidatorCache(prefs);
+
+        mServer = new LocalHttpServer(new LocalHttpServer.Handler() {
+            @Override
+            public LocalHttpServer.Response handle(LocalHttpServer.Request request) {
+                if (FORECAST_ETAG.equals(request.getHeader("If-None-Match"))) {
+                    return new LocalHttpServer.Response(HttpURLConnection.HTTP_NOT_MODIFIED, (String) null)
+                            .header("ETag", FORECAST_ETAG);
+                }
+                return new LocalHttpServer.Response(HttpURLConnection.HTTP_OK, FORECAST_BODY)
+                        .header("ETag", FORECAST_ETAG)
+                        .header("Content-Type", "application/json");
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        super.tearDown();
+    }
+
+    public void testSecondFetchIsNotModified() throws Exception {
+        String url = mServer.getUrl() + "/data/2.5/forecast/daily?q=94043";
+
+        // The first fetch has nothing to validate against, so it downloads the full forecast
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        assertFalse("Error: Nothing should be remembered yet", mCache.addValidators(connection, url));
+        assertFalse(mCache.isNotModified(connection, url));
+        drain(connection);
+        mCache.storeValidators(connection, url);
+        connection.disconnect();
+
+        // The second fetch sends the ETag back and is answered with a 304
+        connection = (HttpURLConnection) new URL(url).openConnection();
+        assertTrue("Error: ETag was not remembered", mCache.addValidators(connection, url));
+        assertTrue("Error: Unchanged forecast was fetched again", mCache.isNotModified(connection, url));
+        connection.disconnect();
+
+        assertEquals(1, mCache.getHitCount());
+        assertEquals(1, mCache.getMissCount());
+        assertEquals(FORECAST_BODY.getBytes().length, mCache.getBytesSaved());
+        assertEquals(2, mServer.getRequestCount());
+    }
+
+    public void testInvalidateForcesFullFetch() throws Exception {
+        String url = mServer.getUrl() + "/data/2.5/forecast/daily?q=94043";
+
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        mCache.addValidators(connection, url);
+        assertFalse(mCache.isNotModified(connection, url));
+        drain(connection);
+        mCache.storeValidators(connection, url);
+        connection.disconnect();
+
+        mCache.invalidate(url);
+
+        connection = (HttpURLConnection) new URL(url).openConnection();
+        assertFalse(mCache.addValidators(connection, url));
+        assertFalse(mCache.isNotModified(connection, url));
+        drain(connection);
+        connection.disconnect();
+
+        assertEquals(0, mCache.getHitCount());
+        assertEquals(2, mCache.getMissCount());
+    }
+
+    private static void drain(HttpURLConnection connection) throws Exception {
+        InputStream in = connection.getInputStream();
+        byte[] buffer = new byte[4096];
+        while (in.read(buffer) != -1) {
+            // discard
+        }
+        in.close();
+    }
+}
@@ -0,0 +1,127 @@
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.utils.LocalHttpServer;
+
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    Runs LocationSyncEngine against a local stand-in for OpenWeatherMap which answers every
+    request after a fixed delay, and logs how long syncing 1, 10 and 100 locations takes.
+ */
+public class TestLocationSyncEngine extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestLocationSyncEngine.class.getSimpleName();
+
+    private static final long SERVER_DELAY_MILLIS = 50;
+    private static final int TIMEOUT_MILLIS = 30000;
+    private static final String FORECAST_BODY = TestForecastJsonParser.createForecastJson(14, false);
+
+    private LocalHttpServer mServer;
+    private final AtomicInteger mInFlight = new AtomicInteger();
+    private final AtomicInteger mMaxInFlight = new AtomicInteger();
+    private volatile long mDelayMillis = SERVER_DELAY_MILLIS;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new LocalHttpServer(new LocalHttpServer.Handler() {
+            @Override
+            public LocalHttpServer.Response handle(LocalHttpServer.Request request) throws Exception {
+                int inFlight = mInFlight.incrementAndGet();
+                try {
+                    int max;
+                    while (inFlight > (max = mMaxInFlight.get())
+                            && !mMaxInFlight.compareAndSet(max, inFlight)) {
+                        // retry
+                    }
+                    Thread.sleep(mDelayMillis);
+                    return new LocalHttpServer.Response(HttpURLConnection.HTTP_OK, FORECAST_BODY);
+                } finally {
+                    mInFlight.decrementAndGet();
+                }
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        super.tearDown();
+    }
+
+    private ForecastFetcher createFetcher(int timeoutMillis) {
+        return new ForecastFetcher(mContext, mServer.getUrl() + "/data/2.5/forecast/daily?",
+                timeoutMillis);
+    }
+
+    private static List<String> createLocations(int count) {
+        List<String> locations = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            locations.add("test-location-" + i);
+        }
+        return locations;
+    }
+
+    public void testAllLocationsSucceed() {
+        List<String> locations = createLocations(10);
+        List<LocationSyncEngine.Result> results = new LocationSyncEngine(
+                new LocationSyncEngine.Config(4, 4, TIMEOUT_MILLIS))
+                .syncAll(locations, createFetcher(TIMEOUT_MILLIS));
+
+        assertEquals(locations.size(), results.size());
+        for (int i = 0; i < results.size(); i++) {
+            LocationSyncEngine.Result result = results.get(i);
+            assertEquals("Error: Results are not in location order",
+                    locations.get(i), result.getLocationSetting());
+            assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, result.getStatus());
+            assertEquals(14, result.mForecast.mWeather.size());
+        }
+    }
+
+    public void testPerHostCapIsRespected() {
+        new LocationSyncEngine(new LocationSyncEngine.Config(8, 2, TIMEOUT_MILLIS))
+                .syncAll(createLocations(12), createFetcher(TIMEOUT_MILLIS));
+        assertTrue("Error: More requests in flight than the per-host cap allows",
+                mMaxInFlight.get() <= 2);
+    }
+
+    public void testTimeoutAbandonsSlowLocations() {
+        mDelayMillis = 2000;
+        long start = System.nanoTime();
+        List<LocationSyncEngine.Result> results = new LocationSyncEngine(
+                new LocationSyncEngine.Config(2, 2, 500))
+                .syncAll(createLocations(4), createFetcher(5000));
+        long elapsedMillis = (System.nanoTime() - start) / 1000000;
+
+        assertTrue("Error: Sync ran for " + elapsedMillis + " ms", elapsedMillis < 1500);
+        for (LocationSyncEngine.Result result : results) {
+            assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN, result.getStatus());
+        }
+    }
+
+    public void testSyncBenchmark() {
+        int[] locationCounts = {1, 10, 100};
+        for (int count : locationCounts) {
+            List<String> locations = createLocations(count);
+
+            long sequentialStart = System.nanoTime();
+            new LocationSyncEngine(new LocationSyncEngine.Config(1, 1, 600000))
+                    .syncAll(locations, createFetcher(TIMEOUT_MILLIS));
+            long sequentialMillis = (System.nanoTime() - sequentialStart) / 1000000;
+
+            long parallelStart = System.nanoTime();
+            new LocationSyncEngine(new LocationSyncEngine.Config(8, 8, 600000))
+                    .syncAll(locations, createFetcher(TIMEOUT_MILLIS));
+            long parallelMillis = (System.nanoTime() - parallelStart) / 1000000;
+
+            Log.i(LOG_TAG, count + " locations: sequential " + sequentialMillis
+                    + " ms, 8 concurrent " + parallelMillis + " ms");
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.example.android.sunshine.app.sync;
+
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.utils.LocalHttpServer;
+
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    Drives ResilientFetcher against a local stand-in for OpenWeatherMap that injects faults:
+    a few failed responses before a good one, client errors, and an outage during which syncs
+    keep being asked for.  Logs the requests that reached the server and how long after the
+    outage ended the forecast came back.
+ */
+public class TestResilientFetcher extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestResilientFetcher.class.getSimpleName();
+
+    private static final String FORECAST_BODY = TestForecastJsonParser.createForecastJson(14, false);
+    private static final int TIMEOUT_MILLIS = 10000;
+    private static final int LOCATIONS = 5;
+    // Syncs asked for while the server is down, one every SYNC_SPACING_MILLIS
+    private static final int OUTAGE_SYNCS = 20;
+    private static final long SYNC_SPACING_MILLIS = 25;
+    private static final long OPEN_MILLIS = 100;
+    private static final long MAX_OPEN_MILLIS = 400;
+
+    private LocalHttpServer mServer;
+    // Failed responses still to give, or -1 to fail until told otherwise
+    private final AtomicInteger mFailuresLeft = new AtomicInteger();
+    private volatile int mFailureStatus = HttpURLConnection.HTTP_UNAVAILABLE;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new LocalHttpServer(new LocalHttpServer.Handler() {
+            @Override
+            public LocalHttpServer.Response handle(LocalHttpServer.Request request) {
+                int left = mFailuresLeft.get();
+                if (left < 0 || (left > 0 && mFailuresLeft.compareAndSet(left, left - 1))) {
+                    return new LocalHttpServer.Response(mFailureStatus, "{\"cod\":\""
+                            + mFailureStatus + "\"}");
+                }
+                return new LocalHttpServer.Response(HttpURLConnection.HTTP_OK, FORECAST_BODY);
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        super.tearDown();
+    }
+
+    private ResilientFetcher createFetcher(CircuitBreaker breaker) {
+        return new ResilientFetcher(new ForecastFetcher(mContext,
+                mServer.getUrl() + "/data/2.5/forecast/daily?", TIMEOUT_MILLIS),
+                new ResilientFetcher.RetryConfig(3, 10, 40), breaker);
+    }
+
+    // A breaker that never opens, to compare against
+    private static CircuitBreaker createNeverOpenBreaker() {
+        return new CircuitBreaker(Integer.MAX_VALUE, OPEN_MILLIS, MAX_OPEN_MILLIS);
+    }
+
+    private static List<String> createLocations() {
+        List<String> locations = new ArrayList<String>(LOCATIONS);
+        for (int i = 0; i < LOCATIONS; i++) {
+            locations.add("test-location-" + i);
+        }
+        return locations;
+    }
+
+    private static boolean allOk(List<LocationSyncEngine.Result> results) {
+        for (LocationSyncEngine.Result result : results) {
+            if (result.getStatus() != SunshineSyncAdapter.LOCATION_STATUS_OK) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void testTransientFailuresAreRetried() {
+        mFailuresLeft.set(2);
+        LocationSyncEngine.Result result = createFetcher(createNeverOpenBreaker())
+                .fetch("test-location");
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, result.getStatus());
+        assertEquals(3, result.mAttempts);
+        assertEquals(3, mServer.getRequestCount());
+    }
+
+    public void testClientErrorsAreNotRetried() {
+        mFailuresLeft.set(-1);
+        mFailureStatus = HttpURLConnection.HTTP_NOT_FOUND;
+        LocationSyncEngine.Result result = createFetcher(createNeverOpenBreaker())
+                .fetch("test-location");
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_INVALID, result.getStatus());
+        assertEquals(1, mServer.getRequestCount());
+
+        mFailureStatus = HttpURLConnection.HTTP_BAD_REQUEST;
+        result = createFetcher(createNeverOpenBreaker()).fetch("test-location");
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN, result.getStatus());
+        assertEquals(2, mServer.getRequestCount());
+    }
+
+    public void testRetryWaitLeavesConnectionToOtherLocations() {
+        // Fails "down" every time, without a request, and answers anything else at once
+        LocationSyncEngine.Fetcher stub = new LocationSyncEngine.Fetcher() {
+            @Override
+            public String getHost(String locationSetting) {
+                return "localhost";
+            }
+
+            @Override
+            public LocationSyncEngine.Result fetch(String locationSetting) {
+                LocationSyncEngine.Result result = new LocationSyncEngine.Result(locationSetting);
+                result.mStatus = "down".equals(locationSetting)
+                        ? SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN
+                        : SunshineSyncAdapter.LOCATION_STATUS_OK;
+                return result;
+            }
+        };
+        ResilientFetcher fetcher = new ResilientFetcher(stub,
+                new ResilientFetcher.RetryConfig(6, 1000, 1000), createNeverOpenBreaker());
+        List<String> locations = new ArrayList<String>();
+        locations.add("down");
+        locations.add("up");
+        // One connection to the host, shared by both locations
+        List<LocationSyncEngine.Result> results = new LocationSyncEngine(
+                new LocationSyncEngine.Config(2, 1, TIMEOUT_MILLIS)).syncAll(locations, fetcher);
+
+        assertEquals(6, results.get(0).mAttempts);
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, results.get(1).getStatus());
+        // Holding the connection through its waits, "down" would keep "up" for seconds
+        assertTrue("Error: Took " + results.get(1).getElapsedMillis() + " ms while another "
+                + "location waited to retry", results.get(1).getElapsedMillis() < 500);
+    }
+
+    /**
+     * Syncs every location OUTAGE_SYNCS times while the server is down, then keeps syncing
+     * until everything comes back.
+     *
+     * @return how long after the server recovered the first complete sync finished, in ms.
+     */
+    private long replayOutage(CircuitBreaker breaker, String mode) throws Exception {
+        LocationSyncEngine engine = new LocationSyncEngine(
+                new LocationSyncEngine.Config(LOCATIONS, LOCATIONS, TIMEOUT_MILLIS));
+        ResilientFetcher fetcher = createFetcher(breaker);
+        List<String> locations = createLocations();
+
+        mFailuresLeft.set(-1);
+        for (int i = 0; i < OUTAGE_SYNCS; i++) {
+            assertFalse(allOk(engine.syncAll(locations, fetcher)));
+            Thread.sleep(SYNC_SPACING_MILLIS);
+        }
+        int outageRequests = mServer.getRequestCount();
+
+        mFailuresLeft.set(0);
+        long recovered = SystemClock.elapsedRealtime();
+        int recoverySyncs = 0;
+        while (!allOk(engine.syncAll(locations, fetcher))) {
+            recoverySyncs++;
+            Thread.sleep(SYNC_SPACING_MILLIS);
+        }
+        long recoveryMillis = SystemClock.elapsedRealtime() - recovered;
+
+        Log.i(LOG_TAG, mode + ": " + outageRequests + " requests during " + OUTAGE_SYNCS
+                + " syncs of " + LOCATIONS + " locations while down, recovered "
+                + recoveryMillis + " ms after the server did, " + recoverySyncs
+                + " syncs failed meanwhile, breaker " + breaker);
+        return recoveryMillis;
+    }
+
+    public void testBreakerSparesFailingServer() throws Exception {
+        replayOutage(createNeverOpenBreaker(), "Retries only");
+        int requestsWithoutBreaker = mServer.getRequestCount();
+        assertEquals("Error: Failed fetches were not retried",
+                OUTAGE_SYNCS * LOCATIONS * 3 + LOCATIONS, requestsWithoutBreaker);
+
+        tearDown();
+        setUp();
+        CircuitBreaker breaker = new CircuitBreaker(3, OPEN_MILLIS, MAX_OPEN_MILLIS);
+        long recoveryMillis = replayOutage(breaker, "With breaker");
+        assertTrue("Error: The breaker did not cut the requests to a failing server",
+                mServer.getRequestCount() < requestsWithoutBreaker / 4);
+        assertTrue(breaker.getRejectedCount() > 0);
+        assertEquals(CircuitBreaker.STATE_CLOSED, breaker.getState());
+        // A trial goes out at most the longest open time after the server recovered
+        assertTrue("Error: Took " + recoveryMillis + " ms to recover",
+                recoveryMillis < MAX_OPEN_MILLIS + 1000);
+    }
+
+    public void testBreakerStates() {
+        CircuitBreaker breaker = new CircuitBreaker(2, 100, 400);
+        assertTrue(breaker.allowRequest(0));
+        breaker.onFailure(0);
+        assertTrue(breaker.allowRequest(0));
+        breaker.onFailure(0);
+        assertEquals(CircuitBreaker.STATE_OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest(99));
+        assertEquals(1, breaker.getRemainingOpenMillis(99));
+
+        // One trial, which fails and doubles the open time
+        assertTrue(breaker.allowRequest(100));
+        assertFalse(breaker.allowRequest(100));
+        breaker.onFailure(100);
+        assertFalse(breaker.allowRequest(299));
+        assertTrue(breaker.allowRequest(300));
+        breaker.onSuccess();
+        assertEquals(CircuitBreaker.STATE_CLOSED, breaker.getState());
+        assertEquals(2, breaker.getTripCount());
+    }
+}
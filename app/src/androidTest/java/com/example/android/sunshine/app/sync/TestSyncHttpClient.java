@@ -0,0 +1,161 @@
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.utils.LocalHttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.zip.GZIPOutputStream;
+
+/*
+    Makes sequential requests to a local server with SyncHttpClient, with and without
+    keep-alive, counting the connections the server accepted and logging how long the requests
+    took.  Also checks that gzip responses are decoded and that error responses leave the
+    connection reusable.
+ */
+public class TestSyncHttpClient extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestSyncHttpClient.class.getSimpleName();
+
+    private static final int REQUESTS = 50;
+    private static final int TIMEOUT_MILLIS = 10000;
+    private static final String FORECAST_BODY = TestForecastJsonParser.createForecastJson(14, false);
+
+    private LocalHttpServer mServer;
+    private byte[] mGzippedBody;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+        gzip.write(FORECAST_BODY.getBytes("UTF-8"));
+        gzip.close();
+        mGzippedBody = bytes.toByteArray();
+
+        mServer = new LocalHttpServer(new LocalHttpServer.Handler() {
+            @Override
+            public LocalHttpServer.Response handle(LocalHttpServer.Request request) {
+                if (request.path.startsWith("/missing")) {
+                    return new LocalHttpServer.Response(HttpURLConnection.HTTP_NOT_FOUND,
+                            "{\"cod\":\"404\"}");
+                }
+                String acceptEncoding = request.getHeader("Accept-Encoding");
+                if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+                    return new LocalHttpServer.Response(HttpURLConnection.HTTP_OK, mGzippedBody)
+                            .header("Content-Encoding", "gzip");
+                }
+                return new LocalHttpServer.Response(HttpURLConnection.HTTP_OK, FORECAST_BODY);
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        super.tearDown();
+    }
+
+    private static SyncHttpClient createClient(boolean keepAlive, boolean gzip) {
+        return new SyncHttpClient(
+                new SyncHttpClient.Config(TIMEOUT_MILLIS, TIMEOUT_MILLIS, keepAlive, gzip));
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            bytes.write(buffer, 0, read);
+        }
+        return bytes.toString("UTF-8");
+    }
+
+    /**
+     * @return the total time of the requests, in microseconds.
+     */
+    private long makeRequests(SyncHttpClient client, String mode) throws IOException {
+        SyncHttpClient.Timing total = new SyncHttpClient.Timing();
+        long start = System.nanoTime();
+        for (int i = 0; i < REQUESTS; i++) {
+            SyncHttpClient.Call call = client.newCall(mServer.getUrl() + "/forecast?i=" + i);
+            try {
+                assertEquals(HttpURLConnection.HTTP_OK, call.execute());
+                assertEquals(FORECAST_BODY, read(call.getBody()));
+            } finally {
+                call.close();
+            }
+            SyncHttpClient.Timing timing = call.getTiming();
+            total.mDnsMicros += timing.mDnsMicros;
+            total.mConnectMicros += timing.mConnectMicros;
+            total.mFirstByteMicros += timing.mFirstByteMicros;
+            total.mBodyMicros += timing.mBodyMicros;
+            total.mWireBytes += timing.mWireBytes;
+            total.mBodyBytes += timing.mBodyBytes;
+        }
+        long elapsedMicros = (System.nanoTime() - start) / 1000;
+        Log.i(LOG_TAG, mode + ": " + REQUESTS + " requests in " + elapsedMicros / 1000 + " ms over "
+                + mServer.getConnectionCount() + " connections, totals " + total);
+        return elapsedMicros;
+    }
+
+    public void testKeepAliveReusesConnections() throws Exception {
+        long reusedMicros = makeRequests(createClient(true, false), "Keep-alive");
+        int reusedConnections = mServer.getConnectionCount();
+        assertEquals(REQUESTS, mServer.getRequestCount());
+        // The platform pool may drop an idle connection, but not most of them
+        assertTrue("Error: " + reusedConnections + " connections for " + REQUESTS
+                + " sequential requests", reusedConnections <= 2);
+
+        tearDown();
+        setUp();
+        long freshMicros = makeRequests(createClient(false, false), "Connection per request");
+        assertEquals(REQUESTS, mServer.getConnectionCount());
+        Log.i(LOG_TAG, "Average request: " + reusedMicros / REQUESTS + " us with keep-alive, "
+                + freshMicros / REQUESTS + " us with a connection per request");
+    }
+
+    public void testGzipIsDecoded() throws Exception {
+        SyncHttpClient.Call call = createClient(true, true).newCall(mServer.getUrl() + "/forecast");
+        try {
+            assertEquals(HttpURLConnection.HTTP_OK, call.execute());
+            assertEquals(FORECAST_BODY, read(call.getBody()));
+        } finally {
+            call.close();
+        }
+        SyncHttpClient.Timing timing = call.getTiming();
+        Log.i(LOG_TAG, "Gzip: " + timing);
+        assertEquals(mGzippedBody.length, timing.mWireBytes);
+        assertEquals(FORECAST_BODY.getBytes("UTF-8").length, timing.mBodyBytes);
+        assertTrue(timing.mWireBytes < timing.mBodyBytes);
+    }
+
+    public void testErrorResponseKeepsConnection() throws Exception {
+        SyncHttpClient client = createClient(true, false);
+        SyncHttpClient.Call call = client.newCall(mServer.getUrl() + "/missing");
+        try {
+            assertEquals(HttpURLConnection.HTTP_NOT_FOUND, call.execute());
+        } finally {
+            // Closed without reading the body, which close drains
+            call.close();
+        }
+        makeRequests(client, "After an error");
+        assertTrue(mServer.getConnectionCount() <= 2);
+    }
+
+    public void testFetcherUsesSharedClient() throws Exception {
+        SyncHttpClient client = createClient(true, true);
+        ForecastFetcher fetcher = new ForecastFetcher(mContext,
+                mServer.getUrl() + "/data/2.5/forecast/daily?", client);
+        for (int i = 0; i < 5; i++) {
+            LocationSyncEngine.Result result = fetcher.fetch("test-location-" + i);
+            assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, result.getStatus());
+            assertNotNull(result.mTiming);
+        }
+        assertTrue(mServer.getConnectionCount() <= 2);
+    }
+}
@@ -0,0 +1,141 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.SyncResult;
+import android.database.Cursor;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    Stalls the wear stage of SyncPipeline, the way a watch that never answers blockingConnect
+    would, and checks that every sync still stores its weather in bounded time.
+ */
+public class TestSyncPipeline extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestSyncPipeline.class.getSimpleName();
+
+    private static final String TEST_LOCATION = "pipeline-test-location";
+    private static final int SYNCS = 5;
+    private static final int FAN_OUT_QUEUE_CAPACITY = 1;
+    // Far below the 30 seconds the wear stage is allowed to hang for
+    private static final long PERSIST_BOUND_MILLIS = 5000;
+
+    private final CountDownLatch mWearStarted = new CountDownLatch(1);
+    private final CountDownLatch mWearReleased = new CountDownLatch(1);
+    private final AtomicInteger mWearPushes = new AtomicInteger();
+    private final CountDownLatch mRefreshed = new CountDownLatch(1);
+    private SyncPipeline mPipeline;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAll();
+        mPipeline = new SyncPipeline(mContext, FAN_OUT_QUEUE_CAPACITY, new SyncPipeline.FanOut() {
+            @Override
+            public void pushToWear() {
+                mWearPushes.incrementAndGet();
+                mWearStarted.countDown();
+                try {
+                    mWearReleased.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            @Override
+            public void refresh() {
+                mRefreshed.countDown();
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mWearReleased.countDown();
+        mPipeline.shutdown();
+        deleteAll();
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit()
+                .remove(Utility.getLocationStatusKey(mContext, TEST_LOCATION))
+                .commit();
+        super.tearDown();
+    }
+
+    private void deleteAll() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    // Every sync brings a different forecast for today, so every one of them pushes to wear
+    private static List<LocationSyncEngine.Result> createResults(int sync) {
+        ForecastCollector forecast = new ForecastCollector();
+        forecast.onCity("North Pole", 64.7488, -147.353);
+        for (int day = 0; day < 14; day++) {
+            forecast.onDay(day, 800, "Clear", 20 + sync, 10, 1000, 50, 2, 90);
+        }
+        LocationSyncEngine.Result result = new LocationSyncEngine.Result(TEST_LOCATION);
+        result.mStatus = SunshineSyncAdapter.LOCATION_STATUS_OK;
+        result.mForecast = forecast;
+        result.mUrl = "http://localhost/" + TEST_LOCATION;
+
+        List<LocationSyncEngine.Result> results = new ArrayList<LocationSyncEngine.Result>(1);
+        results.add(result);
+        return results;
+    }
+
+    private int countStoredDays() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TEST_LOCATION), null, null, null, null);
+        assertNotNull(cursor);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    public void testPersistIsNotHeldByStalledWear() throws InterruptedException {
+        for (int sync = 0; sync < SYNCS; sync++) {
+            SyncResult syncResult = new SyncResult();
+            long start = System.nanoTime();
+            mPipeline.persist(createResults(sync), TEST_LOCATION, syncResult);
+            long elapsedMillis = (System.nanoTime() - start) / 1000000;
+
+            assertTrue("Error: Sync " + sync + " took " + elapsedMillis
+                    + " ms to store its weather behind a stalled wear push",
+                    elapsedMillis < PERSIST_BOUND_MILLIS);
+            assertEquals(14, syncResult.stats.numInserts);
+            assertEquals(14, countStoredDays());
+            if (sync == 0) {
+                assertTrue("Error: The wear push never started",
+                        mWearStarted.await(PERSIST_BOUND_MILLIS, TimeUnit.MILLISECONDS));
+            }
+        }
+
+        assertTrue("Error: The stalled wear push held up the refresh",
+                mRefreshed.await(PERSIST_BOUND_MILLIS, TimeUnit.MILLISECONDS));
+        SyncPipeline.StageMetrics wear = mPipeline.getMetrics(SyncPipeline.STAGE_WEAR);
+        assertEquals("Error: Wear pushes piled up behind the stalled one",
+                SYNCS - 1 - FAN_OUT_QUEUE_CAPACITY, wear.getDropped());
+        assertEquals(1, mWearPushes.get());
+
+        mWearReleased.countDown();
+        long deadline = System.currentTimeMillis() + PERSIST_BOUND_MILLIS;
+        while (wear.getRuns() < 1 + FAN_OUT_QUEUE_CAPACITY
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals("Error: The newest wear push did not run once the watch answered",
+                1 + FAN_OUT_QUEUE_CAPACITY, mWearPushes.get());
+        assertEquals(SYNCS, mPipeline.getMetrics(SyncPipeline.STAGE_PERSIST).getRuns());
+
+        Log.i(LOG_TAG, mPipeline.describeMetrics());
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/*
+    Drives SyncRequestCoordinator with a dispatcher that records what it is asked to do, so
+    that time only moves when the test says.  Replays a burst of requests like the one a
+    settings change and a location update make together, and logs how many syncs it turned
+    into.
+ */
+public class TestSyncRequestCoordinator extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestSyncRequestCoordinator.class.getSimpleName();
+
+    private static final long COALESCE_WINDOW_MILLIS = 1000;
+    private static final long FRESH_MILLIS = 60000;
+    private static final long IN_FLIGHT_TIMEOUT_MILLIS = 120000;
+
+    private static final String LOCATION = "94043";
+    private static final String OTHER_LOCATION = "10001";
+
+    /**
+     * Keeps the scheduled tasks until the test runs them, and the syncs asked for.
+     */
+    private static class RecordingDispatcher implements SyncRequestCoordinator.Dispatcher {
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        final List<List<String>> syncs = new ArrayList<List<String>>();
+        long now;
+
+        @Override
+        public void schedule(Runnable task, long delayMillis) {
+            assertEquals(COALESCE_WINDOW_MILLIS, delayMillis);
+            tasks.add(task);
+        }
+
+        @Override
+        public void requestSync(List<String> locationSettings) {
+            syncs.add(locationSettings);
+        }
+
+        @Override
+        public long now() {
+            return now;
+        }
+
+        void runTasks(long now) {
+            this.now = now;
+            List<Runnable> due = new ArrayList<Runnable>(tasks);
+            tasks.clear();
+            for (Runnable task : due) {
+                task.run();
+            }
+        }
+    }
+
+    private RecordingDispatcher mDispatcher;
+    private SyncRequestCoordinator mCoordinator;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDispatcher = new RecordingDispatcher();
+        mCoordinator = new SyncRequestCoordinator(mDispatcher, COALESCE_WINDOW_MILLIS,
+                FRESH_MILLIS, IN_FLIGHT_TIMEOUT_MILLIS);
+    }
+
+    public void testBurstBecomesOneSync() {
+        int burst = 20;
+        for (int i = 0; i < burst; i++) {
+            assertTrue(mCoordinator.request(i % 2 == 0 ? LOCATION : OTHER_LOCATION, i * 10, false));
+        }
+        assertEquals("Error: More than one flush was scheduled", 1, mDispatcher.tasks.size());
+        mDispatcher.runTasks(COALESCE_WINDOW_MILLIS);
+
+        assertEquals(1, mDispatcher.syncs.size());
+        List<String> synced = mDispatcher.syncs.get(0);
+        assertEquals(2, synced.size());
+        assertTrue(synced.contains(LOCATION) && synced.contains(OTHER_LOCATION));
+        assertEquals(burst, mCoordinator.getRequestedCount());
+        assertEquals(1, mCoordinator.getExecutedCount());
+        assertEquals(burst - 1, mCoordinator.getCoalescedCount());
+        Log.i(LOG_TAG, "Burst of " + burst + ": " + mCoordinator);
+    }
+
+    public void testRequestsJoinRunningSync() {
+        mCoordinator.request(LOCATION, 0, false);
+        mDispatcher.runTasks(COALESCE_WINDOW_MILLIS);
+
+        // Forced or not, a location already being synced is not synced again
+        assertTrue(mCoordinator.request(LOCATION, 2000, false));
+        assertTrue(mCoordinator.request(LOCATION, 3000, true));
+        assertEquals(2, mCoordinator.getJoinedCount());
+        assertTrue(mDispatcher.tasks.isEmpty());
+        assertEquals(1, mCoordinator.getExecutedCount());
+    }
+
+    public void testFreshLocationIsNotSyncedAgain() {
+        mCoordinator.request(LOCATION, 0, false);
+        mDispatcher.runTasks(COALESCE_WINDOW_MILLIS);
+        mCoordinator.onLocationSynced(LOCATION, true, 5000);
+
+        assertFalse(mCoordinator.request(LOCATION, 5000 + FRESH_MILLIS - 1, false));
+        assertEquals(1, mCoordinator.getFreshCount());
+        assertTrue(mDispatcher.tasks.isEmpty());
+
+        // Once stale, or when forced, it is synced again
+        assertTrue(mCoordinator.request(LOCATION, 5000 + FRESH_MILLIS, false));
+        mDispatcher.runTasks(5000 + FRESH_MILLIS + COALESCE_WINDOW_MILLIS);
+        mCoordinator.onLocationSynced(LOCATION, true, 70000);
+        assertTrue(mCoordinator.request(LOCATION, 70001, true));
+        mDispatcher.runTasks(70001 + COALESCE_WINDOW_MILLIS);
+        assertEquals(3, mCoordinator.getExecutedCount());
+    }
+
+    public void testFailedSyncIsRetriedOnRequest() {
+        mCoordinator.request(LOCATION, 0, false);
+        mDispatcher.runTasks(COALESCE_WINDOW_MILLIS);
+        mCoordinator.onLocationSynced(LOCATION, false, 5000);
+
+        assertTrue(mCoordinator.request(LOCATION, 5001, false));
+        mDispatcher.runTasks(5001 + COALESCE_WINDOW_MILLIS);
+        assertEquals(2, mCoordinator.getExecutedCount());
+        assertEquals(0, mCoordinator.getFreshCount());
+    }
+
+    public void testLostSyncStopsBlockingAfterTimeout() {
+        mCoordinator.request(LOCATION, 0, false);
+        mDispatcher.runTasks(COALESCE_WINDOW_MILLIS);
+
+        // The sync never reports back.  The timeout counts from the hand-off, not the request.
+        long handedOff = COALESCE_WINDOW_MILLIS;
+        assertTrue(mCoordinator.request(LOCATION, handedOff + IN_FLIGHT_TIMEOUT_MILLIS - 1,
+                false));
+        assertTrue(mDispatcher.tasks.isEmpty());
+        assertEquals(1, mCoordinator.getJoinedCount());
+        assertTrue(mCoordinator.request(LOCATION, handedOff + IN_FLIGHT_TIMEOUT_MILLIS, false));
+        mDispatcher.runTasks(handedOff + IN_FLIGHT_TIMEOUT_MILLIS + COALESCE_WINDOW_MILLIS);
+        assertEquals(Collections.singletonList(LOCATION), mDispatcher.syncs.get(1));
+    }
+}
@@ -0,0 +1,211 @@
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Checks the rules of SyncSchedulePolicy, then replays a recorded week of forecast updates
+    against it and against the fixed three hour schedule, reporting how many requests each
+    makes and how long each change waited on the server before a sync picked it up.
+ */
+public class TestSyncSchedulePolicy extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestSyncSchedulePolicy.class.getSimpleName();
+
+    private static final int HOUR = 60 * 60;
+    private static final int BASE_INTERVAL = 3 * HOUR;
+    private static final int MIN_INTERVAL = HOUR;
+    private static final int MAX_INTERVAL = 12 * HOUR;
+    private static final int DAYS_RECEIVED = 14;
+
+    private static final int WEEK_HOURS = 7 * 24;
+    // When the storm shows up in the forecast for tomorrow, when it arrives and when it ends
+    private static final int STORM_FORECAST_HOUR = 60;
+    private static final int STORM_START_HOUR = 72;
+    private static final int STORM_END_HOUR = 96;
+
+    private static SyncSchedulePolicy createPolicy() {
+        return new SyncSchedulePolicy(new SyncSchedulePolicy.Config(BASE_INTERVAL, MIN_INTERVAL,
+                MAX_INTERVAL, 2, 50));
+    }
+
+    private static SyncSchedulePolicy.Outcome outcome(int changedRows, boolean severe) {
+        return new SyncSchedulePolicy.Outcome(DAYS_RECEIVED, changedRows, severe);
+    }
+
+    public void testQuietSyncsStretchTheInterval() {
+        SyncSchedulePolicy policy = createPolicy();
+        assertEquals(BASE_INTERVAL, policy.onSyncFinished(outcome(0, false), false, false));
+        assertEquals(2 * BASE_INTERVAL, policy.onSyncFinished(outcome(0, false), false, false));
+        assertEquals(MAX_INTERVAL, policy.onSyncFinished(outcome(0, false), false, false));
+        assertEquals(MAX_INTERVAL, policy.onSyncFinished(outcome(0, false), false, false));
+        assertEquals(4, policy.getQuietSyncs());
+
+        // A change starts over at the base interval
+        assertEquals(BASE_INTERVAL, policy.onSyncFinished(outcome(1, false), false, false));
+        assertEquals(0, policy.getQuietSyncs());
+    }
+
+    public void testVolatileForecastShortensOnlyWhenCheap() {
+        SyncSchedulePolicy policy = createPolicy();
+        assertEquals("Error: Synced more often on metered data and battery", BASE_INTERVAL,
+                policy.onSyncFinished(outcome(10, false), false, false));
+        assertEquals(BASE_INTERVAL / 2, policy.onSyncFinished(outcome(10, false), true, false));
+        assertEquals(BASE_INTERVAL / 2, policy.onSyncFinished(outcome(10, false), false, true));
+    }
+
+    public void testStormsUseTheMinimumInterval() {
+        SyncSchedulePolicy policy = createPolicy();
+        assertEquals(MIN_INTERVAL, policy.onSyncFinished(outcome(0, true), false, false));
+        assertTrue(SyncSchedulePolicy.isSevere(211));
+        assertFalse(SyncSchedulePolicy.isSevere(800));
+    }
+
+    public void testFailedSyncKeepsTheInterval() {
+        SyncSchedulePolicy policy = createPolicy();
+        policy.onSyncFinished(outcome(0, false), false, false);
+        int interval = policy.onSyncFinished(outcome(0, false), false, false);
+        assertEquals(interval, policy.onSyncFinished(
+                new SyncSchedulePolicy.Outcome(0, 0, false), false, false));
+        assertEquals(2, policy.getQuietSyncs());
+    }
+
+    public void testRestoredPolicyCarriesOn() {
+        SyncSchedulePolicy policy = createPolicy();
+        policy.onSyncFinished(outcome(0, false), false, false);
+        policy.onSyncFinished(outcome(0, false), false, false);
+
+        SyncSchedulePolicy restored = new SyncSchedulePolicy(new SyncSchedulePolicy.Config(
+                BASE_INTERVAL, MIN_INTERVAL, MAX_INTERVAL, 2, 50), policy.getQuietSyncs(),
+                policy.getIntervalSeconds());
+        assertEquals(policy.onSyncFinished(outcome(0, false), false, false),
+                restored.onSyncFinished(outcome(0, false), false, false));
+    }
+
+    /**
+     * A change published by the server.
+     */
+    private static class Change {
+        final int hour;
+        final int rows;
+
+        Change(int hour, int rows) {
+            this.hour = hour;
+            this.rows = rows;
+        }
+    }
+
+    /**
+     * The updates to one location's forecast over a week: a new day rolls in every midnight,
+     * the first three days are otherwise quiet, a storm brings hourly revisions on the fourth
+     * day, and the rest of the week is revised every six hours.
+     */
+    private static List<Change> recordWeek() {
+        List<Change> changes = new ArrayList<Change>();
+        for (int hour = 0; hour < WEEK_HOURS; hour++) {
+            int rows = 0;
+            if (hour % 24 == 0) {
+                rows++;
+            }
+            if (hour >= STORM_START_HOUR && hour < STORM_END_HOUR) {
+                rows += 6;
+            } else if (hour >= STORM_END_HOUR && hour % 6 == 0) {
+                rows += 3;
+            }
+            if (rows > 0) {
+                changes.add(new Change(hour, rows));
+            }
+        }
+        return changes;
+    }
+
+    private static boolean isStormForecast(long hour) {
+        return hour >= STORM_FORECAST_HOUR && hour < STORM_END_HOUR;
+    }
+
+    // On wifi from the evening until the morning, and charging overnight
+    private static boolean isUnmetered(long hour) {
+        long hourOfDay = hour % 24;
+        return hourOfDay >= 19 || hourOfDay < 8;
+    }
+
+    private static boolean isCharging(long hour) {
+        return hour % 24 < 7;
+    }
+
+    private static class Replay {
+        int requests;
+        // Requests before the storm was forecast
+        int quietRequests;
+        int changes;
+        long stalenessSeconds;
+        long maxStalenessSeconds;
+        int stormChanges;
+        long stormStalenessSeconds;
+
+        @Override
+        public String toString() {
+            return requests + " requests (" + quietRequests + " in the quiet days), mean staleness "
+                    + stalenessSeconds / changes / 60 + " min, max " + maxStalenessSeconds / 60
+                    + " min, mean staleness during the storm "
+                    + stormStalenessSeconds / stormChanges / 60 + " min";
+        }
+    }
+
+    /**
+     * @param policy the policy to replay, or null for the fixed schedule.
+     */
+    private static Replay replay(List<Change> changes, SyncSchedulePolicy policy) {
+        Replay replay = new Replay();
+        int nextChange = 0;
+        long now = 0;
+        while (now < WEEK_HOURS * HOUR) {
+            long hour = now / HOUR;
+            replay.requests++;
+            if (hour < STORM_FORECAST_HOUR) {
+                replay.quietRequests++;
+            }
+            int changedRows = 0;
+            while (nextChange < changes.size() && changes.get(nextChange).hour * HOUR <= now) {
+                Change change = changes.get(nextChange++);
+                long staleness = now - change.hour * HOUR;
+                replay.changes++;
+                replay.stalenessSeconds += staleness;
+                replay.maxStalenessSeconds = Math.max(replay.maxStalenessSeconds, staleness);
+                if (change.hour >= STORM_START_HOUR && change.hour < STORM_END_HOUR) {
+                    replay.stormChanges++;
+                    replay.stormStalenessSeconds += staleness;
+                }
+                changedRows += change.rows;
+            }
+            changedRows = Math.min(changedRows, DAYS_RECEIVED);
+
+            if (policy == null) {
+                now += BASE_INTERVAL;
+            } else {
+                now += policy.onSyncFinished(new SyncSchedulePolicy.Outcome(DAYS_RECEIVED,
+                        changedRows, isStormForecast(hour)), isUnmetered(hour), isCharging(hour));
+            }
+        }
+        return replay;
+    }
+
+    public void testReplayRecordedWeek() {
+        List<Change> week = recordWeek();
+        Replay fixed = replay(week, null);
+        Replay adaptive = replay(week, createPolicy());
+        Log.i(LOG_TAG, "Fixed: " + fixed);
+        Log.i(LOG_TAG, "Adaptive: " + adaptive);
+
+        assertTrue("Error: The quiet days were not synced less often",
+                adaptive.quietRequests < fixed.quietRequests);
+        assertTrue("Error: Storm updates were not picked up sooner",
+                adaptive.stormStalenessSeconds / adaptive.stormChanges
+                        < fixed.stormStalenessSeconds / fixed.stormChanges);
+        assertTrue("Error: A change waited longer than the longest interval",
+                adaptive.maxStalenessSeconds <= MAX_INTERVAL);
+    }
+}
@@ -0,0 +1,213 @@
+package com.example.android.sunshine.app.utils;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A tiny HTTP/1.1 server bound to the loopback interface, standing in for OpenWeatherMap in
+ * tests.  Every connection is served on its own thread and kept alive until the client closes
+ * it, so tests can observe connection reuse as well as individual requests.
+ */
+public class LocalHttpServer {
+
+    /**
+     * Produces the response for one request.  Called on the connection's thread.
+     */
+    public interface Handler {
+        Response handle(Request request) throws Exception;
+    }
+
+    public static class Request {
+        public final String method;
+        public final String path;
+        // Header names are lower cased
+        public final Map<String, String> headers;
+
+        Request(String method, String path, Map<String, String> headers) {
+            this.method = method;
+            this.path = path;
+            this.headers = headers;
+        }
+
+        public String getHeader(String name) {
+            return headers.get(name.toLowerCase(Locale.US));
+        }
+    }
+
+    public static class Response {
+        final int mStatus;
+        final Map<String, String> mHeaders = new LinkedHashMap<String, String>();
+        final byte[] mBody;
+
+        public Response(int status, String body) {
+            mStatus = status;
+            mBody = body == null ? new byte[0] : body.getBytes();
+        }
+
+        public Response(int status, byte[] body) {
+            mStatus = status;
+            mBody = body == null ? new byte[0] : body;
+        }
+
+        public Response header(String name, String value) {
+            mHeaders.put(name, value);
+            return this;
+        }
+    }
+
+    private final ServerSocket mServerSocket;
+    private final Handler mHandler;
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+    private final AtomicInteger mConnectionCount = new AtomicInteger();
+    private volatile boolean mRunning = true;
+
+    public LocalHttpServer(Handler handler) throws IOException {
+        mHandler = handler;
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        Thread acceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptLoop();
+            }
+        }, "LocalHttpServer");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    /**
+     * @return the base URL of the server, e.g. "http://127.0.0.1:12345"
+     */
+    public String getUrl() {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort();
+    }
+
+    public int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    public int getConnectionCount() {
+        return mConnectionCount.get();
+    }
+
+    public void shutdown() {
+        mRunning = false;
+        try {
+            mServerSocket.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void acceptLoop() {
+        while (mRunning) {
+            final Socket socket;
+            try {
+                socket = mServerSocket.accept();
+            } catch (IOException e) {
+                return;
+            }
+            mConnectionCount.incrementAndGet();
+            Thread connectionThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    serve(socket);
+                }
+            }, "LocalHttpServer-connection");
+            connectionThread.setDaemon(true);
+            connectionThread.start();
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            while (mRunning) {
+                String requestLine = readLine(in);
+                if (requestLine == null || requestLine.length() == 0) {
+                    break;
+                }
+                String[] parts = requestLine.split(" ");
+                Map<String, String> headers = new HashMap<String, String>();
+                String line;
+                while ((line = readLine(in)) != null && line.length() > 0) {
+                    int colon = line.indexOf(':');
+                    if (colon > 0) {
+                        headers.put(line.substring(0, colon).trim().toLowerCase(Locale.US),
+                                line.substring(colon + 1).trim());
+                    }
+                }
+                mRequestCount.incrementAndGet();
+
+                Response response;
+                try {
+                    response = mHandler.handle(new Request(parts[0], parts[1], headers));
+                } catch (Exception e) {
+                    response = new Response(500, e.toString());
+                }
+                if (response == null) {
+                    // The handler wants the connection dropped without an answer
+                    break;
+                }
+                writeResponse(out, response);
+                if ("close".equalsIgnoreCase(headers.get("connection"))) {
+                    break;
+                }
+            }
+        } catch (SocketException ignored) {
+            // The client went away
+        } catch (IOException ignored) {
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static void writeResponse(OutputStream out, Response response) throws IOException {
+        StringBuilder head = new StringBuilder()
+                .append("HTTP/1.1 ").append(response.mStatus).append(" Status\r\n");
+        boolean hasBody = response.mStatus != 304 && response.mStatus != 204;
+        for (Map.Entry<String, String> header : response.mHeaders.entrySet()) {
+            head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        }
+        if (hasBody) {
+            head.append("Content-Length: ").append(response.mBody.length).append("\r\n");
+        }
+        head.append("\r\n");
+        out.write(head.toString().getBytes());
+        if (hasBody) {
+            out.write(response.mBody);
+        }
+        out.flush();
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                break;
+            }
+            if (c != '\r') {
+                line.write(c);
+            }
+        }
+        if (c == -1 && line.size() == 0) {
+            return null;
+        }
+        return line.toString();
+    }
+}
@@ -48,6 +48,8 @@ public class SettingsActivity extends PreferenceActivity
         // For all preferences, attach an OnPreferenceChangeListener so the UI summary can be
         // updated when the preference changes.
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_location_key)));
+        bindPreferenceSummaryToValue(
+                findPreference(getString(R.string.pref_tracked_locations_key)));
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_units_key)));
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_art_pack_key)));
     }
@@ -97,7 +99,7 @@ public class SettingsActivity extends PreferenceActivity
                 preference.setSummary(listPreference.getEntries()[prefIndex]);
             }
         } else if (key.equals(getString(R.string.pref_location_key))) {
-            @SunshineSyncAdapter.LocationStatus int status = Utility.getLocationStatus(this);
+            @SunshineSyncAdapter.LocationStatus int status = Utility.getLocationStatus(this, stringValue);
             switch (status) {
                 case SunshineSyncAdapter.LOCATION_STATUS_OK:
                     preference.setSummary(stringValue);
@@ -113,6 +115,9 @@ public class SettingsActivity extends PreferenceActivity
                     // is valid
                     preference.setSummary(stringValue);
             }
+        } else if (key.equals(getString(R.string.pref_tracked_locations_key))) {
+            // Stored one per line, shown on one
+            preference.setSummary(stringValue.trim().replace("\n", ", "));
         } else {
             // For other preferences, set the summary to the value's simple string representation.
             preference.setSummary(stringValue);
@@ -136,10 +141,15 @@ public class SettingsActivity extends PreferenceActivity
             // first clear locationStatus
             Utility.resetLocationStatus(this);
             SunshineSyncAdapter.syncImmediately(this);
+        } else if ( key.equals(getString(R.string.pref_tracked_locations_key)) ) {
+            // Fetch the locations added, the coordinator serves them with a single sync
+            for (String locationSetting : Utility.getTrackedLocations(this)) {
+                SunshineSyncAdapter.syncImmediately(this, locationSetting, false);
+            }
         } else if ( key.equals(getString(R.string.pref_units_key)) ) {
             // units have changed. update lists of weather entries accordingly
             getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
-        } else if ( key.equals(getString(R.string.pref_location_status_key)) ) {
+        } else if ( Utility.isLocationStatusKey(this, key) ) {
             // our location status has changed.  Update the summary accordingly
             Preference locationPreference = findPreference(getString(R.string.pref_location_key));
             bindPreferenceSummaryToValue(locationPreference);
@@ -23,11 +23,12 @@ import android.preference.PreferenceManager;
 import android.text.format.Time;
 
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
-import com.example.android.sunshine.lib.SunshineUtility;
 
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.Locale;
 
 public class Utility {
@@ -520,30 +521,77 @@ public class Utility {
     }
 
     /**
+     * Returns every location the sync adapter keeps a forecast for.  The preferred location is
+     * always tracked and always comes first.
      *
      * @param c Context used to get the SharedPreferences
+     * @return the tracked location settings, without duplicates
+     */
+    public static List<String> getTrackedLocations(Context c) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
+        List<String> locations = new ArrayList<String>();
+        locations.add(getPreferredLocation(c));
+
+        // Location settings may contain commas ("London,uk"), so the list is newline separated
+        String tracked = sp.getString(c.getString(R.string.pref_tracked_locations_key), "");
+        for (String location : tracked.split("\n")) {
+            location = location.trim();
+            if (location.length() > 0 && !locations.contains(location)) {
+                locations.add(location);
+            }
+        }
+        return locations;
+    }
+
+    /**
+     * @param c Context used to get the key prefix
+     * @param locationSetting the location whose status is wanted
+     * @return the SharedPreferences key holding the status of the location
+     */
+    public static String getLocationStatusKey(Context c, String locationSetting) {
+        return c.getString(R.string.pref_location_status_key) + "/" + locationSetting;
+    }
+
+    /**
+     * @param c Context used to get the key prefix
+     * @param key a SharedPreferences key
+     * @return true if the key holds the status of a location
+     */
+    public static boolean isLocationStatusKey(Context c, String key) {
+        return key.startsWith(c.getString(R.string.pref_location_status_key) + "/");
+    }
+
+    /**
+     *
+     * @param c Context used to get the SharedPreferences
+     * @return the location status integer type of the preferred location
+     */
+    static public @SunshineSyncAdapter.LocationStatus
+    int getLocationStatus(Context c){
+        return getLocationStatus(c, getPreferredLocation(c));
+    }
+
+    /**
+     *
+     * @param c Context used to get the SharedPreferences
+     * @param locationSetting the location whose status is wanted
      * @return the location status integer type
      */
     @SuppressWarnings("ResourceType")
     static public @SunshineSyncAdapter.LocationStatus
-    int getLocationStatus(Context c){
+    int getLocationStatus(Context c, String locationSetting){
         SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
-        return sp.getInt(c.getString(R.string.pref_location_status_key), SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
+        return sp.getInt(getLocationStatusKey(c, locationSetting), SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
     }
 
     /**
-     * Resets the location status.  (Sets it to SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN)
+     * Resets the status of the preferred location.  (Sets it to SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN)
      * @param c Context used to get the SharedPreferences
      */
     static public void resetLocationStatus(Context c){
         SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
         SharedPreferences.Editor spe = sp.edit();
-        spe.putInt(c.getString(R.string.pref_location_status_key), SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
+        spe.putInt(getLocationStatusKey(c, getPreferredLocation(c)), SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
         spe.apply();
     }
-
-    public static void saveTodayWeatherData(Context context, String weatherId,
-                                       String highTemperature, String lowTemperature){
-        SunshineUtility.setAllWeatherValues(context, weatherId, highTemperature, lowTemperature);
-    }
 }
\ No newline at end of file
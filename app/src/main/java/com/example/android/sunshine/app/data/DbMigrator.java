@@ -0,0 +1,215 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Upgrades a database one version at a time, keeping what it holds.
+ *
+ * Each {@link Step} changes the schema from the version before it to its own.  The steps run
+ * inside the transaction SQLiteOpenHelper opens around onUpgrade, so an upgrade either
+ * completes or leaves the old version untouched.  Work that rewrites a large table is kept out
+ * of that transaction: a step registers it as a backfill, which {@link #runBackfills} then does
+ * in chunks of rows, each in its own transaction.  How far a backfill got is stored along with
+ * the chunk, so one interrupted by the process dying carries on where it stopped.
+ */
+class DbMigrator {
+    private static final String LOG_TAG = DbMigrator.class.getSimpleName();
+
+    // Backfills still to finish, by the version of the step that registered them
+    static final String TABLE_NAME = "migration_progress";
+    static final String COLUMN_VERSION = "version";
+    // Rows are backfilled in _id order, this is the last one done
+    static final String COLUMN_LAST_ROW_ID = "last_row_id";
+
+    /**
+     * The change from the previous version of the schema to the next.
+     */
+    abstract static class Step {
+        final int mVersion;
+        final String mDescription;
+
+        /**
+         * @param version the version the step upgrades to.
+         * @param description what the step changes, for the log.
+         */
+        Step(int version, String description) {
+            mVersion = version;
+            mDescription = description;
+        }
+
+        /**
+         * Changes the schema.  Runs inside the upgrade transaction, with every other step of
+         * the upgrade, so should stay quick whatever the size of the tables.
+         */
+        abstract void upgrade(SQLiteDatabase db);
+
+        /**
+         * @return true if the step has rows to rewrite once the upgrade is done.
+         */
+        boolean hasBackfill() {
+            return false;
+        }
+
+        /**
+         * Rewrites up to maxRows rows with an _id above afterRowId, in _id order.  Runs inside a
+         * transaction of its own.
+         *
+         * @return the _id of the last row rewritten, or -1 if there were none left.
+         */
+        long backfill(SQLiteDatabase db, long afterRowId, int maxRows) {
+            return -1;
+        }
+    }
+
+    private final int mOldestVersion;
+    private final Step[] mSteps;
+
+    /**
+     * @param oldestVersion the oldest version the steps can upgrade from.
+     * @param steps one step for every version after the oldest that changed the schema, in
+     *              version order.
+     */
+    DbMigrator(int oldestVersion, Step... steps) {
+        int version = oldestVersion;
+        for (Step step : steps) {
+            if (step.mVersion <= version) {
+                throw new IllegalArgumentException("Migration steps out of order at version "
+                        + step.mVersion);
+            }
+            version = step.mVersion;
+        }
+        mOldestVersion = oldestVersion;
+        mSteps = steps;
+    }
+
+    /**
+     * Creates the table tracking backfills, as part of a new database.
+     */
+    static void createProgressTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_NAME + " (" +
+                COLUMN_VERSION + " INTEGER PRIMARY KEY, " +
+                COLUMN_LAST_ROW_ID + " INTEGER NOT NULL);");
+    }
+
+    /**
+     * Runs the steps from oldVersion up to newVersion.
+     *
+     * @return false if oldVersion is older than the steps go back, in which case nothing was
+     * changed and the database has to be recreated.
+     */
+    boolean upgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < mOldestVersion) {
+            return false;
+        }
+        long upgradeStart = SystemClock.elapsedRealtime();
+        createProgressTable(db);
+        for (Step step : mSteps) {
+            if (step.mVersion <= oldVersion || step.mVersion > newVersion) {
+                continue;
+            }
+            long start = SystemClock.elapsedRealtime();
+            step.upgrade(db);
+            if (step.hasBackfill()) {
+                ContentValues progress = new ContentValues();
+                progress.put(COLUMN_VERSION, step.mVersion);
+                progress.put(COLUMN_LAST_ROW_ID, 0);
+                db.insertWithOnConflict(TABLE_NAME, null, progress,
+                        SQLiteDatabase.CONFLICT_REPLACE);
+            }
+            Log.i(LOG_TAG, "Upgraded to version " + step.mVersion + " (" + step.mDescription
+                    + ") in " + (SystemClock.elapsedRealtime() - start) + " ms");
+        }
+        Log.i(LOG_TAG, "Upgraded from version " + oldVersion + " to " + newVersion + " in "
+                + (SystemClock.elapsedRealtime() - upgradeStart) + " ms");
+        return true;
+    }
+
+    /**
+     * @return true if a backfill has rows left to rewrite.
+     */
+    static boolean hasPendingBackfills(SQLiteDatabase db) {
+        return DatabaseUtils.queryNumEntries(db, TABLE_NAME) > 0;
+    }
+
+    /**
+     * Forgets the backfill of the step for the given version, if it has not finished.  For a
+     * backfill that would only write rows nothing reads.
+     */
+    static void cancelBackfill(SQLiteDatabase db, int version) {
+        if (db.delete(TABLE_NAME, COLUMN_VERSION + " = ?",
+                new String[]{Integer.toString(version)}) > 0) {
+            Log.i(LOG_TAG, "Cancelled the backfill of version " + version);
+        }
+    }
+
+    /**
+     * Carries on with the backfills the steps left, oldest step first, a chunk of rows per
+     * transaction.  Readers are only held up for as long as a chunk takes, and writers can get
+     * in between chunks.
+     *
+     * @param chunkRows rows rewritten per transaction.
+     * @param maxChunks chunks to run before returning, whether or not the backfills are done.
+     * @return the number of chunks run.
+     */
+    synchronized int runBackfills(SQLiteDatabase db, int chunkRows, int maxChunks) {
+        int chunks = 0;
+        while (chunks < maxChunks) {
+            long version;
+            long lastRowId;
+            Cursor cursor = db.query(TABLE_NAME,
+                    new String[]{COLUMN_VERSION, COLUMN_LAST_ROW_ID},
+                    null, null, null, null, COLUMN_VERSION, "1");
+            try {
+                if (!cursor.moveToFirst()) {
+                    break;
+                }
+                version = cursor.getLong(0);
+                lastRowId = cursor.getLong(1);
+            } finally {
+                cursor.close();
+            }
+
+            Step step = findStep(version);
+            String[] whereArgs = {Long.toString(version)};
+            long start = SystemClock.elapsedRealtime();
+            db.beginTransaction();
+            try {
+                long chunkLastRowId = step == null ? -1
+                        : step.backfill(db, lastRowId, chunkRows);
+                if (chunkLastRowId < 0) {
+                    db.delete(TABLE_NAME, COLUMN_VERSION + " = ?", whereArgs);
+                } else {
+                    ContentValues progress = new ContentValues();
+                    progress.put(COLUMN_LAST_ROW_ID, chunkLastRowId);
+                    db.update(TABLE_NAME, progress, COLUMN_VERSION + " = ?", whereArgs);
+                }
+                db.setTransactionSuccessful();
+                if (chunkLastRowId < 0) {
+                    Log.i(LOG_TAG, "Finished the backfill of version " + version);
+                } else {
+                    Log.v(LOG_TAG, "Backfilled version " + version + " up to row "
+                            + chunkLastRowId + " in " + (SystemClock.elapsedRealtime() - start)
+                            + " ms");
+                }
+            } finally {
+                db.endTransaction();
+            }
+            chunks++;
+        }
+        return chunks;
+    }
+
+    private Step findStep(long version) {
+        for (Step step : mSteps) {
+            if (step.mVersion == version) {
+                return step;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,199 @@
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+
+import java.util.Arrays;
+
+/**
+ * Locations to be resolved to their rows in the location table, adding the ones not stored yet
+ * and updating the ones whose details changed.
+ *
+ * Resolved with {@link #upsert(ContentResolver)}, which hands the whole batch to
+ * {@link WeatherProvider#call} so the provider can answer from its {@link LocationRegistry}
+ * and write whatever is missing in one transaction.
+ */
+public class LocationBatch {
+
+    // Keys of the arrays inside the Bundle passed to WeatherProvider.call
+    static final String KEY_SIZE = "size";
+    static final String KEY_LOCATION_SETTING = WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING;
+    static final String KEY_CITY_NAME = WeatherContract.LocationEntry.COLUMN_CITY_NAME;
+    static final String KEY_COORD_LAT = WeatherContract.LocationEntry.COLUMN_COORD_LAT;
+    static final String KEY_COORD_LONG = WeatherContract.LocationEntry.COLUMN_COORD_LONG;
+
+    int mSize;
+    String[] mLocationSettings;
+    String[] mCityNames;
+    double[] mLatitudes;
+    double[] mLongitudes;
+
+    public LocationBatch(int capacity) {
+        capacity = Math.max(capacity, 1);
+        mLocationSettings = new String[capacity];
+        mCityNames = new String[capacity];
+        mLatitudes = new double[capacity];
+        mLongitudes = new double[capacity];
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Appends a location.
+     *
+     * @param locationSetting The location string used to request updates from the server.
+     * @param cityName A human-readable city name, e.g "Mountain View"
+     * @param lat the latitude of the city
+     * @param lon the longitude of the city
+     */
+    public void add(String locationSetting, String cityName, double lat, double lon) {
+        if (mSize == mLocationSettings.length) {
+            resize(mSize * 2);
+        }
+        int i = mSize++;
+        mLocationSettings[i] = locationSetting;
+        mCityNames[i] = cityName;
+        mLatitudes[i] = lat;
+        mLongitudes[i] = lon;
+    }
+
+    /**
+     * Makes sure every location of the batch is stored with the details given.
+     *
+     * @return the row id of every location, in the order they were added.
+     */
+    public long[] upsert(ContentResolver resolver) {
+        if (mSize == 0) {
+            return new long[0];
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            return upsertWithCall(resolver);
+        }
+        // ContentResolver.call does not exist before Honeycomb
+        return upsertOneByOne(resolver);
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private long[] upsertWithCall(ContentResolver resolver) {
+        Bundle result = resolver.call(WeatherContract.LocationEntry.CONTENT_URI,
+                WeatherContract.LocationEntry.METHOD_UPSERT_LOCATIONS, null, toBundle());
+        long[] locationIds = result == null ? null
+                : result.getLongArray(WeatherContract.LocationEntry.EXTRA_LOCATION_IDS);
+        if (locationIds == null || locationIds.length != mSize) {
+            throw new IllegalStateException("Locations were not resolved");
+        }
+        return locationIds;
+    }
+
+    /**
+     * Resolves every location with a query of its own, and an insert or update if needed.
+     */
+    long[] upsertOneByOne(ContentResolver resolver) {
+        long[] locationIds = new long[mSize];
+        for (int i = 0; i < mSize; i++) {
+            ContentValues locationValues = toContentValues(i);
+            Cursor locationCursor = resolver.query(
+                    WeatherContract.LocationEntry.CONTENT_URI,
+                    new String[]{WeatherContract.LocationEntry._ID,
+                            WeatherContract.LocationEntry.COLUMN_CITY_NAME,
+                            WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+                            WeatherContract.LocationEntry.COLUMN_COORD_LONG},
+                    WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                    new String[]{mLocationSettings[i]},
+                    null);
+            try {
+                if (locationCursor.moveToFirst()) {
+                    locationIds[i] = locationCursor.getLong(0);
+                    LocationRegistry.Location stored = new LocationRegistry.Location(
+                            locationIds[i], locationCursor.getString(1),
+                            locationCursor.getDouble(2), locationCursor.getDouble(3));
+                    if (!stored.matches(mCityNames[i], mLatitudes[i], mLongitudes[i])) {
+                        resolver.update(WeatherContract.LocationEntry.CONTENT_URI,
+                                locationValues, WeatherContract.LocationEntry._ID + " = ?",
+                                new String[]{Long.toString(locationIds[i])});
+                    }
+                } else {
+                    Uri insertedUri = resolver.insert(
+                            WeatherContract.LocationEntry.CONTENT_URI, locationValues);
+                    // The resulting URI contains the ID for the row
+                    locationIds[i] = ContentUris.parseId(insertedUri);
+                }
+            } finally {
+                locationCursor.close();
+            }
+        }
+        return locationIds;
+    }
+
+    ContentValues toContentValues(int i) {
+        ContentValues locationValues = new ContentValues();
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, mCityNames[i]);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+                mLocationSettings[i]);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, mLatitudes[i]);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, mLongitudes[i]);
+        return locationValues;
+    }
+
+    Bundle toBundle() {
+        if (mSize != mLocationSettings.length) {
+            resize(mSize);
+        }
+        Bundle bundle = new Bundle();
+        bundle.putInt(KEY_SIZE, mSize);
+        bundle.putStringArray(KEY_LOCATION_SETTING, mLocationSettings);
+        bundle.putStringArray(KEY_CITY_NAME, mCityNames);
+        bundle.putDoubleArray(KEY_COORD_LAT, mLatitudes);
+        bundle.putDoubleArray(KEY_COORD_LONG, mLongitudes);
+        return bundle;
+    }
+
+    /**
+     * Rebuilds a batch from {@link #toBundle()}.  The arrays are used as they are, not copied.
+     *
+     * @throws IllegalArgumentException if the size is negative, or an array is missing or
+     * shorter than the batch.
+     */
+    static LocationBatch fromBundle(Bundle bundle) {
+        LocationBatch batch = new LocationBatch(1);
+        batch.mSize = bundle.getInt(KEY_SIZE);
+        if (batch.mSize < 0) {
+            throw new IllegalArgumentException("Location batch size is negative: " + batch.mSize);
+        }
+        batch.mLocationSettings = checkLength(bundle.getStringArray(KEY_LOCATION_SETTING),
+                batch.mSize);
+        batch.mCityNames = checkLength(bundle.getStringArray(KEY_CITY_NAME), batch.mSize);
+        batch.mLatitudes = checkLength(bundle.getDoubleArray(KEY_COORD_LAT), batch.mSize);
+        batch.mLongitudes = checkLength(bundle.getDoubleArray(KEY_COORD_LONG), batch.mSize);
+        return batch;
+    }
+
+    private void resize(int capacity) {
+        mLocationSettings = Arrays.copyOf(mLocationSettings, capacity);
+        mCityNames = Arrays.copyOf(mCityNames, capacity);
+        mLatitudes = Arrays.copyOf(mLatitudes, capacity);
+        mLongitudes = Arrays.copyOf(mLongitudes, capacity);
+    }
+
+    private static String[] checkLength(String[] array, int size) {
+        if (array == null || array.length < size) {
+            throw new IllegalArgumentException("Location batch column is too short");
+        }
+        return array;
+    }
+
+    private static double[] checkLength(double[] array, int size) {
+        if (array == null || array.length < size) {
+            throw new IllegalArgumentException("Location batch column is too short");
+        }
+        return array;
+    }
+}
@@ -0,0 +1,191 @@
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * A bounded, least recently used map from location settings to the rows {@link WeatherProvider}
+ * keeps for them in the location table, so a sync can resolve its locations without a query
+ * each.
+ *
+ * The registry is filled from the location table on first use, and the provider keeps it in
+ * step with its own writes: inserts are added, and updates or deletes of locations drop
+ * everything.  As with {@link WeatherQueryCache}, a row read while the registry was being
+ * invalidated is not stored.
+ */
+class LocationRegistry {
+
+    /**
+     * A row of the location table.
+     */
+    static class Location {
+        final long mId;
+        final String mCityName;
+        final double mLatitude;
+        final double mLongitude;
+
+        Location(long id, String cityName, double latitude, double longitude) {
+            mId = id;
+            mCityName = cityName;
+            mLatitude = latitude;
+            mLongitude = longitude;
+        }
+
+        /**
+         * @return true if the row holds the given details already.
+         */
+        boolean matches(String cityName, double latitude, double longitude) {
+            return (mCityName == null ? cityName == null : mCityName.equals(cityName))
+                    && Double.compare(mLatitude, latitude) == 0
+                    && Double.compare(mLongitude, longitude) == 0;
+        }
+    }
+
+    private static final String[] LOCATION_COLUMNS = {
+            WeatherContract.LocationEntry._ID,
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherContract.LocationEntry.COLUMN_CITY_NAME,
+            WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+            WeatherContract.LocationEntry.COLUMN_COORD_LONG
+    };
+
+    private final int mMaxEntries;
+    // Ordered by access, least recently used first
+    private final LinkedHashMap<String, Location> mEntries =
+            new LinkedHashMap<String, Location>(16, 0.75f, true);
+    private boolean mWarm;
+    // Moves on every invalidation, so rows read before it can be told apart
+    private long mGeneration;
+
+    private long mHits;
+    private long mMisses;
+    private long mEvictions;
+    private long mInvalidations;
+
+    /**
+     * @param maxEntries the number of locations kept.
+     */
+    LocationRegistry(int maxEntries) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("Registry size must be positive");
+        }
+        mMaxEntries = maxEntries;
+    }
+
+    /**
+     * @return the row of a location, or null if it isn't registered.
+     */
+    synchronized Location get(String locationSetting) {
+        Location location = mEntries.get(locationSetting);
+        if (location == null) {
+            mMisses++;
+        } else {
+            mHits++;
+        }
+        return location;
+    }
+
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Registers a location row read or written at the given generation, unless an
+     * invalidation has happened since.
+     */
+    synchronized void put(String locationSetting, Location location, long generation) {
+        if (generation != mGeneration) {
+            return;
+        }
+        mEntries.put(locationSetting, location);
+        Iterator<Location> eldest = mEntries.values().iterator();
+        while (mEntries.size() > mMaxEntries) {
+            eldest.next();
+            eldest.remove();
+            mEvictions++;
+        }
+    }
+
+    /**
+     * Fills the registry from the location table, the first time it is called after the
+     * registry was created or invalidated.
+     */
+    void warm(SQLiteDatabase db) {
+        long generation;
+        synchronized (this) {
+            if (mWarm) {
+                return;
+            }
+            generation = mGeneration;
+        }
+        Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME, LOCATION_COLUMNS,
+                null, null, null, null, null, Integer.toString(mMaxEntries));
+        try {
+            while (cursor.moveToNext()) {
+                put(cursor.getString(1), readLocation(cursor), generation);
+            }
+        } finally {
+            cursor.close();
+        }
+        synchronized (this) {
+            mWarm = generation == mGeneration;
+        }
+    }
+
+    /**
+     * @return the row of a location, read from the table, or null if there is none.
+     */
+    static Location query(SQLiteDatabase db, String locationSetting) {
+        Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME, LOCATION_COLUMNS,
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting}, null, null, null);
+        try {
+            return cursor.moveToFirst() ? readLocation(cursor) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static Location readLocation(Cursor cursor) {
+        return new Location(cursor.getLong(0), cursor.getString(2), cursor.getDouble(3),
+                cursor.getDouble(4));
+    }
+
+    synchronized void invalidateAll() {
+        mGeneration++;
+        mWarm = false;
+        if (!mEntries.isEmpty()) {
+            mEntries.clear();
+            mInvalidations++;
+        }
+    }
+
+    synchronized long getHits() {
+        return mHits;
+    }
+
+    synchronized long getMisses() {
+        return mMisses;
+    }
+
+    synchronized long getEvictions() {
+        return mEvictions;
+    }
+
+    synchronized long getInvalidations() {
+        return mInvalidations;
+    }
+
+    synchronized int getEntryCount() {
+        return mEntries.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return mEntries.size() + " locations, " + mHits + " hits, " + mMisses + " misses, "
+                + mEvictions + " evictions, " + mInvalidations + " invalidations";
+    }
+}
@@ -0,0 +1,268 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.sunshine.app.data.WeatherContract.PackedForecastEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * The forecast of one location held column by column in primitive arrays, one element per
+ * day in date order, and packed into the single blob the packed_forecast table stores for the
+ * location.
+ *
+ * A blob starts with the version of its format and the number of days, followed by each
+ * column in turn: dates, weather ids, then the minimum and maximum temperatures, humidity,
+ * pressure, wind speed and direction.  Readers get a location's whole forecast from one row
+ * and one blob, rather than walking a cursor over a row per day.
+ */
+public class PackedForecast {
+
+    // Bump when the layout of the blob changes, blobs of another version are not read
+    static final int FORMAT_VERSION = 1;
+
+    // The version and the number of days
+    private static final int HEADER_BYTES = 4 + 4;
+    // A long, an int and six doubles
+    private static final int BYTES_PER_DAY = 8 + 4 + 6 * 8;
+
+    // Columns read from the weather table, in the order fromCursor expects them
+    static final String[] WEATHER_COLUMNS = {
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+
+    final long[] mDates;
+    final int[] mWeatherIds;
+    final double[] mMinTemps;
+    final double[] mMaxTemps;
+    final double[] mHumidities;
+    final double[] mPressures;
+    final double[] mWindSpeeds;
+    final double[] mDegrees;
+
+    PackedForecast(int days) {
+        mDates = new long[days];
+        mWeatherIds = new int[days];
+        mMinTemps = new double[days];
+        mMaxTemps = new double[days];
+        mHumidities = new double[days];
+        mPressures = new double[days];
+        mWindSpeeds = new double[days];
+        mDegrees = new double[days];
+    }
+
+    public int size() {
+        return mDates.length;
+    }
+
+    public long getDate(int i) {
+        return mDates[i];
+    }
+
+    public int getWeatherId(int i) {
+        return mWeatherIds[i];
+    }
+
+    public double getMinTemp(int i) {
+        return mMinTemps[i];
+    }
+
+    public double getMaxTemp(int i) {
+        return mMaxTemps[i];
+    }
+
+    public double getHumidity(int i) {
+        return mHumidities[i];
+    }
+
+    public double getPressure(int i) {
+        return mPressures[i];
+    }
+
+    public double getWindSpeed(int i) {
+        return mWindSpeeds[i];
+    }
+
+    public double getDegrees(int i) {
+        return mDegrees[i];
+    }
+
+    /**
+     * @return the index of the first day on or after date, or size() if there is none.
+     */
+    public int indexOf(long date) {
+        int i = 0;
+        while (i < mDates.length && mDates[i] < date) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Reads the forecast of a location from its packed_forecast row.
+     *
+     * @return the forecast, or null if there is none for the location.
+     */
+    public static PackedForecast query(ContentResolver resolver, String locationSetting) {
+        Cursor cursor = resolver.query(
+                PackedForecastEntry.buildPackedForecastLocation(locationSetting),
+                new String[]{PackedForecastEntry.COLUMN_FORECAST}, null, null, null);
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            return cursor.moveToFirst() ? fromBlob(cursor.getBlob(0)) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    byte[] toBlob() {
+        int days = mDates.length;
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + days * BYTES_PER_DAY);
+        buffer.putInt(FORMAT_VERSION);
+        buffer.putInt(days);
+        buffer.asLongBuffer().put(mDates);
+        buffer.position(buffer.position() + days * 8);
+        buffer.asIntBuffer().put(mWeatherIds);
+        buffer.position(buffer.position() + days * 4);
+        putColumn(buffer, mMinTemps);
+        putColumn(buffer, mMaxTemps);
+        putColumn(buffer, mHumidities);
+        putColumn(buffer, mPressures);
+        putColumn(buffer, mWindSpeeds);
+        putColumn(buffer, mDegrees);
+        return buffer.array();
+    }
+
+    private static void putColumn(ByteBuffer buffer, double[] column) {
+        buffer.asDoubleBuffer().put(column);
+        buffer.position(buffer.position() + column.length * 8);
+    }
+
+    /**
+     * Unpacks a blob made by {@link #toBlob()}.
+     *
+     * @throws IllegalArgumentException if the blob is of another format version or cut short.
+     */
+    static PackedForecast fromBlob(byte[] blob) {
+        ByteBuffer buffer = ByteBuffer.wrap(blob);
+        try {
+            int version = buffer.getInt();
+            if (version != FORMAT_VERSION) {
+                throw new IllegalArgumentException("Unknown packed forecast version " + version);
+            }
+            int days = buffer.getInt();
+            if (days < 0 || buffer.remaining() < (long) days * BYTES_PER_DAY) {
+                throw new IllegalArgumentException("Packed forecast is cut short");
+            }
+            PackedForecast forecast = new PackedForecast(days);
+            buffer.asLongBuffer().get(forecast.mDates);
+            buffer.position(buffer.position() + days * 8);
+            buffer.asIntBuffer().get(forecast.mWeatherIds);
+            buffer.position(buffer.position() + days * 4);
+            getColumn(buffer, forecast.mMinTemps);
+            getColumn(buffer, forecast.mMaxTemps);
+            getColumn(buffer, forecast.mHumidities);
+            getColumn(buffer, forecast.mPressures);
+            getColumn(buffer, forecast.mWindSpeeds);
+            getColumn(buffer, forecast.mDegrees);
+            return forecast;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Packed forecast is cut short", e);
+        }
+    }
+
+    private static void getColumn(ByteBuffer buffer, double[] column) {
+        buffer.asDoubleBuffer().get(column);
+        buffer.position(buffer.position() + column.length * 8);
+    }
+
+    /**
+     * Copies the rows of a cursor over {@link #WEATHER_COLUMNS}, in date order.
+     */
+    static PackedForecast fromCursor(Cursor cursor) {
+        PackedForecast forecast = new PackedForecast(cursor.getCount());
+        for (int i = 0; cursor.moveToNext(); i++) {
+            forecast.mDates[i] = cursor.getLong(0);
+            forecast.mWeatherIds[i] = cursor.getInt(1);
+            forecast.mMinTemps[i] = cursor.getDouble(2);
+            forecast.mMaxTemps[i] = cursor.getDouble(3);
+            forecast.mHumidities[i] = cursor.getDouble(4);
+            forecast.mPressures[i] = cursor.getDouble(5);
+            forecast.mWindSpeeds[i] = cursor.getDouble(6);
+            forecast.mDegrees[i] = cursor.getDouble(7);
+        }
+        return forecast;
+    }
+
+    /**
+     * Packs a location's rows of the weather table.
+     */
+    static PackedForecast read(SQLiteDatabase db, long locationId) {
+        Cursor cursor = db.query(WeatherEntry.TABLE_NAME, WEATHER_COLUMNS,
+                WeatherEntry.COLUMN_LOC_KEY + " = ?", new String[]{Long.toString(locationId)},
+                null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        try {
+            return fromCursor(cursor);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Brings a location's packed_forecast row in line with its rows of the weather table,
+     * removing it if the location has no weather left.
+     */
+    static void store(SQLiteDatabase db, long locationId) {
+        PackedForecast forecast = read(db, locationId);
+        if (forecast.size() == 0) {
+            db.delete(PackedForecastEntry.TABLE_NAME, PackedForecastEntry.COLUMN_LOC_KEY + " = ?",
+                    new String[]{Long.toString(locationId)});
+            return;
+        }
+        ContentValues values = new ContentValues();
+        values.put(PackedForecastEntry.COLUMN_LOC_KEY, locationId);
+        values.put(PackedForecastEntry.COLUMN_START_DATE, forecast.mDates[0]);
+        values.put(PackedForecastEntry.COLUMN_DAYS, forecast.size());
+        values.put(PackedForecastEntry.COLUMN_FORECAST, forecast.toBlob());
+        // The table's UNIQUE constraint replaces the location's old row
+        db.insert(PackedForecastEntry.TABLE_NAME, null, values);
+    }
+
+    /**
+     * Packs the forecast of up to maxLocations locations with an _id above afterLocationId, in
+     * _id order.
+     *
+     * @return the _id of the last location packed, or -1 if there were none left.
+     */
+    static long storeLocations(SQLiteDatabase db, long afterLocationId, int maxLocations) {
+        Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry._ID},
+                WeatherContract.LocationEntry._ID + " > ?",
+                new String[]{Long.toString(afterLocationId)}, null, null,
+                WeatherContract.LocationEntry._ID, Integer.toString(maxLocations));
+        long lastLocationId = -1;
+        try {
+            while (cursor.moveToNext()) {
+                lastLocationId = cursor.getLong(0);
+                store(db, lastLocationId);
+            }
+        } finally {
+            cursor.close();
+        }
+        return lastLocationId;
+    }
+}
@@ -0,0 +1,378 @@
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.content.ContentResolver;
+import android.content.res.Resources;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+import android.os.Bundle;
+import android.text.format.Time;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.data.WeatherContract.ArchiveEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/**
+ * Keeps the weather of past days in the archive table instead of deleting it, in tiers that
+ * get coarser with age: single days, then weeks, then months, each kept for as long as its
+ * {@link Config} says.
+ *
+ * Days are moved into the archive with {@link #archive(ContentResolver, long)}.  Compaction
+ * then folds the days past their retention into weeks, the weeks past theirs into months, and
+ * drops the months past theirs.  Only whole weeks and months are folded, so a period is
+ * aggregated once.  It runs a bounded number of rows per transaction, so readers are never
+ * held up for long and the sync adapter can write in between.
+ */
+public class WeatherArchive {
+    private static final String LOG_TAG = WeatherArchive.class.getSimpleName();
+
+    // The most rows a week or a month is folded from, 7 days or the 5 weeks starting in it
+    private static final int MAX_ROWS_PER_PERIOD = 7;
+
+    /**
+     * How long each tier of the archive is kept, and how much compaction does at a time.
+     */
+    public static class Config {
+        final int dayRetentionDays;
+        final int weekRetentionDays;
+        final int monthRetentionDays;
+        final int rowsPerTransaction;
+
+        /**
+         * @param dayRetentionDays days that single days are kept before folding into weeks.
+         * @param weekRetentionDays days that weeks are kept before folding into months.
+         * @param monthRetentionDays days that months are kept before they are dropped.
+         * @param rowsPerTransaction archive rows compaction reads per transaction.
+         */
+        public Config(int dayRetentionDays, int weekRetentionDays, int monthRetentionDays,
+                      int rowsPerTransaction) {
+            if (dayRetentionDays < 0 || weekRetentionDays < dayRetentionDays
+                    || monthRetentionDays < weekRetentionDays) {
+                throw new IllegalArgumentException("Archive retention out of order");
+            }
+            if (rowsPerTransaction <= MAX_ROWS_PER_PERIOD) {
+                throw new IllegalArgumentException("Compaction must read more than a week of "
+                        + "rows per transaction");
+            }
+            this.dayRetentionDays = dayRetentionDays;
+            this.weekRetentionDays = weekRetentionDays;
+            this.monthRetentionDays = monthRetentionDays;
+            this.rowsPerTransaction = rowsPerTransaction;
+        }
+
+        /**
+         * @return the configuration set in the app's resources.
+         */
+        public static Config fromResources(Resources resources) {
+            return new Config(resources.getInteger(R.integer.archive_day_retention_days),
+                    resources.getInteger(R.integer.archive_week_retention_days),
+                    resources.getInteger(R.integer.archive_month_retention_days),
+                    resources.getInteger(R.integer.archive_rows_per_transaction));
+        }
+    }
+
+    //INSERT INTO weather_archive (location_id, tier, start_date, ...) SELECT ... FROM weather
+    private static final String SQL_ARCHIVE_DAYS = "INSERT INTO " + ArchiveEntry.TABLE_NAME +
+            " (" + ArchiveEntry.COLUMN_LOC_KEY + ", " + ArchiveEntry.COLUMN_TIER + ", " +
+            ArchiveEntry.COLUMN_START_DATE + ", " + ArchiveEntry.COLUMN_DAYS + ", " +
+            ArchiveEntry.COLUMN_WEATHER_ID + ", " + ArchiveEntry.COLUMN_MIN_TEMP + ", " +
+            ArchiveEntry.COLUMN_MAX_TEMP + ", " + ArchiveEntry.COLUMN_HUMIDITY + ", " +
+            ArchiveEntry.COLUMN_PRESSURE + ", " + ArchiveEntry.COLUMN_WIND_SPEED + ", " +
+            ArchiveEntry.COLUMN_DEGREES + ") SELECT " + WeatherEntry.COLUMN_LOC_KEY + ", " +
+            ArchiveEntry.TIER_DAY + ", " + WeatherEntry.COLUMN_DATE + ", 1, " +
+            WeatherEntry.COLUMN_WEATHER_ID + ", " + WeatherEntry.COLUMN_MIN_TEMP + ", " +
+            WeatherEntry.COLUMN_MAX_TEMP + ", " + WeatherEntry.COLUMN_HUMIDITY + ", " +
+            WeatherEntry.COLUMN_PRESSURE + ", " + WeatherEntry.COLUMN_WIND_SPEED + ", " +
+            WeatherEntry.COLUMN_DEGREES + " FROM " + WeatherEntry.TABLE_NAME + " WHERE " +
+            WeatherEntry.COLUMN_DATE + " <= ?";
+
+    private static final String SQL_INSERT_PERIOD = "INSERT INTO " + ArchiveEntry.TABLE_NAME +
+            " (" + ArchiveEntry.COLUMN_LOC_KEY + ", " + ArchiveEntry.COLUMN_TIER + ", " +
+            ArchiveEntry.COLUMN_START_DATE + ", " + ArchiveEntry.COLUMN_DAYS + ", " +
+            ArchiveEntry.COLUMN_WEATHER_ID + ", " + ArchiveEntry.COLUMN_MIN_TEMP + ", " +
+            ArchiveEntry.COLUMN_MAX_TEMP + ", " + ArchiveEntry.COLUMN_HUMIDITY + ", " +
+            ArchiveEntry.COLUMN_PRESSURE + ", " + ArchiveEntry.COLUMN_WIND_SPEED + ", " +
+            ArchiveEntry.COLUMN_DEGREES + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String[] PERIOD_COLUMNS = {
+            ArchiveEntry._ID,
+            ArchiveEntry.COLUMN_LOC_KEY,
+            ArchiveEntry.COLUMN_START_DATE,
+            ArchiveEntry.COLUMN_DAYS,
+            ArchiveEntry.COLUMN_WEATHER_ID,
+            ArchiveEntry.COLUMN_MIN_TEMP,
+            ArchiveEntry.COLUMN_MAX_TEMP,
+            ArchiveEntry.COLUMN_HUMIDITY,
+            ArchiveEntry.COLUMN_PRESSURE,
+            ArchiveEntry.COLUMN_WIND_SPEED,
+            ArchiveEntry.COLUMN_DEGREES
+    };
+
+    private static final int COL_ID = 0;
+    private static final int COL_LOC_KEY = 1;
+    private static final int COL_START_DATE = 2;
+    private static final int COL_DAYS = 3;
+    private static final int COL_WEATHER_ID = 4;
+    private static final int COL_MIN_TEMP = 5;
+    private static final int COL_MAX_TEMP = 6;
+    private static final int COL_HUMIDITY = 7;
+    private static final int COL_PRESSURE = 8;
+    private static final int COL_WIND_SPEED = 9;
+    private static final int COL_DEGREES = 10;
+
+    /**
+     * Moves the weather of every day up to lastDate into the archive, and compacts it.
+     *
+     * @return the number of weather rows moved.
+     */
+    public static int archive(ContentResolver resolver, long lastDate) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            return archiveWithCall(resolver, lastDate);
+        }
+        // ContentResolver.call does not exist before Honeycomb, so past days are only deleted
+        return resolver.delete(WeatherEntry.CONTENT_URI, WeatherEntry.COLUMN_DATE + " <= ?",
+                new String[]{Long.toString(lastDate)});
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static int archiveWithCall(ContentResolver resolver, long lastDate) {
+        Bundle result = resolver.call(ArchiveEntry.CONTENT_URI,
+                ArchiveEntry.METHOD_ARCHIVE_WEATHER, Long.toString(lastDate), null);
+        return result == null ? 0 : result.getInt(WeatherEntry.EXTRA_ROW_COUNT);
+    }
+
+    /**
+     * Copies the weather rows of every day up to lastDate into the day tier.  Runs inside the
+     * transaction that then deletes them from the weather table.
+     */
+    static void copyDays(SQLiteDatabase db, long lastDate) {
+        db.execSQL(SQL_ARCHIVE_DAYS, new Object[]{lastDate});
+    }
+
+    private final Config mConfig;
+
+    WeatherArchive(Config config) {
+        mConfig = config;
+    }
+
+    /**
+     * Folds and drops whatever has outlived its tier's retention, counted back from today.
+     *
+     * @return the number of transactions it took.
+     */
+    int compact(SQLiteDatabase db, long today) {
+        Time time = new Time();
+        int todayJulianDay = getJulianDay(time, today);
+        int transactions = 0;
+        // Days of the weeks that ended before the day retention began
+        transactions += fold(db, time, ArchiveEntry.TIER_DAY, ArchiveEntry.TIER_WEEK,
+                time.setJulianDay(startOfWeek(todayJulianDay - mConfig.dayRetentionDays)));
+        // Weeks starting in the months that ended before the week retention began
+        transactions += fold(db, time, ArchiveEntry.TIER_WEEK, ArchiveEntry.TIER_MONTH,
+                time.setJulianDay(startOfMonth(time, todayJulianDay - mConfig.weekRetentionDays)));
+        transactions += dropMonths(db,
+                time.setJulianDay(startOfMonth(time, todayJulianDay - mConfig.monthRetentionDays)));
+        return transactions;
+    }
+
+    /**
+     * Aggregates the rows of one tier dated before the cutoff into the periods of the next.
+     */
+    private int fold(SQLiteDatabase db, Time time, int fromTier, int toTier, long cutoffDate) {
+        String[] selectionArgs = {Integer.toString(fromTier), Long.toString(cutoffDate)};
+        int transactions = 0;
+        int folded;
+        do {
+            long start = System.nanoTime();
+            db.beginTransaction();
+            try {
+                Cursor cursor = db.query(ArchiveEntry.TABLE_NAME, PERIOD_COLUMNS,
+                        ArchiveEntry.COLUMN_TIER + " = ? AND " + ArchiveEntry.COLUMN_START_DATE
+                                + " < ?", selectionArgs, null, null,
+                        ArchiveEntry.COLUMN_LOC_KEY + ", " + ArchiveEntry.COLUMN_START_DATE,
+                        Integer.toString(mConfig.rowsPerTransaction));
+                try {
+                    folded = foldRows(db, time, cursor, toTier);
+                } finally {
+                    cursor.close();
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            transactions++;
+            Log.v(LOG_TAG, "Folded " + folded + " rows of tier " + fromTier + " in "
+                    + (System.nanoTime() - start) / 1000 + " us");
+        } while (folded > 0);
+        return transactions;
+    }
+
+    /**
+     * Folds the rows of the cursor, sorted by location and date, into one row per location and
+     * period.  If the cursor was cut off by the row limit its last period may be incomplete, so
+     * that one is left for the next transaction.
+     *
+     * @return the number of rows folded.
+     */
+    private int foldRows(SQLiteDatabase db, Time time, Cursor cursor, int toTier) {
+        int count = cursor.getCount();
+        if (count == 0) {
+            return 0;
+        }
+        long[] locationIds = new long[count];
+        int[] periodStarts = new int[count];
+        for (int i = 0; cursor.moveToNext(); i++) {
+            locationIds[i] = cursor.getLong(COL_LOC_KEY);
+            int julianDay = getJulianDay(time, cursor.getLong(COL_START_DATE));
+            periodStarts[i] = toTier == ArchiveEntry.TIER_WEEK
+                    ? startOfWeek(julianDay) : startOfMonth(time, julianDay);
+        }
+
+        // Periods are shorter than the row limit, so this always leaves some rows to fold
+        int end = count;
+        if (count == mConfig.rowsPerTransaction) {
+            while (locationIds[end - 1] == locationIds[count - 1]
+                    && periodStarts[end - 1] == periodStarts[count - 1]) {
+                end--;
+            }
+        }
+
+        SQLiteStatement insert = db.compileStatement(SQL_INSERT_PERIOD);
+        SQLiteStatement delete = db.compileStatement("DELETE FROM " + ArchiveEntry.TABLE_NAME
+                + " WHERE " + ArchiveEntry._ID + " = ?");
+        try {
+            Period period = new Period();
+            cursor.moveToPosition(-1);
+            for (int i = 0; i < end && cursor.moveToNext(); i++) {
+                if (period.mDays > 0 && (period.mLocationId != locationIds[i]
+                        || period.mStartJulianDay != periodStarts[i])) {
+                    writePeriod(db, time, insert, period, toTier);
+                    period = new Period();
+                }
+                period.mLocationId = locationIds[i];
+                period.mStartJulianDay = periodStarts[i];
+                period.add(cursor);
+                delete.bindLong(1, cursor.getLong(COL_ID));
+                delete.execute();
+            }
+            if (period.mDays > 0) {
+                writePeriod(db, time, insert, period, toTier);
+            }
+        } finally {
+            insert.close();
+            delete.close();
+        }
+        return end;
+    }
+
+    /**
+     * Writes a period, merging in what an earlier compaction already stored for it.
+     */
+    private static void writePeriod(SQLiteDatabase db, Time time, SQLiteStatement insert,
+                                    Period period, int tier) {
+        long startDate = time.setJulianDay(period.mStartJulianDay);
+        String[] selectionArgs = {Long.toString(period.mLocationId), Integer.toString(tier),
+                Long.toString(startDate)};
+        Cursor existing = db.query(ArchiveEntry.TABLE_NAME, PERIOD_COLUMNS,
+                ArchiveEntry.COLUMN_LOC_KEY + " = ? AND " + ArchiveEntry.COLUMN_TIER + " = ? AND "
+                        + ArchiveEntry.COLUMN_START_DATE + " = ?",
+                selectionArgs, null, null, null);
+        try {
+            if (existing.moveToFirst()) {
+                period.add(existing);
+            }
+        } finally {
+            existing.close();
+        }
+
+        // The table's UNIQUE constraint replaces the existing row
+        insert.bindLong(1, period.mLocationId);
+        insert.bindLong(2, tier);
+        insert.bindLong(3, startDate);
+        insert.bindLong(4, period.mDays);
+        insert.bindLong(5, period.mWeatherId);
+        insert.bindDouble(6, period.mMinTemp);
+        insert.bindDouble(7, period.mMaxTemp);
+        insert.bindDouble(8, period.mHumidity / period.mDays);
+        insert.bindDouble(9, period.mPressure / period.mDays);
+        insert.bindDouble(10, period.mWindSpeed / period.mDays);
+        insert.bindDouble(11, period.getMeanDegrees());
+        insert.executeInsert();
+    }
+
+    /**
+     * Drops the months that started before the cutoff, a transaction's worth at a time.
+     */
+    private int dropMonths(SQLiteDatabase db, long cutoffDate) {
+        String[] selectionArgs = {Integer.toString(ArchiveEntry.TIER_MONTH),
+                Long.toString(cutoffDate)};
+        String selection = ArchiveEntry._ID + " IN (SELECT " + ArchiveEntry._ID + " FROM "
+                + ArchiveEntry.TABLE_NAME + " WHERE " + ArchiveEntry.COLUMN_TIER + " = ? AND "
+                + ArchiveEntry.COLUMN_START_DATE + " < ? LIMIT " + mConfig.rowsPerTransaction
+                + ")";
+        int transactions = 0;
+        int dropped;
+        do {
+            // A single statement is a transaction of its own
+            dropped = db.delete(ArchiveEntry.TABLE_NAME, selection, selectionArgs);
+            transactions++;
+        } while (dropped > 0);
+        return transactions;
+    }
+
+    /**
+     * Sums of the rows making up a week or a month, weighted by the days each covers.
+     */
+    private static class Period {
+        long mLocationId;
+        int mStartJulianDay;
+        int mDays;
+        int mWeatherId = Integer.MAX_VALUE;
+        double mMinTemp = Double.MAX_VALUE;
+        double mMaxTemp = -Double.MAX_VALUE;
+        double mHumidity;
+        double mPressure;
+        double mWindSpeed;
+        // Wind directions are averaged as vectors, so that 350 and 10 make 0 rather than 180
+        double mDegreesSin;
+        double mDegreesCos;
+
+        void add(Cursor cursor) {
+            int days = cursor.getInt(COL_DAYS);
+            mDays += days;
+            mWeatherId = Math.min(mWeatherId, cursor.getInt(COL_WEATHER_ID));
+            mMinTemp = Math.min(mMinTemp, cursor.getDouble(COL_MIN_TEMP));
+            mMaxTemp = Math.max(mMaxTemp, cursor.getDouble(COL_MAX_TEMP));
+            mHumidity += cursor.getDouble(COL_HUMIDITY) * days;
+            mPressure += cursor.getDouble(COL_PRESSURE) * days;
+            mWindSpeed += cursor.getDouble(COL_WIND_SPEED) * days;
+            double radians = Math.toRadians(cursor.getDouble(COL_DEGREES));
+            mDegreesSin += Math.sin(radians) * days;
+            mDegreesCos += Math.cos(radians) * days;
+        }
+
+        double getMeanDegrees() {
+            double degrees = Math.toDegrees(Math.atan2(mDegreesSin, mDegreesCos));
+            return degrees < 0 ? degrees + 360 : degrees;
+        }
+    }
+
+    private static int getJulianDay(Time time, long date) {
+        time.set(date);
+        return Time.getJulianDay(date, time.gmtoff);
+    }
+
+    // Julian day numbers divisible by 7 are Mondays
+    private static int startOfWeek(int julianDay) {
+        return julianDay - julianDay % 7;
+    }
+
+    private static int startOfMonth(Time time, int julianDay) {
+        time.setJulianDay(julianDay);
+        time.monthDay = 1;
+        return getJulianDay(time, time.normalize(true));
+    }
+}
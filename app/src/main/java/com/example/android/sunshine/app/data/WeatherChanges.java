@@ -0,0 +1,38 @@
+package com.example.android.sunshine.app.data;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The days of each location's weather touched by one write to the weather table, gathered
+ * while the write runs so that {@link WeatherProvider} can announce them once it has committed.
+ */
+class WeatherChanges {
+    private final Map<Long, Set<Long>> mDatesByLocationId = new HashMap<Long, Set<Long>>();
+
+    /**
+     * @param date the normalized date of the row.
+     */
+    void add(long locationId, long date) {
+        Set<Long> dates = mDatesByLocationId.get(locationId);
+        if (dates == null) {
+            dates = new HashSet<Long>();
+            mDatesByLocationId.put(locationId, dates);
+        }
+        dates.add(date);
+    }
+
+    boolean isEmpty() {
+        return mDatesByLocationId.isEmpty();
+    }
+
+    Set<Long> getLocationIds() {
+        return mDatesByLocationId.keySet();
+    }
+
+    Set<Long> getDates(long locationId) {
+        return mDatesByLocationId.get(locationId);
+    }
+}
@@ -0,0 +1,381 @@
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+
+import java.util.Arrays;
+
+/**
+ * A batch of weather rows held column by column in primitive arrays, so rows can be built and
+ * inserted without creating a {@link ContentValues} (and boxing every value) per row.
+ *
+ * Inserted with {@link #insert(ContentResolver)}, which hands the arrays to
+ * {@link WeatherProvider#call} in a single {@link Bundle}.  A location's forecast is read back
+ * the same way with {@link #queryForecast}, without a Cursor and its CursorWindow.
+ */
+public class WeatherColumnBatch {
+
+    // Keys of the arrays inside the Bundle passed to WeatherProvider.call
+    static final String KEY_SIZE = "size";
+    static final String KEY_LOC_KEY = WeatherContract.WeatherEntry.COLUMN_LOC_KEY;
+    static final String KEY_DATE = WeatherContract.WeatherEntry.COLUMN_DATE;
+    static final String KEY_WEATHER_ID = WeatherContract.WeatherEntry.COLUMN_WEATHER_ID;
+    static final String KEY_SHORT_DESC = WeatherContract.WeatherEntry.COLUMN_SHORT_DESC;
+    static final String KEY_MIN_TEMP = WeatherContract.WeatherEntry.COLUMN_MIN_TEMP;
+    static final String KEY_MAX_TEMP = WeatherContract.WeatherEntry.COLUMN_MAX_TEMP;
+    static final String KEY_HUMIDITY = WeatherContract.WeatherEntry.COLUMN_HUMIDITY;
+    static final String KEY_PRESSURE = WeatherContract.WeatherEntry.COLUMN_PRESSURE;
+    static final String KEY_WIND_SPEED = WeatherContract.WeatherEntry.COLUMN_WIND_SPEED;
+    static final String KEY_DEGREES = WeatherContract.WeatherEntry.COLUMN_DEGREES;
+
+    // Columns read from the weather table, in the order fromCursor expects them
+    static final String[] WEATHER_COLUMNS = {
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES
+    };
+
+    int mSize;
+    long[] mLocationIds;
+    long[] mDates;
+    int[] mWeatherIds;
+    String[] mShortDescs;
+    double[] mMinTemps;
+    double[] mMaxTemps;
+    double[] mHumidities;
+    double[] mPressures;
+    double[] mWindSpeeds;
+    double[] mDegrees;
+
+    public WeatherColumnBatch(int capacity) {
+        capacity = Math.max(capacity, 1);
+        mLocationIds = new long[capacity];
+        mDates = new long[capacity];
+        mWeatherIds = new int[capacity];
+        mShortDescs = new String[capacity];
+        mMinTemps = new double[capacity];
+        mMaxTemps = new double[capacity];
+        mHumidities = new double[capacity];
+        mPressures = new double[capacity];
+        mWindSpeeds = new double[capacity];
+        mDegrees = new double[capacity];
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public long getLocationId(int i) {
+        return mLocationIds[i];
+    }
+
+    public long getDate(int i) {
+        return mDates[i];
+    }
+
+    public int getWeatherId(int i) {
+        return mWeatherIds[i];
+    }
+
+    public String getShortDesc(int i) {
+        return mShortDescs[i];
+    }
+
+    public double getMinTemp(int i) {
+        return mMinTemps[i];
+    }
+
+    public double getMaxTemp(int i) {
+        return mMaxTemps[i];
+    }
+
+    public double getHumidity(int i) {
+        return mHumidities[i];
+    }
+
+    public double getPressure(int i) {
+        return mPressures[i];
+    }
+
+    public double getWindSpeed(int i) {
+        return mWindSpeeds[i];
+    }
+
+    public double getDegrees(int i) {
+        return mDegrees[i];
+    }
+
+    /**
+     * @return the fingerprint the provider stores with row i.
+     */
+    public long getFingerprint(int i) {
+        return WeatherContract.WeatherEntry.computeFingerprint(mWeatherIds[i], mShortDescs[i],
+                mMinTemps[i], mMaxTemps[i], mHumidities[i], mPressures[i], mWindSpeeds[i],
+                mDegrees[i]);
+    }
+
+    /**
+     * Appends a row.  The date does not need to be normalized, the provider does that.
+     */
+    public void add(long locationId, long date, int weatherId, String shortDesc,
+                    double minTemp, double maxTemp, double humidity, double pressure,
+                    double windSpeed, double degrees) {
+        ensureCapacity(mSize + 1);
+        int i = mSize++;
+        mLocationIds[i] = locationId;
+        mDates[i] = date;
+        mWeatherIds[i] = weatherId;
+        mShortDescs[i] = shortDesc;
+        mMinTemps[i] = minTemp;
+        mMaxTemps[i] = maxTemp;
+        mHumidities[i] = humidity;
+        mPressures[i] = pressure;
+        mWindSpeeds[i] = windSpeed;
+        mDegrees[i] = degrees;
+    }
+
+    /**
+     * Appends row i of another batch.
+     */
+    public void add(WeatherColumnBatch other, int i) {
+        add(other.mLocationIds[i], other.mDates[i], other.mWeatherIds[i], other.mShortDescs[i],
+                other.mMinTemps[i], other.mMaxTemps[i], other.mHumidities[i],
+                other.mPressures[i], other.mWindSpeeds[i], other.mDegrees[i]);
+    }
+
+    /**
+     * Appends every row of another batch, assigning them all to one location.
+     */
+    public void addAll(WeatherColumnBatch other, long locationId) {
+        ensureCapacity(mSize + other.mSize);
+        int n = other.mSize;
+        Arrays.fill(mLocationIds, mSize, mSize + n, locationId);
+        System.arraycopy(other.mDates, 0, mDates, mSize, n);
+        System.arraycopy(other.mWeatherIds, 0, mWeatherIds, mSize, n);
+        System.arraycopy(other.mShortDescs, 0, mShortDescs, mSize, n);
+        System.arraycopy(other.mMinTemps, 0, mMinTemps, mSize, n);
+        System.arraycopy(other.mMaxTemps, 0, mMaxTemps, mSize, n);
+        System.arraycopy(other.mHumidities, 0, mHumidities, mSize, n);
+        System.arraycopy(other.mPressures, 0, mPressures, mSize, n);
+        System.arraycopy(other.mWindSpeeds, 0, mWindSpeeds, mSize, n);
+        System.arraycopy(other.mDegrees, 0, mDegrees, mSize, n);
+        mSize += n;
+    }
+
+    /**
+     * Inserts the batch into the weather table in one transaction.
+     *
+     * @return the number of rows inserted.
+     */
+    public int insert(ContentResolver resolver) {
+        if (mSize == 0) {
+            return 0;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            return insertWithCall(resolver);
+        }
+        // ContentResolver.call does not exist before Honeycomb
+        return resolver.bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, toContentValues());
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private int insertWithCall(ContentResolver resolver) {
+        Bundle result = resolver.call(WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.WeatherEntry.METHOD_BULK_INSERT_COLUMNS, null, toBundle());
+        return result == null ? 0 : result.getInt(WeatherContract.WeatherEntry.EXTRA_ROW_COUNT);
+    }
+
+    /**
+     * Reads a location's forecast in date order, in a single round trip to the provider.
+     *
+     * @param startDate the first day to read.  0 reads from the oldest day stored.
+     * @param maxDays the most days to read.
+     * @return the days stored, an empty batch if there are none.
+     * @throws IllegalArgumentException if locationSetting is null or maxDays is less than 1.
+     */
+    public static WeatherColumnBatch queryForecast(ContentResolver resolver,
+                                                   String locationSetting, long startDate,
+                                                   int maxDays) {
+        // Checked here too, as the query used before Honeycomb doesn't go through getForecast
+        if (locationSetting == null) {
+            throw new IllegalArgumentException("Missing location setting");
+        }
+        if (maxDays < 1) {
+            throw new IllegalArgumentException("Days to read must be positive, not " + maxDays);
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            return queryForecastWithCall(resolver, locationSetting, startDate, maxDays);
+        }
+        // ContentResolver.call does not exist before Honeycomb
+        Uri uri = startDate == 0
+                ? WeatherContract.WeatherEntry.buildWeatherLocation(locationSetting)
+                : WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                        locationSetting, startDate);
+        Cursor cursor = resolver.query(uri, WEATHER_COLUMNS, null, null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        if (cursor == null) {
+            return new WeatherColumnBatch(0);
+        }
+        try {
+            return fromCursor(cursor, maxDays);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static WeatherColumnBatch queryForecastWithCall(ContentResolver resolver,
+                                                            String locationSetting,
+                                                            long startDate, int maxDays) {
+        Bundle extras = new Bundle();
+        extras.putLong(WeatherContract.WeatherEntry.EXTRA_START_DATE, startDate);
+        extras.putInt(WeatherContract.WeatherEntry.EXTRA_DAYS, maxDays);
+        Bundle result = resolver.call(WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.WeatherEntry.METHOD_GET_FORECAST, locationSetting, extras);
+        return result == null ? new WeatherColumnBatch(0) : fromBundle(result);
+    }
+
+    /**
+     * Copies up to maxRows rows of a cursor over {@link #WEATHER_COLUMNS}.
+     */
+    static WeatherColumnBatch fromCursor(Cursor cursor, int maxRows) {
+        WeatherColumnBatch batch = new WeatherColumnBatch(Math.min(cursor.getCount(), maxRows));
+        while (batch.mSize < maxRows && cursor.moveToNext()) {
+            batch.add(cursor.getLong(0), cursor.getLong(1), cursor.getInt(2),
+                    cursor.getString(3), cursor.getDouble(4), cursor.getDouble(5),
+                    cursor.getDouble(6), cursor.getDouble(7), cursor.getDouble(8),
+                    cursor.getDouble(9));
+        }
+        return batch;
+    }
+
+    /**
+     * @return the rows as ContentValues, for callers that need them.
+     */
+    public ContentValues[] toContentValues() {
+        ContentValues[] rows = new ContentValues[mSize];
+        for (int i = 0; i < mSize; i++) {
+            ContentValues weatherValues = new ContentValues();
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, mLocationIds[i]);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, mDates[i]);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, mHumidities[i]);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, mPressures[i]);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, mWindSpeeds[i]);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, mDegrees[i]);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, mMaxTemps[i]);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, mMinTemps[i]);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, mShortDescs[i]);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, mWeatherIds[i]);
+            rows[i] = weatherValues;
+        }
+        return rows;
+    }
+
+    Bundle toBundle() {
+        trimToSize();
+        Bundle bundle = new Bundle();
+        bundle.putInt(KEY_SIZE, mSize);
+        bundle.putLongArray(KEY_LOC_KEY, mLocationIds);
+        bundle.putLongArray(KEY_DATE, mDates);
+        bundle.putIntArray(KEY_WEATHER_ID, mWeatherIds);
+        bundle.putStringArray(KEY_SHORT_DESC, mShortDescs);
+        bundle.putDoubleArray(KEY_MIN_TEMP, mMinTemps);
+        bundle.putDoubleArray(KEY_MAX_TEMP, mMaxTemps);
+        bundle.putDoubleArray(KEY_HUMIDITY, mHumidities);
+        bundle.putDoubleArray(KEY_PRESSURE, mPressures);
+        bundle.putDoubleArray(KEY_WIND_SPEED, mWindSpeeds);
+        bundle.putDoubleArray(KEY_DEGREES, mDegrees);
+        return bundle;
+    }
+
+    /**
+     * Rebuilds a batch from {@link #toBundle()}.  The arrays are used as they are, not copied.
+     *
+     * @throws IllegalArgumentException if the size is negative, or an array is missing or
+     * shorter than the batch.
+     */
+    static WeatherColumnBatch fromBundle(Bundle bundle) {
+        WeatherColumnBatch batch = new WeatherColumnBatch(1);
+        batch.mSize = bundle.getInt(KEY_SIZE);
+        if (batch.mSize < 0) {
+            throw new IllegalArgumentException("Weather batch size is negative: " + batch.mSize);
+        }
+        batch.mLocationIds = checkLength(bundle.getLongArray(KEY_LOC_KEY), batch.mSize);
+        batch.mDates = checkLength(bundle.getLongArray(KEY_DATE), batch.mSize);
+        batch.mWeatherIds = checkLength(bundle.getIntArray(KEY_WEATHER_ID), batch.mSize);
+        batch.mShortDescs = checkLength(bundle.getStringArray(KEY_SHORT_DESC), batch.mSize);
+        batch.mMinTemps = checkLength(bundle.getDoubleArray(KEY_MIN_TEMP), batch.mSize);
+        batch.mMaxTemps = checkLength(bundle.getDoubleArray(KEY_MAX_TEMP), batch.mSize);
+        batch.mHumidities = checkLength(bundle.getDoubleArray(KEY_HUMIDITY), batch.mSize);
+        batch.mPressures = checkLength(bundle.getDoubleArray(KEY_PRESSURE), batch.mSize);
+        batch.mWindSpeeds = checkLength(bundle.getDoubleArray(KEY_WIND_SPEED), batch.mSize);
+        batch.mDegrees = checkLength(bundle.getDoubleArray(KEY_DEGREES), batch.mSize);
+        return batch;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= mDates.length) {
+            return;
+        }
+        resize(Math.max(capacity, mDates.length * 2));
+    }
+
+    private void trimToSize() {
+        if (mSize != mDates.length) {
+            resize(mSize);
+        }
+    }
+
+    private void resize(int capacity) {
+        mLocationIds = Arrays.copyOf(mLocationIds, capacity);
+        mDates = Arrays.copyOf(mDates, capacity);
+        mWeatherIds = Arrays.copyOf(mWeatherIds, capacity);
+        mShortDescs = Arrays.copyOf(mShortDescs, capacity);
+        mMinTemps = Arrays.copyOf(mMinTemps, capacity);
+        mMaxTemps = Arrays.copyOf(mMaxTemps, capacity);
+        mHumidities = Arrays.copyOf(mHumidities, capacity);
+        mPressures = Arrays.copyOf(mPressures, capacity);
+        mWindSpeeds = Arrays.copyOf(mWindSpeeds, capacity);
+        mDegrees = Arrays.copyOf(mDegrees, capacity);
+    }
+
+    private static long[] checkLength(long[] array, int size) {
+        if (array == null || array.length < size) {
+            throw new IllegalArgumentException("Weather batch column is too short");
+        }
+        return array;
+    }
+
+    private static int[] checkLength(int[] array, int size) {
+        if (array == null || array.length < size) {
+            throw new IllegalArgumentException("Weather batch column is too short");
+        }
+        return array;
+    }
+
+    private static double[] checkLength(double[] array, int size) {
+        if (array == null || array.length < size) {
+            throw new IllegalArgumentException("Weather batch column is too short");
+        }
+        return array;
+    }
+
+    private static String[] checkLength(String[] array, int size) {
+        if (array == null || array.length < size) {
+            throw new IllegalArgumentException("Weather batch column is too short");
+        }
+        return array;
+    }
+}
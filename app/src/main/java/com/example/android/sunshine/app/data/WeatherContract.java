@@ -43,12 +43,20 @@ public class WeatherContract {
     // At least, let's hope not.  Don't be that dev, reader.  Don't be that dev.
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    public static final String PATH_CACHE_STATS = "cache_stats";
+    public static final String PATH_ARCHIVE = "archive";
+    public static final String PATH_PACKED_FORECAST = "packed_forecast";
 
     // To make it easy to query for the exact date, we normalize all dates that go into
     // the database to the start of the the Julian day at UTC.
     public static long normalizeDate(long startDate) {
+        return normalizeDate(new Time(), startDate);
+    }
+
+    // Same as normalizeDate(long), reusing the given Time so that loops over many dates do not
+    // allocate one per date.
+    static long normalizeDate(Time time, long startDate) {
         // normalize the start date to the beginning of the (UTC) day
-        Time time = new Time();
         time.set(startDate);
         int julianDay = Time.getJulianDay(startDate, time.gmtoff);
         return time.setJulianDay(julianDay);
@@ -68,6 +76,11 @@ public class WeatherContract {
         // Table name
         public static final String TABLE_NAME = "location";
 
+        // ContentProvider.call method resolving a LocationBatch to location row ids, adding the
+        // locations not stored yet, and the extra holding the ids in the batch's order
+        public static final String METHOD_UPSERT_LOCATIONS = "upsertLocations";
+        public static final String EXTRA_LOCATION_IDS = "location_ids";
+
         // The location setting string is what will be sent to openweathermap
         // as the location query.
         public static final String COLUMN_LOCATION_SETTING = "location_setting";
@@ -86,6 +99,29 @@ public class WeatherContract {
         }
     }
 
+    /* Inner class that defines the single row reporting how WeatherProvider's query cache is doing */
+    public static final class CacheStatsEntry {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_CACHE_STATS).build();
+
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_CACHE_STATS;
+
+        // Queries answered from the cache, and ones that had to go to the database
+        public static final String COLUMN_HITS = "hits";
+        public static final String COLUMN_MISSES = "misses";
+        // Hits divided by all lookups, stored as a float between 0 and 1
+        public static final String COLUMN_HIT_RATIO = "hit_ratio";
+        // Results dropped to stay within the cache's limits
+        public static final String COLUMN_EVICTIONS = "evictions";
+        // Results dropped because a write changed what they were read from
+        public static final String COLUMN_INVALIDATIONS = "invalidations";
+        // Number of results cached right now, and their estimated heap size in bytes
+        public static final String COLUMN_ENTRIES = "entries";
+        public static final String COLUMN_BYTES = "bytes";
+    }
+
     /* Inner class that defines the table contents of the weather table */
     public static final class WeatherEntry implements BaseColumns {
 
@@ -99,6 +135,18 @@ public class WeatherContract {
 
         public static final String TABLE_NAME = "weather";
 
+        // ContentProvider.call method inserting a WeatherColumnBatch, and the extra holding the
+        // number of rows it inserted
+        public static final String METHOD_BULK_INSERT_COLUMNS = "bulkInsertColumns";
+        public static final String EXTRA_ROW_COUNT = "row_count";
+
+        // ContentProvider.call method reading a location's forecast as a WeatherColumnBatch, in
+        // date order.  The argument is the location setting, the extras hold the first date and
+        // the most days to read.
+        public static final String METHOD_GET_FORECAST = "getForecast";
+        public static final String EXTRA_START_DATE = "start_date";
+        public static final String EXTRA_DAYS = "days";
+
         // Column with the foreign key into the location table.
         public static final String COLUMN_LOC_KEY = "location_id";
         // Date, stored as long in milliseconds since the epoch
@@ -126,6 +174,47 @@ public class WeatherContract {
         // Degrees are meteorological degrees (e.g, 0 is north, 180 is south).  Stored as floats.
         public static final String COLUMN_DEGREES = "degrees";
 
+        // Hash of the forecast values of the row, see computeFingerprint.  Lets sync tell
+        // whether a day changed without comparing every column.
+        public static final String COLUMN_FINGERPRINT = "fingerprint";
+
+        // Index on (location_id, date, ...) serving the per location queries
+        public static final String INDEX_LOCATION_DATE = "weather_location_date";
+
+        /**
+         * @return a 64 bit FNV-1a hash of a day's forecast values.  Rows with the same
+         * fingerprint hold the same forecast.
+         */
+        public static long computeFingerprint(int weatherId, String shortDesc, double minTemp,
+                                              double maxTemp, double humidity, double pressure,
+                                              double windSpeed, double degrees) {
+            long hash = FNV_OFFSET_BASIS;
+            hash = fingerprint(hash, weatherId);
+            hash = fingerprint(hash, Double.doubleToLongBits(minTemp));
+            hash = fingerprint(hash, Double.doubleToLongBits(maxTemp));
+            hash = fingerprint(hash, Double.doubleToLongBits(humidity));
+            hash = fingerprint(hash, Double.doubleToLongBits(pressure));
+            hash = fingerprint(hash, Double.doubleToLongBits(windSpeed));
+            hash = fingerprint(hash, Double.doubleToLongBits(degrees));
+            if (shortDesc != null) {
+                for (int i = 0; i < shortDesc.length(); i++) {
+                    hash = (hash ^ shortDesc.charAt(i)) * FNV_PRIME;
+                }
+            }
+            return hash;
+        }
+
+        private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+        private static final long FNV_PRIME = 0x100000001b3L;
+
+        private static long fingerprint(long hash, long value) {
+            for (int i = 0; i < 8; i++) {
+                hash = (hash ^ (value & 0xff)) * FNV_PRIME;
+                value >>>= 8;
+            }
+            return hash;
+        }
+
         public static Uri buildWeatherUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
@@ -165,4 +254,76 @@ public class WeatherContract {
                 return 0;
         }
     }
+
+    /* Inner class that defines the table contents of the archive of past weather */
+    public static final class ArchiveEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_ARCHIVE).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_ARCHIVE;
+
+        public static final String TABLE_NAME = "weather_archive";
+
+        // ContentProvider.call method moving the weather of every day up to the date given as
+        // its argument into the archive, then compacting the archive.  The result holds the
+        // number of weather rows moved under WeatherEntry.EXTRA_ROW_COUNT.
+        public static final String METHOD_ARCHIVE_WEATHER = "archiveWeather";
+
+        // Rows of a single day, and aggregates of a week or a month of them
+        public static final int TIER_DAY = 0;
+        public static final int TIER_WEEK = 1;
+        public static final int TIER_MONTH = 2;
+
+        // Column with the foreign key into the location table.
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // One of the TIER_ constants
+        public static final String COLUMN_TIER = "tier";
+        // First day the row covers, normalized like WeatherEntry.COLUMN_DATE
+        public static final String COLUMN_START_DATE = "start_date";
+        // Number of days of weather the row sums up
+        public static final String COLUMN_DAYS = "days";
+        // The lowest weather id of those days, which in OpenWeatherMap's groups is the stormiest
+        public static final String COLUMN_WEATHER_ID = "weather_id";
+        // Lowest and highest temperatures of those days
+        public static final String COLUMN_MIN_TEMP = "min";
+        public static final String COLUMN_MAX_TEMP = "max";
+        // Means over those days
+        public static final String COLUMN_HUMIDITY = "humidity";
+        public static final String COLUMN_PRESSURE = "pressure";
+        public static final String COLUMN_WIND_SPEED = "wind";
+        public static final String COLUMN_DEGREES = "degrees";
+    }
+
+    /* Inner class that defines the table contents of the packed forecast table */
+    public static final class PackedForecastEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_PACKED_FORECAST).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_PACKED_FORECAST;
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_PACKED_FORECAST;
+
+        public static final String TABLE_NAME = "packed_forecast";
+
+        // Column with the foreign key into the location table, one row per location
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // First day of the forecast, normalized like WeatherEntry.COLUMN_DATE
+        public static final String COLUMN_START_DATE = "start_date";
+        // Number of days in the forecast
+        public static final String COLUMN_DAYS = "days";
+        // Every day of the forecast, packed by PackedForecast
+        public static final String COLUMN_FORECAST = "forecast";
+
+        public static Uri buildPackedForecastLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+    }
 }
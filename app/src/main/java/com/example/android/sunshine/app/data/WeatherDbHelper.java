@@ -15,25 +15,311 @@
  */
 package com.example.android.sunshine.app.data;
 
+import android.annotation.TargetApi;
 import android.content.Context;
+import android.content.res.Resources;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+import android.os.Process;
+import android.util.Log;
 
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.data.WeatherContract.ArchiveEntry;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.PackedForecastEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
 /**
  * Manages a local database for weather data.
  */
 public class WeatherDbHelper extends SQLiteOpenHelper {
+    private static final String LOG_TAG = WeatherDbHelper.class.getSimpleName();
 
-    // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    // If you change the database schema, you must increment the database version, and add a
+    // step to MIGRATOR that upgrades the version before to it.
+    //   3: the index on (location_id, date, ...)
+    //   4: the fingerprint column
+    //   5: the migration_progress table, which DbMigrator adds itself
+    //   6: the weather_archive table
+    //   7: the packed_forecast table
+    private static final int DATABASE_VERSION = 7;
+    private static final int PACKED_FORECAST_VERSION = 7;
+
+    // Databases older than this are dropped and created again
+    static final int OLDEST_MIGRATED_VERSION = 2;
 
     static final String DATABASE_NAME = "weather.db";
 
+    // Rows rewritten per transaction by a backfill
+    static final int BACKFILL_CHUNK_ROWS = 500;
+
+    // weather/* and weather/*/# find the location by its setting, through the index behind
+    // its UNIQUE constraint, then need that location's days in date order.  The UNIQUE
+    // (date, location_id) index leads with the date, which suits date ranges across every
+    // location but not one location's days, so index location first.  The forecast list,
+    // widgets and notifications only read these columns of the weather table, so they are
+    // answered from the index without touching the table.
+    private static final String SQL_CREATE_WEATHER_LOCATION_DATE_INDEX = "CREATE INDEX " +
+            WeatherEntry.INDEX_LOCATION_DATE + " ON " + WeatherEntry.TABLE_NAME + " (" +
+            WeatherEntry.COLUMN_LOC_KEY + ", " +
+            WeatherEntry.COLUMN_DATE + ", " +
+            WeatherEntry.COLUMN_WEATHER_ID + ", " +
+            WeatherEntry.COLUMN_SHORT_DESC + ", " +
+            WeatherEntry.COLUMN_MAX_TEMP + ", " +
+            WeatherEntry.COLUMN_MIN_TEMP + ");";
+
+    // Past weather, one row per location, tier and period.  Compaction reads a tier's oldest
+    // rows location by location, which the UNIQUE constraint's index serves in order.
+    private static final String SQL_CREATE_ARCHIVE_TABLE = "CREATE TABLE " +
+            ArchiveEntry.TABLE_NAME + " (" +
+            ArchiveEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+            ArchiveEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+            ArchiveEntry.COLUMN_TIER + " INTEGER NOT NULL, " +
+            ArchiveEntry.COLUMN_START_DATE + " INTEGER NOT NULL, " +
+            ArchiveEntry.COLUMN_DAYS + " INTEGER NOT NULL, " +
+            ArchiveEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, " +
+            ArchiveEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+            ArchiveEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+            ArchiveEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+            ArchiveEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+            ArchiveEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+            ArchiveEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+            " FOREIGN KEY (" + ArchiveEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+            LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+            " UNIQUE (" + ArchiveEntry.COLUMN_TIER + ", " + ArchiveEntry.COLUMN_LOC_KEY + ", " +
+            ArchiveEntry.COLUMN_START_DATE + ") ON CONFLICT REPLACE);";
+
+    // The forecast of each location packed into one blob, kept in step with the weather table
+    // by WeatherProvider
+    private static final String SQL_CREATE_PACKED_FORECAST_TABLE = "CREATE TABLE " +
+            PackedForecastEntry.TABLE_NAME + " (" +
+            PackedForecastEntry._ID + " INTEGER PRIMARY KEY," +
+            PackedForecastEntry.COLUMN_LOC_KEY + " INTEGER UNIQUE ON CONFLICT REPLACE NOT NULL, " +
+            PackedForecastEntry.COLUMN_START_DATE + " INTEGER NOT NULL, " +
+            PackedForecastEntry.COLUMN_DAYS + " INTEGER NOT NULL, " +
+            PackedForecastEntry.COLUMN_FORECAST + " BLOB NOT NULL, " +
+            " FOREIGN KEY (" + PackedForecastEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+            LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "));";
+
+    static final DbMigrator MIGRATOR = new DbMigrator(OLDEST_MIGRATED_VERSION,
+            new DbMigrator.Step(3, "index weather by location and date") {
+                @Override
+                void upgrade(SQLiteDatabase db) {
+                    db.execSQL(SQL_CREATE_WEATHER_LOCATION_DATE_INDEX);
+                }
+            },
+            new DbMigrator.Step(4, "fingerprint weather rows") {
+                @Override
+                void upgrade(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE " + WeatherEntry.TABLE_NAME + " ADD COLUMN " +
+                            WeatherEntry.COLUMN_FINGERPRINT + " INTEGER");
+                }
+
+                // Until a row is fingerprinted the next sync takes it as changed and writes it
+                // again, so the backfill only saves work and can wait
+                @Override
+                boolean hasBackfill() {
+                    return true;
+                }
+
+                @Override
+                long backfill(SQLiteDatabase db, long afterRowId, int maxRows) {
+                    return backfillFingerprints(db, afterRowId, maxRows);
+                }
+            },
+            new DbMigrator.Step(6, "archive past weather") {
+                @Override
+                void upgrade(SQLiteDatabase db) {
+                    db.execSQL(SQL_CREATE_ARCHIVE_TABLE);
+                }
+            },
+            new DbMigrator.Step(PACKED_FORECAST_VERSION, "pack forecasts") {
+                @Override
+                void upgrade(SQLiteDatabase db) {
+                    db.execSQL(SQL_CREATE_PACKED_FORECAST_TABLE);
+                }
+
+                // Until a location is packed its readers get the forecast packed on the fly.
+                // Cancelled by onUpgrade when forecasts aren't stored packed.
+                @Override
+                boolean hasBackfill() {
+                    return true;
+                }
+
+                @Override
+                long backfill(SQLiteDatabase db, long afterRowId, int maxRows) {
+                    return PackedForecast.storeLocations(db, afterRowId, maxRows);
+                }
+            });
+
+    /**
+     * How the database connection is set up.  The sync adapter writes while the UI, widgets,
+     * Muzei and notifications read, so by default the database runs in write-ahead logging
+     * mode, where readers neither wait for nor block the writer.
+     */
+    public static class Config {
+        final boolean writeAheadLogging;
+        final String synchronous;
+        final int cacheSizeKib;
+        final int mmapSizeBytes;
+
+        /**
+         * @param writeAheadLogging whether to use WAL journaling and a pool of read connections.
+         * @param synchronous value of PRAGMA synchronous: OFF, NORMAL or FULL.
+         * @param cacheSizeKib page cache size per connection, in KiB.  0 keeps SQLite's default.
+         * @param mmapSizeBytes bytes of the database file to memory map.  0 disables mmap.
+         */
+        public Config(boolean writeAheadLogging, String synchronous, int cacheSizeKib,
+                      int mmapSizeBytes) {
+            if (cacheSizeKib < 0 || mmapSizeBytes < 0) {
+                throw new IllegalArgumentException("Database sizes must not be negative");
+            }
+            this.writeAheadLogging = writeAheadLogging;
+            this.synchronous = synchronous;
+            this.cacheSizeKib = cacheSizeKib;
+            this.mmapSizeBytes = mmapSizeBytes;
+        }
+
+        /**
+         * @return the configuration set in the app's resources.
+         */
+        public static Config fromResources(Resources resources) {
+            return new Config(resources.getBoolean(R.bool.db_write_ahead_logging),
+                    resources.getString(R.string.db_synchronous),
+                    resources.getInteger(R.integer.db_cache_size_kib),
+                    resources.getInteger(R.integer.db_mmap_size_bytes));
+        }
+    }
+
+    private final Config mConfig;
+    private final boolean mBackfillOnOpen;
+    private final boolean mPackForecasts;
+
     public WeatherDbHelper(Context context) {
+        this(context, Config.fromResources(context.getResources()));
+    }
+
+    public WeatherDbHelper(Context context, Config config) {
+        this(context, config, true);
+    }
+
+    /**
+     * @param backfillOnOpen whether opening the database starts a thread finishing the
+     *                       backfills an upgrade left.  Tests run them themselves.
+     */
+    WeatherDbHelper(Context context, Config config, boolean backfillOnOpen) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        mConfig = config;
+        mBackfillOnOpen = backfillOnOpen;
+        mPackForecasts = context.getResources().getBoolean(R.bool.packed_forecast_storage);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            // Opens the database in WAL mode from the start, rather than switching it in onOpen
+            setWriteAheadLoggingEnabled(config.writeAheadLogging);
+        }
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (db.isReadOnly()) {
+            return;
+        }
+        if (mConfig.writeAheadLogging
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                && Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            enableWriteAheadLogging(db);
+        }
+        // These apply to the connection executing them, the primary (writing) one.  Readers
+        // pooled in WAL mode keep SQLite's defaults.
+        applyPragma(db, "synchronous", mConfig.synchronous);
+        if (mConfig.cacheSizeKib > 0) {
+            // A negative cache_size is a size in KiB rather than a number of pages
+            applyPragma(db, "cache_size", Integer.toString(-mConfig.cacheSizeKib));
+        }
+        // Older SQLite versions ignore mmap_size, which is fine
+        applyPragma(db, "mmap_size", Integer.toString(mConfig.mmapSizeBytes));
+
+        if (mBackfillOnOpen && DbMigrator.hasPendingBackfills(db)) {
+            startBackfill(db);
+        }
+    }
+
+    /**
+     * Finishes the backfills an upgrade left on a thread of their own, so whoever opened the
+     * database does not wait for them.
+     */
+    private static void startBackfill(final SQLiteDatabase db) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                try {
+                    MIGRATOR.runBackfills(db, BACKFILL_CHUNK_ROWS, Integer.MAX_VALUE);
+                } catch (IllegalStateException e) {
+                    // The database was closed under us, the next open carries on
+                    Log.w(LOG_TAG, "Backfill interrupted", e);
+                }
+            }
+        }, "WeatherDbBackfill");
+        thread.start();
+    }
+
+    /**
+     * Computes the fingerprint of weather rows stored before there was a fingerprint column.
+     *
+     * @return the _id of the last row fingerprinted, or -1 if there were none left.
+     */
+    static long backfillFingerprints(SQLiteDatabase db, long afterRowId, int maxRows) {
+        Cursor cursor = db.query(WeatherEntry.TABLE_NAME, new String[]{
+                        WeatherEntry._ID,
+                        WeatherEntry.COLUMN_WEATHER_ID,
+                        WeatherEntry.COLUMN_SHORT_DESC,
+                        WeatherEntry.COLUMN_MIN_TEMP,
+                        WeatherEntry.COLUMN_MAX_TEMP,
+                        WeatherEntry.COLUMN_HUMIDITY,
+                        WeatherEntry.COLUMN_PRESSURE,
+                        WeatherEntry.COLUMN_WIND_SPEED,
+                        WeatherEntry.COLUMN_DEGREES},
+                WeatherEntry._ID + " > ? AND " + WeatherEntry.COLUMN_FINGERPRINT + " IS NULL",
+                new String[]{Long.toString(afterRowId)}, null, null, WeatherEntry._ID,
+                Integer.toString(maxRows));
+        SQLiteStatement update = db.compileStatement("UPDATE " + WeatherEntry.TABLE_NAME +
+                " SET " + WeatherEntry.COLUMN_FINGERPRINT + " = ? WHERE " + WeatherEntry._ID +
+                " = ?");
+        long lastRowId = -1;
+        try {
+            while (cursor.moveToNext()) {
+                lastRowId = cursor.getLong(0);
+                update.bindLong(1, WeatherEntry.computeFingerprint(cursor.getInt(1),
+                        cursor.getString(2), cursor.getDouble(3), cursor.getDouble(4),
+                        cursor.getDouble(5), cursor.getDouble(6), cursor.getDouble(7),
+                        cursor.getDouble(8)));
+                update.bindLong(2, lastRowId);
+                update.execute();
+            }
+        } finally {
+            update.close();
+            cursor.close();
+        }
+        return lastRowId;
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void enableWriteAheadLogging(SQLiteDatabase db) {
+        db.enableWriteAheadLogging();
+    }
+
+    // Some pragmas report their new value as a row, which execSQL refuses, so run them as queries
+    private static void applyPragma(SQLiteDatabase db, String pragma, String value) {
+        Cursor cursor = db.rawQuery("PRAGMA " + pragma + " = " + value, null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
     }
 
     @Override
@@ -69,6 +355,7 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 WeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
                 WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
                 WeatherEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_FINGERPRINT + " INTEGER, " +
 
                 // Set up the location column as a foreign key to location table.
                 " FOREIGN KEY (" + WeatherEntry.COLUMN_LOC_KEY + ") REFERENCES " +
@@ -81,18 +368,29 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
 
         sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_LOCATION_DATE_INDEX);
+        sqLiteDatabase.execSQL(SQL_CREATE_ARCHIVE_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_PACKED_FORECAST_TABLE);
+        DbMigrator.createProgressTable(sqLiteDatabase);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
-        // Note that this only fires if you change the version number for your database.
-        // It does NOT depend on the version number for your application.
-        // If you want to update the schema without wiping data, commenting out the next 2 lines
-        // should be your top priority before modifying this method.
+        // The database is a cache for online data, but dropping it means a full sync of every
+        // location before anything shows again, so upgrade it in place where the steps allow
+        if (MIGRATOR.upgrade(sqLiteDatabase, oldVersion, newVersion)) {
+            if (!mPackForecasts) {
+                // The provider neither reads packed rows nor keeps them, don't write them all
+                DbMigrator.cancelBackfill(sqLiteDatabase, PACKED_FORECAST_VERSION);
+            }
+            return;
+        }
+        Log.i(LOG_TAG, "Recreating the database, version " + oldVersion + " is too old to upgrade");
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + ArchiveEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + PackedForecastEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + DbMigrator.TABLE_NAME);
         onCreate(sqLiteDatabase);
     }
 }
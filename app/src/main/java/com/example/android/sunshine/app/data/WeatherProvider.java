@@ -17,38 +17,131 @@ package com.example.android.sunshine.app.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.UriMatcher;
+import android.content.res.Resources;
 import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.text.format.Time;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 
 public class WeatherProvider extends ContentProvider {
 
+    private static final String LOG_TAG = WeatherProvider.class.getSimpleName();
+
     // The URI Matcher used by this content provider.
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
+    // Null below Honeycomb, where a cursor can't report the types needed to copy it
+    private WeatherQueryCache mQueryCache;
+    private LocationRegistry mLocationRegistry;
+    private WeatherArchive mArchive;
+    // Whether each location's forecast is also stored packed into one packed_forecast row
+    private boolean mPackForecasts;
 
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
     static final int LOCATION = 300;
+    static final int CACHE_STATS = 400;
+    static final int ARCHIVE = 500;
+    static final int PACKED_FORECAST = 600;
+    static final int PACKED_FORECAST_WITH_LOCATION = 601;
 
     private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
 
+    // Columns bound, in order, by statements compiled from sWeatherInsertSql
+    private static final String[] sWeatherInsertColumns = {
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES,
+            WeatherContract.WeatherEntry.COLUMN_FINGERPRINT
+    };
+
+    //INSERT INTO weather (location_id, date, ...) VALUES (?, ?, ...)
+    private static final String sWeatherInsertSql;
+
+    //This is an inner join which looks like
+    //weather INNER JOIN location ON weather.location_id = location._id
+    private static final String sWeatherByLocationSettingTables =
+            WeatherContract.WeatherEntry.TABLE_NAME + " INNER JOIN " +
+                    WeatherContract.LocationEntry.TABLE_NAME +
+                    " ON " + WeatherContract.WeatherEntry.TABLE_NAME +
+                    "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY +
+                    " = " + WeatherContract.LocationEntry.TABLE_NAME +
+                    "." + WeatherContract.LocationEntry._ID;
+
+    private static final SQLiteQueryBuilder sPackedForecastByLocationSettingQueryBuilder;
+
+    //packed_forecast INNER JOIN location ON packed_forecast.location_id = location._id
+    private static final String sPackedForecastByLocationSettingTables =
+            WeatherContract.PackedForecastEntry.TABLE_NAME + " INNER JOIN " +
+                    WeatherContract.LocationEntry.TABLE_NAME +
+                    " ON " + WeatherContract.PackedForecastEntry.TABLE_NAME +
+                    "." + WeatherContract.PackedForecastEntry.COLUMN_LOC_KEY +
+                    " = " + WeatherContract.LocationEntry.TABLE_NAME +
+                    "." + WeatherContract.LocationEntry._ID;
+
+    // Columns of every packed_forecast/* cursor, whatever the projection asked for
+    private static final String[] sPackedForecastColumns = {
+            WeatherContract.PackedForecastEntry.COLUMN_LOC_KEY,
+            WeatherContract.PackedForecastEntry.COLUMN_START_DATE,
+            WeatherContract.PackedForecastEntry.COLUMN_DAYS,
+            WeatherContract.PackedForecastEntry.COLUMN_FORECAST
+    };
+
+    // The weather columns PackedForecast.fromCursor reads, then the location they belong to
+    private static final String[] sWeatherToPackColumns;
+
     static{
+        sPackedForecastByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
+        sPackedForecastByLocationSettingQueryBuilder.setTables(
+                sPackedForecastByLocationSettingTables);
+
+        sWeatherToPackColumns = new String[PackedForecast.WEATHER_COLUMNS.length + 1];
+        System.arraycopy(PackedForecast.WEATHER_COLUMNS, 0, sWeatherToPackColumns, 0,
+                PackedForecast.WEATHER_COLUMNS.length);
+        sWeatherToPackColumns[PackedForecast.WEATHER_COLUMNS.length] =
+                WeatherContract.WeatherEntry.COLUMN_LOC_KEY;
+
         sWeatherByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
-        
-        //This is an inner join which looks like
-        //weather INNER JOIN location ON weather.location_id = location._id
-        sWeatherByLocationSettingQueryBuilder.setTables(
-                WeatherContract.WeatherEntry.TABLE_NAME + " INNER JOIN " +
-                        WeatherContract.LocationEntry.TABLE_NAME +
-                        " ON " + WeatherContract.WeatherEntry.TABLE_NAME +
-                        "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY +
-                        " = " + WeatherContract.LocationEntry.TABLE_NAME +
-                        "." + WeatherContract.LocationEntry._ID);
+        sWeatherByLocationSettingQueryBuilder.setTables(sWeatherByLocationSettingTables);
+
+        StringBuilder insertSql = new StringBuilder("INSERT INTO ")
+                .append(WeatherContract.WeatherEntry.TABLE_NAME).append(" (");
+        StringBuilder placeholders = new StringBuilder();
+        for (int i = 0; i < sWeatherInsertColumns.length; i++) {
+            if (i > 0) {
+                insertSql.append(", ");
+                placeholders.append(", ");
+            }
+            insertSql.append(sWeatherInsertColumns[i]);
+            placeholders.append('?');
+        }
+        sWeatherInsertSql = insertSql.append(") VALUES (").append(placeholders).append(')')
+                .toString();
     }
 
     //location.location_setting = ?
@@ -73,19 +166,16 @@ public class WeatherProvider extends ContentProvider {
         long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
 
         String[] selectionArgs;
-        String selection;
 
         if (startDate == 0) {
-            selection = sLocationSettingSelection;
             selectionArgs = new String[]{locationSetting};
         } else {
             selectionArgs = new String[]{locationSetting, Long.toString(startDate)};
-            selection = sLocationSettingWithStartDateSelection;
         }
 
         return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
                 projection,
-                selection,
+                getLocationSettingSelection(startDate),
                 selectionArgs,
                 null,
                 null,
@@ -108,6 +198,51 @@ public class WeatherProvider extends ContentProvider {
         );
     }
 
+    private static String getLocationSettingSelection(long startDate) {
+        return startDate == 0 ? sLocationSettingSelection : sLocationSettingWithStartDateSelection;
+    }
+
+    /**
+     * @return the SELECT that query() runs for a uri, with ? in place of the values taken from
+     * the uri.  Lets tests check the query plan of every route.
+     */
+    static String buildQuerySql(Uri uri, String[] projection, String selection,
+                                String sortOrder) {
+        switch (sUriMatcher.match(uri)) {
+            case WEATHER_WITH_LOCATION_AND_DATE:
+                return SQLiteQueryBuilder.buildQueryString(false, sWeatherByLocationSettingTables,
+                        projection, sLocationSettingAndDaySelection, null, null, sortOrder, null);
+            case WEATHER_WITH_LOCATION:
+                return SQLiteQueryBuilder.buildQueryString(false, sWeatherByLocationSettingTables,
+                        projection,
+                        getLocationSettingSelection(
+                                WeatherContract.WeatherEntry.getStartDateFromUri(uri)),
+                        null, null, sortOrder, null);
+            case WEATHER:
+                return SQLiteQueryBuilder.buildQueryString(false,
+                        WeatherContract.WeatherEntry.TABLE_NAME, projection, selection,
+                        null, null, sortOrder, null);
+            case LOCATION:
+                return SQLiteQueryBuilder.buildQueryString(false,
+                        WeatherContract.LocationEntry.TABLE_NAME, projection, selection,
+                        null, null, sortOrder, null);
+            case ARCHIVE:
+                return SQLiteQueryBuilder.buildQueryString(false,
+                        WeatherContract.ArchiveEntry.TABLE_NAME, projection, selection,
+                        null, null, sortOrder, null);
+            case PACKED_FORECAST:
+                return SQLiteQueryBuilder.buildQueryString(false,
+                        WeatherContract.PackedForecastEntry.TABLE_NAME, projection, selection,
+                        null, null, sortOrder, null);
+            case PACKED_FORECAST_WITH_LOCATION:
+                return SQLiteQueryBuilder.buildQueryString(false,
+                        sPackedForecastByLocationSettingTables, sPackedForecastColumns,
+                        sLocationSettingSelection, null, null, null, null);
+            default:
+                throw new UnsupportedOperationException("Unknown uri: " + uri);
+        }
+    }
+
     /*
         Students: Here is where you need to create the UriMatcher. This UriMatcher will
         match each URI to the WEATHER, WEATHER_WITH_LOCATION, WEATHER_WITH_LOCATION_AND_DATE,
@@ -130,6 +265,14 @@ public class WeatherProvider extends ContentProvider {
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
 
         matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
+
+        matcher.addURI(authority, WeatherContract.PATH_CACHE_STATS, CACHE_STATS);
+
+        matcher.addURI(authority, WeatherContract.PATH_ARCHIVE, ARCHIVE);
+
+        matcher.addURI(authority, WeatherContract.PATH_PACKED_FORECAST, PACKED_FORECAST);
+        matcher.addURI(authority, WeatherContract.PATH_PACKED_FORECAST + "/*",
+                PACKED_FORECAST_WITH_LOCATION);
         return matcher;
     }
 
@@ -140,9 +283,42 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public boolean onCreate() {
         mOpenHelper = new WeatherDbHelper(getContext());
+        Resources resources = getContext().getResources();
+        mLocationRegistry = new LocationRegistry(
+                resources.getInteger(R.integer.location_registry_max_entries));
+        mArchive = new WeatherArchive(WeatherArchive.Config.fromResources(resources));
+        mPackForecasts = resources.getBoolean(R.bool.packed_forecast_storage);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            mQueryCache = new WeatherQueryCache(
+                    resources.getInteger(R.integer.provider_cache_max_entries),
+                    resources.getInteger(R.integer.provider_cache_max_kib) * 1024);
+        }
         return true;
     }
 
+    /**
+     * Swaps in a database set up differently from the app's, for tests.
+     */
+    void setOpenHelper(WeatherDbHelper openHelper) {
+        if (mOpenHelper != null) {
+            mOpenHelper.close();
+        }
+        mOpenHelper = openHelper;
+        invalidateQueryCache();
+        mLocationRegistry.invalidateAll();
+    }
+
+    LocationRegistry getLocationRegistry() {
+        return mLocationRegistry;
+    }
+
+    /**
+     * Switches between storing forecasts packed and packing them as they are read, for tests.
+     */
+    void setPackForecasts(boolean packForecasts) {
+        mPackForecasts = packForecasts;
+    }
+
     /*
         Students: Here's where you'll code the getType function that uses the UriMatcher.  You can
         test this by uncommenting testGetType in TestProvider.
@@ -164,6 +340,14 @@ public class WeatherProvider extends ContentProvider {
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case LOCATION:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case CACHE_STATS:
+                return WeatherContract.CacheStatsEntry.CONTENT_ITEM_TYPE;
+            case ARCHIVE:
+                return WeatherContract.ArchiveEntry.CONTENT_TYPE;
+            case PACKED_FORECAST:
+                return WeatherContract.PackedForecastEntry.CONTENT_TYPE;
+            case PACKED_FORECAST_WITH_LOCATION:
+                return WeatherContract.PackedForecastEntry.CONTENT_ITEM_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -175,16 +359,13 @@ public class WeatherProvider extends ContentProvider {
         // Here's the switch statement that, given a URI, will determine what kind of request it is,
         // and query the database accordingly.
         Cursor retCursor;
-        switch (sUriMatcher.match(uri)) {
+        final int match = sUriMatcher.match(uri);
+        switch (match) {
             // "weather/*/*"
             case WEATHER_WITH_LOCATION_AND_DATE:
-            {
-                retCursor = getWeatherByLocationSettingAndDate(uri, projection, sortOrder);
-                break;
-            }
             // "weather/*"
             case WEATHER_WITH_LOCATION: {
-                retCursor = getWeatherByLocationSetting(uri, projection, sortOrder);
+                retCursor = getWeatherThroughCache(uri, match, projection, sortOrder);
                 break;
             }
             // "weather"
@@ -213,6 +394,51 @@ public class WeatherProvider extends ContentProvider {
                 );
                 break;
             }
+            // "cache_stats"
+            case CACHE_STATS: {
+                retCursor = getCacheStats();
+                break;
+            }
+            // "archive"
+            case ARCHIVE: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.ArchiveEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
+            // "packed_forecast"
+            case PACKED_FORECAST: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.PackedForecastEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
+            // "packed_forecast/*"
+            case PACKED_FORECAST_WITH_LOCATION: {
+                retCursor = getPackedForecast(uri);
+                if (!mPackForecasts) {
+                    // packed_forecast/* is only notified while forecasts are stored packed,
+                    // the weather they are packed from is
+                    retCursor.setNotificationUri(getContext().getContentResolver(),
+                            WeatherContract.WeatherEntry.buildWeatherLocation(
+                                    WeatherContract.PackedForecastEntry
+                                            .getLocationSettingFromUri(uri)));
+                    return retCursor;
+                }
+                break;
+            }
 
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
@@ -221,6 +447,192 @@ public class WeatherProvider extends ContentProvider {
         return retCursor;
     }
 
+    private Cursor getWeatherThroughCache(Uri uri, int match, String[] projection,
+                                          String sortOrder) {
+        String key = null;
+        long generation = 0;
+        if (mQueryCache != null) {
+            key = WeatherQueryCache.buildKey(uri, projection, sortOrder);
+            Cursor cached = mQueryCache.get(key);
+            if (cached != null) {
+                return cached;
+            }
+            generation = mQueryCache.getGeneration();
+        }
+
+        Cursor cursor = match == WEATHER_WITH_LOCATION_AND_DATE
+                ? getWeatherByLocationSettingAndDate(uri, projection, sortOrder)
+                : getWeatherByLocationSetting(uri, projection, sortOrder);
+        if (mQueryCache == null) {
+            return cursor;
+        }
+        return mQueryCache.put(key, WeatherContract.WeatherEntry.getLocationSettingFromUri(uri),
+                cursor, generation);
+    }
+
+    /**
+     * @return the location's packed_forecast row, or when there is none stored, one packed from
+     * the weather table there and then.
+     */
+    private Cursor getPackedForecast(Uri uri) {
+        String[] selectionArgs = {
+                WeatherContract.PackedForecastEntry.getLocationSettingFromUri(uri)};
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        if (mPackForecasts) {
+            Cursor stored = sPackedForecastByLocationSettingQueryBuilder.query(db,
+                    sPackedForecastColumns, sLocationSettingSelection, selectionArgs,
+                    null, null, null);
+            if (stored.getCount() > 0) {
+                return stored;
+            }
+            // Not packed yet, the upgrade that added the table may still be backfilling it
+            stored.close();
+        }
+
+        MatrixCursor cursor = new MatrixCursor(sPackedForecastColumns, 1);
+        Cursor weather = sWeatherByLocationSettingQueryBuilder.query(db, sWeatherToPackColumns,
+                sLocationSettingSelection, selectionArgs, null, null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        try {
+            if (weather.getCount() > 0) {
+                weather.moveToFirst();
+                long locationId = weather.getLong(PackedForecast.WEATHER_COLUMNS.length);
+                weather.moveToPosition(-1);
+                PackedForecast forecast = PackedForecast.fromCursor(weather);
+                cursor.addRow(new Object[]{locationId, forecast.getDate(0), forecast.size(),
+                        forecast.toBlob()});
+            }
+        } finally {
+            weather.close();
+        }
+        return cursor;
+    }
+
+    /**
+     * Brings the packed forecasts of the given locations in line with the weather table.  When
+     * forecasts aren't stored packed their rows are dropped instead.  Must be called inside the
+     * transaction of the weather write, so a stored row is never out of date.
+     */
+    private void updatePackedForecasts(SQLiteDatabase db, Set<Long> locationIds) {
+        for (Long locationId : locationIds) {
+            if (mPackForecasts) {
+                PackedForecast.store(db, locationId);
+            } else {
+                db.delete(WeatherContract.PackedForecastEntry.TABLE_NAME,
+                        WeatherContract.PackedForecastEntry.COLUMN_LOC_KEY + " = ?",
+                        new String[]{locationId.toString()});
+            }
+        }
+    }
+
+    // packed_forecast also reaches every packed_forecast/<location>
+    private void notifyPackedForecastsChanged(int rowsChanged) {
+        if (mPackForecasts && rowsChanged != 0) {
+            getContext().getContentResolver().notifyChange(
+                    WeatherContract.PackedForecastEntry.CONTENT_URI, null);
+        }
+    }
+
+    private Cursor getCacheStats() {
+        MatrixCursor cursor = new MatrixCursor(new String[]{
+                WeatherContract.CacheStatsEntry.COLUMN_HITS,
+                WeatherContract.CacheStatsEntry.COLUMN_MISSES,
+                WeatherContract.CacheStatsEntry.COLUMN_HIT_RATIO,
+                WeatherContract.CacheStatsEntry.COLUMN_EVICTIONS,
+                WeatherContract.CacheStatsEntry.COLUMN_INVALIDATIONS,
+                WeatherContract.CacheStatsEntry.COLUMN_ENTRIES,
+                WeatherContract.CacheStatsEntry.COLUMN_BYTES}, 1);
+        if (mQueryCache == null) {
+            cursor.addRow(new Object[]{0, 0, 0.0, 0, 0, 0, 0});
+            return cursor;
+        }
+        // Read under one lock, so the row is consistent
+        synchronized (mQueryCache) {
+            long hits = mQueryCache.getHits();
+            long misses = mQueryCache.getMisses();
+            double hitRatio = hits + misses == 0 ? 0.0 : (double) hits / (hits + misses);
+            cursor.addRow(new Object[]{hits, misses, hitRatio, mQueryCache.getEvictions(),
+                    mQueryCache.getInvalidations(), mQueryCache.getEntryCount(),
+                    mQueryCache.getBytes()});
+        }
+        return cursor;
+    }
+
+    private void invalidateQueryCache() {
+        if (mQueryCache != null) {
+            mQueryCache.invalidateAll();
+        }
+    }
+
+    /**
+     * Drops the cached weather of the locations a write touched, and tells observers of exactly
+     * those locations and days about it.  Called once the write has committed, so nothing read
+     * before it can be cached again afterwards, and so every URI is notified once per write
+     * however many of its rows changed.
+     */
+    private void onWeatherChanged(SQLiteDatabase db, WeatherChanges changes) {
+        if (changes.isEmpty()) {
+            return;
+        }
+        Set<Long> locationIds = changes.getLocationIds();
+        StringBuilder selection = new StringBuilder(WeatherContract.LocationEntry._ID)
+                .append(" IN (");
+        for (Long locationId : locationIds) {
+            if (selection.charAt(selection.length() - 1) != '(') {
+                selection.append(',');
+            }
+            selection.append(locationId.longValue());
+        }
+        selection.append(')');
+
+        Map<Long, String> locationSettings = new HashMap<Long, String>(locationIds.size());
+        Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry._ID,
+                        WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                selection.toString(), null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                locationSettings.put(cursor.getLong(0), cursor.getString(1));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        if (mQueryCache != null) {
+            mQueryCache.invalidateLocations(locationSettings.values());
+        }
+
+        ContentResolver resolver = getContext().getContentResolver();
+        for (Map.Entry<Long, String> location : locationSettings.entrySet()) {
+            if (mPackForecasts) {
+                resolver.notifyChange(WeatherContract.PackedForecastEntry
+                        .buildPackedForecastLocation(location.getValue()), null);
+            }
+            Set<Long> dates = changes.getDates(location.getKey());
+            // weather/<location> also reaches every weather/<location>/<date>, so it is only
+            // worth narrowing down to the day when a single day changed
+            if (dates.size() == 1) {
+                resolver.notifyChange(WeatherContract.WeatherEntry.buildWeatherLocationWithDate(
+                        location.getValue(), dates.iterator().next()), null);
+            } else {
+                resolver.notifyChange(WeatherContract.WeatherEntry.buildWeatherLocation(
+                        location.getValue()), null);
+            }
+        }
+        if (locationSettings.size() < locationIds.size()) {
+            // Rows of a location id with no location behind it, only whole table queries see them
+            resolver.notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+        }
+    }
+
+    private static void addChange(WeatherChanges changes, ContentValues values) {
+        Long locationId = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+        Long date = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+        if (locationId != null && date != null) {
+            changes.add(locationId, date);
+        }
+    }
+
     /*
         Student: Add the ability to insert Locations to the implementation of this function.
      */
@@ -233,25 +645,39 @@ public class WeatherProvider extends ContentProvider {
         switch (match) {
             case WEATHER: {
                 normalizeDate(values);
-                long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
-                if ( _id > 0 )
-                    returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
-                else
-                    throw new android.database.SQLException("Failed to insert row into " + uri);
+                WeatherChanges changes = new WeatherChanges();
+                db.beginTransaction();
+                try {
+                    long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+                    if ( _id > 0 )
+                        returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
+                    else
+                        throw new android.database.SQLException("Failed to insert row into " + uri);
+                    addChange(changes, values);
+                    updatePackedForecasts(db, changes.getLocationIds());
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                onWeatherChanged(db, changes);
                 break;
             }
             case LOCATION: {
+                long generation = mLocationRegistry.getGeneration();
                 long _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
                 if ( _id > 0 )
                     returnUri = WeatherContract.LocationEntry.buildLocationUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
+                registerLocation(values, _id, generation);
+                // Cached queries for this setting found no location before
+                invalidateQueryCache();
+                getContext().getContentResolver().notifyChange(uri, null);
                 break;
             }
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
         return returnUri;
     }
 
@@ -264,23 +690,131 @@ public class WeatherProvider extends ContentProvider {
         if ( null == selection ) selection = "1";
         switch (match) {
             case WEATHER:
-                rowsDeleted = db.delete(
-                        WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+                if (!"1".equals(selection)) {
+                    return deleteWeather(db, selection, selectionArgs);
+                }
+                db.beginTransaction();
+                try {
+                    rowsDeleted = db.delete(
+                            WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+                    db.delete(WeatherContract.PackedForecastEntry.TABLE_NAME, null, null);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                notifyPackedForecastsChanged(rowsDeleted);
                 break;
             case LOCATION:
+                db.beginTransaction();
+                try {
+                    rowsDeleted = db.delete(
+                            WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
+                    if (rowsDeleted != 0) {
+                        // Packed rows of the locations gone, which no packed_forecast/* reaches
+                        db.delete(WeatherContract.PackedForecastEntry.TABLE_NAME,
+                                WeatherContract.PackedForecastEntry.COLUMN_LOC_KEY
+                                        + " NOT IN (SELECT " + WeatherContract.LocationEntry._ID
+                                        + " FROM " + WeatherContract.LocationEntry.TABLE_NAME
+                                        + ")", null);
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                if (rowsDeleted != 0) {
+                    mLocationRegistry.invalidateAll();
+                }
+                notifyPackedForecastsChanged(rowsDeleted);
+                break;
+            case ARCHIVE:
                 rowsDeleted = db.delete(
-                        WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
+                        WeatherContract.ArchiveEntry.TABLE_NAME, selection, selectionArgs);
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         // Because a null deletes all rows
         if (rowsDeleted != 0) {
+            // Which locations an arbitrary selection touched is unknown, drop everything
+            invalidateQueryCache();
             getContext().getContentResolver().notifyChange(uri, null);
         }
         return rowsDeleted;
     }
 
+    /**
+     * Deletes the selected weather rows, noting first which locations and days they belong to
+     * so only the observers of those are notified.
+     */
+    private int deleteWeather(SQLiteDatabase db, String selection, String[] selectionArgs) {
+        WeatherChanges changes = new WeatherChanges();
+        int rowsDeleted;
+        db.beginTransaction();
+        try {
+            collectChanges(db, selection, selectionArgs, changes);
+            rowsDeleted = db.delete(
+                    WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+            updatePackedForecasts(db, changes.getLocationIds());
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        onWeatherChanged(db, changes);
+        return rowsDeleted;
+    }
+
+    /**
+     * Moves the weather of every day up to lastDate into the archive, in one transaction, then
+     * compacts the archive.
+     *
+     * @return the number of weather rows moved.
+     */
+    int archiveWeather(long lastDate) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        String selection = WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?";
+        String[] selectionArgs = {Long.toString(lastDate)};
+        WeatherChanges changes = new WeatherChanges();
+        int rowsMoved;
+        db.beginTransaction();
+        try {
+            collectChanges(db, selection, selectionArgs, changes);
+            WeatherArchive.copyDays(db, lastDate);
+            rowsMoved = db.delete(
+                    WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+            updatePackedForecasts(db, changes.getLocationIds());
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        onWeatherChanged(db, changes);
+
+        long start = System.nanoTime();
+        int transactions = mArchive.compact(db, lastDate);
+        Log.d(LOG_TAG, "Archived " + rowsMoved + " weather rows, compacted in " + transactions
+                + " transactions, " + (System.nanoTime() - start) / 1000000 + " ms");
+        getContext().getContentResolver().notifyChange(
+                WeatherContract.ArchiveEntry.CONTENT_URI, null);
+        return rowsMoved;
+    }
+
+    /**
+     * Notes which locations and days the selected weather rows belong to.
+     */
+    private static void collectChanges(SQLiteDatabase db, String selection,
+                                       String[] selectionArgs, WeatherChanges changes) {
+        Cursor cursor = db.query(true, WeatherContract.WeatherEntry.TABLE_NAME,
+                new String[]{WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+                        WeatherContract.WeatherEntry.COLUMN_DATE},
+                selection, selectionArgs, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                changes.add(cursor.getLong(0), cursor.getLong(1));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
     private void normalizeDate(ContentValues values) {
         // normalize the date value
         if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
@@ -297,19 +831,44 @@ public class WeatherProvider extends ContentProvider {
         int rowsUpdated;
 
         switch (match) {
-            case WEATHER:
+            case WEATHER: {
                 normalizeDate(values);
-                rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection,
-                        selectionArgs);
+                WeatherChanges changes = new WeatherChanges();
+                db.beginTransaction();
+                try {
+                    // The locations of the rows before the update, and the one it moves them to
+                    collectChanges(db, selection, selectionArgs, changes);
+                    rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values,
+                            selection, selectionArgs);
+                    if (rowsUpdated != 0) {
+                        Set<Long> locationIds = new HashSet<Long>(changes.getLocationIds());
+                        Long locationId =
+                                values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+                        if (locationId != null) {
+                            locationIds.add(locationId);
+                        }
+                        updatePackedForecasts(db, locationIds);
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                notifyPackedForecastsChanged(rowsUpdated);
                 break;
+            }
             case LOCATION:
                 rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
                         selectionArgs);
+                if (rowsUpdated != 0) {
+                    mLocationRegistry.invalidateAll();
+                }
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         if (rowsUpdated != 0) {
+            // Which locations an arbitrary selection touched is unknown, drop everything
+            invalidateQueryCache();
             getContext().getContentResolver().notifyChange(uri, null);
         }
         return rowsUpdated;
@@ -323,25 +882,335 @@ public class WeatherProvider extends ContentProvider {
             case WEATHER:
                 db.beginTransaction();
                 int returnCount = 0;
+                WeatherChanges changes = new WeatherChanges();
                 try {
-                    for (ContentValues value : values) {
-                        normalizeDate(value);
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
-                        if (_id != -1) {
-                            returnCount++;
+                    // One statement for the whole batch, rather than having db.insert build
+                    // and compile the same SQL again for every row
+                    SQLiteStatement insert = db.compileStatement(sWeatherInsertSql);
+                    Time time = new Time();
+                    try {
+                        for (ContentValues value : values) {
+                            long _id;
+                            if (bindWeatherValues(insert, value, time)) {
+                                _id = executeInsert(insert);
+                            } else {
+                                // Columns the statement doesn't know about, take the slow path
+                                normalizeDate(value);
+                                _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
+                            }
+                            if (_id != -1) {
+                                returnCount++;
+                                addChange(changes, value);
+                            }
                         }
+                    } finally {
+                        insert.close();
                     }
+                    updatePackedForecasts(db, changes.getLocationIds());
                     db.setTransactionSuccessful();
                 } finally {
                     db.endTransaction();
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
+                onWeatherChanged(db, changes);
                 return returnCount;
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    // ContentProvider.call, and so the use WeatherColumnBatch.insert and queryForecast,
+    // LocationBatch.upsert and WeatherArchive.archive make of it, needs Honeycomb
+    @Override
+    @TargetApi(11)
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (WeatherContract.WeatherEntry.METHOD_BULK_INSERT_COLUMNS.equals(method)) {
+            if (extras == null) {
+                throw new IllegalArgumentException("Missing extras for " + method);
+            }
+            int returnCount = bulkInsert(WeatherColumnBatch.fromBundle(extras));
+            Bundle result = new Bundle();
+            result.putInt(WeatherContract.WeatherEntry.EXTRA_ROW_COUNT, returnCount);
+            return result;
+        }
+        if (WeatherContract.WeatherEntry.METHOD_GET_FORECAST.equals(method)) {
+            if (extras == null) {
+                throw new IllegalArgumentException("Missing extras for " + method);
+            }
+            return getForecast(arg,
+                    extras.getLong(WeatherContract.WeatherEntry.EXTRA_START_DATE),
+                    extras.getInt(WeatherContract.WeatherEntry.EXTRA_DAYS)).toBundle();
+        }
+        if (WeatherContract.ArchiveEntry.METHOD_ARCHIVE_WEATHER.equals(method)) {
+            int rowsMoved = archiveWeather(Long.parseLong(arg));
+            Bundle result = new Bundle();
+            result.putInt(WeatherContract.WeatherEntry.EXTRA_ROW_COUNT, rowsMoved);
+            return result;
+        }
+        if (WeatherContract.LocationEntry.METHOD_UPSERT_LOCATIONS.equals(method)) {
+            if (extras == null) {
+                throw new IllegalArgumentException("Missing extras for " + method);
+            }
+            long[] locationIds = upsertLocations(LocationBatch.fromBundle(extras));
+            Bundle result = new Bundle();
+            result.putLongArray(WeatherContract.LocationEntry.EXTRA_LOCATION_IDS, locationIds);
+            return result;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * Reads up to maxDays days of a location's forecast from startDate on, or from the oldest
+     * day stored if startDate is 0, in date order.
+     *
+     * @throws IllegalArgumentException if locationSetting is null or maxDays is less than 1.
+     */
+    WeatherColumnBatch getForecast(String locationSetting, long startDate, int maxDays) {
+        if (locationSetting == null) {
+            throw new IllegalArgumentException("Missing location setting");
+        }
+        if (maxDays < 1) {
+            throw new IllegalArgumentException("Days to read must be positive, not " + maxDays);
+        }
+        String[] selectionArgs;
+        if (startDate == 0) {
+            selectionArgs = new String[]{locationSetting};
+        } else {
+            selectionArgs = new String[]{locationSetting,
+                    Long.toString(WeatherContract.normalizeDate(startDate))};
+        }
+        Cursor cursor = sWeatherByLocationSettingQueryBuilder.query(
+                mOpenHelper.getReadableDatabase(),
+                WeatherColumnBatch.WEATHER_COLUMNS,
+                getLocationSettingSelection(startDate),
+                selectionArgs,
+                null,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC",
+                Integer.toString(maxDays)
+        );
+        try {
+            return WeatherColumnBatch.fromCursor(cursor, maxDays);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Inserts a column oriented batch of weather rows in one transaction, binding the primitive
+     * values straight from the batch's arrays, and notifies observers of the rows written.
+     *
+     * @return the number of rows inserted.
+     */
+    int bulkInsert(WeatherColumnBatch batch) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        int returnCount = 0;
+        WeatherChanges changes = new WeatherChanges();
+        db.beginTransaction();
+        try {
+            SQLiteStatement insert = db.compileStatement(sWeatherInsertSql);
+            Time time = new Time();
+            try {
+                for (int i = 0; i < batch.mSize; i++) {
+                    long date = WeatherContract.normalizeDate(time, batch.mDates[i]);
+                    insert.bindLong(1, batch.mLocationIds[i]);
+                    insert.bindLong(2, date);
+                    if (batch.mShortDescs[i] == null) {
+                        // Leave the NOT NULL constraint to reject the day, as db.insert would
+                        insert.bindNull(3);
+                    } else {
+                        insert.bindString(3, batch.mShortDescs[i]);
+                    }
+                    insert.bindLong(4, batch.mWeatherIds[i]);
+                    insert.bindDouble(5, batch.mMinTemps[i]);
+                    insert.bindDouble(6, batch.mMaxTemps[i]);
+                    insert.bindDouble(7, batch.mHumidities[i]);
+                    insert.bindDouble(8, batch.mPressures[i]);
+                    insert.bindDouble(9, batch.mWindSpeeds[i]);
+                    insert.bindDouble(10, batch.mDegrees[i]);
+                    insert.bindLong(11, batch.getFingerprint(i));
+                    if (executeInsert(insert) != -1) {
+                        returnCount++;
+                        changes.add(batch.mLocationIds[i], date);
+                    }
+                }
+            } finally {
+                insert.close();
+            }
+            updatePackedForecasts(db, changes.getLocationIds());
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        onWeatherChanged(db, changes);
+        return returnCount;
+    }
+
+    /**
+     * Resolves a batch of locations to their row ids.  Locations the registry holds with the
+     * same details cost nothing; the others are looked up, and inserted or updated as needed,
+     * in one transaction.
+     *
+     * @return the row id of every location, in the batch's order.
+     */
+    long[] upsertLocations(LocationBatch batch) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        mLocationRegistry.warm(db);
+        long[] locationIds = new long[batch.mSize];
+        int[] unresolved = new int[batch.mSize];
+        int unresolvedCount = 0;
+        for (int i = 0; i < batch.mSize; i++) {
+            LocationRegistry.Location location = mLocationRegistry.get(batch.mLocationSettings[i]);
+            if (location != null && location.matches(batch.mCityNames[i], batch.mLatitudes[i],
+                    batch.mLongitudes[i])) {
+                locationIds[i] = location.mId;
+            } else {
+                unresolved[unresolvedCount++] = i;
+            }
+        }
+        if (unresolvedCount == 0) {
+            return locationIds;
+        }
+
+        long generation = mLocationRegistry.getGeneration();
+        boolean changed = false;
+        db.beginTransaction();
+        try {
+            for (int j = 0; j < unresolvedCount; j++) {
+                int i = unresolved[j];
+                LocationRegistry.Location stored = LocationRegistry.query(db,
+                        batch.mLocationSettings[i]);
+                if (stored == null) {
+                    locationIds[i] = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null,
+                            batch.toContentValues(i));
+                    if (locationIds[i] == -1) {
+                        throw new SQLException("Failed to insert location "
+                                + batch.mLocationSettings[i]);
+                    }
+                    changed = true;
+                } else {
+                    locationIds[i] = stored.mId;
+                    if (!stored.matches(batch.mCityNames[i], batch.mLatitudes[i],
+                            batch.mLongitudes[i])) {
+                        db.update(WeatherContract.LocationEntry.TABLE_NAME,
+                                batch.toContentValues(i), WeatherContract.LocationEntry._ID + " = ?",
+                                new String[]{Long.toString(stored.mId)});
+                        changed = true;
+                    }
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        for (int j = 0; j < unresolvedCount; j++) {
+            int i = unresolved[j];
+            mLocationRegistry.put(batch.mLocationSettings[i], new LocationRegistry.Location(
+                    locationIds[i], batch.mCityNames[i], batch.mLatitudes[i],
+                    batch.mLongitudes[i]), generation);
+        }
+        if (changed) {
+            // Cached queries for these settings found no location, or an old one, before
+            invalidateQueryCache();
+            getContext().getContentResolver().notifyChange(
+                    WeatherContract.LocationEntry.CONTENT_URI, null);
+        }
+        return locationIds;
+    }
+
+    /**
+     * Adds a location just inserted to the registry, if its values say all there is to know.
+     */
+    private void registerLocation(ContentValues values, long locationId, long generation) {
+        String locationSetting = values.getAsString(
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+        Double latitude = values.getAsDouble(WeatherContract.LocationEntry.COLUMN_COORD_LAT);
+        Double longitude = values.getAsDouble(WeatherContract.LocationEntry.COLUMN_COORD_LONG);
+        if (locationSetting == null || latitude == null || longitude == null) {
+            return;
+        }
+        mLocationRegistry.put(locationSetting, new LocationRegistry.Location(locationId,
+                values.getAsString(WeatherContract.LocationEntry.COLUMN_CITY_NAME), latitude,
+                longitude), generation);
+    }
+
+    /**
+     * Binds a row to a statement compiled from sWeatherInsertSql.
+     *
+     * @return false if the row holds columns the statement does not cover, in which case
+     * nothing was bound.
+     */
+    private static boolean bindWeatherValues(SQLiteStatement insert, ContentValues value,
+                                             Time time) {
+        int known = 0;
+        for (String column : sWeatherInsertColumns) {
+            if (value.containsKey(column)) {
+                known++;
+            }
+        }
+        if (known != value.size()) {
+            return false;
+        }
+        insert.clearBindings();
+        for (int i = 0; i < sWeatherInsertColumns.length; i++) {
+            String column = sWeatherInsertColumns[i];
+            Object columnValue = value.get(column);
+            int index = i + 1;
+            if (columnValue == null
+                    && WeatherContract.WeatherEntry.COLUMN_FINGERPRINT.equals(column)) {
+                columnValue = computeFingerprint(value);
+            }
+            if (columnValue == null) {
+                // Leave the NOT NULL constraints to reject the row, as db.insert would
+                insert.bindNull(index);
+            } else if (WeatherContract.WeatherEntry.COLUMN_DATE.equals(column)) {
+                long date = WeatherContract.normalizeDate(time, ((Number) columnValue).longValue());
+                // Callers have always got their values back with the date normalized
+                value.put(column, date);
+                insert.bindLong(index, date);
+            } else if (columnValue instanceof Double || columnValue instanceof Float) {
+                insert.bindDouble(index, ((Number) columnValue).doubleValue());
+            } else if (columnValue instanceof Number) {
+                insert.bindLong(index, ((Number) columnValue).longValue());
+            } else {
+                insert.bindString(index, columnValue.toString());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the fingerprint of a row's forecast values, or null if any of them is missing.
+     */
+    private static Long computeFingerprint(ContentValues value) {
+        Integer weatherId = value.getAsInteger(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID);
+        String shortDesc = value.getAsString(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC);
+        Double minTemp = value.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP);
+        Double maxTemp = value.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP);
+        Double humidity = value.getAsDouble(WeatherContract.WeatherEntry.COLUMN_HUMIDITY);
+        Double pressure = value.getAsDouble(WeatherContract.WeatherEntry.COLUMN_PRESSURE);
+        Double windSpeed = value.getAsDouble(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED);
+        Double degrees = value.getAsDouble(WeatherContract.WeatherEntry.COLUMN_DEGREES);
+        if (weatherId == null || shortDesc == null || minTemp == null || maxTemp == null
+                || humidity == null || pressure == null || windSpeed == null || degrees == null) {
+            return null;
+        }
+        return WeatherContract.WeatherEntry.computeFingerprint(weatherId, shortDesc, minTemp,
+                maxTemp, humidity, pressure, windSpeed, degrees);
+    }
+
+    /**
+     * Like db.insert, reports a failed insert by returning -1 rather than throwing.
+     */
+    private long executeInsert(SQLiteStatement insert) {
+        try {
+            return insert.executeInsert();
+        } catch (SQLException e) {
+            Log.e(LOG_TAG, "Error inserting weather row", e);
+            return -1;
+        }
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
@@ -0,0 +1,333 @@
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded, least recently used cache of the weather rows {@link WeatherProvider} returns for
+ * a location.  Results are copied once into an immutable snapshot, and every hit gets its own
+ * cursor over that snapshot.
+ *
+ * Entries are tagged with the location setting they were read for, so a write to one
+ * location's weather only drops that location's entries.  A result read while a write was
+ * being invalidated is never stored, so the cache can't hold rows older than the database.
+ */
+@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+class WeatherQueryCache {
+
+    // Rough heap cost of the objects making up a snapshot, used to keep within mMaxBytes
+    private static final int OBJECT_BYTES = 16;
+    private static final int REFERENCE_BYTES = 4;
+    private static final int STRING_BYTES = 40;
+
+    private static class Snapshot {
+        final String mLocationSetting;
+        final String[] mColumnNames;
+        final Object[][] mRows;
+        final int mBytes;
+
+        Snapshot(String locationSetting, String[] columnNames, Object[][] rows, int bytes) {
+            mLocationSetting = locationSetting;
+            mColumnNames = columnNames;
+            mRows = rows;
+            mBytes = bytes;
+        }
+    }
+
+    private final int mMaxEntries;
+    private final int mMaxBytes;
+    // Ordered by access, least recently used first
+    private final LinkedHashMap<String, Snapshot> mEntries =
+            new LinkedHashMap<String, Snapshot>(16, 0.75f, true);
+
+    private int mBytes;
+    // Moves on every invalidation, so results read before it can be told apart
+    private long mGeneration;
+
+    private long mHits;
+    private long mMisses;
+    private long mEvictions;
+    private long mInvalidations;
+
+    /**
+     * @param maxEntries the number of results kept.
+     * @param maxBytes estimated heap taken by all results kept.  A result bigger than a quarter
+     *                 of this is not cached at all.
+     */
+    WeatherQueryCache(int maxEntries, int maxBytes) {
+        if (maxEntries < 1 || maxBytes < 1) {
+            throw new IllegalArgumentException("Cache limits must be positive");
+        }
+        mMaxEntries = maxEntries;
+        mMaxBytes = maxBytes;
+    }
+
+    static String buildKey(Uri uri, String[] projection, String sortOrder) {
+        return uri + "\n" + Arrays.toString(projection) + "\n" + sortOrder;
+    }
+
+    /**
+     * @return a cursor over the cached result, or null if it isn't cached.
+     */
+    synchronized Cursor get(String key) {
+        Snapshot snapshot = mEntries.get(key);
+        if (snapshot == null) {
+            mMisses++;
+            return null;
+        }
+        mHits++;
+        return new SnapshotCursor(snapshot);
+    }
+
+    /**
+     * @return a token to hand to {@link #put} along with a result read after this call.
+     */
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Copies a freshly queried result into the cache, unless it is too big or an invalidation
+     * happened since {@code generation} was taken.
+     *
+     * @return the cursor to give the caller in place of {@code cursor}, which may have been
+     * closed.
+     */
+    Cursor put(String key, String locationSetting, Cursor cursor, long generation) {
+        Snapshot snapshot = copy(locationSetting, cursor, mMaxBytes / 4);
+        if (snapshot == null) {
+            // Too big to keep, hand back the original from the start
+            cursor.moveToPosition(-1);
+            return cursor;
+        }
+        cursor.close();
+
+        synchronized (this) {
+            if (generation == mGeneration) {
+                Snapshot previous = mEntries.put(key, snapshot);
+                if (previous != null) {
+                    mBytes -= previous.mBytes;
+                }
+                mBytes += snapshot.mBytes;
+                trim();
+            }
+        }
+        return new SnapshotCursor(snapshot);
+    }
+
+    /**
+     * Drops the results read for any of the given location settings.
+     */
+    synchronized void invalidateLocations(Collection<String> locationSettings) {
+        mGeneration++;
+        Iterator<Snapshot> snapshots = mEntries.values().iterator();
+        while (snapshots.hasNext()) {
+            Snapshot snapshot = snapshots.next();
+            if (locationSettings.contains(snapshot.mLocationSetting)) {
+                snapshots.remove();
+                mBytes -= snapshot.mBytes;
+                mInvalidations++;
+            }
+        }
+    }
+
+    synchronized void invalidateAll() {
+        mGeneration++;
+        mInvalidations += mEntries.size();
+        mEntries.clear();
+        mBytes = 0;
+    }
+
+    synchronized long getHits() {
+        return mHits;
+    }
+
+    synchronized long getMisses() {
+        return mMisses;
+    }
+
+    synchronized long getEvictions() {
+        return mEvictions;
+    }
+
+    synchronized long getInvalidations() {
+        return mInvalidations;
+    }
+
+    synchronized int getEntryCount() {
+        return mEntries.size();
+    }
+
+    synchronized int getBytes() {
+        return mBytes;
+    }
+
+    private void trim() {
+        Iterator<Map.Entry<String, Snapshot>> entries = mEntries.entrySet().iterator();
+        while ((mEntries.size() > mMaxEntries || mBytes > mMaxBytes) && entries.hasNext()) {
+            Snapshot eldest = entries.next().getValue();
+            entries.remove();
+            mBytes -= eldest.mBytes;
+            mEvictions++;
+        }
+    }
+
+    /**
+     * @return a copy of every row of the cursor, or null if it would take more than maxBytes.
+     */
+    private static Snapshot copy(String locationSetting, Cursor cursor, int maxBytes) {
+        String[] columnNames = cursor.getColumnNames();
+        int columnCount = columnNames.length;
+        Object[][] rows = new Object[cursor.getCount()][];
+        int bytes = OBJECT_BYTES + rows.length * REFERENCE_BYTES;
+
+        cursor.moveToPosition(-1);
+        for (int i = 0; cursor.moveToNext(); i++) {
+            Object[] row = new Object[columnCount];
+            bytes += OBJECT_BYTES + columnCount * REFERENCE_BYTES;
+            for (int column = 0; column < columnCount; column++) {
+                switch (cursor.getType(column)) {
+                    case Cursor.FIELD_TYPE_INTEGER:
+                        row[column] = cursor.getLong(column);
+                        bytes += OBJECT_BYTES;
+                        break;
+                    case Cursor.FIELD_TYPE_FLOAT:
+                        row[column] = cursor.getDouble(column);
+                        bytes += OBJECT_BYTES;
+                        break;
+                    case Cursor.FIELD_TYPE_STRING:
+                        String value = cursor.getString(column);
+                        row[column] = value;
+                        bytes += STRING_BYTES + 2 * value.length();
+                        break;
+                    case Cursor.FIELD_TYPE_BLOB:
+                        byte[] blob = cursor.getBlob(column);
+                        row[column] = blob;
+                        bytes += OBJECT_BYTES + blob.length;
+                        break;
+                    default:
+                        // FIELD_TYPE_NULL, left as null
+                        break;
+                }
+            }
+            if (bytes > maxBytes) {
+                return null;
+            }
+            rows[i] = row;
+        }
+        return new Snapshot(locationSetting, columnNames, rows, bytes);
+    }
+
+    /**
+     * A read only cursor over a snapshot, which it shares with every other cursor over it.
+     */
+    private static class SnapshotCursor extends AbstractCursor {
+        private final Snapshot mSnapshot;
+
+        SnapshotCursor(Snapshot snapshot) {
+            mSnapshot = snapshot;
+        }
+
+        private Object get(int column) {
+            if (column < 0 || column >= mSnapshot.mColumnNames.length) {
+                throw new IndexOutOfBoundsException("Requested column: " + column
+                        + ", # of columns: " + mSnapshot.mColumnNames.length);
+            }
+            if (mPos < 0 || mPos >= mSnapshot.mRows.length) {
+                throw new IndexOutOfBoundsException("Requested position: " + mPos
+                        + ", # of rows: " + mSnapshot.mRows.length);
+            }
+            return mSnapshot.mRows[mPos][column];
+        }
+
+        @Override
+        public int getCount() {
+            return mSnapshot.mRows.length;
+        }
+
+        @Override
+        public String[] getColumnNames() {
+            return mSnapshot.mColumnNames;
+        }
+
+        @Override
+        public String getString(int column) {
+            Object value = get(column);
+            return value == null ? null : value.toString();
+        }
+
+        @Override
+        public short getShort(int column) {
+            return (short) getLong(column);
+        }
+
+        @Override
+        public int getInt(int column) {
+            return (int) getLong(column);
+        }
+
+        @Override
+        public long getLong(int column) {
+            Object value = get(column);
+            if (value == null) {
+                return 0;
+            }
+            if (value instanceof Number) {
+                return ((Number) value).longValue();
+            }
+            return Long.parseLong(value.toString());
+        }
+
+        @Override
+        public float getFloat(int column) {
+            return (float) getDouble(column);
+        }
+
+        @Override
+        public double getDouble(int column) {
+            Object value = get(column);
+            if (value == null) {
+                return 0;
+            }
+            if (value instanceof Number) {
+                return ((Number) value).doubleValue();
+            }
+            return Double.parseDouble(value.toString());
+        }
+
+        @Override
+        public byte[] getBlob(int column) {
+            Object value = get(column);
+            return value instanceof byte[] ? (byte[]) value : null;
+        }
+
+        @Override
+        public int getType(int column) {
+            Object value = get(column);
+            if (value == null) {
+                return FIELD_TYPE_NULL;
+            } else if (value instanceof Long) {
+                return FIELD_TYPE_INTEGER;
+            } else if (value instanceof Double) {
+                return FIELD_TYPE_FLOAT;
+            } else if (value instanceof byte[]) {
+                return FIELD_TYPE_BLOB;
+            }
+            return FIELD_TYPE_STRING;
+        }
+
+        @Override
+        public boolean isNull(int column) {
+            return get(column) == null;
+        }
+    }
+}
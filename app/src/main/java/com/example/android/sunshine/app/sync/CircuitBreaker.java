@@ -0,0 +1,124 @@
+package com.example.android.sunshine.app.sync;
+
+/**
+ * Stops requests to a server that keeps failing, so that syncs asked for in the meantime fail
+ * at once instead of adding to its load.
+ *
+ * The breaker opens after a number of failures in a row.  Once it has been open for the open
+ * time, a single trial request is let through: if it succeeds the breaker closes, otherwise it
+ * opens again for twice as long, up to a maximum.  Times are on one monotonic clock, such as
+ * {@link android.os.SystemClock#elapsedRealtime()}.
+ */
+public class CircuitBreaker {
+    static final int STATE_CLOSED = 0;
+    static final int STATE_OPEN = 1;
+    // Open time is over, and a trial request is out
+    static final int STATE_HALF_OPEN = 2;
+
+    private static final String[] STATE_NAMES = {"closed", "open", "half open"};
+
+    private final int mFailureThreshold;
+    private final long mInitialOpenMillis;
+    private final long mMaxOpenMillis;
+
+    private int mState = STATE_CLOSED;
+    private int mFailures;
+    private long mOpenMillis;
+    private long mOpenedAt;
+
+    private int mTrips;
+    private int mRejected;
+
+    /**
+     * @param failureThreshold failures in a row that open the breaker.
+     * @param initialOpenMillis how long the breaker first stays open.
+     * @param maxOpenMillis the longest it stays open after trials keep failing.
+     */
+    public CircuitBreaker(int failureThreshold, long initialOpenMillis, long maxOpenMillis) {
+        if (failureThreshold < 1 || initialOpenMillis < 1 || maxOpenMillis < initialOpenMillis) {
+            throw new IllegalArgumentException("Circuit breaker limits out of range");
+        }
+        mFailureThreshold = failureThreshold;
+        mInitialOpenMillis = initialOpenMillis;
+        mMaxOpenMillis = maxOpenMillis;
+        mOpenMillis = initialOpenMillis;
+    }
+
+    /**
+     * @return true if a request may be made now.  Every allowed request must be followed by
+     * {@link #onSuccess()} or {@link #onFailure}.
+     */
+    public synchronized boolean allowRequest(long now) {
+        switch (mState) {
+            case STATE_CLOSED:
+                return true;
+            case STATE_OPEN:
+                if (now - mOpenedAt >= mOpenMillis) {
+                    mState = STATE_HALF_OPEN;
+                    return true;
+                }
+                break;
+            case STATE_HALF_OPEN:
+                // Only the trial request gets through
+                break;
+        }
+        mRejected++;
+        return false;
+    }
+
+    public synchronized void onSuccess() {
+        mState = STATE_CLOSED;
+        mFailures = 0;
+        mOpenMillis = mInitialOpenMillis;
+    }
+
+    public synchronized void onFailure(long now) {
+        if (mState == STATE_HALF_OPEN) {
+            // The trial failed, wait longer before the next one
+            mOpenMillis = Math.min(mOpenMillis * 2, mMaxOpenMillis);
+            open(now);
+        } else if (mState == STATE_CLOSED && ++mFailures >= mFailureThreshold) {
+            open(now);
+        }
+    }
+
+    private void open(long now) {
+        mState = STATE_OPEN;
+        mOpenedAt = now;
+        mFailures = 0;
+        mTrips++;
+    }
+
+    synchronized int getState() {
+        return mState;
+    }
+
+    /**
+     * @return how long until a trial request will be let through, 0 if requests are allowed.
+     */
+    public synchronized long getRemainingOpenMillis(long now) {
+        if (mState != STATE_OPEN) {
+            return 0;
+        }
+        return Math.max(0, mOpenedAt + mOpenMillis - now);
+    }
+
+    /**
+     * @return the number of times the breaker opened.
+     */
+    public synchronized int getTripCount() {
+        return mTrips;
+    }
+
+    /**
+     * @return the number of requests refused while the breaker was open.
+     */
+    public synchronized int getRejectedCount() {
+        return mRejected;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return STATE_NAMES[mState] + ", " + mTrips + " trips, " + mRejected + " rejected";
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.android.sunshine.app.sync;
+
+import android.text.format.Time;
+
+import com.example.android.sunshine.app.data.WeatherColumnBatch;
+
+/**
+ * Turns the days reported by {@link ForecastJsonParser} into weather rows.  The location
+ * key is filled in afterwards, since the city may be reported after the days.
+ */
+class ForecastCollector implements ForecastJsonParser.Listener {
+    static final int WEATHER_TODAY_INDEX = 0;
+
+    // Location ids are left at 0, the caller assigns them with WeatherColumnBatch.addAll
+    final WeatherColumnBatch mWeather = new WeatherColumnBatch(14);
+    String mCityName;
+    double mCityLatitude;
+    double mCityLongitude;
+
+    boolean mHasToday;
+    int mTodayWeatherId;
+    double mTodayHigh;
+    double mTodayLow;
+
+    // OWM returns daily forecasts based upon the local time of the city that is being
+    // asked for, which means that we need to know the GMT offset to translate this data
+    // properly.
+
+    // Since this data is also sent in-order and the first day is always the
+    // current day, we're going to take advantage of that to get a nice
+    // normalized UTC date for all of our weather.
+    private final int mJulianStartDay;
+    // now we work exclusively in UTC
+    private final Time mDayTime = new Time();
+
+    ForecastCollector() {
+        Time localTime = new Time();
+        localTime.setToNow();
+
+        // we start at the day returned by local time. Otherwise this is a mess.
+        mJulianStartDay = Time.getJulianDay(System.currentTimeMillis(), localTime.gmtoff);
+    }
+
+    long getDateForDay(int dayIndex) {
+        // Cheating to convert this to UTC time, which is what we want anyhow
+        return mDayTime.setJulianDay(mJulianStartDay + dayIndex);
+    }
+
+    @Override
+    public void onCity(String cityName, double lat, double lon) {
+        mCityName = cityName;
+        mCityLatitude = lat;
+        mCityLongitude = lon;
+    }
+
+    @Override
+    public void onDay(int dayIndex, int weatherId, String description, double high,
+                      double low, double pressure, int humidity, double windSpeed,
+                      double windDirection) {
+        if (dayIndex == WEATHER_TODAY_INDEX) {
+            mHasToday = true;
+            mTodayWeatherId = weatherId;
+            mTodayHigh = high;
+            mTodayLow = low;
+        }
+
+        mWeather.add(0, getDateForDay(dayIndex), weatherId, description, low, high,
+                humidity, pressure, windSpeed, windDirection);
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+
+import com.example.android.sunshine.app.data.WeatherColumnBatch;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compares freshly fetched weather rows with the fingerprints stored for the same days, so a
+ * sync only writes, and tells everybody about, the days whose forecast actually changed.
+ */
+class ForecastDiff {
+
+    private static final String[] FINGERPRINT_PROJECTION = {
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_FINGERPRINT
+    };
+
+    // these indices must match the projection
+    private static final int INDEX_LOC_KEY = 0;
+    private static final int INDEX_DATE = 1;
+    private static final int INDEX_FINGERPRINT = 2;
+
+    private ForecastDiff() {
+    }
+
+    /**
+     * @return the rows of the batch whose day is not stored yet, or is stored with a different
+     * forecast.
+     */
+    static WeatherColumnBatch findChangedRows(ContentResolver resolver, WeatherColumnBatch batch) {
+        WeatherColumnBatch changed = new WeatherColumnBatch(batch.size());
+        if (batch.size() == 0) {
+            return changed;
+        }
+        Map<Long, Map<Long, Long>> stored = queryFingerprints(resolver, batch);
+
+        for (int i = 0; i < batch.size(); i++) {
+            Map<Long, Long> fingerprints = stored.get(batch.getLocationId(i));
+            Long fingerprint = fingerprints == null ? null
+                    : fingerprints.get(WeatherContract.normalizeDate(batch.getDate(i)));
+            if (fingerprint == null || fingerprint != batch.getFingerprint(i)) {
+                changed.add(batch, i);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * @return the stored fingerprints of every location in the batch, by location id and date.
+     */
+    private static Map<Long, Map<Long, Long>> queryFingerprints(ContentResolver resolver,
+                                                                WeatherColumnBatch batch) {
+        Map<Long, Map<Long, Long>> stored = new HashMap<Long, Map<Long, Long>>();
+        StringBuilder selection = new StringBuilder(WeatherContract.WeatherEntry.COLUMN_LOC_KEY)
+                .append(" IN (");
+        for (int i = 0; i < batch.size(); i++) {
+            long locationId = batch.getLocationId(i);
+            if (!stored.containsKey(locationId)) {
+                if (!stored.isEmpty()) {
+                    selection.append(',');
+                }
+                selection.append(locationId);
+                stored.put(locationId, new HashMap<Long, Long>());
+            }
+        }
+        selection.append(')');
+
+        Cursor cursor = resolver.query(WeatherContract.WeatherEntry.CONTENT_URI,
+                FINGERPRINT_PROJECTION, selection.toString(), null, null);
+        if (cursor == null) {
+            return stored;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                if (cursor.isNull(INDEX_FINGERPRINT)) {
+                    // Written without a fingerprint, so always treated as changed
+                    continue;
+                }
+                stored.get(cursor.getLong(INDEX_LOC_KEY)).put(cursor.getLong(INDEX_DATE),
+                        cursor.getLong(INDEX_FINGERPRINT));
+            }
+        } finally {
+            cursor.close();
+        }
+        return stored;
+    }
+}
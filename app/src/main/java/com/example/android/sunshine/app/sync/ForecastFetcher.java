@@ -0,0 +1,220 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.util.Log;
+
+import com.example.android.sunshine.app.BuildConfig;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import org.json.JSONException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+
+/**
+ * Downloads and parses the OpenWeatherMap forecast of one location.  Safe to use from several
+ * threads at once, which is how {@link LocationSyncEngine} drives it.
+ */
+public class ForecastFetcher implements LocationSyncEngine.Fetcher {
+    private static final String LOG_TAG = ForecastFetcher.class.getSimpleName();
+
+    // Construct the URL for the OpenWeatherMap query
+    // Possible parameters are avaiable at OWM's forecast API page, at
+    // http://openweathermap.org/API#forecast
+    public static final String FORECAST_BASE_URL =
+            "http://api.openweathermap.org/data/2.5/forecast/daily?";
+    private static final String QUERY_PARAM = "q";
+    private static final String FORMAT_PARAM = "mode";
+    private static final String UNITS_PARAM = "units";
+    private static final String DAYS_PARAM = "cnt";
+    private static final String APPID_PARAM = "APPID";
+
+    private static final String FORMAT = "json";
+    private static final String UNITS = "metric";
+    private static final int NUM_DAYS = 14;
+
+    // JsonReader, which the streaming parser is built on, only exists on Honeycomb and higher
+    private static final boolean USE_STREAMING_PARSER =
+            Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB;
+
+    private final Context mContext;
+    private final Uri mBaseUri;
+    private final SyncHttpClient mHttpClient;
+
+    /**
+     * @param baseUrl the forecast endpoint, normally {@link #FORECAST_BASE_URL}.
+     * @param timeoutMillis connect and read timeout applied to each request.
+     */
+    public ForecastFetcher(Context context, String baseUrl, int timeoutMillis) {
+        this(context, baseUrl, new SyncHttpClient(
+                new SyncHttpClient.Config(timeoutMillis, timeoutMillis, true, true)));
+    }
+
+    /**
+     * @param baseUrl the forecast endpoint, normally {@link #FORECAST_BASE_URL}.
+     * @param httpClient makes the requests, sharing its connections with other fetchers.
+     */
+    public ForecastFetcher(Context context, String baseUrl, SyncHttpClient httpClient) {
+        mContext = context.getApplicationContext();
+        mBaseUri = Uri.parse(baseUrl);
+        mHttpClient = httpClient;
+    }
+
+    Uri buildForecastUri(String locationSetting) {
+        return mBaseUri.buildUpon()
+                .appendQueryParameter(QUERY_PARAM, locationSetting)
+                .appendQueryParameter(FORMAT_PARAM, FORMAT)
+                .appendQueryParameter(UNITS_PARAM, UNITS)
+                .appendQueryParameter(DAYS_PARAM, Integer.toString(NUM_DAYS))
+                .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
+                .build();
+    }
+
+    @Override
+    public String getHost(String locationSetting) {
+        return mBaseUri.getHost();
+    }
+
+    @Override
+    public LocationSyncEngine.Result fetch(String locationSetting) {
+        LocationSyncEngine.Result result = new LocationSyncEngine.Result(locationSetting);
+
+        // These two need to be declared outside the try/catch
+        // so that they can be closed in the finally block.
+        SyncHttpClient.Call call = null;
+        BufferedReader reader = null;
+
+        try {
+            String forecastUrl = buildForecastUri(locationSetting).toString();
+            result.mUrl = forecastUrl;
+
+            // Create the request to OpenWeatherMap, and open the connection
+            call = mHttpClient.newCall(forecastUrl);
+            HttpURLConnection urlConnection = call.getConnection();
+            result.mTiming = call.getTiming();
+
+            // Only ask whether the forecast changed if we still have it to show
+            ForecastValidatorCache validatorCache = ForecastValidatorCache.getInstance(mContext);
+            boolean conditional = hasStoredForecast(locationSetting)
+                    && validatorCache.addValidators(urlConnection, forecastUrl);
+            int responseCode = call.execute();
+            result.mHttpStatus = responseCode;
+
+            if (conditional && validatorCache.isNotModified(urlConnection, forecastUrl)) {
+                // Nothing changed upstream, what we stored last time is still current
+                result.mNotModified = true;
+                result.mStatus = SunshineSyncAdapter.LOCATION_STATUS_OK;
+                return result;
+            }
+            if (responseCode == HttpURLConnection.HTTP_NOT_FOUND) {
+                // OpenWeatherMap does not know the location
+                result.mStatus = SunshineSyncAdapter.LOCATION_STATUS_INVALID;
+                return result;
+            }
+            if (responseCode >= HttpURLConnection.HTTP_BAD_REQUEST) {
+                result.mStatus = SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+                return result;
+            }
+
+            InputStream inputStream = call.getBody();
+            if (inputStream == null) {
+                // Nothing to do.
+                result.mStatus = SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+                return result;
+            }
+            reader = new BufferedReader(new InputStreamReader(inputStream));
+
+            ForecastCollector collector = new ForecastCollector();
+            int messageCode;
+            long parseStart;
+            if (USE_STREAMING_PARSER) {
+                // Decode the forecast straight off the connection, one day at a time.  Reading
+                // the body is timed as parsing, the two can't be told apart here.
+                parseStart = System.nanoTime();
+                messageCode = ForecastJsonParser.parseStream(reader, collector);
+            } else {
+                // Read the input stream into a String
+                StringBuilder buffer = new StringBuilder();
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    buffer.append(line).append('\n');
+                }
+
+                if (buffer.length() == 0) {
+                    // Stream was empty.  No point in parsing.
+                    result.mStatus = SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+                    return result;
+                }
+                parseStart = System.nanoTime();
+                messageCode = ForecastJsonParser.parseTree(buffer.toString(), collector);
+            }
+            result.mParseMillis = (System.nanoTime() - parseStart) / 1000000;
+
+            switch (messageCode) {
+                case HttpURLConnection.HTTP_OK:
+                    result.mStatus = SunshineSyncAdapter.LOCATION_STATUS_OK;
+                    result.mForecast = collector;
+                    result.mEtag = urlConnection.getHeaderField("ETag");
+                    result.mLastModified = urlConnection.getHeaderField("Last-Modified");
+                    result.mContentLength = urlConnection.getContentLength();
+                    break;
+                case HttpURLConnection.HTTP_NOT_FOUND:
+                    result.mStatus = SunshineSyncAdapter.LOCATION_STATUS_INVALID;
+                    break;
+                default:
+                    result.mStatus = SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+                    break;
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error ", e);
+            // If the code didn't successfully get the weather data, there's no point in attempting
+            // to parse it.
+            result.mStatus = SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, e.getMessage(), e);
+            result.mStatus = SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID;
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (final IOException e) {
+                    Log.e(LOG_TAG, "Error closing stream", e);
+                }
+            }
+            // Reads what is left of the response, rather than disconnecting, so the connection
+            // goes back to the pool
+            if (call != null) {
+                try {
+                    call.close();
+                } catch (final IOException e) {
+                    Log.e(LOG_TAG, "Error closing connection", e);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return true if the database still holds today's forecast for the location, which is what
+     * a 304 Not Modified response would leave on screen.
+     */
+    private boolean hasStoredForecast(String locationSetting) {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithDate(
+                        locationSetting, System.currentTimeMillis()),
+                new String[]{WeatherContract.WeatherEntry.COLUMN_DATE},
+                null, null, null);
+        if (cursor == null) {
+            return false;
+        }
+        boolean hasForecast = cursor.moveToFirst();
+        cursor.close();
+        return hasForecast;
+    }
+}
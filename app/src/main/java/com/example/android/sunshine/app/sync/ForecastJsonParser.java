@@ -0,0 +1,303 @@
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+
+/**
+ * Parses the OpenWeatherMap daily forecast response.
+ *
+ * Two parsers are provided.  {@link #parseTree(String, Listener)} builds the whole
+ * {@link JSONObject} hierarchy first, which is simple but keeps the full document in memory.
+ * {@link #parseStream(Reader, Listener)} walks the response token by token and hands each day
+ * to the listener as soon as it has been decoded, so only one day is ever held at a time.
+ */
+public class ForecastJsonParser {
+
+    // Location information
+    static final String OWM_CITY = "city";
+    static final String OWM_CITY_NAME = "name";
+    static final String OWM_COORD = "coord";
+
+    // Location coordinate
+    static final String OWM_LATITUDE = "lat";
+    static final String OWM_LONGITUDE = "lon";
+
+    // Weather information.  Each day's forecast info is an element of the "list" array.
+    static final String OWM_LIST = "list";
+
+    static final String OWM_PRESSURE = "pressure";
+    static final String OWM_HUMIDITY = "humidity";
+    static final String OWM_WINDSPEED = "speed";
+    static final String OWM_WIND_DIRECTION = "deg";
+
+    // All temperatures are children of the "temp" object.
+    static final String OWM_TEMPERATURE = "temp";
+    static final String OWM_MAX = "max";
+    static final String OWM_MIN = "min";
+
+    static final String OWM_WEATHER = "weather";
+    static final String OWM_DESCRIPTION = "main";
+    static final String OWM_WEATHER_ID = "id";
+
+    static final String OWM_MESSAGE_CODE = "cod";
+
+    // Fields a day must carry before it is handed to the listener
+    private static final int FIELD_PRESSURE = 1;
+    private static final int FIELD_HUMIDITY = 1 << 1;
+    private static final int FIELD_WINDSPEED = 1 << 2;
+    private static final int FIELD_WIND_DIRECTION = 1 << 3;
+    private static final int FIELD_MAX = 1 << 4;
+    private static final int FIELD_MIN = 1 << 5;
+    private static final int FIELD_DESCRIPTION = 1 << 6;
+    private static final int FIELD_WEATHER_ID = 1 << 7;
+    private static final int FIELDS_REQUIRED = (1 << 8) - 1;
+
+    /**
+     * Receives the values decoded from a forecast response, in document order.
+     */
+    public interface Listener {
+        void onCity(String cityName, double lat, double lon);
+
+        void onDay(int dayIndex, int weatherId, String description, double high, double low,
+                   double pressure, int humidity, double windSpeed, double windDirection);
+    }
+
+    private ForecastJsonParser() {
+    }
+
+    /**
+     * Parses the complete response held in a String.
+     *
+     * @return the "cod" message code of the response, or HTTP_OK if it carries none.  Days are
+     * only reported when the code is HTTP_OK.
+     */
+    public static int parseTree(String forecastJsonStr, Listener listener) throws JSONException {
+        JSONObject forecastJson = new JSONObject(forecastJsonStr);
+
+        // do we have an error?
+        if (forecastJson.has(OWM_MESSAGE_CODE)) {
+            int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
+            if (errorCode != HttpURLConnection.HTTP_OK) {
+                return errorCode;
+            }
+        }
+
+        JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
+
+        JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
+        JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
+        listener.onCity(cityJson.getString(OWM_CITY_NAME),
+                cityCoord.getDouble(OWM_LATITUDE),
+                cityCoord.getDouble(OWM_LONGITUDE));
+
+        for (int i = 0; i < weatherArray.length(); i++) {
+            // Get the JSON object representing the day
+            JSONObject dayForecast = weatherArray.getJSONObject(i);
+
+            // Description is in a child array called "weather", which is 1 element long.
+            // That element also contains a weather code.
+            JSONObject weatherObject =
+                    dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
+
+            // Temperatures are in a child object called "temp".  Try not to name variables
+            // "temp" when working with temperature.  It confuses everybody.
+            JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
+
+            listener.onDay(i,
+                    weatherObject.getInt(OWM_WEATHER_ID),
+                    weatherObject.getString(OWM_DESCRIPTION),
+                    temperatureObject.getDouble(OWM_MAX),
+                    temperatureObject.getDouble(OWM_MIN),
+                    dayForecast.getDouble(OWM_PRESSURE),
+                    dayForecast.getInt(OWM_HUMIDITY),
+                    dayForecast.getDouble(OWM_WINDSPEED),
+                    dayForecast.getDouble(OWM_WIND_DIRECTION));
+        }
+        return HttpURLConnection.HTTP_OK;
+    }
+
+    /**
+     * Parses the response straight off a character stream.  The "city" and "list" members may
+     * appear in either order, so callers should not rely on {@link Listener#onCity} arriving
+     * before the first day.
+     *
+     * @return the "cod" message code of the response, or HTTP_OK if it carries none.  As the
+     * code may follow the days in the document, callers must check it before using any of the
+     * reported days.
+     * @throws IOException if the stream could not be read.
+     * @throws JSONException if the stream is not a well-formed forecast.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public static int parseStream(Reader in, Listener listener) throws IOException, JSONException {
+        JsonReader reader = new JsonReader(in);
+        try {
+            int messageCode = HttpURLConnection.HTTP_OK;
+            boolean sawList = false;
+            boolean sawCity = false;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_MESSAGE_CODE.equals(name)) {
+                    messageCode = reader.nextInt();
+                } else if (OWM_CITY.equals(name)) {
+                    readCity(reader, listener);
+                    sawCity = true;
+                } else if (OWM_LIST.equals(name)) {
+                    readList(reader, listener);
+                    sawList = true;
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            if (messageCode == HttpURLConnection.HTTP_OK && !(sawList && sawCity)) {
+                throw new JSONException("Forecast is missing " + (sawList ? OWM_CITY : OWM_LIST));
+            }
+            return messageCode;
+        } catch (IllegalStateException | NumberFormatException e) {
+            // JsonReader reports unexpected token types as IllegalStateException
+            throw new JSONException(e.getMessage());
+        } finally {
+            reader.close();
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void readCity(JsonReader reader, Listener listener)
+            throws IOException, JSONException {
+        String cityName = null;
+        double lat = 0;
+        double lon = 0;
+        boolean sawCoord = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_CITY_NAME.equals(name)) {
+                cityName = reader.nextString();
+            } else if (OWM_COORD.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String coordName = reader.nextName();
+                    if (OWM_LATITUDE.equals(coordName)) {
+                        lat = reader.nextDouble();
+                    } else if (OWM_LONGITUDE.equals(coordName)) {
+                        lon = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                sawCoord = true;
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (cityName == null || !sawCoord) {
+            throw new JSONException("Incomplete " + OWM_CITY + " object");
+        }
+        listener.onCity(cityName, lat, lon);
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void readList(JsonReader reader, Listener listener)
+            throws IOException, JSONException {
+        int dayIndex = 0;
+        reader.beginArray();
+        while (reader.hasNext()) {
+            int fields = 0;
+            int weatherId = 0;
+            String description = null;
+            double high = 0;
+            double low = 0;
+            double pressure = 0;
+            int humidity = 0;
+            double windSpeed = 0;
+            double windDirection = 0;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_PRESSURE.equals(name)) {
+                    pressure = reader.nextDouble();
+                    fields |= FIELD_PRESSURE;
+                } else if (OWM_HUMIDITY.equals(name)) {
+                    humidity = (int) reader.nextDouble();
+                    fields |= FIELD_HUMIDITY;
+                } else if (OWM_WINDSPEED.equals(name)) {
+                    windSpeed = reader.nextDouble();
+                    fields |= FIELD_WINDSPEED;
+                } else if (OWM_WIND_DIRECTION.equals(name)) {
+                    windDirection = reader.nextDouble();
+                    fields |= FIELD_WIND_DIRECTION;
+                } else if (OWM_TEMPERATURE.equals(name)) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String tempName = reader.nextName();
+                        if (OWM_MAX.equals(tempName)) {
+                            high = reader.nextDouble();
+                            fields |= FIELD_MAX;
+                        } else if (OWM_MIN.equals(tempName)) {
+                            low = reader.nextDouble();
+                            fields |= FIELD_MIN;
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                } else if (OWM_WEATHER.equals(name)) {
+                    // Only the first element of the "weather" array describes the day
+                    reader.beginArray();
+                    boolean first = true;
+                    while (reader.hasNext()) {
+                        if (!first || reader.peek() != JsonToken.BEGIN_OBJECT) {
+                            reader.skipValue();
+                            continue;
+                        }
+                        first = false;
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            String weatherName = reader.nextName();
+                            if (OWM_WEATHER_ID.equals(weatherName)) {
+                                weatherId = reader.nextInt();
+                                fields |= FIELD_WEATHER_ID;
+                            } else if (OWM_DESCRIPTION.equals(weatherName)) {
+                                description = reader.nextString();
+                                fields |= FIELD_DESCRIPTION;
+                            } else {
+                                reader.skipValue();
+                            }
+                        }
+                        reader.endObject();
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            if (fields != FIELDS_REQUIRED) {
+                throw new JSONException("Incomplete forecast for day " + dayIndex);
+            }
+            listener.onDay(dayIndex, weatherId, description, high, low,
+                    pressure, humidity, windSpeed, windDirection);
+            dayIndex++;
+        }
+        reader.endArray();
+    }
+}
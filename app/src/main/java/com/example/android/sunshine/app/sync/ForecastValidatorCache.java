@@ -0,0 +1,166 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+
+/**
+ * Remembers the HTTP validators (ETag and Last-Modified) of the last forecast stored for each
+ * request URL, so that the next request for the same URL can be made conditional.  When the
+ * server answers 304 Not Modified the sync can skip parsing, writing and notifying altogether.
+ *
+ * Validators and hit/miss counters are kept in their own preferences file so they survive the
+ * sync process being killed between periodic runs.
+ */
+public class ForecastValidatorCache {
+    private static final String LOG_TAG = ForecastValidatorCache.class.getSimpleName();
+
+    static final String PREFS_NAME = "forecast_validators";
+
+    private static final String KEY_ETAG_PREFIX = "etag:";
+    private static final String KEY_LAST_MODIFIED_PREFIX = "last_modified:";
+    private static final String KEY_CONTENT_LENGTH_PREFIX = "content_length:";
+    private static final String KEY_HITS = "hits";
+    private static final String KEY_MISSES = "misses";
+    private static final String KEY_BYTES_SAVED = "bytes_saved";
+
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
+    private static ForecastValidatorCache sInstance;
+
+    private final SharedPreferences mPrefs;
+
+    public static synchronized ForecastValidatorCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ForecastValidatorCache(context.getApplicationContext()
+                    .getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE));
+        }
+        return sInstance;
+    }
+
+    ForecastValidatorCache(SharedPreferences prefs) {
+        mPrefs = prefs;
+    }
+
+    /**
+     * Adds If-None-Match and If-Modified-Since headers for any validators remembered for the
+     * URL.  Must be called before the connection is connected.
+     *
+     * @return true if the request was made conditional.
+     */
+    public boolean addValidators(HttpURLConnection connection, String url) {
+        String etag = mPrefs.getString(KEY_ETAG_PREFIX + url, null);
+        String lastModified = mPrefs.getString(KEY_LAST_MODIFIED_PREFIX + url, null);
+        if (etag != null) {
+            connection.setRequestProperty(HEADER_IF_NONE_MATCH, etag);
+        }
+        if (lastModified != null) {
+            connection.setRequestProperty(HEADER_IF_MODIFIED_SINCE, lastModified);
+        }
+        return etag != null || lastModified != null;
+    }
+
+    /**
+     * Checks the response to a request prepared with {@link #addValidators} and counts it as a
+     * hit or a miss.
+     *
+     * @return true if the server reported that the stored forecast is still current.
+     */
+    public synchronized boolean isNotModified(HttpURLConnection connection, String url)
+            throws IOException {
+        boolean notModified = connection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED;
+        SharedPreferences.Editor editor = mPrefs.edit();
+        if (notModified) {
+            editor.putLong(KEY_HITS, mPrefs.getLong(KEY_HITS, 0) + 1);
+            editor.putLong(KEY_BYTES_SAVED, mPrefs.getLong(KEY_BYTES_SAVED, 0)
+                    + mPrefs.getLong(KEY_CONTENT_LENGTH_PREFIX + url, 0));
+        } else {
+            editor.putLong(KEY_MISSES, mPrefs.getLong(KEY_MISSES, 0) + 1);
+        }
+        editor.apply();
+        Log.d(LOG_TAG, (notModified ? "Validator hit for " : "Validator miss for ") + url);
+        return notModified;
+    }
+
+    /**
+     * Remembers the validators of a response whose body has been stored successfully.  Responses
+     * without validators clear whatever was remembered for the URL.
+     */
+    public void storeValidators(HttpURLConnection connection, String url) {
+        storeValidators(url, connection.getHeaderField(HEADER_ETAG),
+                connection.getHeaderField(HEADER_LAST_MODIFIED), connection.getContentLength());
+    }
+
+    /**
+     * Same as {@link #storeValidators(HttpURLConnection, String)}, for header values captured
+     * before the connection was closed.
+     *
+     * @param contentLength the length of the response body, or -1 if unknown.
+     */
+    public void storeValidators(String url, String etag, String lastModified, int contentLength) {
+        SharedPreferences.Editor editor = mPrefs.edit();
+        putOrRemove(editor, KEY_ETAG_PREFIX + url, etag);
+        putOrRemove(editor, KEY_LAST_MODIFIED_PREFIX + url, lastModified);
+        if (contentLength > 0) {
+            editor.putLong(KEY_CONTENT_LENGTH_PREFIX + url, contentLength);
+        } else {
+            editor.remove(KEY_CONTENT_LENGTH_PREFIX + url);
+        }
+        editor.apply();
+    }
+
+    /**
+     * Forgets the validators for a URL, so the next request for it fetches the full forecast.
+     */
+    public void invalidate(String url) {
+        mPrefs.edit()
+                .remove(KEY_ETAG_PREFIX + url)
+                .remove(KEY_LAST_MODIFIED_PREFIX + url)
+                .remove(KEY_CONTENT_LENGTH_PREFIX + url)
+                .apply();
+    }
+
+    /**
+     * @return the number of requests answered with 304 Not Modified.
+     */
+    public long getHitCount() {
+        return mPrefs.getLong(KEY_HITS, 0);
+    }
+
+    /**
+     * @return the number of requests that returned a full forecast.
+     */
+    public long getMissCount() {
+        return mPrefs.getLong(KEY_MISSES, 0);
+    }
+
+    /**
+     * @return an estimate of the response bytes not downloaded thanks to 304 responses, based on
+     * the Content-Length of the forecast each hit would otherwise have fetched.
+     */
+    public long getBytesSaved() {
+        return mPrefs.getLong(KEY_BYTES_SAVED, 0);
+    }
+
+    public void resetCounters() {
+        mPrefs.edit()
+                .remove(KEY_HITS)
+                .remove(KEY_MISSES)
+                .remove(KEY_BYTES_SAVED)
+                .apply();
+    }
+
+    private static void putOrRemove(SharedPreferences.Editor editor, String key, String value) {
+        if (value != null) {
+            editor.putString(key, value);
+        } else {
+            editor.remove(key);
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package com.example.android.sunshine.app.sync;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fetches and parses the forecasts of several locations concurrently.
+ *
+ * Work runs on a bounded pool of threads, with at most {@link Config#maxConnectionsPerHost}
+ * requests in flight to any one host, and the whole run is cut off after
+ * {@link Config#timeoutMillis}.  Nothing is written here: the results are handed back so the
+ * caller can store all of them together.
+ */
+public class LocationSyncEngine {
+    private static final String LOG_TAG = LocationSyncEngine.class.getSimpleName();
+
+    /**
+     * Limits applied to a sync run.
+     */
+    public static class Config {
+        final int maxConcurrency;
+        final int maxConnectionsPerHost;
+        final long timeoutMillis;
+
+        /**
+         * @param maxConcurrency number of locations fetched at the same time.
+         * @param maxConnectionsPerHost number of requests in flight to any one host.
+         * @param timeoutMillis wall clock time after which unfinished locations are abandoned.
+         */
+        public Config(int maxConcurrency, int maxConnectionsPerHost, long timeoutMillis) {
+            if (maxConcurrency < 1 || maxConnectionsPerHost < 1 || timeoutMillis < 1) {
+                throw new IllegalArgumentException("Sync limits must be positive");
+            }
+            this.maxConcurrency = maxConcurrency;
+            this.maxConnectionsPerHost = maxConnectionsPerHost;
+            this.timeoutMillis = timeoutMillis;
+        }
+    }
+
+    /**
+     * Fetches and parses the forecast of a single location.  Implementations must be thread
+     * safe, and report failures through {@link Result#mStatus} rather than by throwing.
+     */
+    public interface Fetcher {
+        /**
+         * @return the host the location's forecast is fetched from.
+         */
+        String getHost(String locationSetting);
+
+        Result fetch(String locationSetting);
+    }
+
+    /**
+     * A {@link Fetcher} that waits between the requests it makes for a location, as before a
+     * retry.  Rather than the engine holding the host's permit for the whole fetch, it takes
+     * the permit for each request and gives it back while it waits, so the host's other
+     * locations can use the connection meanwhile.
+     */
+    public interface PermitAwareFetcher extends Fetcher {
+        /**
+         * Called without the permit held.
+         *
+         * @param hostPermit to acquire around every request made, null if there is no limit.
+         */
+        Result fetch(String locationSetting, Semaphore hostPermit);
+    }
+
+    /**
+     * The outcome of fetching one location.
+     */
+    public static class Result {
+        final String mLocationSetting;
+        @SunshineSyncAdapter.LocationStatus int mStatus = SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN;
+        // Set when the server reported that the stored forecast is still current
+        boolean mNotModified;
+        // The parsed forecast, only set when mStatus is LOCATION_STATUS_OK and the forecast changed
+        ForecastCollector mForecast;
+
+        // Validators to remember once the forecast has been stored
+        String mUrl;
+        String mEtag;
+        String mLastModified;
+        int mContentLength = -1;
+
+        long mElapsedMillis;
+        // Part of mElapsedMillis spent parsing the body, -1 if none was parsed
+        long mParseMillis = -1;
+        // Phases of the HTTP request, null if none was made
+        SyncHttpClient.Timing mTiming;
+        // Status of the last HTTP response, 0 if none was received
+        int mHttpStatus;
+        // Requests made, counting retries
+        int mAttempts = 1;
+        // Set when no request was made because the server is known to be failing
+        boolean mShortCircuited;
+
+        Result(String locationSetting) {
+            mLocationSetting = locationSetting;
+        }
+
+        public String getLocationSetting() {
+            return mLocationSetting;
+        }
+
+        @SunshineSyncAdapter.LocationStatus
+        public int getStatus() {
+            return mStatus;
+        }
+
+        public long getElapsedMillis() {
+            return mElapsedMillis;
+        }
+    }
+
+    private final Config mConfig;
+
+    public LocationSyncEngine(Config config) {
+        mConfig = config;
+    }
+
+    /**
+     * Fetches every location and waits for all of them, or for the configured timeout.
+     *
+     * @return one result per location, in the order the locations were given.  Locations that
+     * did not finish in time are reported as LOCATION_STATUS_SERVER_DOWN.
+     */
+    public List<Result> syncAll(List<String> locationSettings, final Fetcher fetcher) {
+        final Map<String, Semaphore> hostPermits = new HashMap<String, Semaphore>();
+        List<Callable<Result>> tasks = new ArrayList<Callable<Result>>(locationSettings.size());
+        for (final String locationSetting : locationSettings) {
+            String host = fetcher.getHost(locationSetting);
+            Semaphore permits = hostPermits.get(host);
+            if (permits == null) {
+                permits = new Semaphore(mConfig.maxConnectionsPerHost, true);
+                hostPermits.put(host, permits);
+            }
+            final Semaphore hostPermit = permits;
+            tasks.add(new Callable<Result>() {
+                @Override
+                public Result call() throws InterruptedException {
+                    if (fetcher instanceof PermitAwareFetcher) {
+                        long start = System.nanoTime();
+                        Result result = ((PermitAwareFetcher) fetcher)
+                                .fetch(locationSetting, hostPermit);
+                        result.mElapsedMillis = (System.nanoTime() - start) / 1000000;
+                        return result;
+                    }
+                    hostPermit.acquire();
+                    try {
+                        long start = System.nanoTime();
+                        Result result = fetcher.fetch(locationSetting);
+                        result.mElapsedMillis = (System.nanoTime() - start) / 1000000;
+                        return result;
+                    } finally {
+                        hostPermit.release();
+                    }
+                }
+            });
+        }
+
+        int threads = Math.min(mConfig.maxConcurrency, Math.max(1, tasks.size()));
+        // invokeAll queues every location up front, so this is as deep as the queue gets
+        ExecutorService executor = new ThreadPoolExecutor(threads, threads,
+                0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(Math.max(1, tasks.size())),
+                new SyncThreadFactory());
+
+        List<Result> results = new ArrayList<Result>(locationSettings.size());
+        try {
+            List<Future<Result>> futures =
+                    executor.invokeAll(tasks, mConfig.timeoutMillis, TimeUnit.MILLISECONDS);
+            for (int i = 0; i < futures.size(); i++) {
+                results.add(getResult(futures.get(i), locationSettings.get(i)));
+            }
+        } catch (InterruptedException e) {
+            Log.w(LOG_TAG, "Sync interrupted", e);
+            Thread.currentThread().interrupt();
+            for (int i = results.size(); i < locationSettings.size(); i++) {
+                Result abandoned = new Result(locationSettings.get(i));
+                abandoned.mStatus = SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+                results.add(abandoned);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return results;
+    }
+
+    private static Result getResult(Future<Result> future, String locationSetting)
+            throws InterruptedException {
+        try {
+            return future.get();
+        } catch (CancellationException e) {
+            Log.w(LOG_TAG, "Timed out fetching " + locationSetting);
+        } catch (ExecutionException e) {
+            Log.e(LOG_TAG, "Error fetching " + locationSetting, e.getCause());
+        }
+        Result failed = new Result(locationSetting);
+        failed.mStatus = SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+        return failed;
+    }
+
+    private static class SyncThreadFactory implements ThreadFactory {
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "LocationSync-" + mCount.incrementAndGet());
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        }
+    }
+}
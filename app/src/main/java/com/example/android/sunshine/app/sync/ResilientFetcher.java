@@ -0,0 +1,174 @@
+package com.example.android.sunshine.app.sync;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.net.HttpURLConnection;
+import java.util.Random;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Wraps a {@link LocationSyncEngine.Fetcher} with retries and a {@link CircuitBreaker}.
+ *
+ * A fetch that fails in a way that may not happen again, an I/O error, a 5xx response, 408
+ * or 429, is retried after a random delay of up to the base delay, doubled for every attempt
+ * made and capped at the maximum ("full jitter"), so that the retries of concurrent locations
+ * spread out.  Every attempt is reported to the breaker; while it is open, fetches fail at
+ * once without a request.  Run by {@link LocationSyncEngine}, a fetch holds the host's permit
+ * only for each attempt, never while it waits to retry.
+ */
+public class ResilientFetcher implements LocationSyncEngine.PermitAwareFetcher {
+    private static final String LOG_TAG = ResilientFetcher.class.getSimpleName();
+
+    // Not among HttpURLConnection's constants
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    /**
+     * How often, and how far apart, transient failures are retried.
+     */
+    public static class RetryConfig {
+        final int maxAttempts;
+        final long baseDelayMillis;
+        final long maxDelayMillis;
+
+        /**
+         * @param maxAttempts attempts made for a location, including the first.
+         * @param baseDelayMillis longest delay before the first retry.
+         * @param maxDelayMillis longest delay before any retry.
+         */
+        public RetryConfig(int maxAttempts, long baseDelayMillis, long maxDelayMillis) {
+            if (maxAttempts < 1 || baseDelayMillis < 0 || maxDelayMillis < baseDelayMillis) {
+                throw new IllegalArgumentException("Retry limits out of range");
+            }
+            this.maxAttempts = maxAttempts;
+            this.baseDelayMillis = baseDelayMillis;
+            this.maxDelayMillis = maxDelayMillis;
+        }
+    }
+
+    private final LocationSyncEngine.Fetcher mFetcher;
+    private final RetryConfig mConfig;
+    private final CircuitBreaker mBreaker;
+    private final Random mRandom = new Random();
+
+    /**
+     * @param breaker shared by every fetcher of the same server, and kept between syncs.
+     */
+    public ResilientFetcher(LocationSyncEngine.Fetcher fetcher, RetryConfig config,
+                            CircuitBreaker breaker) {
+        mFetcher = fetcher;
+        mConfig = config;
+        mBreaker = breaker;
+    }
+
+    @Override
+    public String getHost(String locationSetting) {
+        return mFetcher.getHost(locationSetting);
+    }
+
+    @Override
+    public LocationSyncEngine.Result fetch(String locationSetting) {
+        return fetch(locationSetting, null);
+    }
+
+    @Override
+    public LocationSyncEngine.Result fetch(String locationSetting, Semaphore hostPermit) {
+        LocationSyncEngine.Result result = null;
+        for (int attempt = 0; attempt < mConfig.maxAttempts; attempt++) {
+            if (attempt > 0 && !sleepBeforeRetry(attempt)) {
+                break;
+            }
+            if (!acquire(hostPermit)) {
+                break;
+            }
+            boolean transientFailure = true;
+            try {
+                // Checked once the permit is held, the breaker may have opened while waiting
+                if (!mBreaker.allowRequest(SystemClock.elapsedRealtime())) {
+                    if (result == null) {
+                        result = new LocationSyncEngine.Result(locationSetting);
+                        result.mStatus = SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+                        result.mShortCircuited = true;
+                        result.mAttempts = 0;
+                    }
+                    break;
+                }
+
+                try {
+                    result = mFetcher.fetch(locationSetting);
+                    result.mAttempts = attempt + 1;
+                    transientFailure = isTransientFailure(result);
+                } finally {
+                    if (transientFailure) {
+                        mBreaker.onFailure(SystemClock.elapsedRealtime());
+                    } else {
+                        mBreaker.onSuccess();
+                    }
+                }
+            } finally {
+                if (hostPermit != null) {
+                    hostPermit.release();
+                }
+            }
+            if (!transientFailure) {
+                break;
+            }
+            Log.d(LOG_TAG, "Attempt " + (attempt + 1) + " for " + locationSetting + " failed with "
+                    + (result.mHttpStatus > 0 ? "HTTP " + result.mHttpStatus : "an I/O error"));
+        }
+        if (result == null) {
+            // Abandoned while waiting for the first permit
+            result = new LocationSyncEngine.Result(locationSetting);
+            result.mStatus = SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+            result.mAttempts = 0;
+        }
+        return result;
+    }
+
+    /**
+     * @return true if the failure may not happen again on a retry.
+     */
+    static boolean isTransientFailure(LocationSyncEngine.Result result) {
+        if (result.mStatus != SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN) {
+            return false;
+        }
+        // Without a status the request itself failed; with a 2xx, reading the body did
+        int httpStatus = result.mHttpStatus;
+        boolean clientError = httpStatus >= HttpURLConnection.HTTP_BAD_REQUEST
+                && httpStatus < HttpURLConnection.HTTP_INTERNAL_ERROR;
+        return !clientError || httpStatus == HttpURLConnection.HTTP_CLIENT_TIMEOUT
+                || httpStatus == HTTP_TOO_MANY_REQUESTS;
+    }
+
+    /**
+     * @return false if interrupted, which is how the sync engine abandons a location.
+     */
+    private static boolean acquire(Semaphore hostPermit) {
+        if (hostPermit == null) {
+            return true;
+        }
+        try {
+            hostPermit.acquire();
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * @return false if interrupted, which is how the sync engine abandons a location.
+     */
+    private boolean sleepBeforeRetry(int attempt) {
+        long ceiling = Math.min(mConfig.maxDelayMillis,
+                mConfig.baseDelayMillis << Math.min(attempt - 1, 30));
+        long delay = (long) (mRandom.nextDouble() * ceiling);
+        try {
+            Thread.sleep(delay);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
@@ -8,37 +8,36 @@ import android.app.PendingIntent;
 import android.content.AbstractThreadedSyncAdapter;
 import android.content.ContentProviderClient;
 import android.content.ContentResolver;
-import android.content.ContentUris;
-import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.SyncRequest;
 import android.content.SyncResult;
 import android.content.res.Resources;
-import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
-import android.net.Uri;
-import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.support.annotation.IntDef;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.v4.app.NotificationCompat;
 import android.support.v4.app.TaskStackBuilder;
-import android.text.format.Time;
+import android.text.TextUtils;
 import android.util.Log;
 
 import com.bumptech.glide.Glide;
-import com.example.android.sunshine.app.BuildConfig;
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherColumnBatch;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
+import com.example.android.sunshine.lib.ForecastCodec;
 import com.example.android.sunshine.lib.SunshineConstants;
 import com.example.android.sunshine.lib.SunshineUtility;
 import com.google.android.gms.common.ConnectionResult;
@@ -52,19 +51,10 @@ import com.google.android.gms.wearable.PutDataMapRequest;
 import com.google.android.gms.wearable.PutDataRequest;
 import com.google.android.gms.wearable.Wearable;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.util.Vector;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
@@ -79,22 +69,17 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
     public static final int SYNC_FLEXTIME = SYNC_INTERVAL/3;
     private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
     private static final int WEATHER_NOTIFICATION_ID = 3004;
-    private final int WEATHER_TODAY_INDEX = 0;
     // Google API Client
     private GoogleApiClient mGoogleApiClient;
-
-    private static final String[] NOTIFY_WEATHER_PROJECTION = new String[] {
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC
-    };
-
-    // these indices must match the projection
-    private static final int INDEX_WEATHER_ID = 0;
-    private static final int INDEX_MAX_TEMP = 1;
-    private static final int INDEX_MIN_TEMP = 2;
-    private static final int INDEX_SHORT_DESC = 3;
+    private final SyncPipeline mPipeline;
+    // Newline separated locations to sync, when not all of the tracked ones
+    static final String EXTRA_LOCATIONS = "locations";
+    private static SyncRequestCoordinator sSyncRequests;
+    // Kept between syncs, so that their requests can share connections
+    private final SyncHttpClient mHttpClient;
+    // Kept between syncs too, so that syncs asked for while the server fails don't reach it
+    private final CircuitBreaker mCircuitBreaker;
+    private final ResilientFetcher.RetryConfig mRetryConfig;
 
     @Retention(RetentionPolicy.SOURCE)
     @IntDef({LOCATION_STATUS_OK, LOCATION_STATUS_SERVER_DOWN, LOCATION_STATUS_SERVER_INVALID,  LOCATION_STATUS_UNKNOWN, LOCATION_STATUS_INVALID})
@@ -108,289 +93,87 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
 
     public SunshineSyncAdapter(Context context, boolean autoInitialize) {
         super(context, autoInitialize);
+        Resources resources = context.getResources();
+        mHttpClient = new SyncHttpClient(new SyncHttpClient.Config(
+                resources.getInteger(R.integer.http_connect_timeout_millis),
+                resources.getInteger(R.integer.http_read_timeout_millis),
+                resources.getBoolean(R.bool.http_keep_alive),
+                resources.getBoolean(R.bool.http_gzip)));
+        mCircuitBreaker = new CircuitBreaker(
+                resources.getInteger(R.integer.sync_breaker_failure_threshold),
+                resources.getInteger(R.integer.sync_breaker_open_millis),
+                resources.getInteger(R.integer.sync_breaker_max_open_millis));
+        mRetryConfig = new ResilientFetcher.RetryConfig(
+                resources.getInteger(R.integer.sync_retry_max_attempts),
+                resources.getInteger(R.integer.sync_retry_base_delay_millis),
+                resources.getInteger(R.integer.sync_retry_max_delay_millis));
+        mPipeline = new SyncPipeline(context,
+                resources.getInteger(R.integer.sync_fan_out_queue_capacity),
+                new SyncPipeline.FanOut() {
+                    @Override
+                    public void pushToWear() {
+                        connectToWear();
+                        writeWeatherDataToWear();
+                    }
+
+                    @Override
+                    public void refresh() {
+                        updateWidgets();
+                        updateMuzei();
+                        notifyWeather();
+                    }
+                });
     }
 
     @Override
     public void onPerformSync(Account account, Bundle extras, String authority, ContentProviderClient provider, SyncResult syncResult) {
         Log.d(LOG_TAG, "Starting sync");
-        String locationQuery = Utility.getPreferredLocation(getContext());
-
-        // These two need to be declared outside the try/catch
-        // so that they can be closed in the finally block.
-        HttpURLConnection urlConnection = null;
-        BufferedReader reader = null;
-
-        // Will contain the raw JSON response as a string.
-        String forecastJsonStr = null;
-
-        String format = "json";
-        String units = "metric";
-        int numDays = 14;
-
-        try {
-            // Construct the URL for the OpenWeatherMap query
-            // Possible parameters are avaiable at OWM's forecast API page, at
-            // http://openweathermap.org/API#forecast
-            final String FORECAST_BASE_URL =
-                    "http://api.openweathermap.org/data/2.5/forecast/daily?";
-            final String QUERY_PARAM = "q";
-            final String FORMAT_PARAM = "mode";
-            final String UNITS_PARAM = "units";
-            final String DAYS_PARAM = "cnt";
-            final String APPID_PARAM = "APPID";
-
-            Uri builtUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
-                    .appendQueryParameter(QUERY_PARAM, locationQuery)
-                    .appendQueryParameter(FORMAT_PARAM, format)
-                    .appendQueryParameter(UNITS_PARAM, units)
-                    .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
-                    .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
-                    .build();
-
-            URL url = new URL(builtUri.toString());
-
-            // Create the request to OpenWeatherMap, and open the connection
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
-
-            // Read the input stream into a String
-            InputStream inputStream = urlConnection.getInputStream();
-            StringBuffer buffer = new StringBuffer();
-            if (inputStream == null) {
-                // Nothing to do.
-                return;
-            }
-            reader = new BufferedReader(new InputStreamReader(inputStream));
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
-                // But it does make debugging a *lot* easier if you print out the completed
-                // buffer for debugging.
-                buffer.append(line + "\n");
-            }
-
-            if (buffer.length() == 0) {
-                // Stream was empty.  No point in parsing.
-                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                return;
-            }
-            forecastJsonStr = buffer.toString();
-            getWeatherDataFromJson(forecastJsonStr, locationQuery);
-        } catch (IOException e) {
-            Log.e(LOG_TAG, "Error ", e);
-            // If the code didn't successfully get the weather data, there's no point in attempting
-            // to parse it.
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
-        } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
-            }
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (final IOException e) {
-                    Log.e(LOG_TAG, "Error closing stream", e);
-                }
-            }
+        Context context = getContext();
+        // Syncs asked for through syncImmediately name their locations, periodic ones do not
+        String requested = extras.getString(EXTRA_LOCATIONS);
+        List<String> locationSettings = requested != null
+                ? Arrays.asList(requested.split("\n"))
+                : Utility.getTrackedLocations(context);
+
+        Resources resources = context.getResources();
+        LocationSyncEngine engine = new LocationSyncEngine(new LocationSyncEngine.Config(
+                resources.getInteger(R.integer.sync_max_concurrent_locations),
+                resources.getInteger(R.integer.sync_max_connections_per_host),
+                resources.getInteger(R.integer.sync_timeout_millis)));
+
+        List<LocationSyncEngine.Result> results = mPipeline.fetch(engine, locationSettings,
+                new ResilientFetcher(
+                        new ForecastFetcher(context, ForecastFetcher.FORECAST_BASE_URL, mHttpClient),
+                        mRetryConfig, mCircuitBreaker));
+        // Returns once the weather is stored, the wear push and the refresh carry on without us
+        SyncSchedulePolicy.Outcome outcome = mPipeline.persist(results,
+                Utility.getPreferredLocation(context), syncResult);
+        SyncRequestCoordinator syncRequests = getSyncRequests(context);
+        syncRequests.onSyncFinished(results, SystemClock.elapsedRealtime());
+        Log.d(LOG_TAG, "Sync requests: " + syncRequests);
+        SyncScheduler.getInstance(context).onSyncFinished(context, outcome);
+
+        long openMillis = mCircuitBreaker.getRemainingOpenMillis(SystemClock.elapsedRealtime());
+        if (openMillis > 0) {
+            // No point in the sync manager trying again before the breaker lets a request out
+            syncResult.delayUntil = (System.currentTimeMillis() + openMillis) / 1000;
+            Log.d(LOG_TAG, "Server failing, syncs delayed " + openMillis / 1000 + " s: "
+                    + mCircuitBreaker);
         }
-        return;
+        Log.d(LOG_TAG, mPipeline.describeMetrics());
     }
 
-    /**
-     * Take the String representing the complete forecast in JSON Format and
-     * pull out the data we need to construct the Strings needed for the wireframes.
-     *
-     * Fortunately parsing is easy:  constructor takes the JSON string and converts it
-     * into an Object hierarchy for us.
-     */
-    private void getWeatherDataFromJson(String forecastJsonStr,
-                                        String locationSetting)
-            throws JSONException {
-
-        // Now we have a String representing the complete forecast in JSON Format.
-        // Fortunately parsing is easy:  constructor takes the JSON string and converts it
-        // into an Object hierarchy for us.
-
-        // These are the names of the JSON objects that need to be extracted.
-
-        // Location information
-        final String OWM_CITY = "city";
-        final String OWM_CITY_NAME = "name";
-        final String OWM_COORD = "coord";
-
-        // Location coordinate
-        final String OWM_LATITUDE = "lat";
-        final String OWM_LONGITUDE = "lon";
-
-        // Weather information.  Each day's forecast info is an element of the "list" array.
-        final String OWM_LIST = "list";
-
-        final String OWM_PRESSURE = "pressure";
-        final String OWM_HUMIDITY = "humidity";
-        final String OWM_WINDSPEED = "speed";
-        final String OWM_WIND_DIRECTION = "deg";
-
-        // All temperatures are children of the "temp" object.
-        final String OWM_TEMPERATURE = "temp";
-        final String OWM_MAX = "max";
-        final String OWM_MIN = "min";
-
-        final String OWM_WEATHER = "weather";
-        final String OWM_DESCRIPTION = "main";
-        final String OWM_WEATHER_ID = "id";
-
-        final String OWM_MESSAGE_CODE = "cod";
-
-        try {
-            JSONObject forecastJson = new JSONObject(forecastJsonStr);
-
-            // do we have an error?
-            if ( forecastJson.has(OWM_MESSAGE_CODE) ) {
-                int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
-
-                switch (errorCode) {
-                    case HttpURLConnection.HTTP_OK:
-                        break;
-                    case HttpURLConnection.HTTP_NOT_FOUND:
-                        setLocationStatus(getContext(), LOCATION_STATUS_INVALID);
-                        return;
-                    default:
-                        setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                        return;
-                }
-            }
-
-            JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
-
-            JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
-            String cityName = cityJson.getString(OWM_CITY_NAME);
-
-            JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
-            double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
-            double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
-
-            long locationId = addLocation(locationSetting, cityName, cityLatitude, cityLongitude);
-
-            // Insert the new weather information into the database
-            Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
-
-            // OWM returns daily forecasts based upon the local time of the city that is being
-            // asked for, which means that we need to know the GMT offset to translate this data
-            // properly.
-
-            // Since this data is also sent in-order and the first day is always the
-            // current day, we're going to take advantage of that to get a nice
-            // normalized UTC date for all of our weather.
-
-            Time dayTime = new Time();
-            dayTime.setToNow();
-
-            // we start at the day returned by local time. Otherwise this is a mess.
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
-
-            // now we work exclusively in UTC
-            dayTime = new Time();
-
-            for(int i = 0; i < weatherArray.length(); i++) {
-                // These are the values that will be collected.
-                long dateTime;
-                double pressure;
-                int humidity;
-                double windSpeed;
-                double windDirection;
-
-                double high;
-                double low;
-
-                String description;
-                int weatherId;
-
-                // Get the JSON object representing the day
-                JSONObject dayForecast = weatherArray.getJSONObject(i);
-
-                // Cheating to convert this to UTC time, which is what we want anyhow
-                dateTime = dayTime.setJulianDay(julianStartDay+i);
-
-                pressure = dayForecast.getDouble(OWM_PRESSURE);
-                humidity = dayForecast.getInt(OWM_HUMIDITY);
-                windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
-                windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
-
-                // Description is in a child array called "weather", which is 1 element long.
-                // That element also contains a weather code.
-                JSONObject weatherObject =
-                        dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
-                description = weatherObject.getString(OWM_DESCRIPTION);
-                weatherId = weatherObject.getInt(OWM_WEATHER_ID);
-
-                // Temperatures are in a child object called "temp".  Try not to name variables
-                // "temp" when working with temperature.  It confuses everybody.
-                JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
-                high = temperatureObject.getDouble(OWM_MAX);
-                low = temperatureObject.getDouble(OWM_MIN);
-
-                if (i == WEATHER_TODAY_INDEX) {
-                    if (mGoogleApiClient == null) {
-                        mGoogleApiClient = new GoogleApiClient.Builder(getContext())
-                                .addConnectionCallbacks(this)
-                                .addOnConnectionFailedListener(this)
-                                .addApi(Wearable.API)
-                                .build();
-                    }
-
-                    if (!mGoogleApiClient.isConnected()){
-                        mGoogleApiClient.connect();
-                    }
-
-                    Utility.saveTodayWeatherData(getContext(), weatherId + "", high + "", low + "");
-                    writeWeatherDataToWear();
-                }
-
-                ContentValues weatherValues = new ContentValues();
-
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
-
-                cVVector.add(weatherValues);
-            }
-
-            int inserted = 0;
-            // add to database
-            if ( cVVector.size() > 0 ) {
-                ContentValues[] cvArray = new ContentValues[cVVector.size()];
-                cVVector.toArray(cvArray);
-                getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
-
-                // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[] {Long.toString(dayTime.setJulianDay(julianStartDay-1))});
-
-                updateWidgets();
-                updateMuzei();
-                notifyWeather();
-            }
-            Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
-            setLocationStatus(getContext(), LOCATION_STATUS_OK);
+    private void connectToWear() {
+        if (mGoogleApiClient == null) {
+            mGoogleApiClient = new GoogleApiClient.Builder(getContext())
+                    .addConnectionCallbacks(this)
+                    .addOnConnectionFailedListener(this)
+                    .addApi(Wearable.API)
+                    .build();
+        }
 
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+        if (!mGoogleApiClient.isConnected()){
+            mGoogleApiClient.connect();
         }
     }
 
@@ -429,16 +212,17 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
                 // Last sync was more than 1 day ago, let's send a notification with the weather.
                 String locationQuery = Utility.getPreferredLocation(context);
 
-                Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
+                long now = System.currentTimeMillis();
 
-                // we'll query our contentProvider, as always
-                Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
+                // we'll ask our contentProvider for today's weather, in one call
+                WeatherColumnBatch today = WeatherColumnBatch.queryForecast(
+                        context.getContentResolver(), locationQuery, now, 1);
 
-                if (cursor.moveToFirst()) {
-                    int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-                    double high = cursor.getDouble(INDEX_MAX_TEMP);
-                    double low = cursor.getDouble(INDEX_MIN_TEMP);
-                    String desc = cursor.getString(INDEX_SHORT_DESC);
+                if (today.size() > 0 && today.getDate(0) == WeatherContract.normalizeDate(now)) {
+                    int weatherId = today.getWeatherId(0);
+                    double high = today.getMaxTemp(0);
+                    double low = today.getMinTemp(0);
+                    String desc = today.getShortDesc(0);
 
                     int iconId = SunshineUtility.getIconResourceForWeatherCondition(weatherId);
                     Resources resources = context.getResources();
@@ -514,61 +298,10 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
                     editor.putLong(lastNotificationKey, System.currentTimeMillis());
                     editor.commit();
                 }
-                cursor.close();
             }
         }
     }
 
-    /**
-     * Helper method to handle insertion of a new location in the weather database.
-     *
-     * @param locationSetting The location string used to request updates from the server.
-     * @param cityName A human-readable city name, e.g "Mountain View"
-     * @param lat the latitude of the city
-     * @param lon the longitude of the city
-     * @return the row ID of the added location.
-     */
-    long addLocation(String locationSetting, String cityName, double lat, double lon) {
-        long locationId;
-
-        // First, check if the location with this city name exists in the db
-        Cursor locationCursor = getContext().getContentResolver().query(
-                WeatherContract.LocationEntry.CONTENT_URI,
-                new String[]{WeatherContract.LocationEntry._ID},
-                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
-                new String[]{locationSetting},
-                null);
-
-        if (locationCursor.moveToFirst()) {
-            int locationIdIndex = locationCursor.getColumnIndex(WeatherContract.LocationEntry._ID);
-            locationId = locationCursor.getLong(locationIdIndex);
-        } else {
-            // Now that the content provider is set up, inserting rows of data is pretty simple.
-            // First create a ContentValues object to hold the data you want to insert.
-            ContentValues locationValues = new ContentValues();
-
-            // Then add the data, along with the corresponding name of the data type,
-            // so the content provider knows what kind of value is being inserted.
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
-
-            // Finally, insert location data into the database.
-            Uri insertedUri = getContext().getContentResolver().insert(
-                    WeatherContract.LocationEntry.CONTENT_URI,
-                    locationValues
-            );
-
-            // The resulting URI contains the ID for the row.  Extract the locationId from the Uri.
-            locationId = ContentUris.parseId(insertedUri);
-        }
-
-        locationCursor.close();
-        // Wait, that worked?  Yes!
-        return locationId;
-    }
-
     /**
      * Helper method to schedule the sync adapter periodic execution
      */
@@ -589,15 +322,59 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
     }
 
     /**
-     * Helper method to have the sync adapter sync immediately
+     * Helper method to have the sync adapter sync the preferred location immediately, unless
+     * it was synced moments ago or a sync of it is already on its way
      * @param context The context used to access the account service
      */
     public static void syncImmediately(Context context) {
-        Bundle bundle = new Bundle();
-        bundle.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
-        bundle.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
-        ContentResolver.requestSync(getSyncAccount(context),
-                context.getString(R.string.content_authority), bundle);
+        syncImmediately(context, Utility.getPreferredLocation(context), false);
+    }
+
+    /**
+     * Helper method to have the sync adapter sync a location immediately.  Requests made close
+     * together are served by a single sync.
+     * @param context The context used to access the account service
+     * @param locationSetting the location to sync
+     * @param force whether to sync even if the location was synced moments ago
+     */
+    public static void syncImmediately(Context context, String locationSetting, boolean force) {
+        getSyncRequests(context).request(locationSetting, SystemClock.elapsedRealtime(), force);
+    }
+
+    /**
+     * @return the coordinator of the syncs asked for through syncImmediately.
+     */
+    public static synchronized SyncRequestCoordinator getSyncRequests(Context context) {
+        if (sSyncRequests == null) {
+            final Context appContext = context.getApplicationContext();
+            final Handler handler = new Handler(Looper.getMainLooper());
+            Resources resources = appContext.getResources();
+            sSyncRequests = new SyncRequestCoordinator(new SyncRequestCoordinator.Dispatcher() {
+                @Override
+                public void schedule(Runnable task, long delayMillis) {
+                    handler.postDelayed(task, delayMillis);
+                }
+
+                @Override
+                public void requestSync(List<String> locationSettings) {
+                    Bundle bundle = new Bundle();
+                    bundle.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
+                    bundle.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
+                    // Sync extras can't hold arrays
+                    bundle.putString(EXTRA_LOCATIONS, TextUtils.join("\n", locationSettings));
+                    ContentResolver.requestSync(getSyncAccount(appContext),
+                            appContext.getString(R.string.content_authority), bundle);
+                }
+
+                @Override
+                public long now() {
+                    return SystemClock.elapsedRealtime();
+                }
+            }, resources.getInteger(R.integer.sync_coalesce_window_millis),
+                    resources.getInteger(R.integer.sync_fresh_millis),
+                    resources.getInteger(R.integer.sync_in_flight_timeout_millis));
+        }
+        return sSyncRequests;
     }
 
     /**
@@ -660,25 +437,11 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
         getSyncAccount(context);
     }
 
-    /**
-     * Sets the location status into shared preference.  This function should not be called from
-     * the UI thread because it uses commit to write to the shared preferences.
-     * @param c Context to get the PreferenceManager from.
-     * @param locationStatus The IntDef value to set
-     */
-    static private void setLocationStatus(Context c, @LocationStatus int locationStatus){
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
-        SharedPreferences.Editor spe = sp.edit();
-        spe.putInt(c.getString(R.string.pref_location_status_key), locationStatus);
-        spe.commit();
-    }
-
-
     @Override
     public void onConnected(@Nullable Bundle bundle) {
         Log.d(LOG_TAG, "onConnected!");
+        // The push that connected sends the forecast itself
         Wearable.DataApi.addListener(mGoogleApiClient, this);
-        respondWeatherDataToWear();
     }
 
     @Override
@@ -706,13 +469,8 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
     }
 
     private void respondWeatherDataToWear(){
-        new AsyncTask<Void, Void, Void>(){
-            @Override
-            protected Void doInBackground(Void... params) {
-                writeWeatherDataToWear();
-                return null;
-            }
-        };
+        // The watch asked, it has nothing to show; the wear stage sends what is stored
+        mPipeline.requestWearPush();
     }
 
     private void writeWeatherDataToWear(){
@@ -720,17 +478,48 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
         ConnectionResult connectionResult = mGoogleApiClient.blockingConnect(30, TimeUnit.SECONDS);
         if (connectionResult.isSuccess()) {
             PutDataMapRequest putDataMapRequest = PutDataMapRequest.create(SunshineConstants.WEATHER_DATA_PATH);
-
-            DataMap dataMap = putDataMapRequest.getDataMap();
-            dataMap.putString(SunshineConstants.KEY_WEATHER_ID, SunshineUtility.getWeatherId(getContext()));
-            dataMap.putString(SunshineConstants.KEY_HIGH_TEMP, SunshineUtility.getHighTemp(getContext()));
-            dataMap.putString(SunshineConstants.KEY_LOW_TEMP, SunshineUtility.getLowTemp(getContext()));
+            if (!putForecast(putDataMapRequest.getDataMap())) {
+                Log.d(LOG_TAG, "writeWeatherDataToWear : No forecast stored yet!");
+                return;
+            }
 
             PutDataRequest putDataRequest = putDataMapRequest.asPutDataRequest();
             Wearable.DataApi.putDataItem(mGoogleApiClient, putDataRequest);
 
-            Log.d(LOG_TAG, "writeWeatherDataToWear : Weather Data sent Successfully!");
+            Log.d(LOG_TAG, "writeWeatherDataToWear : Weather Data sent Successfully in "
+                    + putDataRequest.getData().length + " bytes!");
             SunshineUtility.setWearConnReq(getContext(), false);
         }
     }
+
+    /**
+     * Puts the forecast of every day stored for the preferred location, from today on, into the
+     * map sent to the watch, which shows each day's weather when it comes.
+     *
+     * @return false if nothing is stored for the location.
+     */
+    private boolean putForecast(DataMap dataMap) {
+        Context context = getContext();
+        WeatherColumnBatch forecast = WeatherColumnBatch.queryForecast(
+                context.getContentResolver(), Utility.getPreferredLocation(context),
+                System.currentTimeMillis(), Integer.MAX_VALUE);
+        int days = forecast.size();
+        if (days == 0) {
+            return false;
+        }
+        int[] epochDays = new int[days];
+        int[] weatherIds = new int[days];
+        float[] highs = new float[days];
+        float[] lows = new float[days];
+        for (int i = 0; i < days; i++) {
+            // Dates are stored as the start of the day in UTC
+            epochDays[i] = (int) (forecast.getDate(i) / DAY_IN_MILLIS);
+            weatherIds[i] = forecast.getWeatherId(i);
+            highs[i] = (float) forecast.getMaxTemp(i);
+            lows[i] = (float) forecast.getMinTemp(i);
+        }
+        dataMap.putByteArray(SunshineConstants.KEY_FORECAST,
+                ForecastCodec.encode(epochDays, weatherIds, highs, lows, days));
+        return true;
+    }
 }
\ No newline at end of file
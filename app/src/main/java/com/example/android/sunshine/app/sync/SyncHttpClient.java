@@ -0,0 +1,261 @@
+package com.example.android.sunshine.app.sync;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.URL;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Makes the HTTP requests of a sync so that their connections can be reused.
+ *
+ * HttpURLConnection keeps idle connections in a pool shared by the whole process, but only
+ * takes a connection back once its response has been read to the end and closed, and never
+ * after {@link HttpURLConnection#disconnect()}.  Every {@link Call} is closed that way, unless
+ * keep-alive is turned off.  Calls also ask for gzip, decompress the body as it is read, and
+ * time each phase of the request.
+ */
+public class SyncHttpClient {
+
+    /**
+     * Settings applied to every request.
+     */
+    public static class Config {
+        final int connectTimeoutMillis;
+        final int readTimeoutMillis;
+        final boolean keepAlive;
+        final boolean gzip;
+
+        /**
+         * @param connectTimeoutMillis time allowed to open a connection.
+         * @param readTimeoutMillis time allowed between two reads of the response.
+         * @param keepAlive whether connections are handed back to the pool for reuse.
+         * @param gzip whether to ask for compressed responses.
+         */
+        public Config(int connectTimeoutMillis, int readTimeoutMillis, boolean keepAlive,
+                      boolean gzip) {
+            if (connectTimeoutMillis < 1 || readTimeoutMillis < 1) {
+                throw new IllegalArgumentException("HTTP timeouts must be positive");
+            }
+            this.connectTimeoutMillis = connectTimeoutMillis;
+            this.readTimeoutMillis = readTimeoutMillis;
+            this.keepAlive = keepAlive;
+            this.gzip = gzip;
+        }
+    }
+
+    /**
+     * How long each phase of a request took, in microseconds.
+     */
+    public static class Timing {
+        // Resolving the host, which is all but free when the address is cached
+        long mDnsMicros;
+        // Opening the connection, or taking one from the pool
+        long mConnectMicros;
+        // From sending the request to receiving the status line and headers
+        long mFirstByteMicros;
+        // Reading the body, including whatever the reader did with it on the way
+        long mBodyMicros;
+        // Bytes received on the wire, and after decompression
+        long mWireBytes;
+        long mBodyBytes;
+
+        public long getTotalMicros() {
+            return mDnsMicros + mConnectMicros + mFirstByteMicros + mBodyMicros;
+        }
+
+        @Override
+        public String toString() {
+            return "dns " + mDnsMicros + " us, connect " + mConnectMicros + " us, first byte "
+                    + mFirstByteMicros + " us, body " + mBodyMicros + " us, " + mWireBytes
+                    + " bytes received, " + mBodyBytes + " decoded";
+        }
+    }
+
+    private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    private static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+    private static final String HEADER_CONNECTION = "Connection";
+    private static final String GZIP = "gzip";
+
+    private final Config mConfig;
+
+    public SyncHttpClient(Config config) {
+        mConfig = config;
+    }
+
+    /**
+     * Prepares a GET request.  Headers may be added to {@link Call#getConnection()} until the
+     * call is executed.
+     */
+    public Call newCall(String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setRequestMethod("GET");
+        connection.setConnectTimeout(mConfig.connectTimeoutMillis);
+        connection.setReadTimeout(mConfig.readTimeoutMillis);
+        if (mConfig.gzip) {
+            // Setting it ourselves turns off the platform's transparent decompression, so the
+            // compressed bytes can be counted
+            connection.setRequestProperty(HEADER_ACCEPT_ENCODING, GZIP);
+        } else {
+            connection.setRequestProperty(HEADER_ACCEPT_ENCODING, "identity");
+        }
+        if (!mConfig.keepAlive) {
+            connection.setRequestProperty(HEADER_CONNECTION, "close");
+        }
+        return new Call(connection);
+    }
+
+    /**
+     * One request and its response.  Must be closed, which is what returns the connection to
+     * the pool.
+     */
+    public class Call {
+        private final HttpURLConnection mConnection;
+        private final Timing mTiming = new Timing();
+        private InputStream mRawBody;
+        private InputStream mDecodedBody;
+        private InputStream mBody;
+        private long mBodyStart;
+        private boolean mClosed;
+
+        Call(HttpURLConnection connection) {
+            mConnection = connection;
+        }
+
+        public HttpURLConnection getConnection() {
+            return mConnection;
+        }
+
+        public Timing getTiming() {
+            return mTiming;
+        }
+
+        /**
+         * Sends the request and waits for the status line and headers.
+         *
+         * @return the response code.
+         */
+        public int execute() throws IOException {
+            long start = System.nanoTime();
+            // Resolving first splits name lookup from connecting; the connection then finds
+            // the address in the platform's cache
+            InetAddress.getByName(mConnection.getURL().getHost());
+            long resolved = System.nanoTime();
+            mTiming.mDnsMicros = (resolved - start) / 1000;
+
+            mConnection.connect();
+            long connected = System.nanoTime();
+            mTiming.mConnectMicros = (connected - resolved) / 1000;
+
+            int responseCode = mConnection.getResponseCode();
+            mBodyStart = System.nanoTime();
+            mTiming.mFirstByteMicros = (mBodyStart - connected) / 1000;
+            return responseCode;
+        }
+
+        /**
+         * @return the response body, decompressed if the server compressed it, or null if the
+         * response has none.
+         */
+        public InputStream getBody() throws IOException {
+            if (mBody != null) {
+                return mBody;
+            }
+            InputStream raw;
+            if (mConnection.getResponseCode() >= HttpURLConnection.HTTP_BAD_REQUEST) {
+                raw = mConnection.getErrorStream();
+            } else {
+                raw = mConnection.getInputStream();
+            }
+            if (raw == null) {
+                return null;
+            }
+            mRawBody = new CountingInputStream(raw) {
+                @Override
+                void onRead(int count) {
+                    mTiming.mWireBytes += count;
+                }
+            };
+            mDecodedBody = GZIP.equalsIgnoreCase(
+                    mConnection.getHeaderField(HEADER_CONTENT_ENCODING))
+                    ? new GZIPInputStream(mRawBody) : mRawBody;
+            mBody = new CountingInputStream(mDecodedBody) {
+                @Override
+                void onRead(int count) {
+                    mTiming.mBodyBytes += count;
+                }
+
+                @Override
+                public void close() throws IOException {
+                    Call.this.close();
+                }
+            };
+            return mBody;
+        }
+
+        /**
+         * Reads whatever is left of the body, so that the connection can be reused, and
+         * releases it.
+         */
+        public void close() throws IOException {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            try {
+                // Only a call that got its response has a connection worth keeping
+                if (mConfig.keepAlive && mBodyStart != 0) {
+                    if (mRawBody == null) {
+                        getBody();
+                    }
+                    if (mRawBody != null) {
+                        // Drain the wire stream, gzip stops reading at its trailer
+                        byte[] buffer = new byte[1024];
+                        while (mRawBody.read(buffer) != -1) {
+                            // discard
+                        }
+                    }
+                }
+                if (mBodyStart != 0) {
+                    mTiming.mBodyMicros = (System.nanoTime() - mBodyStart) / 1000;
+                }
+            } finally {
+                if (mDecodedBody != null) {
+                    // Closes the wire stream too, and frees the inflater
+                    mDecodedBody.close();
+                }
+                if (!mConfig.keepAlive) {
+                    mConnection.disconnect();
+                }
+            }
+        }
+    }
+
+    private abstract static class CountingInputStream extends FilterInputStream {
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        abstract void onRead(int count);
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                onRead(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read > 0) {
+                onRead(read);
+            }
+            return read;
+        }
+    }
+}
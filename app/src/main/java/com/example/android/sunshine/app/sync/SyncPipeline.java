@@ -0,0 +1,363 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.SyncResult;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.LocationBatch;
+import com.example.android.sunshine.app.data.WeatherArchive;
+import com.example.android.sunshine.app.data.WeatherColumnBatch;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a sync as a series of stages: fetch, parse, persist and fan-out.
+ *
+ * Fetch and parse run on the bounded pool of {@link LocationSyncEngine}.  The parser reads
+ * straight off the connection, so the two share a thread, but they are timed apart.  Persist
+ * runs on the calling thread, the sync adapter's, since the SyncResult reports on what it
+ * stored.  Fan-out is split in two stages, the wear push and the refresh of widgets, Muzei and
+ * the notification, each with a thread and a bounded queue of its own: once the weather is
+ * stored the sync is over, however long a watch takes to connect or an icon to download.
+ */
+class SyncPipeline {
+    private static final String LOG_TAG = SyncPipeline.class.getSimpleName();
+
+    static final int STAGE_FETCH = 0;
+    static final int STAGE_PARSE = 1;
+    static final int STAGE_PERSIST = 2;
+    static final int STAGE_WEAR = 3;
+    static final int STAGE_REFRESH = 4;
+
+    private static final String[] STAGE_NAMES = {"fetch", "parse", "persist", "wear", "refresh"};
+
+    // Days of the preferred forecast checked for storms when scheduling the next sync
+    private static final int SEVERE_WEATHER_DAYS = 2;
+
+    // Idle fan-out threads go away after this long, the next sync starts them again
+    private static final long FAN_OUT_KEEP_ALIVE_SECONDS = 30;
+
+    /**
+     * The work done once a sync has stored something new for the preferred location.  Each
+     * method runs on its own fan-out thread, and must read what it shows from the database or
+     * the preferences when it runs: a waiting call may be dropped in favour of a later one.
+     */
+    interface FanOut {
+        /**
+         * Sends the forecast of the preferred location to the wearable.
+         */
+        void pushToWear();
+
+        /**
+         * Updates the widgets, Muzei and the weather notification.
+         */
+        void refresh();
+    }
+
+    /**
+     * Latency of one stage, in milliseconds.
+     */
+    static class StageMetrics {
+        private long mRuns;
+        private long mTotalMillis;
+        private long mMaxMillis;
+        private long mDropped;
+
+        synchronized void record(long millis) {
+            mRuns++;
+            mTotalMillis += millis;
+            mMaxMillis = Math.max(mMaxMillis, millis);
+        }
+
+        synchronized void drop() {
+            mDropped++;
+        }
+
+        synchronized long getRuns() {
+            return mRuns;
+        }
+
+        synchronized long getAverageMillis() {
+            return mRuns == 0 ? 0 : mTotalMillis / mRuns;
+        }
+
+        synchronized long getMaxMillis() {
+            return mMaxMillis;
+        }
+
+        /**
+         * @return the number of fan-outs dropped because a later one replaced them in the queue.
+         */
+        synchronized long getDropped() {
+            return mDropped;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return mRuns + " runs, avg " + getAverageMillis() + " ms, max " + mMaxMillis + " ms"
+                    + (mDropped > 0 ? ", " + mDropped + " dropped" : "");
+        }
+    }
+
+    private final Context mContext;
+    private final FanOut mFanOut;
+    private final StageMetrics[] mMetrics = new StageMetrics[STAGE_NAMES.length];
+    private final ThreadPoolExecutor mWearExecutor;
+    private final ThreadPoolExecutor mRefreshExecutor;
+
+    /**
+     * @param fanOutQueueCapacity number of fan-outs of each kind left waiting behind a running
+     *                            one before the oldest is dropped.
+     */
+    SyncPipeline(Context context, int fanOutQueueCapacity, FanOut fanOut) {
+        if (fanOutQueueCapacity < 1) {
+            throw new IllegalArgumentException("Fan-out queue capacity must be positive");
+        }
+        mContext = context.getApplicationContext();
+        mFanOut = fanOut;
+        for (int stage = 0; stage < mMetrics.length; stage++) {
+            mMetrics[stage] = new StageMetrics();
+        }
+        mWearExecutor = createFanOutExecutor(STAGE_WEAR, fanOutQueueCapacity);
+        mRefreshExecutor = createFanOutExecutor(STAGE_REFRESH, fanOutQueueCapacity);
+    }
+
+    StageMetrics getMetrics(int stage) {
+        return mMetrics[stage];
+    }
+
+    /**
+     * Fetches and parses the forecasts of every location.
+     *
+     * @return one result per location, in the order the locations were given.
+     */
+    List<LocationSyncEngine.Result> fetch(LocationSyncEngine engine,
+                                          List<String> locationSettings,
+                                          LocationSyncEngine.Fetcher fetcher) {
+        List<LocationSyncEngine.Result> results = engine.syncAll(locationSettings, fetcher);
+        for (LocationSyncEngine.Result result : results) {
+            if (result.mParseMillis >= 0) {
+                mMetrics[STAGE_FETCH].record(result.mElapsedMillis - result.mParseMillis);
+                mMetrics[STAGE_PARSE].record(result.mParseMillis);
+            } else {
+                mMetrics[STAGE_FETCH].record(result.mElapsedMillis);
+            }
+            if (result.mTiming != null) {
+                Log.v(LOG_TAG, result.mLocationSetting + ": " + result.mTiming);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Writes the days that changed in the forecasts fetched for every location into the
+     * database in a single transaction and records each location's status.  If the preferred
+     * location changed, the fan-out is queued and this returns without waiting for it.
+     *
+     * @return what the sync brought back, for scheduling the next one.
+     */
+    SyncSchedulePolicy.Outcome persist(List<LocationSyncEngine.Result> results, String preferredLocation,
+                 SyncResult syncResult) {
+        long start = System.nanoTime();
+        WeatherColumnBatch weather = new WeatherColumnBatch(results.size() * 14);
+        ForecastCollector preferredForecast = null;
+        long preferredLocationId = -1;
+        ForecastCollector anyForecast = null;
+
+        // Every location is resolved to its row at once, the provider knows most of them already
+        LocationBatch locations = new LocationBatch(results.size());
+        for (LocationSyncEngine.Result result : results) {
+            ForecastCollector forecast = result.mForecast;
+            if (forecast != null) {
+                locations.add(result.mLocationSetting, forecast.mCityName,
+                        forecast.mCityLatitude, forecast.mCityLongitude);
+            }
+        }
+        long[] locationIds = locations.upsert(mContext.getContentResolver());
+
+        int location = 0;
+        for (LocationSyncEngine.Result result : results) {
+            ForecastCollector forecast = result.mForecast;
+            if (forecast == null) {
+                continue;
+            }
+            long locationId = locationIds[location++];
+            weather.addAll(forecast.mWeather, locationId);
+            if (result.mLocationSetting.equals(preferredLocation)) {
+                preferredForecast = forecast;
+                preferredLocationId = locationId;
+            }
+            anyForecast = forecast;
+        }
+
+        // Most syncs bring back the forecast that is already stored, skip the days that match
+        WeatherColumnBatch changed = ForecastDiff.findChangedRows(mContext.getContentResolver(),
+                weather);
+        boolean preferredChanged = false;
+        if (preferredForecast != null) {
+            for (int i = 0; i < changed.size() && !preferredChanged; i++) {
+                preferredChanged = changed.getLocationId(i) == preferredLocationId;
+            }
+            // A location just picked in settings has nothing on screen yet, even if the
+            // database already holds its forecast from being tracked
+            if (Utility.getLocationStatus(mContext, preferredLocation)
+                    != SunshineSyncAdapter.LOCATION_STATUS_OK) {
+                preferredChanged = true;
+            }
+        }
+
+        // add to database
+        int inserted = 0;
+        if ( changed.size() > 0 ) {
+            // the rows of every location go in one transaction
+            inserted = changed.insert(mContext.getContentResolver());
+        }
+        if ( anyForecast != null ) {
+            // move past days into the archive, which compacts them as they age
+            WeatherArchive.archive(mContext.getContentResolver(), anyForecast.getDateForDay(-1));
+        }
+        syncResult.stats.numInserts += inserted;
+        syncResult.stats.numSkippedEntries += weather.size() - changed.size();
+
+        // Only remember the validators once the forecasts they describe are safely stored
+        ForecastValidatorCache validatorCache = ForecastValidatorCache.getInstance(mContext);
+        SharedPreferences.Editor spe = PreferenceManager.getDefaultSharedPreferences(mContext).edit();
+        for (LocationSyncEngine.Result result : results) {
+            if (result.mForecast != null) {
+                validatorCache.storeValidators(result.mUrl, result.mEtag, result.mLastModified,
+                        result.mContentLength);
+            }
+            spe.putInt(Utility.getLocationStatusKey(mContext, result.mLocationSetting), result.mStatus);
+            // Failures tell the sync manager to back off before the next attempt
+            if (result.mStatus == SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN) {
+                syncResult.stats.numIoExceptions++;
+            } else if (result.mStatus == SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID) {
+                syncResult.stats.numParseExceptions++;
+            }
+            Log.d(LOG_TAG, "Synced " + result.mLocationSetting + " with status " + result.mStatus
+                    + (result.mNotModified ? " (not modified)" : "")
+                    + (result.mShortCircuited ? " (not requested)" : "")
+                    + " in " + result.mElapsedMillis + " ms, " + result.mAttempts + " attempts");
+        }
+        // commit, as the UI listens for these keys to change
+        spe.commit();
+        mMetrics[STAGE_PERSIST].record((System.nanoTime() - start) / 1000000);
+        Log.d(LOG_TAG, "Sync Complete. " + inserted + " of " + weather.size()
+                + " rows received written");
+
+        if (preferredChanged) {
+            // The watch keeps every day, and reads them from the database when the push runs
+            requestWearPush();
+            submit(mRefreshExecutor, STAGE_REFRESH, new Runnable() {
+                @Override
+                public void run() {
+                    mFanOut.refresh();
+                }
+            });
+        }
+        return new SyncSchedulePolicy.Outcome(weather.size(), changed.size(),
+                isSevereWeatherSoon(preferredForecast));
+    }
+
+    /**
+     * @return true if storms are forecast for today or tomorrow.
+     */
+    private static boolean isSevereWeatherSoon(ForecastCollector forecast) {
+        if (forecast == null) {
+            return false;
+        }
+        for (int i = 0; i < forecast.mWeather.size() && i < SEVERE_WEATHER_DAYS; i++) {
+            if (SyncSchedulePolicy.isSevere(forecast.mWeather.getWeatherId(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Queues a push of the stored forecast to the wearable, as a sync does when the preferred
+     * location changed.
+     */
+    void requestWearPush() {
+        submit(mWearExecutor, STAGE_WEAR, new Runnable() {
+            @Override
+            public void run() {
+                mFanOut.pushToWear();
+            }
+        });
+    }
+
+    /**
+     * Stops the fan-out threads, abandoning whatever they have not done yet.
+     */
+    void shutdown() {
+        mWearExecutor.shutdownNow();
+        mRefreshExecutor.shutdownNow();
+    }
+
+    /**
+     * @return the latency of every stage, for the log.
+     */
+    String describeMetrics() {
+        StringBuilder description = new StringBuilder("Sync stages:");
+        for (int stage = 0; stage < mMetrics.length; stage++) {
+            description.append(' ').append(STAGE_NAMES[stage]).append(" [")
+                    .append(mMetrics[stage]).append(']');
+        }
+        return description.toString();
+    }
+
+    private void submit(ThreadPoolExecutor executor, final int stage, final Runnable task) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, "Error in the " + STAGE_NAMES[stage] + " stage", e);
+                } finally {
+                    mMetrics[stage].record((System.nanoTime() - start) / 1000000);
+                }
+            }
+        });
+    }
+
+    private ThreadPoolExecutor createFanOutExecutor(final int stage, int queueCapacity) {
+        final StageMetrics metrics = mMetrics[stage];
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1,
+                FAN_OUT_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "SyncFanOut-" + STAGE_NAMES[stage]);
+                        thread.setPriority(Thread.NORM_PRIORITY - 1);
+                        return thread;
+                    }
+                },
+                new RejectedExecutionHandler() {
+                    @Override
+                    public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+                        metrics.drop();
+                        if (!executor.isShutdown()) {
+                            // Fan-outs read the latest stored weather when they run, so the
+                            // oldest waiting one has nothing to show that the new one lacks
+                            executor.getQueue().poll();
+                            executor.execute(runnable);
+                        }
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
@@ -0,0 +1,186 @@
+package com.example.android.sunshine.app.sync;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Turns the requests for an immediate sync, which come in bursts from settings and location
+ * changes, into as few syncs as will serve them.
+ *
+ * A location is skipped when a sync that covers it is already under way, or when it was
+ * synced successfully within the freshness window.  The locations left are collected for the
+ * coalescing window after the first of them, then handed to a single sync.  Times are on one
+ * monotonic clock, such as {@link android.os.SystemClock#elapsedRealtime()}.
+ */
+public class SyncRequestCoordinator {
+
+    /**
+     * Where the coordinator's syncs go.
+     */
+    public interface Dispatcher {
+        /**
+         * Runs the task after the delay, on a thread of the dispatcher's choosing.
+         */
+        void schedule(Runnable task, long delayMillis);
+
+        /**
+         * Starts a sync of the locations.
+         */
+        void requestSync(List<String> locationSettings);
+
+        /**
+         * @return the current time, on the clock the coordinator is given times on.
+         */
+        long now();
+    }
+
+    private final Dispatcher mDispatcher;
+    private final long mCoalesceWindowMillis;
+    private final long mFreshMillis;
+    private final long mInFlightTimeoutMillis;
+
+    // Waiting for the coalescing window to close
+    private final Set<String> mPending = new LinkedHashSet<String>();
+    // Handed to a sync that has not finished them yet, with when they were handed over
+    private final Map<String, Long> mInFlight = new HashMap<String, Long>();
+    private final Map<String, Long> mLastSuccess = new HashMap<String, Long>();
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush(mDispatcher.now());
+        }
+    };
+
+    private int mRequested;
+    private int mExecuted;
+    private int mCoalesced;
+    private int mJoined;
+    private int mFresh;
+
+    /**
+     * @param coalesceWindowMillis how long requests are collected before a sync starts.
+     * @param freshMillis how long after a successful sync a location is not synced again.
+     * @param inFlightTimeoutMillis how long a location handed to a sync counts as under way,
+     *                              in case the sync never runs.
+     */
+    public SyncRequestCoordinator(Dispatcher dispatcher, long coalesceWindowMillis,
+                                  long freshMillis, long inFlightTimeoutMillis) {
+        mDispatcher = dispatcher;
+        mCoalesceWindowMillis = coalesceWindowMillis;
+        mFreshMillis = freshMillis;
+        mInFlightTimeoutMillis = inFlightTimeoutMillis;
+    }
+
+    /**
+     * Asks for the location to be synced soon.
+     *
+     * @param force sync even if the location was synced a moment ago, as when the user asks.
+     * @return true if the location will be synced, by a new sync or one already under way.
+     */
+    public synchronized boolean request(String locationSetting, long now, boolean force) {
+        mRequested++;
+        Long inFlightSince = mInFlight.get(locationSetting);
+        if (inFlightSince != null && now - inFlightSince < mInFlightTimeoutMillis) {
+            mJoined++;
+            return true;
+        }
+        Long lastSuccess = mLastSuccess.get(locationSetting);
+        if (!force && lastSuccess != null && now - lastSuccess < mFreshMillis) {
+            mFresh++;
+            return false;
+        }
+        if (!mPending.add(locationSetting) || mPending.size() > 1) {
+            mCoalesced++;
+            return true;
+        }
+        mDispatcher.schedule(mFlush, mCoalesceWindowMillis);
+        return true;
+    }
+
+    /**
+     * Starts the sync of the locations collected so far.  Called when the coalescing window
+     * closes.
+     *
+     * @param now when the locations are handed to the sync, which their in-flight timeout
+     *            counts from.
+     */
+    synchronized void flush(long now) {
+        if (mPending.isEmpty()) {
+            return;
+        }
+        List<String> locations = new ArrayList<String>(mPending);
+        mPending.clear();
+        for (String location : locations) {
+            mInFlight.put(location, now);
+        }
+        mExecuted++;
+        mDispatcher.requestSync(locations);
+    }
+
+    /**
+     * Called by the sync for each location it finished, whether it asked for it or not.
+     */
+    public synchronized void onLocationSynced(String locationSetting, boolean success, long now) {
+        mInFlight.remove(locationSetting);
+        if (success) {
+            mLastSuccess.put(locationSetting, now);
+        }
+    }
+
+    /**
+     * Called by the sync for every location it fetched.
+     */
+    public void onSyncFinished(Collection<LocationSyncEngine.Result> results, long now) {
+        for (LocationSyncEngine.Result result : results) {
+            onLocationSynced(result.getLocationSetting(),
+                    result.getStatus() == SunshineSyncAdapter.LOCATION_STATUS_OK, now);
+        }
+    }
+
+    /**
+     * @return the number of locations asked to be synced.
+     */
+    public synchronized int getRequestedCount() {
+        return mRequested;
+    }
+
+    /**
+     * @return the number of syncs started.
+     */
+    public synchronized int getExecutedCount() {
+        return mExecuted;
+    }
+
+    /**
+     * @return the number of requests merged into a sync that was about to start.
+     */
+    public synchronized int getCoalescedCount() {
+        return mCoalesced;
+    }
+
+    /**
+     * @return the number of requests for a location whose sync was already under way.
+     */
+    public synchronized int getJoinedCount() {
+        return mJoined;
+    }
+
+    /**
+     * @return the number of requests answered by a recent sync.
+     */
+    public synchronized int getFreshCount() {
+        return mFresh;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return mRequested + " requested, " + mExecuted + " executed, " + mCoalesced
+                + " coalesced, " + mJoined + " joined a running sync, " + mFresh
+                + " already fresh";
+    }
+}
@@ -0,0 +1,158 @@
+package com.example.android.sunshine.app.sync;
+
+/**
+ * Decides how long to wait before the next periodic sync, from what the last syncs brought
+ * back and the state of the device.
+ *
+ * The interval starts at the base interval and
+ * <ul>
+ *     <li>doubles for every sync that changed nothing, once several in a row have;</li>
+ *     <li>halves while a large share of the received rows keep changing;</li>
+ *     <li>drops to the minimum while storms (condition codes 2xx) are forecast.</li>
+ * </ul>
+ * Syncing more often than the base interval costs data and battery, so it is only done on an
+ * unmetered network or while charging, unless a storm is forecast.  Plain Java, so that the
+ * policy can be replayed against recorded forecasts off the device.
+ */
+public class SyncSchedulePolicy {
+    static final int SEVERE_WEATHER_ID_MIN = 200;
+    static final int SEVERE_WEATHER_ID_MAX = 232;
+
+    // Enough doublings to reach any sensible maximum
+    private static final int MAX_STRETCH_SHIFT = 8;
+
+    /**
+     * Limits of the schedule.
+     */
+    public static class Config {
+        final int baseIntervalSeconds;
+        final int minIntervalSeconds;
+        final int maxIntervalSeconds;
+        final int quietSyncsBeforeStretch;
+        final int volatileChangedPercent;
+
+        /**
+         * @param baseIntervalSeconds interval while the forecast changes at the usual pace.
+         * @param minIntervalSeconds shortest interval, used while storms are forecast.
+         * @param maxIntervalSeconds longest interval, however quiet the forecast.
+         * @param quietSyncsBeforeStretch syncs in a row that must change nothing before the
+         *                                interval grows.
+         * @param volatileChangedPercent share of received rows that must change for the
+         *                               forecast to count as volatile.
+         */
+        public Config(int baseIntervalSeconds, int minIntervalSeconds, int maxIntervalSeconds,
+                      int quietSyncsBeforeStretch, int volatileChangedPercent) {
+            if (minIntervalSeconds < 1 || minIntervalSeconds > baseIntervalSeconds
+                    || baseIntervalSeconds > maxIntervalSeconds) {
+                throw new IllegalArgumentException("Sync intervals must be ordered and positive");
+            }
+            if (quietSyncsBeforeStretch < 1 || volatileChangedPercent < 1
+                    || volatileChangedPercent > 100) {
+                throw new IllegalArgumentException("Sync thresholds out of range");
+            }
+            this.baseIntervalSeconds = baseIntervalSeconds;
+            this.minIntervalSeconds = minIntervalSeconds;
+            this.maxIntervalSeconds = maxIntervalSeconds;
+            this.quietSyncsBeforeStretch = quietSyncsBeforeStretch;
+            this.volatileChangedPercent = volatileChangedPercent;
+        }
+    }
+
+    /**
+     * What a sync brought back.
+     */
+    public static class Outcome {
+        final int receivedRows;
+        final int changedRows;
+        final boolean severe;
+
+        /**
+         * @param receivedRows rows fetched from the server, 0 if every location failed.
+         * @param changedRows rows that differed from what was stored.
+         * @param severe whether a storm is forecast for the preferred location.
+         */
+        public Outcome(int receivedRows, int changedRows, boolean severe) {
+            this.receivedRows = receivedRows;
+            this.changedRows = changedRows;
+            this.severe = severe;
+        }
+    }
+
+    static boolean isSevere(int weatherId) {
+        return weatherId >= SEVERE_WEATHER_ID_MIN && weatherId <= SEVERE_WEATHER_ID_MAX;
+    }
+
+    private final Config mConfig;
+    private int mQuietSyncs;
+    private int mIntervalSeconds;
+
+    public SyncSchedulePolicy(Config config) {
+        this(config, 0, config.baseIntervalSeconds);
+    }
+
+    /**
+     * Restores a policy saved with {@link #getQuietSyncs()} and {@link #getIntervalSeconds()}.
+     */
+    public SyncSchedulePolicy(Config config, int quietSyncs, int intervalSeconds) {
+        mConfig = config;
+        mQuietSyncs = Math.max(0, quietSyncs);
+        mIntervalSeconds = clamp(intervalSeconds);
+    }
+
+    /**
+     * @param unmetered whether the device is on an unmetered network.
+     * @param charging whether the device is charging.
+     * @return the interval until the next sync, in seconds.
+     */
+    public int onSyncFinished(Outcome outcome, boolean unmetered, boolean charging) {
+        if (outcome.receivedRows == 0) {
+            // Nothing was fetched, which says nothing about how the forecast changes
+            return mIntervalSeconds;
+        }
+        mQuietSyncs = outcome.changedRows == 0 ? mQuietSyncs + 1 : 0;
+
+        long interval;
+        if (outcome.severe) {
+            interval = mConfig.minIntervalSeconds;
+        } else if (outcome.changedRows * 100
+                >= outcome.receivedRows * mConfig.volatileChangedPercent) {
+            interval = mConfig.baseIntervalSeconds / 2;
+        } else if (mQuietSyncs >= mConfig.quietSyncsBeforeStretch) {
+            int shift = Math.min(mQuietSyncs - mConfig.quietSyncsBeforeStretch + 1,
+                    MAX_STRETCH_SHIFT);
+            interval = (long) mConfig.baseIntervalSeconds << shift;
+        } else {
+            interval = mConfig.baseIntervalSeconds;
+        }
+
+        if (interval < mConfig.baseIntervalSeconds && !outcome.severe && !unmetered
+                && !charging) {
+            interval = mConfig.baseIntervalSeconds;
+        }
+        mIntervalSeconds = clamp(interval);
+        return mIntervalSeconds;
+    }
+
+    public int getIntervalSeconds() {
+        return mIntervalSeconds;
+    }
+
+    /**
+     * @return how much earlier than the interval the sync may run, so the system can batch it.
+     */
+    public int getFlexSeconds() {
+        return mIntervalSeconds / 3;
+    }
+
+    /**
+     * @return the number of syncs in a row that changed nothing.
+     */
+    public int getQuietSyncs() {
+        return mQuietSyncs;
+    }
+
+    private int clamp(long interval) {
+        return (int) Math.max(mConfig.minIntervalSeconds,
+                Math.min(mConfig.maxIntervalSeconds, interval));
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.content.res.Resources;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+
+/**
+ * Applies {@link SyncSchedulePolicy} to the periodic sync after every sync, reading the state
+ * of the device and rescheduling only when the interval changes.
+ *
+ * The policy's state is kept in its own preferences file, as the sync process is usually
+ * killed between periodic runs.
+ */
+class SyncScheduler {
+    private static final String LOG_TAG = SyncScheduler.class.getSimpleName();
+
+    static final String PREFS_NAME = "sync_schedule";
+
+    private static final String KEY_QUIET_SYNCS = "quiet_syncs";
+    private static final String KEY_INTERVAL_SECONDS = "interval_seconds";
+
+    private static SyncScheduler sInstance;
+
+    private final SharedPreferences mPrefs;
+    private final SyncSchedulePolicy mPolicy;
+
+    static synchronized SyncScheduler getInstance(Context context) {
+        if (sInstance == null) {
+            Context appContext = context.getApplicationContext();
+            Resources resources = appContext.getResources();
+            sInstance = new SyncScheduler(
+                    appContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE),
+                    new SyncSchedulePolicy.Config(SunshineSyncAdapter.SYNC_INTERVAL,
+                            resources.getInteger(R.integer.sync_min_interval_seconds),
+                            resources.getInteger(R.integer.sync_max_interval_seconds),
+                            resources.getInteger(R.integer.sync_quiet_syncs_before_stretch),
+                            resources.getInteger(R.integer.sync_volatile_changed_percent)));
+        }
+        return sInstance;
+    }
+
+    SyncScheduler(SharedPreferences prefs, SyncSchedulePolicy.Config config) {
+        mPrefs = prefs;
+        mPolicy = new SyncSchedulePolicy(config, prefs.getInt(KEY_QUIET_SYNCS, 0),
+                prefs.getInt(KEY_INTERVAL_SECONDS, config.baseIntervalSeconds));
+    }
+
+    /**
+     * Works out the next interval from the outcome of a sync, and reschedules the periodic
+     * sync if it changed.
+     */
+    synchronized void onSyncFinished(Context context, SyncSchedulePolicy.Outcome outcome) {
+        int previousInterval = mPolicy.getIntervalSeconds();
+        boolean unmetered = isUnmetered(context);
+        boolean charging = isCharging(context);
+        int interval = mPolicy.onSyncFinished(outcome, unmetered, charging);
+        mPrefs.edit()
+                .putInt(KEY_QUIET_SYNCS, mPolicy.getQuietSyncs())
+                .putInt(KEY_INTERVAL_SECONDS, interval)
+                .apply();
+
+        Log.d(LOG_TAG, outcome.changedRows + " of " + outcome.receivedRows + " rows changed"
+                + (outcome.severe ? ", storms forecast" : "") + ", " + mPolicy.getQuietSyncs()
+                + " quiet syncs, unmetered " + unmetered + ", charging " + charging
+                + ": next sync in " + interval + " s");
+        if (interval != previousInterval) {
+            SunshineSyncAdapter.configurePeriodicSync(context, interval, mPolicy.getFlexSeconds());
+        }
+    }
+
+    private static boolean isUnmetered(Context context) {
+        ConnectivityManager cm =
+                (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            return !cm.isActiveNetworkMetered();
+        }
+        NetworkInfo activeNetwork = cm.getActiveNetworkInfo();
+        return activeNetwork != null && activeNetwork.getType() == ConnectivityManager.TYPE_WIFI;
+    }
+
+    private static boolean isCharging(Context context) {
+        // A sticky broadcast, so this reads the last battery state without registering anything
+        Intent battery = context.registerReceiver(null,
+                new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (battery == null) {
+            return false;
+        }
+        int status = battery.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
+        return status == BatteryManager.BATTERY_STATUS_CHARGING
+                || status == BatteryManager.BATTERY_STATUS_FULL;
+    }
+}
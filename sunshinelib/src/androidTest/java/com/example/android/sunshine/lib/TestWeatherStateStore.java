@@ -0,0 +1,132 @@
+package com.example.android.sunshine.lib;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+/*
+    Checks that WeatherStateStore keeps and restores its state, and times its updates and reads
+    against the helpers SunshineUtility used before, which committed the preferences on every
+    call and read them back on every call.
+ */
+public class TestWeatherStateStore extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestWeatherStateStore.class.getSimpleName();
+
+    private static final String TEST_PREFS_NAME = "test_weather_state";
+    private static final String TEST_LEGACY_PREFS_NAME = "test_weather_state_legacy";
+    private static final int UPDATES = 100;
+    private static final int READS = 10000;
+    private static final long FLUSH_TIMEOUT_MILLIS = 10000;
+
+    private SharedPreferences mPrefs;
+    private SharedPreferences mLegacyPrefs;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = mContext.getSharedPreferences(TEST_PREFS_NAME, Context.MODE_PRIVATE);
+        mPrefs.edit().clear().commit();
+        mLegacyPrefs = mContext.getSharedPreferences(TEST_LEGACY_PREFS_NAME, Context.MODE_PRIVATE);
+        mLegacyPrefs.edit().clear().commit();
+    }
+
+    // What SunshineUtility.setAppConnReq did, a commit for each call
+    private void legacySetAppConnReq(boolean appConnReq) {
+        mLegacyPrefs.edit().putBoolean(SunshineConstants.KEY_APP_CONN_REQ, appConnReq).commit();
+    }
+
+    // What SunshineUtility.getAppConnReq did
+    private boolean legacyGetAppConnReq() {
+        return mLegacyPrefs.getBoolean(SunshineConstants.KEY_APP_CONN_REQ, true);
+    }
+
+    public void testStateSurvivesRestart() throws Exception {
+        WeatherStateStore store = new WeatherStateStore(mPrefs);
+        assertTrue(store.get().appConnReq);
+        assertTrue(store.get().wearConnReq);
+
+        store.setAppConnReq(false);
+        // Readable before it is written
+        assertFalse(store.get().appConnReq);
+        assertTrue("Error: The state was not written in time", store.flush(FLUSH_TIMEOUT_MILLIS));
+
+        WeatherStateStore.Snapshot restored = new WeatherStateStore(mPrefs).get();
+        assertFalse(restored.appConnReq);
+        assertTrue(restored.wearConnReq);
+    }
+
+    public void testMigratesDefaultPreferences() throws Exception {
+        mLegacyPrefs.edit()
+                .putBoolean(SunshineConstants.KEY_APP_CONN_REQ, false)
+                .putString("weather_id", "800")
+                .putString("high_temperature", "21")
+                .commit();
+        WeatherStateStore.migrate(mLegacyPrefs, mPrefs);
+
+        WeatherStateStore.Snapshot migrated = new WeatherStateStore(mPrefs).get();
+        assertFalse("Error: The stored flag was not carried over", migrated.appConnReq);
+        assertTrue(migrated.wearConnReq);
+        assertTrue("Error: Old keys were left in the default preferences",
+                mLegacyPrefs.getAll().isEmpty());
+
+        // Once moved, the store's own file is left alone
+        WeatherStateStore store = new WeatherStateStore(mPrefs);
+        store.setAppConnReq(true);
+        assertTrue(store.flush(FLUSH_TIMEOUT_MILLIS));
+        WeatherStateStore.migrate(mLegacyPrefs, mPrefs);
+        assertTrue(new WeatherStateStore(mPrefs).get().appConnReq);
+    }
+
+    public void testUnchangedStateIsNotWritten() throws Exception {
+        WeatherStateStore store = new WeatherStateStore(mPrefs);
+        store.setAppConnReq(false);
+        store.setAppConnReq(false);
+        store.setWearConnReq(true);
+        assertTrue(store.flush(FLUSH_TIMEOUT_MILLIS));
+        assertEquals(1, store.getUpdateCount());
+        assertEquals(1, store.getWriteCount());
+    }
+
+    public void testWriteAndReadSpeed() throws Exception {
+        long start = System.nanoTime();
+        for (int i = 0; i < UPDATES; i++) {
+            legacySetAppConnReq(i % 2 != 0);
+        }
+        long legacyWriteMicros = (System.nanoTime() - start) / 1000 / UPDATES;
+
+        WeatherStateStore store = new WeatherStateStore(mPrefs);
+        start = System.nanoTime();
+        // Starting from false, as true is the initial state and would change nothing
+        for (int i = 0; i < UPDATES; i++) {
+            store.setAppConnReq(i % 2 != 0);
+        }
+        long storeWriteMicros = (System.nanoTime() - start) / 1000 / UPDATES;
+        assertTrue(store.flush(FLUSH_TIMEOUT_MILLIS));
+        assertEquals(UPDATES, store.getUpdateCount());
+        // Never more than one write per update, fewer when they come faster than the disk
+        assertTrue(store.getWriteCount() <= UPDATES);
+        assertEquals((UPDATES - 1) % 2 != 0, new WeatherStateStore(mPrefs).get().appConnReq);
+
+        int checksum = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < READS; i++) {
+            checksum += legacyGetAppConnReq() ? 1 : 0;
+        }
+        long legacyReadNanos = (System.nanoTime() - start) / READS;
+
+        start = System.nanoTime();
+        for (int i = 0; i < READS; i++) {
+            checksum -= store.get().appConnReq ? 1 : 0;
+        }
+        long storeReadNanos = (System.nanoTime() - start) / READS;
+        assertEquals(0, checksum);
+
+        Log.i(LOG_TAG, "Update: " + legacyWriteMicros + " us with a commit per call, "
+                + storeWriteMicros + " us with the store (" + store.getWriteCount()
+                + " writes for " + UPDATES + " updates)");
+        Log.i(LOG_TAG, "Read: " + legacyReadNanos + " ns from the preferences, "
+                + storeReadNanos + " ns from the store");
+    }
+}
@@ -0,0 +1,140 @@
+package com.example.android.sunshine.lib;
+
+/**
+ * The binary form of the forecast the phone sends to the watch.
+ *
+ * After a version byte and the number of days come the days in date order.  Each day is its
+ * date, as days since 1970-01-01, its weather id, and its high and low in tenths of a degree.
+ * Dates and temperatures are written as the difference from the day before, and every number
+ * as a zigzag varint, so a day usually takes four to six bytes.
+ */
+public final class ForecastCodec {
+    public static final int VERSION = 1;
+
+    // Fixed point temperatures, in tenths of a degree
+    private static final float TEMPERATURE_SCALE = 10f;
+
+    /**
+     * A decoded forecast, one entry per day in each array.
+     */
+    public static final class Days {
+        public final int[] epochDays;
+        public final int[] weatherIds;
+        public final float[] highs;
+        public final float[] lows;
+
+        Days(int count) {
+            epochDays = new int[count];
+            weatherIds = new int[count];
+            highs = new float[count];
+            lows = new float[count];
+        }
+
+        public int size() {
+            return epochDays.length;
+        }
+    }
+
+    private ForecastCodec() {
+    }
+
+    /**
+     * @param count the number of days to encode, from the start of the arrays.
+     */
+    public static byte[] encode(int[] epochDays, int[] weatherIds, float[] highs, float[] lows,
+                                int count) {
+        // Version, count, then at most five bytes for each of a day's four numbers
+        byte[] buffer = new byte[1 + 5 + count * 4 * 5];
+        int position = 0;
+        buffer[position++] = (byte) VERSION;
+        position = writeVarint(buffer, position, count);
+
+        int previousDay = 0;
+        int previousHigh = 0;
+        int previousLow = 0;
+        for (int i = 0; i < count; i++) {
+            int high = Math.round(highs[i] * TEMPERATURE_SCALE);
+            int low = Math.round(lows[i] * TEMPERATURE_SCALE);
+            position = writeVarint(buffer, position, zigzag(epochDays[i] - previousDay));
+            position = writeVarint(buffer, position, zigzag(weatherIds[i]));
+            position = writeVarint(buffer, position, zigzag(high - previousHigh));
+            position = writeVarint(buffer, position, zigzag(low - previousLow));
+            previousDay = epochDays[i];
+            previousHigh = high;
+            previousLow = low;
+        }
+
+        byte[] encoded = new byte[position];
+        System.arraycopy(buffer, 0, encoded, 0, position);
+        return encoded;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the bytes are not a forecast of a known version.
+     */
+    public static Days decode(byte[] encoded) {
+        if (encoded == null || encoded.length == 0) {
+            throw new IllegalArgumentException("Empty forecast");
+        }
+        if (encoded[0] != VERSION) {
+            throw new IllegalArgumentException("Unsupported forecast version " + encoded[0]);
+        }
+        int[] position = {1};
+        int count = readVarint(encoded, position);
+        // Every day takes at least four bytes
+        if (count < 0 || count > (encoded.length - position[0]) / 4) {
+            throw new IllegalArgumentException("Forecast of " + count + " days in "
+                    + encoded.length + " bytes");
+        }
+
+        Days days = new Days(count);
+        int day = 0;
+        int high = 0;
+        int low = 0;
+        for (int i = 0; i < count; i++) {
+            day += unzigzag(readVarint(encoded, position));
+            days.epochDays[i] = day;
+            days.weatherIds[i] = unzigzag(readVarint(encoded, position));
+            high += unzigzag(readVarint(encoded, position));
+            days.highs[i] = high / TEMPERATURE_SCALE;
+            low += unzigzag(readVarint(encoded, position));
+            days.lows[i] = low / TEMPERATURE_SCALE;
+        }
+        return days;
+    }
+
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static int writeVarint(byte[] buffer, int position, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+        return position;
+    }
+
+    /**
+     * Reads the varint at position[0] and moves position[0] past it.
+     */
+    private static int readVarint(byte[] encoded, int[] position) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (position[0] >= encoded.length) {
+                throw new IllegalArgumentException("Truncated forecast");
+            }
+            byte b = encoded[position[0]++];
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed forecast");
+    }
+}
@@ -8,7 +8,8 @@ public class SunshineConstants {
     public static final String KEY_APP_CONN_REQ = "app_connection_req";
     public static final String WEATHER_INFO_REQ_PATH = "/weatherInfoReq";
     public static final String WEATHER_DATA_PATH = "/weatherData";
-    public static final String KEY_WEATHER_ID = "weather_id";
-    public static final String KEY_LOW_TEMP = "low_temperature";
-    public static final String KEY_HIGH_TEMP = "high_temperature";
+    // The forecast sent to the watch, encoded by ForecastCodec
+    public static final String KEY_FORECAST = "forecast";
+    // When the watch asked for the weather, so that every request is a change
+    public static final String KEY_REQUEST_TIME = "request_time";
 }
\ No newline at end of file
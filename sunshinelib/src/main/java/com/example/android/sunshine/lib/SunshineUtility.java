@@ -1,16 +1,12 @@
 package com.example.android.sunshine.lib;
 
 import android.content.Context;
-import android.preference.PreferenceManager;
-import android.util.Log;
 
 /**
  * Created by Hari Nivas Kumar R P on 6/20/2016.
  */
 public class SunshineUtility {
 
-    private static final String LOG_TAG = SunshineUtility.class.getSimpleName();
-
     /**
      * Helper method to provide the icon resource id according to the weather condition id returned
      * by the OpenWeatherMap call.
@@ -47,92 +43,19 @@ public class SunshineUtility {
         return -1;
     }
 
-    private static void saveBoolValuesToPrefs(Context context, String keyStr, boolean valueBool) {
-        PreferenceManager.getDefaultSharedPreferences(context)
-                .edit()
-                .putBoolean(keyStr, valueBool)
-                .commit();
-
-        Log.d(LOG_TAG, "Boolean Value - " + valueBool + " Saved for Key - " + keyStr);
-    }
-
-    private static boolean retrieveBoolValuesFromPrefs(Context context, String keyStr) {
-        boolean valueBool = PreferenceManager.getDefaultSharedPreferences(context)
-                .getBoolean(keyStr, true);
-
-        Log.d(LOG_TAG, "Boolean Value - " + valueBool + " Retrieved for Key - " + keyStr);
-        return valueBool;
-    }
-
-    private static void saveStringValuesToPrefs(Context context, String keyStr, String valueStr) {
-        PreferenceManager.getDefaultSharedPreferences(context)
-                .edit()
-                .putString(keyStr, valueStr)
-                .commit();
-
-        Log.d(LOG_TAG, "String Value - " + valueStr + " Saved for Key - " + keyStr);
-    }
-
-    private static String retrieveStringValuesFromPrefs(Context context, String keyStr) {
-        String valueStr = PreferenceManager.getDefaultSharedPreferences(context)
-                .getString(keyStr, "");
-
-        Log.d(LOG_TAG, "String Value - " + valueStr + " Retrieved for Key - " + keyStr);
-        return valueStr;
-    }
-
     public static void setAppConnReq(Context context, boolean appConnReq) {
-        saveBoolValuesToPrefs(context, SunshineConstants.KEY_APP_CONN_REQ, appConnReq);
+        WeatherStateStore.getInstance(context).setAppConnReq(appConnReq);
     }
 
     public static boolean getAppConnReq(Context context) {
-        return retrieveBoolValuesFromPrefs(context, SunshineConstants.KEY_APP_CONN_REQ);
+        return WeatherStateStore.getInstance(context).get().appConnReq;
     }
 
-    public static void setWearConnReq(Context context, boolean appConnReq) {
-        saveBoolValuesToPrefs(context, SunshineConstants.KEY_WEARABLE_CONN_REQ, appConnReq);
+    public static void setWearConnReq(Context context, boolean wearConnReq) {
+        WeatherStateStore.getInstance(context).setWearConnReq(wearConnReq);
     }
 
     public static boolean getWearConnReq(Context context) {
-        return retrieveBoolValuesFromPrefs(context, SunshineConstants.KEY_WEARABLE_CONN_REQ);
-    }
-
-    public static void setWeatherId(Context context, String weatherId) {
-        saveStringValuesToPrefs(context, SunshineConstants.KEY_WEATHER_ID, weatherId);
-    }
-
-    public static void setHighTemp(Context context, String highTemperature) {
-        saveStringValuesToPrefs(context, SunshineConstants.KEY_HIGH_TEMP, highTemperature);
-    }
-
-    public static void setLowTemp(Context context, String lowTemperature) {
-        saveStringValuesToPrefs(context, SunshineConstants.KEY_LOW_TEMP, lowTemperature);
-    }
-
-    public static void setAllWeatherValues(Context context, String weatherId,
-                                           String highTemperature, String lowTemperature) {
-        saveStringValuesToPrefs(context, SunshineConstants.KEY_WEATHER_ID, weatherId);
-        saveStringValuesToPrefs(context, SunshineConstants.KEY_HIGH_TEMP, highTemperature);
-        saveStringValuesToPrefs(context, SunshineConstants.KEY_LOW_TEMP, lowTemperature);
-    }
-
-    public static String getWeatherId(Context context) {
-        return retrieveStringValuesFromPrefs(context, SunshineConstants.KEY_WEATHER_ID);
-    }
-
-    public static String getHighTemp(Context context) {
-        return retrieveStringValuesFromPrefs(context, SunshineConstants.KEY_HIGH_TEMP);
-    }
-
-    public static String getLowTemp(Context context) {
-        return retrieveStringValuesFromPrefs(context, SunshineConstants.KEY_LOW_TEMP);
-    }
-
-    public static String[] getAllWeatherValues(Context context) {
-        return new String[]{
-                retrieveStringValuesFromPrefs(context, SunshineConstants.KEY_WEATHER_ID),
-                retrieveStringValuesFromPrefs(context, SunshineConstants.KEY_HIGH_TEMP),
-                retrieveStringValuesFromPrefs(context, SunshineConstants.KEY_LOW_TEMP)
-        };
+        return WeatherStateStore.getInstance(context).get().wearConnReq;
     }
 }
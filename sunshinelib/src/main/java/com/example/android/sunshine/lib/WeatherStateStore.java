@@ -0,0 +1,217 @@
+package com.example.android.sunshine.lib;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The connection flags the phone and the watch keep, held in memory and saved to a preferences
+ * file of their own.  The weather itself is not kept here, the watch has the whole forecast in
+ * its ForecastStore.
+ *
+ * Reads return the current {@link Snapshot}, which never changes once built, without touching
+ * the file.  Every update builds a new snapshot and saves all of it with a single commit on a
+ * background thread; when updates come faster than the file is written, only the latest is.
+ */
+public final class WeatherStateStore {
+    private static final String PREFS_NAME = "weather_state";
+    // Today's weather, which versions before the store kept in the default preferences
+    private static final String[] LEGACY_WEATHER_KEYS =
+            {"weather_id", "high_temperature", "low_temperature"};
+
+    private static WeatherStateStore sInstance;
+
+    /**
+     * The state at one point in time.
+     */
+    public static final class Snapshot {
+        // Whether the watch wants the phone, and the phone the watch, to connect and send
+        public final boolean appConnReq;
+        public final boolean wearConnReq;
+
+        Snapshot(boolean appConnReq, boolean wearConnReq) {
+            this.appConnReq = appConnReq;
+            this.wearConnReq = wearConnReq;
+        }
+    }
+
+    private final SharedPreferences mPrefs;
+    // A daemon, so that the store never keeps the process alive
+    private final ExecutorService mWriter = Executors.newSingleThreadExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "WeatherStateStore");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+    private final AtomicReference<Snapshot> mSnapshot;
+
+    private final AtomicInteger mUpdates = new AtomicInteger();
+    private final AtomicInteger mWrites = new AtomicInteger();
+
+    public static synchronized WeatherStateStore getInstance(Context context) {
+        if (sInstance == null) {
+            Context appContext = context.getApplicationContext();
+            SharedPreferences prefs = appContext.getSharedPreferences(PREFS_NAME,
+                    Context.MODE_PRIVATE);
+            migrate(PreferenceManager.getDefaultSharedPreferences(appContext), prefs);
+            sInstance = new WeatherStateStore(prefs);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Moves the flags that versions before the store kept in the default preferences over to
+     * its own file, and drops the weather they kept next to them.  Does nothing once they are
+     * gone.  The new file is written before the old keys are removed, so a crash in between
+     * only means moving them again.
+     */
+    static void migrate(SharedPreferences legacyPrefs, SharedPreferences prefs) {
+        boolean hasLegacyKeys = legacyPrefs.contains(SunshineConstants.KEY_APP_CONN_REQ)
+                || legacyPrefs.contains(SunshineConstants.KEY_WEARABLE_CONN_REQ);
+        for (String key : LEGACY_WEATHER_KEYS) {
+            hasLegacyKeys |= legacyPrefs.contains(key);
+        }
+        if (!hasLegacyKeys) {
+            return;
+        }
+
+        SharedPreferences.Editor editor = prefs.edit();
+        if (legacyPrefs.contains(SunshineConstants.KEY_APP_CONN_REQ)) {
+            editor.putBoolean(SunshineConstants.KEY_APP_CONN_REQ,
+                    legacyPrefs.getBoolean(SunshineConstants.KEY_APP_CONN_REQ, true));
+        }
+        if (legacyPrefs.contains(SunshineConstants.KEY_WEARABLE_CONN_REQ)) {
+            editor.putBoolean(SunshineConstants.KEY_WEARABLE_CONN_REQ,
+                    legacyPrefs.getBoolean(SunshineConstants.KEY_WEARABLE_CONN_REQ, true));
+        }
+        editor.commit();
+
+        SharedPreferences.Editor legacyEditor = legacyPrefs.edit()
+                .remove(SunshineConstants.KEY_APP_CONN_REQ)
+                .remove(SunshineConstants.KEY_WEARABLE_CONN_REQ);
+        for (String key : LEGACY_WEATHER_KEYS) {
+            legacyEditor.remove(key);
+        }
+        legacyEditor.commit();
+    }
+
+    /**
+     * Loads the state saved in the preferences, if any.  Apps use {@link #getInstance}, so that
+     * there is one store for the file.
+     */
+    public WeatherStateStore(SharedPreferences prefs) {
+        mPrefs = prefs;
+        mSnapshot = new AtomicReference<Snapshot>(read(prefs));
+    }
+
+    public Snapshot get() {
+        return mSnapshot.get();
+    }
+
+    public void setAppConnReq(boolean appConnReq) {
+        Snapshot current;
+        Snapshot updated;
+        do {
+            current = mSnapshot.get();
+            if (current.appConnReq == appConnReq) {
+                return;
+            }
+            updated = new Snapshot(appConnReq, current.wearConnReq);
+        } while (!mSnapshot.compareAndSet(current, updated));
+        save(updated);
+    }
+
+    public void setWearConnReq(boolean wearConnReq) {
+        Snapshot current;
+        Snapshot updated;
+        do {
+            current = mSnapshot.get();
+            if (current.wearConnReq == wearConnReq) {
+                return;
+            }
+            updated = new Snapshot(current.appConnReq, wearConnReq);
+        } while (!mSnapshot.compareAndSet(current, updated));
+        save(updated);
+    }
+
+    /**
+     * Waits for the updates made so far to be written.
+     *
+     * @return false if they were not written within the timeout.
+     */
+    public boolean flush(long timeoutMillis) throws InterruptedException {
+        final Object done = new Object();
+        final boolean[] flushed = {false};
+        mWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (done) {
+                    flushed[0] = true;
+                    done.notifyAll();
+                }
+            }
+        });
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        synchronized (done) {
+            while (!flushed[0]) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) {
+                    return false;
+                }
+                done.wait(remaining);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of updates that changed the state since the store was created.
+     */
+    public int getUpdateCount() {
+        return mUpdates.get();
+    }
+
+    /**
+     * @return the number of times the preferences were written since the store was created.
+     */
+    public int getWriteCount() {
+        return mWrites.get();
+    }
+
+    private void save(final Snapshot snapshot) {
+        mUpdates.incrementAndGet();
+        mWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                // A later update may already be waiting, only the latest is worth writing
+                if (mSnapshot.get() == snapshot) {
+                    write(snapshot);
+                }
+            }
+        });
+    }
+
+    private void write(Snapshot snapshot) {
+        mPrefs.edit()
+                .putBoolean(SunshineConstants.KEY_APP_CONN_REQ, snapshot.appConnReq)
+                .putBoolean(SunshineConstants.KEY_WEARABLE_CONN_REQ, snapshot.wearConnReq)
+                .commit();
+        mWrites.incrementAndGet();
+    }
+
+    private static Snapshot read(SharedPreferences prefs) {
+        // Until the first write, both connections wanted
+        return new Snapshot(prefs.getBoolean(SunshineConstants.KEY_APP_CONN_REQ, true),
+                prefs.getBoolean(SunshineConstants.KEY_WEARABLE_CONN_REQ, true));
+    }
+}
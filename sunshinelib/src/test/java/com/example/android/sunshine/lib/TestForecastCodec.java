@@ -0,0 +1,162 @@
+package com.example.android.sunshine.lib;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/*
+    Round trips forecasts through ForecastCodec, times encoding and decoding, and compares the
+    size of what is sent to the watch with every value written out as a string under its own
+    key, the way today's weather used to be sent.  Runs on the JVM, without a device.
+ */
+public class TestForecastCodec {
+
+    private static final int FIRST_EPOCH_DAY = 16424;
+    private static final int ITERATIONS = 10000;
+
+    private int[] mEpochDays;
+    private int[] mWeatherIds;
+    private float[] mHighs;
+    private float[] mLows;
+
+    private void createForecast(int days) {
+        mEpochDays = new int[days];
+        mWeatherIds = new int[days];
+        mHighs = new float[days];
+        mLows = new float[days];
+        for (int i = 0; i < days; i++) {
+            mEpochDays[i] = FIRST_EPOCH_DAY + i;
+            mWeatherIds[i] = 800 + i % 5;
+            mHighs[i] = 20.7f + i % 9;
+            mLows[i] = -3.2f + i % 7;
+        }
+    }
+
+    // What the watch was sent before, with a set of keys for every day.  The DataMap it went in
+    // is not available off the device, so keys and values are written as length prefixed UTF-8.
+    private byte[] encodeAsStrings(int days) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (int i = 0; i < days; i++) {
+            out.writeUTF("date_" + i);
+            out.writeUTF(Long.toString(mEpochDays[i] * 86400000L));
+            out.writeUTF("weather_id_" + i);
+            out.writeUTF(mWeatherIds[i] + "");
+            out.writeUTF("high_temperature_" + i);
+            out.writeUTF((double) mHighs[i] + "");
+            out.writeUTF("low_temperature_" + i);
+            out.writeUTF((double) mLows[i] + "");
+        }
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    @Test
+    public void testRoundTrip() {
+        createForecast(14);
+        ForecastCodec.Days days = ForecastCodec.decode(
+                ForecastCodec.encode(mEpochDays, mWeatherIds, mHighs, mLows, 14));
+        assertEquals(14, days.size());
+        for (int i = 0; i < 14; i++) {
+            assertEquals(mEpochDays[i], days.epochDays[i]);
+            assertEquals(mWeatherIds[i], days.weatherIds[i]);
+            // Temperatures travel in tenths of a degree
+            assertEquals(mHighs[i], days.highs[i], 0.05f);
+            assertEquals(mLows[i], days.lows[i], 0.05f);
+        }
+    }
+
+    @Test
+    public void testNoDays() {
+        createForecast(0);
+        assertEquals(0, ForecastCodec.decode(
+                ForecastCodec.encode(mEpochDays, mWeatherIds, mHighs, mLows, 0)).size());
+    }
+
+    @Test
+    public void testRejectsUnknownVersion() {
+        createForecast(7);
+        byte[] encoded = ForecastCodec.encode(mEpochDays, mWeatherIds, mHighs, mLows, 7);
+        encoded[0] = (byte) (ForecastCodec.VERSION + 1);
+        try {
+            ForecastCodec.decode(encoded);
+            fail("Error: A forecast of an unknown version was decoded");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testRejectsTruncatedForecast() {
+        createForecast(7);
+        byte[] encoded = ForecastCodec.encode(mEpochDays, mWeatherIds, mHighs, mLows, 7);
+        byte[] truncated = new byte[encoded.length - 1];
+        System.arraycopy(encoded, 0, truncated, 0, truncated.length);
+        try {
+            ForecastCodec.decode(truncated);
+            fail("Error: A truncated forecast was decoded");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private void checkSize(int days) throws IOException {
+        createForecast(days);
+        int strings = encodeAsStrings(days).length;
+        int binary = ForecastCodec.encode(mEpochDays, mWeatherIds, mHighs, mLows, days).length;
+        System.out.println(days + " days: " + strings + " bytes as strings, " + binary
+                + " bytes encoded");
+        assertTrue("Error: The encoded forecast is bigger than the strings", binary < strings);
+    }
+
+    @Test
+    public void testSizeOfOneDay() throws IOException {
+        checkSize(1);
+    }
+
+    @Test
+    public void testSizeOfSevenDays() throws IOException {
+        checkSize(7);
+    }
+
+    @Test
+    public void testSizeOfFourteenDays() throws IOException {
+        checkSize(14);
+    }
+
+    @Test
+    public void testEncodeAndDecodeSpeed() throws IOException {
+        for (int days : new int[]{1, 7, 14}) {
+            createForecast(days);
+            byte[] encoded = null;
+            long start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                encoded = ForecastCodec.encode(mEpochDays, mWeatherIds, mHighs, mLows, days);
+            }
+            long encodeNanos = (System.nanoTime() - start) / ITERATIONS;
+
+            int decodedDays = 0;
+            start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                decodedDays += ForecastCodec.decode(encoded).size();
+            }
+            long decodeNanos = (System.nanoTime() - start) / ITERATIONS;
+            assertEquals(days * ITERATIONS, decodedDays);
+
+            start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS / 10; i++) {
+                encodeAsStrings(days);
+            }
+            long stringsNanos = (System.nanoTime() - start) / (ITERATIONS / 10);
+
+            System.out.println(days + " days: encode " + encodeNanos + " ns, decode "
+                    + decodeNanos + " ns, as strings " + stringsNanos + " ns");
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.example.android.sunshine.wear;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.io.File;
+import java.util.Calendar;
+
+/*
+    Checks that the forecast sent by the phone survives a restart of the watch face, and that the
+    face moves on to the next day at midnight without reading the store again.
+ */
+public class TestForecastStore extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastStore.class.getSimpleName();
+
+    private static final int DAYS = 14;
+    private static final int FRAMES = 1000;
+    private static final long WRITE_TIMEOUT_MILLIS = 5000;
+
+    private File mFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFile = new File(mContext.getCacheDir(), "test-forecast.bin");
+        mFile.delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mFile.delete();
+        super.tearDown();
+    }
+
+    private static ForecastStore.Forecast createForecast(int firstEpochDay) {
+        int[] epochDays = new int[DAYS];
+        int[] weatherIds = new int[DAYS];
+        float[] highs = new float[DAYS];
+        float[] lows = new float[DAYS];
+        for (int i = 0; i < DAYS; i++) {
+            epochDays[i] = firstEpochDay + i;
+            weatherIds[i] = i % 2 == 0 ? 800 : 500;
+            highs[i] = 20 + i;
+            lows[i] = 10 - i;
+        }
+        return new ForecastStore.Forecast(epochDays, weatherIds, highs, lows);
+    }
+
+    private static void waitForWrites(ForecastStore store, int writes) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + WRITE_TIMEOUT_MILLIS;
+        while (store.getWriteCount() < writes && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals("Error: The forecast was not written", writes, store.getWriteCount());
+    }
+
+    public void testNothingStored() {
+        assertEquals(0, new ForecastStore(mFile).getForecast().size());
+    }
+
+    public void testForecastSurvivesRestart() throws InterruptedException {
+        ForecastStore store = new ForecastStore(mFile);
+        ForecastStore.Forecast forecast = createForecast(16800);
+        store.update(forecast);
+        assertSame("Error: The update was not readable straight away",
+                forecast, store.getForecast());
+        waitForWrites(store, 1);
+        Log.i(LOG_TAG, DAYS + " days written in " + store.getLastWriteMillis() + " ms, "
+                + mFile.length() + " bytes");
+
+        ForecastStore.Forecast restored = new ForecastStore(mFile).getForecast();
+        assertEquals(DAYS, restored.size());
+        for (int i = 0; i < DAYS; i++) {
+            assertEquals(forecast.getEpochDay(i), restored.getEpochDay(i));
+            assertEquals(forecast.getWeatherId(i), restored.getWeatherId(i));
+            assertEquals(forecast.getHigh(i), restored.getHigh(i));
+            assertEquals(forecast.getLow(i), restored.getLow(i));
+        }
+    }
+
+    public void testFaceRollsOverAtMidnight() {
+        Calendar calendar = Calendar.getInstance();
+        calendar.set(Calendar.HOUR_OF_DAY, 23);
+        calendar.set(Calendar.MINUTE, 59);
+        long beforeMidnight = calendar.getTimeInMillis();
+        int today = ForecastStore.getEpochDay(calendar);
+
+        ForecastStore store = new ForecastStore(mFile);
+        store.update(createForecast(today));
+        WatchFaceRenderer renderer = new WatchFaceRenderer(mContext.getResources());
+        renderer.setForecast(store.getForecast());
+        int reads = store.getReadCount();
+
+        Bitmap bitmap = Bitmap.createBitmap(320, 320, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        Rect bounds = new Rect(0, 0, 320, 320);
+        renderer.draw(canvas, bounds, beforeMidnight);
+        assertTrue(renderer.hasWeather());
+        assertEquals(800, renderer.getWeatherId());
+
+        // Two minutes later it is tomorrow, whose forecast is already on the watch
+        for (int frame = 0; frame < FRAMES; frame++) {
+            renderer.draw(canvas, bounds, beforeMidnight + 2 * 60 * 1000 + frame * 1000);
+        }
+        assertTrue(renderer.hasWeather());
+        assertEquals("Error: The face kept showing yesterday's weather",
+                500, renderer.getWeatherId());
+        Log.i(LOG_TAG, (store.getReadCount() - reads) + " store reads in " + FRAMES + " frames");
+        assertEquals("Error: Frames read the store", reads, store.getReadCount());
+
+        renderer.release();
+        bitmap.recycle();
+    }
+
+    public void testFaceIsEmptyPastTheForecast() {
+        Calendar calendar = Calendar.getInstance();
+        WatchFaceRenderer renderer = new WatchFaceRenderer(mContext.getResources());
+        renderer.setForecast(createForecast(ForecastStore.getEpochDay(calendar) - DAYS));
+
+        Bitmap bitmap = Bitmap.createBitmap(320, 320, Bitmap.Config.ARGB_8888);
+        renderer.draw(new Canvas(bitmap), new Rect(0, 0, 320, 320), calendar.getTimeInMillis());
+        assertFalse("Error: An old forecast was shown", renderer.hasWeather());
+
+        renderer.release();
+        bitmap.recycle();
+    }
+}
@@ -0,0 +1,158 @@
+package com.example.android.sunshine.wear;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/*
+    Draws the watch face into an off-screen bitmap the way onDraw does on every tick, and logs
+    how long a frame takes and how many objects it allocates, with and without the cached
+    layers.
+ */
+public class TestWatchFaceRenderer extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestWatchFaceRenderer.class.getSimpleName();
+
+    private static final int FRAMES = 1000;
+    private static final int WARM_UP_FRAMES = 50;
+    private static final int SIZE = 320;
+    private static final long MILLISECONDS_IN_A_MINUTE = 60 * 1000;
+
+    private WatchFaceRenderer mRenderer;
+    private Bitmap mBitmap;
+    private Canvas mCanvas;
+    private final Rect mBounds = new Rect(0, 0, SIZE, SIZE);
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mRenderer = new WatchFaceRenderer(mContext.getResources());
+        mRenderer.setTimeZone(TimeZone.getDefault());
+        mRenderer.setWeather(800, 21.4, 9.6);
+        mBitmap = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+        mCanvas = new Canvas(mBitmap);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mRenderer.release();
+        mBitmap.recycle();
+        super.tearDown();
+    }
+
+    // The start of today, so that a frame per minute stays within one day
+    private static long getStartOfDay() {
+        Calendar calendar = Calendar.getInstance();
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        return calendar.getTimeInMillis();
+    }
+
+    /**
+     * Draws a frame for every minute, the time text changing on each one.
+     *
+     * @return the number of objects allocated while drawing.
+     */
+    @SuppressWarnings("deprecation")
+    private int drawFrames(long startMillis, long[] frameNanos) {
+        for (int i = 0; i < WARM_UP_FRAMES; i++) {
+            mRenderer.draw(mCanvas, mBounds, startMillis + i * MILLISECONDS_IN_A_MINUTE);
+        }
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        for (int i = 0; i < frameNanos.length; i++) {
+            long start = System.nanoTime();
+            mRenderer.draw(mCanvas, mBounds, startMillis + i * MILLISECONDS_IN_A_MINUTE);
+            frameNanos[i] = System.nanoTime() - start;
+        }
+        Debug.stopAllocCounting();
+        return Debug.getThreadAllocCount();
+    }
+
+    private void logFrames(String mode, long[] frameNanos, int allocations) {
+        long[] sorted = frameNanos.clone();
+        Arrays.sort(sorted);
+        long total = 0;
+        for (long nanos : sorted) {
+            total += nanos;
+        }
+        Log.i(LOG_TAG, mode + ": " + sorted.length + " frames, avg " + total / sorted.length / 1000
+                + " us, p50 " + sorted[sorted.length / 2] / 1000
+                + " us, p99 " + sorted[sorted.length * 99 / 100] / 1000
+                + " us, " + allocations + " allocations");
+    }
+
+    public void testInteractiveFramesDoNotAllocate() {
+        long[] frameNanos = new long[FRAMES];
+        int allocations = drawFrames(getStartOfDay(), frameNanos);
+        logFrames("Interactive", frameNanos, allocations);
+        assertEquals("Error: Drawing a frame allocated", 0, allocations);
+    }
+
+    public void testAmbientFramesDoNotAllocate() {
+        mRenderer.setLowBitAmbient(true);
+        mRenderer.setAmbient(true);
+        long[] frameNanos = new long[FRAMES];
+        int allocations = drawFrames(getStartOfDay(), frameNanos);
+        logFrames("Ambient", frameNanos, allocations);
+        assertEquals("Error: Drawing a frame allocated", 0, allocations);
+    }
+
+    public void testLayersSpeedUpFrames() {
+        long startOfDay = getStartOfDay();
+        long[] frameNanos = new long[FRAMES];
+
+        mRenderer.setLayersEnabled(false);
+        logFrames("Without layers", frameNanos, drawFrames(startOfDay, frameNanos));
+        long[] withoutLayers = frameNanos.clone();
+
+        mRenderer.setLayersEnabled(true);
+        logFrames("With layers", frameNanos, drawFrames(startOfDay, frameNanos));
+        Arrays.sort(withoutLayers);
+        Arrays.sort(frameNanos);
+        Log.i(LOG_TAG, "Median frame " + withoutLayers[FRAMES / 2] / 1000 + " us without layers, "
+                + frameNanos[FRAMES / 2] / 1000 + " us with layers");
+    }
+
+    public void testLayerFollowsWeatherAndMode() {
+        long now = System.currentTimeMillis();
+        mRenderer.draw(mCanvas, mBounds, now);
+        int interactive = mBitmap.getPixel(1, 1);
+
+        mRenderer.setAmbient(true);
+        mRenderer.draw(mCanvas, mBounds, now);
+        assertFalse("Error: Ambient mode drew the interactive layer",
+                interactive == mBitmap.getPixel(1, 1));
+
+        mRenderer.setAmbient(false);
+        mRenderer.onTap();
+        mRenderer.draw(mCanvas, mBounds, now);
+        assertFalse("Error: A tap did not change the background",
+                interactive == mBitmap.getPixel(1, 1));
+
+        mRenderer.onTap();
+        mRenderer.draw(mCanvas, mBounds, now);
+        assertEquals(interactive, mBitmap.getPixel(1, 1));
+    }
+
+    public void testWeatherChangeIsDrawn() {
+        long now = System.currentTimeMillis();
+        assertFalse("Error: The same weather was laid out again",
+                mRenderer.setWeather(800, 21.4, 9.6));
+        assertTrue(mRenderer.setWeather(500, 12, 7));
+        mRenderer.draw(mCanvas, mBounds, now);
+
+        mRenderer.clearWeather();
+        assertFalse(mRenderer.hasWeather());
+        mRenderer.draw(mCanvas, mBounds, now);
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.android.sunshine.wear;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/*
+    Asks for the weather the way onDraw does on every frame while there is none to show, with a
+    phone that answers, one that cannot be reached and one that never answers, and checks how
+    many requests actually go out.
+ */
+public class TestWeatherRequestCoordinator extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestWeatherRequestCoordinator.class.getSimpleName();
+
+    private static final int FRAMES = 1000;
+    // Interactive frames, drawn as fast as the display refreshes
+    private static final long FRAME_MILLIS = 16;
+    // Ambient frames, one a second at most
+    private static final long AMBIENT_FRAME_MILLIS = 1000;
+    private static final long INITIAL_BACKOFF_MILLIS = 5000;
+    private static final long MAX_BACKOFF_MILLIS = 10 * 60 * 1000;
+    private static final long ANSWER_TIMEOUT_MILLIS = 60 * 1000;
+
+    // Sends straight away, so that the counters are settled when requestIfNeeded returns
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private static class FakePhone implements WeatherRequestCoordinator.Sender {
+        boolean mReachable = true;
+        final List<Long> mRequestTimes = new ArrayList<Long>();
+
+        @Override
+        public boolean send(long requestTime) {
+            if (mReachable) {
+                mRequestTimes.add(requestTime);
+            }
+            return mReachable;
+        }
+    }
+
+    private FakePhone mPhone;
+    private WeatherRequestCoordinator mRequests;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPhone = new FakePhone();
+        mRequests = new WeatherRequestCoordinator(mPhone, DIRECT, INITIAL_BACKOFF_MILLIS,
+                MAX_BACKOFF_MILLIS, ANSWER_TIMEOUT_MILLIS);
+    }
+
+    private void drawFrames(long startMillis, int frames) {
+        for (int i = 0; i < frames; i++) {
+            mRequests.requestIfNeeded(startMillis + i * FRAME_MILLIS);
+        }
+    }
+
+    public void testOneRequestWhileWaiting() {
+        // A thousand frames well within the answer timeout
+        drawFrames(0, FRAMES);
+        Log.i(LOG_TAG, "Waiting: " + mRequests);
+        assertEquals("Error: More than one request was sent", 1, mRequests.getIssuedCount());
+        assertEquals(FRAMES - 1, mRequests.getSuppressedCount());
+        assertEquals(1, mPhone.mRequestTimes.size());
+
+        mRequests.onAnswered();
+        assertEquals(1, mRequests.getAnsweredCount());
+        assertEquals(0, mRequests.getFailedCount());
+    }
+
+    public void testEveryRequestIsAChange() {
+        long now = 0;
+        for (int i = 0; i < 3; i++) {
+            assertTrue(mRequests.requestIfNeeded(now++));
+            mRequests.onAnswered();
+        }
+        assertEquals(3, mPhone.mRequestTimes.size());
+        assertTrue(mPhone.mRequestTimes.get(0) < mPhone.mRequestTimes.get(1));
+        assertTrue(mPhone.mRequestTimes.get(1) < mPhone.mRequestTimes.get(2));
+    }
+
+    public void testBacksOffWhileUnreachable() {
+        mPhone.mReachable = false;
+        long now = 0;
+        for (int i = 0; i < FRAMES; i++) {
+            mRequests.requestIfNeeded(now);
+            now += AMBIENT_FRAME_MILLIS;
+        }
+        Log.i(LOG_TAG, "Unreachable for " + now / 1000 + " s: " + mRequests);
+        // 5 s doubling to 10 minutes: attempts at 0, 5, 15, 35, 75, 155, 315 and 635 s
+        assertEquals(8, mRequests.getIssuedCount());
+        assertEquals(8, mRequests.getFailedCount());
+        assertEquals(FRAMES - 8, mRequests.getSuppressedCount());
+
+        // Once the phone is back and answers, requests go out straight away again
+        mPhone.mReachable = true;
+        mRequests.onAnswered();
+        assertTrue(mRequests.requestIfNeeded(now));
+        assertEquals(1, mPhone.mRequestTimes.size());
+    }
+
+    public void testUnansweredRequestIsRetried() {
+        assertTrue(mRequests.requestIfNeeded(0));
+        assertFalse(mRequests.requestIfNeeded(ANSWER_TIMEOUT_MILLIS - 1));
+        // Timed out, and retried only after the backoff
+        assertFalse(mRequests.requestIfNeeded(ANSWER_TIMEOUT_MILLIS));
+        assertEquals(1, mRequests.getFailedCount());
+        assertTrue(mRequests.requestIfNeeded(ANSWER_TIMEOUT_MILLIS + INITIAL_BACKOFF_MILLIS));
+        assertEquals(2, mRequests.getIssuedCount());
+    }
+}
@@ -0,0 +1,250 @@
+package com.example.android.sunshine.wear;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Calendar;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The forecast last sent by the phone, one entry per day, kept in memory for the watch face and
+ * in a small file so that it survives a restart while the phone is out of reach.
+ *
+ * Reads return the current {@link Forecast}, which never changes once built.  Updates swap it
+ * and write the file on a background thread.
+ */
+class ForecastStore {
+    private static final String LOG_TAG = ForecastStore.class.getSimpleName();
+
+    private static final String FILE_NAME = "forecast.bin";
+    private static final int FILE_VERSION = 1;
+    // Far more than the phone ever sends
+    private static final int MAX_DAYS = 366;
+    private static final long MILLISECONDS_IN_A_DAY = 1000 * 60 * 60 * 24;
+
+    private static ForecastStore sInstance;
+
+    /**
+     * The weather of consecutive days, ordered by date.
+     */
+    static class Forecast {
+        static final Forecast EMPTY = new Forecast(new int[0], new int[0], new float[0],
+                new float[0]);
+
+        private final int[] mEpochDays;
+        private final int[] mWeatherIds;
+        private final float[] mHighs;
+        private final float[] mLows;
+
+        /**
+         * @param epochDays the day of each entry, counted from 1970-01-01.  The arrays are kept,
+         *                  not copied.
+         */
+        Forecast(int[] epochDays, int[] weatherIds, float[] highs, float[] lows) {
+            if (weatherIds.length != epochDays.length || highs.length != epochDays.length
+                    || lows.length != epochDays.length) {
+                throw new IllegalArgumentException("Forecast arrays differ in length");
+            }
+            mEpochDays = epochDays;
+            mWeatherIds = weatherIds;
+            mHighs = highs;
+            mLows = lows;
+        }
+
+        int size() {
+            return mEpochDays.length;
+        }
+
+        int getEpochDay(int i) {
+            return mEpochDays[i];
+        }
+
+        int getWeatherId(int i) {
+            return mWeatherIds[i];
+        }
+
+        float getHigh(int i) {
+            return mHighs[i];
+        }
+
+        float getLow(int i) {
+            return mLows[i];
+        }
+
+        /**
+         * @return the entry of the day, or -1 if the forecast does not cover it.
+         */
+        int indexOf(int epochDay) {
+            for (int i = 0; i < mEpochDays.length; i++) {
+                if (mEpochDays[i] == epochDay) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * @return the day, counted from 1970-01-01, of the calendar's date in its own time zone.
+     */
+    static int getEpochDay(Calendar calendar) {
+        long localMillis = calendar.getTimeInMillis() + calendar.get(Calendar.ZONE_OFFSET)
+                + calendar.get(Calendar.DST_OFFSET);
+        long epochDay = localMillis / MILLISECONDS_IN_A_DAY;
+        if (localMillis < 0 && localMillis % MILLISECONDS_IN_A_DAY != 0) {
+            epochDay--;
+        }
+        return (int) epochDay;
+    }
+
+    private final File mFile;
+    private final ExecutorService mWriter = Executors.newSingleThreadExecutor();
+    private volatile Forecast mForecast;
+
+    private final AtomicInteger mReads = new AtomicInteger();
+    private final AtomicInteger mWrites = new AtomicInteger();
+    private volatile long mLastWriteMillis;
+
+    static synchronized ForecastStore getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ForecastStore(new File(context.getFilesDir(), FILE_NAME));
+        }
+        return sInstance;
+    }
+
+    /**
+     * Loads the forecast stored in the file, if any.
+     */
+    ForecastStore(File file) {
+        mFile = file;
+        mForecast = read(file);
+    }
+
+    Forecast getForecast() {
+        mReads.incrementAndGet();
+        return mForecast;
+    }
+
+    /**
+     * Replaces the forecast.  It is readable straight away, and written to the file shortly.
+     */
+    void update(final Forecast forecast) {
+        mForecast = forecast;
+        mWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                // A later update may already be waiting, only the latest is worth writing
+                if (mForecast == forecast) {
+                    write(forecast);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the number of times the forecast was read since the store was created.
+     */
+    int getReadCount() {
+        return mReads.get();
+    }
+
+    /**
+     * @return the number of times the file was written since the store was created.
+     */
+    int getWriteCount() {
+        return mWrites.get();
+    }
+
+    /**
+     * @return how long the last write to the file took.
+     */
+    long getLastWriteMillis() {
+        return mLastWriteMillis;
+    }
+
+    private void write(Forecast forecast) {
+        long start = System.nanoTime();
+        File temp = new File(mFile.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            out.writeInt(FILE_VERSION);
+            out.writeInt(forecast.size());
+            for (int i = 0; i < forecast.size(); i++) {
+                out.writeInt(forecast.getEpochDay(i));
+                out.writeInt(forecast.getWeatherId(i));
+                out.writeFloat(forecast.getHigh(i));
+                out.writeFloat(forecast.getLow(i));
+            }
+            out.close();
+            out = null;
+            // Never leave a half written file behind
+            if (!temp.renameTo(mFile)) {
+                Log.e(LOG_TAG, "Unable to replace " + mFile);
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error writing " + mFile, e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Error closing " + temp, e);
+                }
+            }
+        }
+        mLastWriteMillis = (System.nanoTime() - start) / 1000000;
+        mWrites.incrementAndGet();
+    }
+
+    private static Forecast read(File file) {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != FILE_VERSION) {
+                return Forecast.EMPTY;
+            }
+            int size = in.readInt();
+            if (size < 0 || size > MAX_DAYS) {
+                Log.e(LOG_TAG, "Corrupt " + file + ", " + size + " days");
+                return Forecast.EMPTY;
+            }
+            int[] epochDays = new int[size];
+            int[] weatherIds = new int[size];
+            float[] highs = new float[size];
+            float[] lows = new float[size];
+            for (int i = 0; i < size; i++) {
+                epochDays[i] = in.readInt();
+                weatherIds[i] = in.readInt();
+                highs[i] = in.readFloat();
+                lows[i] = in.readFloat();
+            }
+            return new Forecast(epochDays, weatherIds, highs, lows);
+        } catch (FileNotFoundException e) {
+            // Nothing received from the phone yet
+            return Forecast.EMPTY;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error reading " + file, e);
+            return Forecast.EMPTY;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Error closing " + file, e);
+                }
+            }
+        }
+    }
+}
@@ -21,15 +21,10 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.res.Resources;
-import android.graphics.Bitmap;
 import android.graphics.Canvas;
-import android.graphics.Paint;
 import android.graphics.Rect;
-import android.graphics.Typeface;
-import android.graphics.drawable.BitmapDrawable;
-import android.graphics.drawable.Drawable;
-import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.wearable.watchface.CanvasWatchFaceService;
@@ -38,6 +33,7 @@ import android.util.Log;
 import android.view.SurfaceHolder;
 import android.view.WindowInsets;
 
+import com.example.android.sunshine.lib.ForecastCodec;
 import com.example.android.sunshine.lib.SunshineConstants;
 import com.example.android.sunshine.lib.SunshineUtility;
 import com.google.android.gms.common.ConnectionResult;
@@ -48,13 +44,14 @@ import com.google.android.gms.wearable.DataEventBuffer;
 import com.google.android.gms.wearable.DataItem;
 import com.google.android.gms.wearable.DataMap;
 import com.google.android.gms.wearable.DataMapItem;
+import com.google.android.gms.wearable.NodeApi;
 import com.google.android.gms.wearable.PutDataMapRequest;
 import com.google.android.gms.wearable.PutDataRequest;
 import com.google.android.gms.wearable.Wearable;
 
-import java.util.Calendar;
-import java.util.Locale;
 import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -62,9 +59,6 @@ import java.util.concurrent.TimeUnit;
  * low-bit ambient mode, the text is drawn without anti-aliasing in ambient mode.
  */
 public class SunshineWatchFaceService extends CanvasWatchFaceService {
-    private static final Typeface NORMAL_TYPEFACE =
-            Typeface.create(Typeface.SANS_SERIF, Typeface.NORMAL);
-
     private static final String LOG_TAG = SunshineWatchFaceService.class.getSimpleName();
 
     @Override
@@ -75,50 +69,17 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
     private class Engine extends CanvasWatchFaceService.Engine implements
             GoogleApiClient.ConnectionCallbacks, GoogleApiClient.OnConnectionFailedListener, DataApi.DataListener {
 
-        final int TEXT_SIZE_NOT_APPLICABLE = 0;
-        final int PAINT_TYPE_TEXT = 1;
-        final int PAINT_TYPE_BACKGROUND = 2;
-        final String TIME_FORMAT = "%02d:%02d";
-        final String DATE_FORMAT = "%s, %s %d, %d";
-        final String EXAMPLE_TIME_STRING = "12:00";
-        final String EXAMPLE_DATE_STRING = "WED, JUN 19, 2016";
-        // Load Resources that have alternate values for round watches.
-        Resources mResources = SunshineWatchFaceService.this.getResources();
-        Calendar mCalendar;
+        WatchFaceRenderer mRenderer;
+        ForecastStore mForecastStore;
+        // Asks the phone for the weather while there is none to show
+        WeatherRequestCoordinator mWeatherRequests;
+        ExecutorService mRequestExecutor;
         final BroadcastReceiver mTimeZoneReceiver = new BroadcastReceiver() {
             @Override
             public void onReceive(Context context, Intent intent) {
-                mCalendar.setTimeZone(TimeZone.getDefault());
-                mCalendar.setTimeInMillis(System.currentTimeMillis());
+                mRenderer.setTimeZone(TimeZone.getDefault());
             }
         };
-        Paint mBackgroundPaint;
-        Paint mTimeTextPaint;
-        Paint mDateTextPaint;
-        Paint mDividerTextPaint;
-        Paint mTempHighPaint;
-        Paint mTempLowPaint;
-        int mTapCount;
-        //Temperatures Text
-        String mTempHighStr;
-        String mTempLowStr;
-        int mWeatherId = 200;
-        //Temperatures Text Sizes
-        float mTempHighTextSize;
-        float mTempLowTextSize;
-        //OffSets
-        float mTimeXOffset;
-        float mTimeYOffset;
-        float mDateXOffset;
-        float mDateYOffset;
-        float mDividerXOffset;
-        float mDividerYOffset;
-        float mWeatherIconXOffset;
-        float mWeatherIconYOffset;
-        float mTempHighXOffset;
-        float mTempHighYOffset;
-        float mTempLowXOffset;
-        float mTempLowYOffset;
         /**
          * Whether the display supports fewer bits for each color in ambient mode. When true, we
          * disable anti-aliasing in ambient mode.
@@ -138,13 +99,28 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
                     .addOnConnectionFailedListener(this)
                     .addApi(Wearable.API)
                     .build();
-            initPaintObjects();
-            initXYOffsets();
-            mCalendar = Calendar.getInstance();
+            mRenderer = new WatchFaceRenderer(SunshineWatchFaceService.this.getResources());
+            mForecastStore = ForecastStore.getInstance(SunshineWatchFaceService.this);
+            mRenderer.setForecast(mForecastStore.getForecast());
+
+            Resources resources = getResources();
+            mRequestExecutor = Executors.newSingleThreadExecutor();
+            mWeatherRequests = new WeatherRequestCoordinator(new WeatherRequestCoordinator.Sender() {
+                @Override
+                public boolean send(long requestTime) {
+                    return writeWeatherUpdateReqDataFromWear(requestTime);
+                }
+            }, mRequestExecutor,
+                    resources.getInteger(R.integer.weather_request_initial_backoff_millis),
+                    resources.getInteger(R.integer.weather_request_max_backoff_millis),
+                    resources.getInteger(R.integer.weather_request_answer_timeout_millis));
         }
 
         @Override
         public void onDestroy() {
+            mRequestExecutor.shutdownNow();
+            Log.d(LOG_TAG, "Weather requests: " + mWeatherRequests);
+            mRenderer.release();
             super.onDestroy();
         }
 
@@ -157,8 +133,7 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
                 mGoogleApiClient.connect();
 
                 // Update time zone in case it changed while we weren't visible.
-                mCalendar.setTimeZone(TimeZone.getDefault());
-                mCalendar.setTimeInMillis(System.currentTimeMillis());
+                mRenderer.setTimeZone(TimeZone.getDefault());
             } else {
                 if (mGoogleApiClient != null && mGoogleApiClient.isConnected()) {
                     Wearable.DataApi.removeListener(mGoogleApiClient, this);
@@ -177,6 +152,7 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
         public void onPropertiesChanged(Bundle properties) {
             super.onPropertiesChanged(properties);
             mLowBitAmbient = properties.getBoolean(PROPERTY_LOW_BIT_AMBIENT, false);
+            mRenderer.setLowBitAmbient(mLowBitAmbient);
         }
 
         @Override
@@ -190,9 +166,7 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
             super.onAmbientModeChanged(inAmbientMode);
             if (mAmbient != inAmbientMode) {
                 mAmbient = inAmbientMode;
-                if (mLowBitAmbient) {
-                    mTimeTextPaint.setAntiAlias(!inAmbientMode);
-                }
+                mRenderer.setAmbient(inAmbientMode);
                 invalidate();
             }
         }
@@ -212,13 +186,7 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
                     break;
                 case TAP_TYPE_TAP:
                     // The user has completed the tap gesture.
-                    mTapCount++;
-                    mBackgroundPaint.setColor(
-                            getColorFromRes(mTapCount % 2 == 0 ?
-                                    R.color.primary_dark :
-                                    R.color.primary
-                            )
-                    );
+                    mRenderer.onTap();
                     break;
             }
             invalidate();
@@ -226,46 +194,12 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
 
         @Override
         public void onDraw(Canvas canvas, Rect bounds) {
-            Log.d(LOG_TAG, "Entering onDraw");
-
-            // Set current time in calendar
-            mCalendar.setTimeInMillis(System.currentTimeMillis());
-
-            drawBackground(canvas, bounds);
-            drawTimeText(canvas, bounds);
-            drawDateText(canvas, bounds);
-            drawDivider(canvas, bounds);
-
-            String weatherStr = SunshineUtility.getWeatherId(getApplicationContext());
-            mTempHighStr = SunshineUtility.getHighTemp(getApplicationContext());
-            mTempLowStr = SunshineUtility.getLowTemp(getApplicationContext());
-
-            if (!(weatherStr == null || weatherStr.equals("")) &&
-                    !(mTempHighStr == null || mTempHighStr.equals("")) &&
-                    !(mTempLowStr == null || mTempLowStr.equals(""))) {
-
-                Log.d(LOG_TAG, "Before Formatting : WeatherId - " + weatherStr + " High Temp - " + mTempHighStr + " Low Temp - " + mTempLowStr);
-
-                mWeatherId = Integer.parseInt(weatherStr);
-
-                mTempHighStr = String.format(mResources.getString(R.string.format_temperature),
-                        Float.parseFloat(mTempHighStr));
-
-                mTempLowStr = String.format(mResources.getString(R.string.format_temperature),
-                        Float.parseFloat(mTempLowStr));
-
-                Log.d(LOG_TAG, "After Formatting : WeatherId - " + mWeatherId + " High Temp - " + mTempHighStr + " Low Temp - " + mTempLowStr);
-                mTempHighTextSize = mTempHighPaint.measureText(mTempHighStr);
-                mTempLowTextSize = mTempLowPaint.measureText(mTempLowStr);
-
-                drawIconBitmap(canvas, bounds);
-                drawHighTemperature(canvas, bounds);
-                drawLowTemperature(canvas, bounds);
-            } else {
-                requestWeatherUpdateFromApp();
+            // Runs on every tick, everything it needs is already parsed and laid out
+            mRenderer.draw(canvas, bounds, System.currentTimeMillis());
+            if (!mRenderer.hasWeather()) {
+                // Nothing received yet, or the stored forecast ran out
+                mWeatherRequests.requestIfNeeded(SystemClock.elapsedRealtime());
             }
-
-            Log.d(LOG_TAG, "Exiting onDraw!");
         }
 
         private WatchFaceStyle getWatchFaceStyle() {
@@ -295,200 +229,6 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
             SunshineWatchFaceService.this.unregisterReceiver(mTimeZoneReceiver);
         }
 
-        private void initPaintObjects() {
-            Log.d(LOG_TAG, "Entering initPaintObjects!");
-            mBackgroundPaint = getPaintObject(PAINT_TYPE_BACKGROUND, R.color.primary_dark, TEXT_SIZE_NOT_APPLICABLE);
-
-            mTimeTextPaint = getPaintObject(PAINT_TYPE_TEXT, R.color.accent_watch_face_dark, R.dimen.time_text_size);
-            mDateTextPaint = getPaintObject(PAINT_TYPE_TEXT, R.color.accent_watch_face_light, R.dimen.date_text_size);
-
-            mDividerTextPaint = getPaintObject(PAINT_TYPE_TEXT, R.color.accent_watch_face_light, R.dimen.divider_line_size);
-
-            mTempHighPaint = getPaintObject(PAINT_TYPE_TEXT, R.color.accent_watch_face_dark, R.dimen.temp_text_size);
-            mTempLowPaint = getPaintObject(PAINT_TYPE_TEXT, R.color.accent_watch_face_light, R.dimen.temp_text_size);
-            Log.d(LOG_TAG, "Exiting initPaintObjects!");
-        }
-
-        private void initXYOffsets() {
-            Log.d(LOG_TAG, "Entering initXYOffsets!");
-            //mTimeXOffset = getDimensionFromRes(R.dimen.time_y_offset);
-            mTimeXOffset = mTimeTextPaint.measureText(EXAMPLE_TIME_STRING) / 2;
-            mTimeYOffset = getDimensionFromRes(R.dimen.time_y_offset);
-
-            //mDateXOffset = getDimensionFromRes(R.dimen.date_y_offset);
-            mDateXOffset = mDateTextPaint.measureText(EXAMPLE_DATE_STRING) / 2;
-            mDateYOffset = getDimensionFromRes(R.dimen.date_y_offset);
-
-            mDividerXOffset = getDimensionFromRes(R.dimen.divider_x_offset);
-            mDividerYOffset = getDimensionFromRes(R.dimen.divider_y_offset);
-
-            mWeatherIconXOffset = getDimensionFromRes(R.dimen.weather_icon_y_offset);
-            mWeatherIconYOffset = getDimensionFromRes(R.dimen.weather_icon_y_offset);
-
-            mTempHighXOffset = getDimensionFromRes(R.dimen.temp_high_x_offset);
-            mTempHighYOffset = getDimensionFromRes(R.dimen.temp_high_y_offset);
-
-            mTempLowXOffset = getDimensionFromRes(R.dimen.temp_low_x_offset);
-            mTempLowYOffset = getDimensionFromRes(R.dimen.temp_low_y_offset);
-            Log.d(LOG_TAG, "Exiting initXYOffsets!");
-        }
-
-        private Paint getPaintObject(int paintType, int textColorResId, int textSizeResId) {
-            Paint paint = new Paint();
-
-            switch (paintType) {
-                case PAINT_TYPE_TEXT:
-                    paint.setTextSize(getDimensionFromRes(textSizeResId));
-                    paint.setTypeface(NORMAL_TYPEFACE);
-                    paint.setAntiAlias(true);
-                    break;
-                case PAINT_TYPE_BACKGROUND:
-                    break;
-            }
-
-            paint.setColor(getColorFromRes(textColorResId));
-            return paint;
-        }
-
-        private float getDimensionFromRes(int dimensionResId) {
-            return mResources.getDimension(dimensionResId);
-        }
-
-        private int getColorFromRes(int colorResId) {
-            return mResources.getColor(colorResId);
-        }
-
-        private Drawable getDrawableFromRes(int drawableResId) {
-            return mResources.getDrawable(drawableResId);
-        }
-
-        private Bitmap getIconBitmap() {
-            return ((BitmapDrawable) getDrawableFromRes(
-                    SunshineUtility.getIconResourceForWeatherCondition(mWeatherId))
-            ).getBitmap();
-        }
-
-        private void rePaintUIObjects() {
-            Log.d(LOG_TAG, "Entering rePaintUIObjects!");
-            int color = getColorFromRes(isInAmbientMode() || (mTapCount % 2 != 0) ?
-                    R.color.accent_watch_face_dark :
-                    R.color.accent_watch_face_light
-            );
-            mDateTextPaint.setColor(color);
-            mDividerTextPaint.setColor(color);
-            mTempLowPaint.setColor(color);
-            Log.d(LOG_TAG, "Exiting rePaintUIObjects!");
-        }
-
-        private void drawBackground(Canvas canvas, Rect bounds) {
-            Log.d(LOG_TAG, "Entering drawBackground!");
-            rePaintUIObjects();
-
-            if (isInAmbientMode()) {
-                canvas.drawColor(getColorFromRes(R.color.ambient_primary_dark));
-            } else {
-                canvas.drawRect(0, 0, bounds.width(), bounds.height(), mBackgroundPaint);
-            }
-            Log.d(LOG_TAG, "Exiting drawBackground!");
-        }
-
-        private void drawTimeText(Canvas canvas, Rect bounds) {
-            Log.d(LOG_TAG, "Entering drawTimeText!");
-            int hourOfDay = mCalendar.get(Calendar.HOUR_OF_DAY);
-            int minuteOfDay = mCalendar.get(Calendar.MINUTE);
-            String timeString = String.format(TIME_FORMAT, hourOfDay, minuteOfDay);
-
-            canvas.drawText(timeString,
-                    bounds.centerX() - mTimeXOffset,
-                    mTimeYOffset,
-                    mTimeTextPaint
-            );
-            Log.d(LOG_TAG, "Exiting drawTimeText!");
-        }
-
-        private void drawDateText(Canvas canvas, Rect bounds) {
-            Log.d(LOG_TAG, "Entering drawTimeText!");
-            int dayOfMonth = mCalendar.get(Calendar.DAY_OF_MONTH);
-            String dayName = mCalendar.getDisplayName(Calendar.DAY_OF_WEEK, Calendar.SHORT, Locale.getDefault());
-            String monthName = mCalendar.getDisplayName(Calendar.MONTH, Calendar.SHORT, Locale.getDefault());
-            int year = mCalendar.get(Calendar.YEAR);
-            String dateString = String.format(DATE_FORMAT, dayName.toUpperCase(), monthName.toUpperCase(), dayOfMonth, year);
-
-            canvas.drawText(dateString,
-                    bounds.centerX() - mDateXOffset,
-                    mDateYOffset,
-                    mDateTextPaint
-            );
-            Log.d(LOG_TAG, "Exiting drawTimeText!");
-        }
-
-        private void drawDivider(Canvas canvas, Rect bounds) {
-            Log.d(LOG_TAG, "Entering drawDivider!");
-            canvas.drawLine(
-                    bounds.centerX() - mDividerXOffset, mDividerYOffset,
-                    bounds.centerX() + mDividerXOffset, mDividerYOffset,
-                    mDividerTextPaint);
-            Log.d(LOG_TAG, "Exiting drawDivider!");
-        }
-
-        private void drawIconBitmap(Canvas canvas, Rect bounds) {
-            if (!isInAmbientMode()) {
-                Log.d(LOG_TAG, "Entering drawIconBitmap!");
-
-                Bitmap iconBitmap = getIconBitmap();
-                float scaledWidth = (mTempHighPaint.getTextSize() / iconBitmap.getHeight()) * iconBitmap.getWidth();
-                Bitmap weatherIcon = Bitmap.createScaledBitmap(
-                        iconBitmap,
-                        (int) scaledWidth,
-                        (int) mTempHighPaint.getTextSize(),
-                        true);
-                mWeatherIconXOffset = bounds.centerX() - ((mTempHighTextSize / 2) + weatherIcon.getWidth() + 30);
-
-                canvas.drawBitmap(weatherIcon,
-                        mWeatherIconXOffset,
-                        mWeatherIconYOffset - weatherIcon.getHeight(),
-                        null
-                );
-                Log.d(LOG_TAG, "Entering drawIconBitmap!");
-            }
-        }
-
-        private void drawHighTemperature(Canvas canvas, Rect bounds) {
-            Log.d(LOG_TAG, "Entering drawHighTemperature!");
-            float highTempBaseOffset;
-            if (isInAmbientMode()) {
-                highTempBaseOffset = (mTempHighTextSize + mTempLowTextSize + 20);
-            } else {
-                highTempBaseOffset = mTempHighTextSize;
-            }
-            mTempHighXOffset = bounds.centerX() - (highTempBaseOffset / 2);
-
-            canvas.drawText(mTempHighStr,
-                    mTempHighXOffset,
-                    mTempHighYOffset,
-                    mTempHighPaint
-            );
-            Log.d(LOG_TAG, "Exiting drawHighTemperature!");
-        }
-
-        private void drawLowTemperature(Canvas canvas, Rect bounds) {
-            Log.d(LOG_TAG, "Entering drawLowTemperature!");
-            float lowTempBaseOffset;
-            if (isInAmbientMode()) {
-                lowTempBaseOffset = bounds.centerX() - (mTempLowTextSize / 2) + 10;
-            } else {
-                lowTempBaseOffset = bounds.centerX() + 20;
-            }
-            mTempLowXOffset = lowTempBaseOffset + (mTempHighTextSize / 2);
-
-            canvas.drawText(mTempLowStr,
-                    mTempLowXOffset,
-                    mTempLowYOffset,
-                    mTempLowPaint
-            );
-            Log.d(LOG_TAG, "Exiting drawLowTemperature!");
-        }
-
         @Override
         public void onConnected(@Nullable Bundle bundle) {
             Log.d(LOG_TAG, "onConnected!");
@@ -519,47 +259,56 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
             SunshineUtility.setAppConnReq(getApplicationContext(), false);
         }
 
-        private void requestWeatherUpdateFromApp() {
-            Log.d(LOG_TAG, "requestWeatherUpdateFromApp!");
-            new AsyncTask<Void, Void, Void>() {
-                @Override
-                protected Void doInBackground(Void... params) {
-                    ConnectionResult connectionResult = mGoogleApiClient.blockingConnect(30, TimeUnit.SECONDS);
-                    if (connectionResult.isSuccess()) {
-                        SunshineUtility.setAppConnReq(getApplicationContext(), true);
-                        writeWeatherUpdateReqDataFromWear();
-                    }
-                    return null;
-                }
-            };
-        }
+        /**
+         * Runs on the request executor.
+         *
+         * @return false if the phone could not be reached.
+         */
+        private boolean writeWeatherUpdateReqDataFromWear(long requestTime) {
+            Log.d(LOG_TAG, "writeWeatherUpdateReqDataFromWear!");
+            ConnectionResult connectionResult = mGoogleApiClient.blockingConnect(30, TimeUnit.SECONDS);
+            if (!connectionResult.isSuccess()) {
+                return false;
+            }
+            SunshineUtility.setAppConnReq(getApplicationContext(), true);
+            NodeApi.GetConnectedNodesResult nodes = Wearable.NodeApi
+                    .getConnectedNodes(mGoogleApiClient).await(30, TimeUnit.SECONDS);
+            if (!nodes.getStatus().isSuccess() || nodes.getNodes().isEmpty()) {
+                Log.d(LOG_TAG, "writeWeatherUpdateReqDataFromWear : Phone not reachable!");
+                return false;
+            }
 
-        private void writeWeatherUpdateReqDataFromWear() {
             PutDataMapRequest putDataMapRequest = PutDataMapRequest.create(SunshineConstants.WEATHER_INFO_REQ_PATH);
+            // A data item that does not change is not delivered again
+            putDataMapRequest.getDataMap().putLong(SunshineConstants.KEY_REQUEST_TIME, requestTime);
+            PutDataRequest putDataRequest = putDataMapRequest.asPutDataRequest().setUrgent();
+            boolean sent = Wearable.DataApi.putDataItem(mGoogleApiClient, putDataRequest)
+                    .await(30, TimeUnit.SECONDS).getStatus().isSuccess();
 
-            PutDataRequest putDataRequest = putDataMapRequest.asPutDataRequest();
-            Wearable.DataApi.putDataItem(mGoogleApiClient, putDataRequest);
-
-            Log.d(LOG_TAG, "writeWeatherUpdateReqDataFromWear : Weather Data Requested Successfully!");
+            Log.d(LOG_TAG, "writeWeatherUpdateReqDataFromWear : Weather Data Requested, " + sent);
+            return sent;
         }
 
         private void readWeatherDataInWear(DataItem dataItem) {
             DataMap dataMap = DataMapItem.fromDataItem(dataItem).getDataMap();
+            ForecastCodec.Days days;
+            try {
+                days = ForecastCodec.decode(dataMap.getByteArray(SunshineConstants.KEY_FORECAST));
+            } catch (IllegalArgumentException e) {
+                Log.e(LOG_TAG, "readWeatherDataInWear : Unreadable forecast received!", e);
+                return;
+            }
 
-            SunshineUtility.setAllWeatherValues(getApplicationContext(),
-                    dataMap.getString(SunshineConstants.KEY_WEATHER_ID),
-                    dataMap.getString(SunshineConstants.KEY_HIGH_TEMP),
-                    dataMap.getString(SunshineConstants.KEY_LOW_TEMP)
-            );
-
-            Log.d(LOG_TAG,
-                    "\nWeatherId : " + SunshineUtility.getWeatherId(getApplicationContext()) +
-                            "\nHighTemp  : " + SunshineUtility.getHighTemp(getApplicationContext()) +
-                            "\nLowTemp   : " + SunshineUtility.getLowTemp(getApplicationContext())
-            );
+            ForecastStore.Forecast forecast = new ForecastStore.Forecast(days.epochDays,
+                    days.weatherIds, days.highs, days.lows);
+            mForecastStore.update(forecast);
+            mRenderer.setForecast(forecast);
+            mWeatherRequests.onAnswered();
 
             SunshineUtility.setAppConnReq(getApplicationContext(), false);
-            Log.d(LOG_TAG, "readWeatherDataInWear : Weather Data Requested Successfully!");
+            Log.d(LOG_TAG, "readWeatherDataInWear : " + days.size() + " days received in "
+                    + dataItem.getData().length + " bytes, last stored in "
+                    + mForecastStore.getLastWriteMillis() + " ms");
             invalidate();
         }
     }
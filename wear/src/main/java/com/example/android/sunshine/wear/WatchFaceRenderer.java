@@ -0,0 +1,407 @@
+package com.example.android.sunshine.wear;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.Typeface;
+import android.graphics.drawable.BitmapDrawable;
+import android.util.LongSparseArray;
+
+import com.example.android.sunshine.lib.SunshineUtility;
+
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Draws the Sunshine watch face.
+ *
+ * {@link #draw} runs on every tick, so it allocates nothing: the weather is parsed and its
+ * temperatures formatted and measured when it changes, the date when the day changes, the time
+ * goes into a reused char buffer, and positions are only worked out again when the bounds,
+ * the weather or the mode change.  Scaled weather icons are kept per icon and size.
+ *
+ * Given a {@link ForecastStore.Forecast}, the weather shown follows the date, so the face moves
+ * on to the next day's forecast at midnight by itself.
+ *
+ * Everything but the time changes a few times a day at most, so it is drawn once into an
+ * off-screen layer, one for each of interactive mode (per tap color), ambient and low-bit
+ * ambient.  A frame copies the layer and draws the time on top.  The layers are drawn again
+ * when the weather, the date, the time zone or the bounds change.
+ */
+class WatchFaceRenderer {
+    private static final Typeface NORMAL_TYPEFACE =
+            Typeface.create(Typeface.SANS_SERIF, Typeface.NORMAL);
+
+    private static final String DATE_FORMAT = "%s, %s %d, %d";
+    private static final String EXAMPLE_TIME_STRING = "12:00";
+    private static final String EXAMPLE_DATE_STRING = "WED, JUN 19, 2016";
+    // Gaps between the icon, the high and the low temperature
+    private static final float ICON_GAP = 30;
+    private static final float AMBIENT_TEMP_GAP = 20;
+    private static final float TEMP_GAP = 20;
+
+    private static final int LAYER_INTERACTIVE = 0;
+    private static final int LAYER_INTERACTIVE_TAPPED = 1;
+    private static final int LAYER_AMBIENT = 2;
+    private static final int LAYER_LOW_BIT_AMBIENT = 3;
+    private static final int LAYER_COUNT = 4;
+
+    private final Resources mResources;
+    private final Calendar mCalendar = Calendar.getInstance();
+
+    private final Paint mBackgroundPaint;
+    private final Paint mTimeTextPaint;
+    private final Paint mDateTextPaint;
+    private final Paint mDividerPaint;
+    private final Paint mTempHighPaint;
+    private final Paint mTempLowPaint;
+    private final int mAmbientBackgroundColor;
+
+    // Offsets from the resources, which have alternate values for round watches
+    private final float mTimeXOffset;
+    private final float mTimeYOffset;
+    private final float mDateXOffset;
+    private final float mDateYOffset;
+    private final float mDividerXOffset;
+    private final float mDividerYOffset;
+    private final float mWeatherIconYOffset;
+    private final float mTempYOffset;
+
+    private boolean mAmbient;
+    private boolean mLowBitAmbient;
+    private int mTapCount;
+
+    // "HH:MM"
+    private final char[] mTimeText = new char[5];
+
+    // The day the date text was built for, as year * 1000 + day of year
+    private int mDateKey = -1;
+    private String mDateText;
+
+    private ForecastStore.Forecast mForecast;
+    private boolean mHasWeather;
+    private int mWeatherId;
+    private String mTempHighText;
+    private String mTempLowText;
+    private float mTempHighWidth;
+    private float mTempLowWidth;
+    private Bitmap mWeatherIcon;
+    private final LongSparseArray<Bitmap> mIconCache = new LongSparseArray<Bitmap>();
+
+    // Positions for the current bounds, weather and mode
+    private boolean mLayoutValid;
+    private int mLayoutCenterX;
+    private float mIconX;
+    private float mIconY;
+    private float mTempHighX;
+    private float mTempLowX;
+
+    private boolean mLayersEnabled = true;
+    private final Bitmap[] mLayers = new Bitmap[LAYER_COUNT];
+    // What the static content looked like when each layer was drawn, compared to mContentVersion
+    private final int[] mLayerVersions = new int[LAYER_COUNT];
+    private int mContentVersion = 1;
+
+    WatchFaceRenderer(Resources resources) {
+        mResources = resources;
+
+        mBackgroundPaint = new Paint();
+        mBackgroundPaint.setColor(resources.getColor(R.color.primary_dark));
+        mAmbientBackgroundColor = resources.getColor(R.color.ambient_primary_dark);
+
+        mTimeTextPaint = createTextPaint(R.color.accent_watch_face_dark, R.dimen.time_text_size);
+        mDateTextPaint = createTextPaint(R.color.accent_watch_face_light, R.dimen.date_text_size);
+        mDividerPaint = createTextPaint(R.color.accent_watch_face_light, R.dimen.divider_line_size);
+        mTempHighPaint = createTextPaint(R.color.accent_watch_face_dark, R.dimen.temp_text_size);
+        mTempLowPaint = createTextPaint(R.color.accent_watch_face_light, R.dimen.temp_text_size);
+
+        mTimeXOffset = mTimeTextPaint.measureText(EXAMPLE_TIME_STRING) / 2;
+        mTimeYOffset = resources.getDimension(R.dimen.time_y_offset);
+        mDateXOffset = mDateTextPaint.measureText(EXAMPLE_DATE_STRING) / 2;
+        mDateYOffset = resources.getDimension(R.dimen.date_y_offset);
+        mDividerXOffset = resources.getDimension(R.dimen.divider_x_offset);
+        mDividerYOffset = resources.getDimension(R.dimen.divider_y_offset);
+        mWeatherIconYOffset = resources.getDimension(R.dimen.weather_icon_y_offset);
+        mTempYOffset = resources.getDimension(R.dimen.temp_high_y_offset);
+        updateColors();
+    }
+
+    private Paint createTextPaint(int colorResId, int textSizeResId) {
+        Paint paint = new Paint();
+        paint.setTextSize(mResources.getDimension(textSizeResId));
+        paint.setTypeface(NORMAL_TYPEFACE);
+        paint.setAntiAlias(true);
+        paint.setColor(mResources.getColor(colorResId));
+        return paint;
+    }
+
+    void setTimeZone(TimeZone timeZone) {
+        mCalendar.setTimeZone(timeZone);
+        mDateKey = -1;
+        mContentVersion++;
+    }
+
+    /**
+     * Draws everything on every frame when false, which is only useful to measure what the
+     * layers save.
+     */
+    void setLayersEnabled(boolean layersEnabled) {
+        mLayersEnabled = layersEnabled;
+        if (!layersEnabled) {
+            release();
+        }
+    }
+
+    /**
+     * Frees the layers, they are drawn again when next needed.
+     */
+    void release() {
+        for (int layer = 0; layer < LAYER_COUNT; layer++) {
+            if (mLayers[layer] != null) {
+                mLayers[layer].recycle();
+                mLayers[layer] = null;
+            }
+        }
+    }
+
+    void setLowBitAmbient(boolean lowBitAmbient) {
+        mLowBitAmbient = lowBitAmbient;
+    }
+
+    void setAmbient(boolean ambient) {
+        mAmbient = ambient;
+        if (mLowBitAmbient) {
+            mTimeTextPaint.setAntiAlias(!ambient);
+        }
+        updateColors();
+        mLayoutValid = false;
+    }
+
+    /**
+     * Toggles the background color, as a completed tap does.
+     */
+    void onTap() {
+        mTapCount++;
+        mBackgroundPaint.setColor(mResources.getColor(
+                mTapCount % 2 == 0 ? R.color.primary_dark : R.color.primary));
+        updateColors();
+    }
+
+    /**
+     * @return true if the weather differs from what was shown so far.
+     */
+    boolean setWeather(int weatherId, double high, double low) {
+        String format = mResources.getString(R.string.format_temperature);
+        String highText = String.format(format, high);
+        String lowText = String.format(format, low);
+        if (mHasWeather && weatherId == mWeatherId
+                && highText.equals(mTempHighText) && lowText.equals(mTempLowText)) {
+            return false;
+        }
+        mHasWeather = true;
+        mWeatherId = weatherId;
+        mTempHighText = highText;
+        mTempLowText = lowText;
+        mTempHighWidth = mTempHighPaint.measureText(highText);
+        mTempLowWidth = mTempLowPaint.measureText(lowText);
+        mWeatherIcon = getScaledIcon(SunshineUtility.getIconResourceForWeatherCondition(weatherId),
+                (int) mTempHighPaint.getTextSize());
+        mLayoutValid = false;
+        mContentVersion++;
+        return true;
+    }
+
+    /**
+     * Shows the weather the forecast has for the date drawn, from now on.
+     */
+    void setForecast(ForecastStore.Forecast forecast) {
+        mForecast = forecast;
+        showForecastDay();
+    }
+
+    private void showForecastDay() {
+        if (mForecast == null || mDateKey == -1) {
+            // Picked once the first frame sets the date
+            return;
+        }
+        int day = mForecast.indexOf(ForecastStore.getEpochDay(mCalendar));
+        if (day >= 0) {
+            setWeather(mForecast.getWeatherId(day), mForecast.getHigh(day), mForecast.getLow(day));
+        } else {
+            clearWeather();
+        }
+    }
+
+    void clearWeather() {
+        if (!mHasWeather) {
+            return;
+        }
+        mHasWeather = false;
+        mWeatherIcon = null;
+        mLayoutValid = false;
+        mContentVersion++;
+    }
+
+    boolean hasWeather() {
+        return mHasWeather;
+    }
+
+    /**
+     * @return the weather id shown, only meaningful when {@link #hasWeather()}.
+     */
+    int getWeatherId() {
+        return mWeatherId;
+    }
+
+    /**
+     * @return the icon scaled to the given height, or null if the weather has no icon.
+     */
+    private Bitmap getScaledIcon(int iconResId, int height) {
+        if (iconResId == -1 || height <= 0) {
+            return null;
+        }
+        long key = ((long) iconResId << 32) | height;
+        Bitmap icon = mIconCache.get(key);
+        if (icon == null) {
+            Bitmap source = ((BitmapDrawable) mResources.getDrawable(iconResId)).getBitmap();
+            int width = (int) (((float) height / source.getHeight()) * source.getWidth());
+            icon = Bitmap.createScaledBitmap(source, width, height, true);
+            mIconCache.put(key, icon);
+        }
+        return icon;
+    }
+
+    private void updateColors() {
+        int color = mResources.getColor(mAmbient || (mTapCount % 2 != 0) ?
+                R.color.accent_watch_face_dark :
+                R.color.accent_watch_face_light
+        );
+        mDateTextPaint.setColor(color);
+        mDividerPaint.setColor(color);
+        mTempLowPaint.setColor(color);
+    }
+
+    void draw(Canvas canvas, Rect bounds, long timeMillis) {
+        mCalendar.setTimeInMillis(timeMillis);
+        updateTimeText();
+        updateDateText();
+        if (!mLayoutValid || mLayoutCenterX != bounds.centerX()) {
+            layout(bounds.centerX());
+        }
+
+        if (mLayersEnabled) {
+            canvas.drawBitmap(getLayer(bounds), 0, 0, null);
+        } else {
+            drawStaticContent(canvas, bounds);
+        }
+        canvas.drawText(mTimeText, 0, mTimeText.length, mLayoutCenterX - mTimeXOffset,
+                mTimeYOffset, mTimeTextPaint);
+    }
+
+    /**
+     * @return the layer of the current mode, drawn again first if it is out of date.
+     */
+    private Bitmap getLayer(Rect bounds) {
+        int layer;
+        if (mAmbient) {
+            layer = mLowBitAmbient ? LAYER_LOW_BIT_AMBIENT : LAYER_AMBIENT;
+        } else {
+            layer = mTapCount % 2 == 0 ? LAYER_INTERACTIVE : LAYER_INTERACTIVE_TAPPED;
+        }
+        Bitmap bitmap = mLayers[layer];
+        if (bitmap != null && (bitmap.getWidth() != bounds.width()
+                || bitmap.getHeight() != bounds.height())) {
+            // New bounds, every layer is out of date
+            release();
+            bitmap = null;
+        }
+        if (bitmap == null) {
+            bitmap = Bitmap.createBitmap(bounds.width(), bounds.height(), Bitmap.Config.ARGB_8888);
+            mLayers[layer] = bitmap;
+            mLayerVersions[layer] = 0;
+        }
+        if (mLayerVersions[layer] != mContentVersion) {
+            drawStaticContent(new Canvas(bitmap), bounds);
+            mLayerVersions[layer] = mContentVersion;
+        }
+        return bitmap;
+    }
+
+    /**
+     * Draws everything but the time.
+     */
+    private void drawStaticContent(Canvas canvas, Rect bounds) {
+        int centerX = mLayoutCenterX;
+        boolean antiAlias = !(mAmbient && mLowBitAmbient);
+        mDateTextPaint.setAntiAlias(antiAlias);
+        mTempHighPaint.setAntiAlias(antiAlias);
+        mTempLowPaint.setAntiAlias(antiAlias);
+
+        if (mAmbient) {
+            canvas.drawColor(mAmbientBackgroundColor);
+        } else {
+            canvas.drawRect(0, 0, bounds.width(), bounds.height(), mBackgroundPaint);
+        }
+        canvas.drawText(mDateText, centerX - mDateXOffset, mDateYOffset, mDateTextPaint);
+        canvas.drawLine(centerX - mDividerXOffset, mDividerYOffset,
+                centerX + mDividerXOffset, mDividerYOffset, mDividerPaint);
+
+        if (mHasWeather) {
+            if (!mAmbient && mWeatherIcon != null) {
+                canvas.drawBitmap(mWeatherIcon, mIconX, mIconY, null);
+            }
+            canvas.drawText(mTempHighText, mTempHighX, mTempYOffset, mTempHighPaint);
+            canvas.drawText(mTempLowText, mTempLowX, mTempYOffset, mTempLowPaint);
+        }
+    }
+
+    private void layout(int centerX) {
+        if (centerX != mLayoutCenterX) {
+            mLayoutCenterX = centerX;
+            mContentVersion++;
+        }
+        if (mHasWeather) {
+            if (mWeatherIcon != null) {
+                mIconX = centerX - ((mTempHighWidth / 2) + mWeatherIcon.getWidth() + ICON_GAP);
+                mIconY = mWeatherIconYOffset - mWeatherIcon.getHeight();
+            }
+            if (mAmbient) {
+                mTempHighX = centerX - (mTempHighWidth + mTempLowWidth + AMBIENT_TEMP_GAP) / 2;
+                mTempLowX = centerX - (mTempLowWidth / 2) + AMBIENT_TEMP_GAP / 2
+                        + (mTempHighWidth / 2);
+            } else {
+                mTempHighX = centerX - (mTempHighWidth / 2);
+                mTempLowX = centerX + TEMP_GAP + (mTempHighWidth / 2);
+            }
+        }
+        mLayoutValid = true;
+    }
+
+    private void updateTimeText() {
+        int hour = mCalendar.get(Calendar.HOUR_OF_DAY);
+        int minute = mCalendar.get(Calendar.MINUTE);
+        mTimeText[0] = (char) ('0' + hour / 10);
+        mTimeText[1] = (char) ('0' + hour % 10);
+        mTimeText[2] = ':';
+        mTimeText[3] = (char) ('0' + minute / 10);
+        mTimeText[4] = (char) ('0' + minute % 10);
+    }
+
+    private void updateDateText() {
+        int dateKey = mCalendar.get(Calendar.YEAR) * 1000 + mCalendar.get(Calendar.DAY_OF_YEAR);
+        if (dateKey == mDateKey) {
+            return;
+        }
+        mDateKey = dateKey;
+        mContentVersion++;
+        Locale locale = Locale.getDefault();
+        String dayName = mCalendar.getDisplayName(Calendar.DAY_OF_WEEK, Calendar.SHORT, locale);
+        String monthName = mCalendar.getDisplayName(Calendar.MONTH, Calendar.SHORT, locale);
+        mDateText = String.format(DATE_FORMAT, dayName.toUpperCase(), monthName.toUpperCase(),
+                mCalendar.get(Calendar.DAY_OF_MONTH), mCalendar.get(Calendar.YEAR));
+        showForecastDay();
+    }
+}
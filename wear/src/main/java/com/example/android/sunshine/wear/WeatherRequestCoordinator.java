@@ -0,0 +1,148 @@
+package com.example.android.sunshine.wear;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Asks the phone for the weather on behalf of the watch face, which wants it on every frame
+ * until it arrives.
+ *
+ * At most one request is outstanding at a time.  A request the phone never received, or never
+ * answered within the answer timeout, is retried after a delay that doubles with each failure,
+ * up to a maximum, and starts over once the phone answers.  Times are on one monotonic clock,
+ * such as {@link android.os.SystemClock#elapsedRealtime()}.
+ */
+class WeatherRequestCoordinator {
+
+    /**
+     * Sends one request to the phone.  Called on the coordinator's executor, so it may block.
+     */
+    interface Sender {
+        /**
+         * @param requestTime a value that differs for every request, so that the phone sees it
+         *                    as a change.
+         * @return true if the phone received the request, false if it could not be reached.
+         */
+        boolean send(long requestTime);
+    }
+
+    private final Sender mSender;
+    private final Executor mExecutor;
+    private final long mInitialBackoffMillis;
+    private final long mMaxBackoffMillis;
+    private final long mAnswerTimeoutMillis;
+
+    private boolean mOutstanding;
+    private long mIssuedAt;
+    private long mNextAttemptAt;
+    private long mBackoffMillis;
+    private long mLastRequestTime;
+
+    private int mIssued;
+    private int mSuppressed;
+    private int mAnswered;
+    private int mFailed;
+
+    WeatherRequestCoordinator(Sender sender, Executor executor, long initialBackoffMillis,
+                              long maxBackoffMillis, long answerTimeoutMillis) {
+        mSender = sender;
+        mExecutor = executor;
+        mInitialBackoffMillis = initialBackoffMillis;
+        mMaxBackoffMillis = maxBackoffMillis;
+        mAnswerTimeoutMillis = answerTimeoutMillis;
+        mBackoffMillis = initialBackoffMillis;
+    }
+
+    /**
+     * Sends a request unless one is outstanding or the last one failed too recently.
+     *
+     * @return true if a request was sent.
+     */
+    synchronized boolean requestIfNeeded(long now) {
+        if (mOutstanding && now - mIssuedAt >= mAnswerTimeoutMillis) {
+            // Received, perhaps, but never answered
+            fail(now);
+        }
+        if (mOutstanding || now < mNextAttemptAt) {
+            mSuppressed++;
+            return false;
+        }
+
+        mOutstanding = true;
+        mIssuedAt = now;
+        mIssued++;
+        // Wall clock time, the phone only needs it to differ from the last request
+        final long requestTime = Math.max(System.currentTimeMillis(), mLastRequestTime + 1);
+        mLastRequestTime = requestTime;
+        final long issuedAt = now;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!mSender.send(requestTime)) {
+                    onSendFailed(issuedAt);
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Called when the weather arrives from the phone, whether or not it was asked for.
+     */
+    synchronized void onAnswered() {
+        if (mOutstanding) {
+            mAnswered++;
+        }
+        mOutstanding = false;
+        mNextAttemptAt = 0;
+        mBackoffMillis = mInitialBackoffMillis;
+    }
+
+    private synchronized void onSendFailed(long issuedAt) {
+        // Ignore a late failure of a request that already timed out.  Sending takes little time
+        // next to the backoff, so count it from when the request was issued.
+        if (mOutstanding && mIssuedAt == issuedAt) {
+            fail(issuedAt);
+        }
+    }
+
+    private void fail(long failedAt) {
+        mOutstanding = false;
+        mFailed++;
+        mNextAttemptAt = failedAt + mBackoffMillis;
+        mBackoffMillis = Math.min(mBackoffMillis * 2, mMaxBackoffMillis);
+    }
+
+    /**
+     * @return the number of requests sent to the phone.
+     */
+    synchronized int getIssuedCount() {
+        return mIssued;
+    }
+
+    /**
+     * @return the number of times a request was wanted but not sent.
+     */
+    synchronized int getSuppressedCount() {
+        return mSuppressed;
+    }
+
+    /**
+     * @return the number of requests the phone answered.
+     */
+    synchronized int getAnsweredCount() {
+        return mAnswered;
+    }
+
+    /**
+     * @return the number of requests that did not reach the phone or were not answered in time.
+     */
+    synchronized int getFailedCount() {
+        return mFailed;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "issued " + mIssued + ", suppressed " + mSuppressed + ", answered " + mAnswered
+                + ", failed " + mFailed + ", next backoff " + mBackoffMillis + " ms";
+    }
+}